@@ -15,6 +15,7 @@ import eu.europeana.crfmigration.domain.MigratorConfig;
 import eu.europeana.crfmigration.logic.MigrationManager;
 import eu.europeana.crfmigration.logic.MigrationMetrics;
 import eu.europeana.harvester.domain.MongoConfig;
+import eu.europeana.jobcreator.JobCreator;
 import org.joda.time.DateTime;
 import org.slf4j.LoggerFactory;
 
@@ -48,6 +49,9 @@ public class Migrator {
 
         final MigratorConfig migrationConfig = new MigratorConfig(config.getSourceMongoConfig(), config.getTargetMongoConfig(), graphiteReporterConfig, config.getBatch(),config.getDateFilter());
 
+        // The hit rate & the duration of the lookups of the IPs of the urls
+        MigrationMetrics.METRIC_REGISTRY.registerAll(JobCreator.URL_RESOLVER.getMetricRegistry());
+
         // Prepare the graphite reporter
         final Graphite graphite = new Graphite(new InetSocketAddress(graphiteReporterConfig.getGraphiteServer(),
                 graphiteReporterConfig.getGraphitePort()));
@@ -148,6 +148,19 @@ public class MigrationManager {
                     "No jobs to convert.");
             return new ArrayList<>();
         }
+
+        // The IPs of the whole batch are resolved in parallel before the records are converted one by one
+        final List<String> urls = new ArrayList<>();
+        for (final EuropeanaEDMObject edmObject : edmObjects) {
+            urls.add(edmObject.getEdmObject());
+            if (null != edmObject.getEdmHasViews()) {
+                urls.addAll(edmObject.getEdmHasViews());
+            }
+            urls.add(edmObject.getEdmIsShownBy());
+            urls.add(edmObject.getEdmIsShownAt());
+        }
+        JobCreator.URL_RESOLVER.prefetch(urls);
+
         final List<ProcessingJobTuple> results = new ArrayList();
         for (final EuropeanaEDMObject edmObject : edmObjects) {
             try {
@@ -10,6 +10,7 @@ import eu.europeana.harvester.domain.report.SubTaskState;
 import eu.europeana.harvester.domain.report.SubTaskType;
 import eu.europeana.harvester.util.CachingUrlResolver;
 import eu.europeana.harvester.util.pagedElements.PagedElements;
+import eu.europeana.jobcreator.JobCreator;
 import eu.europeana.jobcreator.domain.ProcessingJobTuple;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -74,6 +75,14 @@ public class HarvesterClientImpl implements HarvesterClient {
     private final LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao;
 
     public HarvesterClientImpl(final Datastore datastore, final HarvesterClientConfig harvesterClientConfig) {
+        this(datastore, harvesterClientConfig, JobCreator.URL_RESOLVER);
+    }
+
+    /**
+     * @param cachingUrlResolver resolves the IPs of the new references, it is not closed by the client
+     */
+    public HarvesterClientImpl(final Datastore datastore, final HarvesterClientConfig harvesterClientConfig,
+                               final CachingUrlResolver cachingUrlResolver) {
         this(new ProcessingJobDaoImpl(datastore),
                 new HistoricalProcessingJobDaoImpl(datastore),
                 new MachineResourceReferenceDaoImpl(datastore),
@@ -82,7 +91,7 @@ public class HarvesterClientImpl implements HarvesterClient {
                 new SourceDocumentReferenceDaoImpl(datastore),
                 new SourceDocumentReferenceMetaInfoDaoImpl(datastore),
                 new SourceDocumentReferenceProcessingProfileDaoImpl(datastore),
-             harvesterClientConfig);
+             harvesterClientConfig, cachingUrlResolver);
     }
 
     public HarvesterClientImpl (ProcessingJobDao processingJobDao,HistoricalProcessingJobDao historicalProcessingJobDao, MachineResourceReferenceDao machineResourceReferenceDao,
@@ -92,6 +101,18 @@ public class HarvesterClientImpl implements HarvesterClient {
                                 SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao,
                                 SourceDocumentReferenceProcessingProfileDao sourceDocumentReferenceProcessingProfileDao,
                                 HarvesterClientConfig harvesterClientConfig) {
+        this(processingJobDao, historicalProcessingJobDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao,
+             lastSourceDocumentProcessingStatisticsDao, SourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao,
+             sourceDocumentReferenceProcessingProfileDao, harvesterClientConfig, JobCreator.URL_RESOLVER);
+    }
+
+    public HarvesterClientImpl (ProcessingJobDao processingJobDao,HistoricalProcessingJobDao historicalProcessingJobDao, MachineResourceReferenceDao machineResourceReferenceDao,
+                                SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao,
+                                SourceDocumentReferenceDao SourceDocumentReferenceDao,
+                                SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao,
+                                SourceDocumentReferenceProcessingProfileDao sourceDocumentReferenceProcessingProfileDao,
+                                HarvesterClientConfig harvesterClientConfig, CachingUrlResolver cachingUrlResolver) {
 
         this.processingJobDao = processingJobDao;
         this.historicalProcessingJobDao = historicalProcessingJobDao;
@@ -102,7 +123,7 @@ public class HarvesterClientImpl implements HarvesterClient {
         this.sourceDocumentReferenceMetaInfoDao = sourceDocumentReferenceMetaInfoDao;
         this.sourceDocumentReferenceProcessingProfileDao = sourceDocumentReferenceProcessingProfileDao;
         this.harvesterClientConfig = harvesterClientConfig;
-        this.cachingUrlResolver = new CachingUrlResolver();
+        this.cachingUrlResolver = cachingUrlResolver;
     }
 
     @Override
@@ -114,9 +135,14 @@ public class HarvesterClientImpl implements HarvesterClient {
         LOG.debug("Create or modify {} SourceDocumentReferences documents ", newSourceDocumentReferences.size());
         final List<MachineResourceReference> machineResourceReferences = new ArrayList<>();
 
-        // Prepare all the machine references
+        // Prepare all the machine references, the IPs of the batch are resolved in parallel
+        final List<String> urls = new ArrayList<>();
+        for (final SourceDocumentReference sourceDocumentReference : newSourceDocumentReferences) {
+            urls.add(sourceDocumentReference.getUrl());
+        }
+        final Map<String, String> urlsToIps = cachingUrlResolver.resolveIpsOfUrlsAndReturnLoopbackOnFail(urls);
         for (final SourceDocumentReference sourceDocumentReference : newSourceDocumentReferences) {
-            machineResourceReferences.add(new MachineResourceReference(cachingUrlResolver.resolveIpOfUrlAndReturnLoopbackOnFail(sourceDocumentReference.getUrl())));
+            machineResourceReferences.add(new MachineResourceReference(urlsToIps.get(sourceDocumentReference.getUrl())));
         }
 
         // Retrieve all the existing source document references as these might need to be updated
@@ -22,6 +22,10 @@ import java.util.concurrent.ExecutionException;
  */
 public class JobCreator {
 
+    /**
+     * The resolver shared by the job creation & the harvester clients of the application, the applications report
+     * its metrics with theirs.
+     */
     public final static CachingUrlResolver URL_RESOLVER = new CachingUrlResolver();
 
     public final static List<ProcessingJobTuple> createJobs (final ReferenceOwner owner,
@@ -113,6 +117,8 @@ public class JobCreator {
             throw new IllegalArgumentException("Options cannot be null");
         }
 
+        prefetchIps(edmObjectUrl, edmHasViewUrls, edmIsShownByUrl, edmIsShownAtUrl);
+
         final List<ProcessingJobTuple> results = new ArrayList();
         final ReferenceOwner owner = new ReferenceOwner(providerId, collectionId, recordId, executionId);
 
@@ -173,6 +179,8 @@ public class JobCreator {
             throw new IllegalArgumentException("Options cannot be null");
         }
 
+        prefetchIps(edmObjectUrl, edmHasViewUrls, edmIsShownByUrl, edmIsShownAtUrl);
+
         final List<ProcessingJobTuple> results = new ArrayList();
         final ReferenceOwner owner = new ReferenceOwner(providerId, collectionId, recordId, executionId);
 
@@ -194,4 +202,22 @@ public class JobCreator {
 
         return results;
     }
+
+    /**
+     * Starts the lookups of the IPs of all the urls of a record at once, so the jobs built one url after the other
+     * wait for the slowest lookup instead of the sum of the lookups.
+     */
+    private static void prefetchIps(final String edmObjectUrl,
+                                    final List<String> edmHasViewUrls,
+                                    final String edmIsShownByUrl,
+                                    final String edmIsShownAtUrl) {
+        final List<String> urls = new ArrayList<>();
+        urls.add(edmObjectUrl);
+        if (null != edmHasViewUrls) {
+            urls.addAll(edmHasViewUrls);
+        }
+        urls.add(edmIsShownByUrl);
+        urls.add(edmIsShownAtUrl);
+        URL_RESOLVER.prefetch(urls);
+    }
 }
@@ -45,6 +45,8 @@ public interface LastSourceDocumentProcessingStatisticsDao {
      */
     LastSourceDocumentProcessingStatistics read(String id);
 
+    List<LastSourceDocumentProcessingStatistics> read(List<String> ids);
+
     LastSourceDocumentProcessingStatistics read(String sourceDocumentReferenceId, DocumentReferenceTaskType taskType, URLSourceType urlSourceType);
 
     /**
@@ -81,6 +83,11 @@ public interface LastSourceDocumentProcessingStatisticsDao {
                                                                                                          lastSourceDocumentProcessingStatistics,
                                                                                                  WriteConcern writeConcern);
 
+    /**
+     * Creates or replaces the statistics with a single unordered bulk write.
+     */
+    void bulkCreateOrModify(Collection<LastSourceDocumentProcessingStatistics> lastSourceDocumentProcessingStatistics, WriteConcern writeConcern);
+
     /**
      * Deletes a record from DB
      *
@@ -62,6 +62,8 @@ public interface ProcessingJobDao {
      */
      ProcessingJob read(String id);
 
+     List<ProcessingJob> read(List<String> ids);
+
     /**
      * Updates a ProcessingJob record
      *
@@ -93,6 +95,17 @@ public interface ProcessingJobDao {
 
     void modifyStateOfJobs(JobState oldJobState, JobState newJobState);
 
+    /**
+     * Changes the state of all the jobs in the old state except the excluded ones (ie. jobs still held in memory).
+     * The excluded ids are looked up for each job in the old state, a {@link java.util.Set} should be passed.
+     */
+    void modifyStateOfJobs(JobState oldJobState, JobState newJobState, Collection<String> excludedJobIds);
+
+    /**
+     * Sets the state of many jobs with a single unordered bulk write, the other fields are left as they are.
+     */
+    void modifyStateOfJobs(Map<String, JobState> newStatePerJobId, WriteConcern writeConcern);
+
     /**
      * @return a map which maps each IP address with the number of processingJobs from that IP address
      */
@@ -100,9 +113,10 @@ public interface ProcessingJobDao {
 
     /**
      * Returns all the jobs from the DB with a specified state, but it's careful to return jobs from different ips.
+     * The jobs of all the ips are selected with a single query.
      *
      * @param jobState the specific state
-     * @param page     an object which contains the number of records needed and the offset.
+     * @param page     an object which contains the number of records needed per ip and the offset.
      * @return - list of ProcessingJobs
      */
      List<ProcessingJob> getDiffusedJobsWithState(JobPriority jobPriority, JobState jobState, Page page, Map<String, Integer> ipDistribution);
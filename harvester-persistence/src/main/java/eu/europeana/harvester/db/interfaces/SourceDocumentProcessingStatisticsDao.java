@@ -73,6 +73,11 @@ public interface SourceDocumentProcessingStatisticsDao {
                                                                                                      <SourceDocumentProcessingStatistics> sourceDocumentProcessingStatistics,
                                                                                              WriteConcern writeConcern);
 
+    /**
+     * Creates or replaces the statistics with a single unordered bulk write.
+     */
+    void bulkCreateOrModify(Collection<SourceDocumentProcessingStatistics> sourceDocumentProcessingStatistics, WriteConcern writeConcern);
+
     /**
      * Deletes a record from DB
      *
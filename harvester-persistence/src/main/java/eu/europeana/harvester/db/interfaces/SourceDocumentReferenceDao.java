@@ -73,6 +73,12 @@ public interface SourceDocumentReferenceDao {
      */
      boolean update(SourceDocumentReference sourceDocumentReference, WriteConcern writeConcern);
 
+    /**
+     * Sets the last stats id & the redirection path of the existing references with a single unordered bulk write.
+     * The other fields are left as they are, so the references do not have to be read first.
+     */
+     void modifyLastStatsIdAndRedirectionPath(Collection<SourceDocumentReference> sourceDocumentReferences, WriteConcern writeConcern);
+
     /**
      * Deletes a record from DB
      *
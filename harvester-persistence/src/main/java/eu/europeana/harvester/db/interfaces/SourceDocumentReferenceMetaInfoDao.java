@@ -60,6 +60,11 @@ public interface SourceDocumentReferenceMetaInfoDao {
      */
     public boolean update(SourceDocumentReferenceMetaInfo sourceDocumentReferenceMetaInfo, WriteConcern writeConcern);
 
+    /**
+     * Creates or replaces the meta infos with a single unordered bulk write.
+     */
+    public void bulkCreateOrModify(Collection<SourceDocumentReferenceMetaInfo> sourceDocumentReferenceMetaInfos, WriteConcern writeConcern);
+
     /**
      * Deletes a record from DB
      * @param id the unique id of the record
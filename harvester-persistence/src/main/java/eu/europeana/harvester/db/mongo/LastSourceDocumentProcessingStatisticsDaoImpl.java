@@ -49,6 +49,14 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 		return datastore.get(LastSourceDocumentProcessingStatistics.class, id);
 	}
 
+	@Override
+	public List<LastSourceDocumentProcessingStatistics> read(List<String> ids) {
+		if (ids.isEmpty())
+			return new ArrayList<>(0);
+		return datastore.createQuery(LastSourceDocumentProcessingStatistics.class).field("_id").hasAnyOf(ids)
+				.hintIndex("_id_").asList();
+	}
+
 	@Override
 	public LastSourceDocumentProcessingStatistics read(String sourceDocumentReferenceId,
 			DocumentReferenceTaskType taskType, URLSourceType urlSourceType) {
@@ -83,6 +91,13 @@ public class LastSourceDocumentProcessingStatisticsDaoImpl implements LastSource
 		return datastore.save(lastSourceDocumentProcessingStatisticss, writeConcern);
 	}
 
+	@Override
+	public void bulkCreateOrModify(Collection<LastSourceDocumentProcessingStatistics> lastSourceDocumentProcessingStatistics,
+			WriteConcern writeConcern) {
+		MorphiaBulkWriter.createOrReplace(datastore, LastSourceDocumentProcessingStatistics.class,
+				lastSourceDocumentProcessingStatistics, writeConcern);
+	}
+
 	@Override
 	public WriteResult delete(String id) {
 		return datastore.delete(LastSourceDocumentProcessingStatistics.class, id);
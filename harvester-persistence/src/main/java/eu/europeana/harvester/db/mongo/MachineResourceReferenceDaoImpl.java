@@ -80,6 +80,8 @@ public class MachineResourceReferenceDaoImpl implements MachineResourceReference
     @Override
     public List<MachineResourceReference> getAllMachineResourceReferences(Page page) {
         final Query<MachineResourceReference> query = datastore.find(MachineResourceReference.class);
+        // A stable order, so the collection can be read page by page
+        query.order("_id");
         query.offset(page.getFrom());
         query.limit(page.getLimit());
 
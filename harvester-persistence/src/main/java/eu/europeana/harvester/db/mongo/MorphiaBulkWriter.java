@@ -0,0 +1,41 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.google.code.morphia.Datastore;
+import com.google.code.morphia.Morphia;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+
+import java.util.Collection;
+
+/**
+ * Writes many entities with a single unordered bulk operation instead of one save (round-trip) per entity.
+ */
+final class MorphiaBulkWriter {
+
+    /**
+     * Only used to map the entities to documents, the same way the datastore does.
+     */
+    private static final Morphia MORPHIA = new Morphia();
+
+    private MorphiaBulkWriter() {
+    }
+
+    /**
+     * Replaces the documents with the same id as the entities or inserts them if missing.
+     */
+    static <T> void createOrReplace(final Datastore datastore, final Class<T> type, final Collection<T> entities,
+                                    final WriteConcern writeConcern) {
+        if (null == entities || entities.isEmpty()) {
+            return;
+        }
+
+        final BulkWriteOperation bulk = datastore.getCollection(type).initializeUnorderedBulkOperation();
+        for (final T entity : entities) {
+            final DBObject document = MORPHIA.toDBObject(entity);
+            bulk.find(new BasicDBObject("_id", document.get("_id"))).upsert().replaceOne(document);
+        }
+        bulk.execute(writeConcern);
+    }
+}
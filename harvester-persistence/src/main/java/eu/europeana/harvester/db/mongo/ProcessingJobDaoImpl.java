@@ -17,6 +17,17 @@ import java.util.*;
  */
 public class ProcessingJobDaoImpl implements ProcessingJobDao {
 
+	/**
+	 * The maximum number of ids in a single $in query.
+	 */
+	public static final int READ_BATCH_SIZE = 10000;
+
+	/**
+	 * The error of the servers which do not know an accumulator of $group,
+	 * $firstN needs MongoDB 5.2.
+	 */
+	private static final int UNKNOWN_GROUP_OPERATOR = 15952;
+
 	/**
 	 * The Datastore interface provides type-safe methods for accessing and
 	 * storing your java objects in MongoDB. It provides get/find/save/delete
@@ -24,6 +35,12 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 	 */
 	private final Datastore datastore;
 
+	/**
+	 * False once the server rejected $firstN, the diffused jobs are then
+	 * queried once per IP.
+	 */
+	private volatile boolean firstNSupported = true;
+
 	public ProcessingJobDaoImpl(Datastore datastore) {
 		this.datastore = datastore;
 	}
@@ -63,6 +80,14 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		return datastore.get(ProcessingJob.class, id);
 	}
 
+	@Override
+	public List<ProcessingJob> read(List<String> ids) {
+		if (ids.isEmpty())
+			return new ArrayList<>(0);
+		return datastore.createQuery(ProcessingJob.class).field("_id")
+				.hasAnyOf(ids).hintIndex("_id_").asList();
+	}
+
 	@Override
 	public boolean update(ProcessingJob processingJob, WriteConcern writeConcern) {
 		if (read(processingJob.getId()) != null) {
@@ -114,6 +139,76 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		datastore.update(query, ops);
 	}
 
+	/**
+	 * The excluded jobs are filtered out while the ids of the jobs in the old
+	 * state are read, the others are updated in batches of
+	 * {@link #READ_BATCH_SIZE} ids : a single query excluding all of them
+	 * would exceed the maximum size of a document.
+	 */
+	@Override
+	public void modifyStateOfJobs(JobState oldJobState, JobState newJobState,
+			Collection<String> excludedJobIds) {
+		if (excludedJobIds.isEmpty()) {
+			modifyStateOfJobs(oldJobState, newJobState);
+			return;
+		}
+
+		final DBCollection collection = datastore
+				.getCollection(ProcessingJob.class);
+		final List<Object> jobIds = new ArrayList<>(READ_BATCH_SIZE);
+		final DBCursor cursor = collection.find(
+				new BasicDBObject("state", oldJobState.name()),
+				new BasicDBObject("_id", 1)).batchSize(READ_BATCH_SIZE);
+		try {
+			while (cursor.hasNext()) {
+				final Object jobId = cursor.next().get("_id");
+				if (excludedJobIds.contains(jobId)) {
+					continue;
+				}
+				jobIds.add(jobId);
+				if (jobIds.size() == READ_BATCH_SIZE) {
+					modifyStateOfJobs(collection, jobIds, oldJobState,
+							newJobState);
+					jobIds.clear();
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+		modifyStateOfJobs(collection, jobIds, oldJobState, newJobState);
+	}
+
+	/**
+	 * Changes the state of the jobs which are still in the old state.
+	 */
+	private static void modifyStateOfJobs(final DBCollection collection,
+			final List<Object> jobIds, final JobState oldJobState,
+			final JobState newJobState) {
+		if (jobIds.isEmpty())
+			return;
+		final BasicDBObject query = new BasicDBObject("_id",
+				new BasicDBObject("$in", jobIds));
+		query.put("state", oldJobState.name());
+		collection.update(query, new BasicDBObject("$set", new BasicDBObject(
+				"state", newJobState.name())), false, true);
+	}
+
+	@Override
+	public void modifyStateOfJobs(Map<String, JobState> newStatePerJobId,
+			WriteConcern writeConcern) {
+		if (newStatePerJobId.isEmpty())
+			return;
+		final BulkWriteOperation bulk = datastore.getCollection(
+				ProcessingJob.class).initializeUnorderedBulkOperation();
+		for (final Map.Entry<String, JobState> newState : newStatePerJobId
+				.entrySet()) {
+			bulk.find(new BasicDBObject("_id", newState.getKey())).updateOne(
+					new BasicDBObject("$set", new BasicDBObject("state",
+							newState.getValue().name())));
+		}
+		bulk.execute(writeConcern);
+	}
+
 	public Map<String, Integer> getIpDistribution() {
 		final DB db = datastore.getDB();
 		final DBCollection processingJobCollection = db
@@ -145,14 +240,25 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 
 	@Override
 	public List<ProcessingJob> getDiffusedJobsWithState(
-			JobPriority jobPriority, JobState jobState, Page page,
-			Map<String, Integer> ipDistribution) {
+			final JobPriority jobPriority, final JobState jobState,
+			final Page page, Map<String, Integer> ipDistribution) {
 
 		if (ipDistribution.size() <= 0)
 			return Collections.EMPTY_LIST;
 
-		final List<ProcessingJob> processingJobs = new ArrayList<>();
+		if (firstNSupported) {
+			try {
+				return getDiffusedJobsWithAggregation(jobPriority, jobState,
+						page, ipDistribution.keySet());
+			} catch (MongoException e) {
+				if (e.getCode() != UNKNOWN_GROUP_OPERATOR) {
+					throw e;
+				}
+				firstNSupported = false;
+			}
+		}
 
+		final List<ProcessingJob> processingJobs = new ArrayList<>();
 		for (final String ip : ipDistribution.keySet()) {
 			final Query<ProcessingJob> query = datastore
 					.find(ProcessingJob.class);
@@ -165,6 +271,56 @@ public class ProcessingJobDaoImpl implements ProcessingJobDao {
 		return processingJobs;
 	}
 
+	/**
+	 * Selects the ids of at most page.getLimit() jobs per IP with a single
+	 * aggregation ($match on all the IPs, $group per IP keeping the first ids
+	 * with $firstN, so a group never grows past the limit) and reads the jobs
+	 * with $in queries on the ids.
+	 */
+	private List<ProcessingJob> getDiffusedJobsWithAggregation(
+			final JobPriority jobPriority, final JobState jobState,
+			final Page page, final Collection<String> ips) {
+		final DBObject match = new BasicDBObject();
+		match.put("priority", jobPriority.getPriority());
+		match.put("state", jobState.name());
+		match.put("ipAddress", new BasicDBObject("$in", new ArrayList<>(ips)));
+
+		final DBObject firstN = new BasicDBObject();
+		firstN.put("input", "$_id");
+		firstN.put("n", page.getLimit());
+
+		final DBObject group = new BasicDBObject();
+		group.put("_id", "$ipAddress");
+		group.put("jobIds", new BasicDBObject("$firstN", firstN));
+
+		final List<DBObject> pipeline = Arrays.<DBObject> asList(
+				new BasicDBObject("$match", match), new BasicDBObject("$group",
+						group));
+		final AggregationOptions options = AggregationOptions.builder()
+				.allowDiskUse(true)
+				.outputMode(AggregationOptions.OutputMode.CURSOR).build();
+
+		final List<String> jobIds = new ArrayList<>();
+		final Cursor cursor = datastore.getCollection(ProcessingJob.class)
+				.aggregate(pipeline, options);
+		try {
+			while (cursor.hasNext()) {
+				for (final Object jobId : (List<?>) cursor.next().get("jobIds")) {
+					jobIds.add((String) jobId);
+				}
+			}
+		} finally {
+			cursor.close();
+		}
+
+		final List<ProcessingJob> processingJobs = new ArrayList<>(jobIds.size());
+		for (int from = 0; from < jobIds.size(); from += READ_BATCH_SIZE) {
+			processingJobs.addAll(read(jobIds.subList(from,
+					Math.min(jobIds.size(), from + READ_BATCH_SIZE))));
+		}
+		return processingJobs;
+	}
+
 	@Override
 	public List<ProcessingJob> deactivateJobs(final ReferenceOwner owner,
 			final WriteConcern writeConcern) {
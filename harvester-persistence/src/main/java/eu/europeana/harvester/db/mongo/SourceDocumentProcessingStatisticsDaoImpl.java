@@ -80,6 +80,11 @@ public class SourceDocumentProcessingStatisticsDaoImpl implements SourceDocument
         return datastore.save(sourceDocumentProcessingStatistics, writeConcern);
     }
 
+    @Override
+    public void bulkCreateOrModify(Collection<SourceDocumentProcessingStatistics> sourceDocumentProcessingStatistics, WriteConcern writeConcern) {
+        MorphiaBulkWriter.createOrReplace(datastore, SourceDocumentProcessingStatistics.class, sourceDocumentProcessingStatistics, writeConcern);
+    }
+
     @Override
     public Iterable<com.google.code.morphia.Key<SourceDocumentProcessingStatistics>> createOrModify(Collection<SourceDocumentProcessingStatistics> sourceDocumentProcessingStatistics,
                                                                                                     WriteConcern writeConcern) {
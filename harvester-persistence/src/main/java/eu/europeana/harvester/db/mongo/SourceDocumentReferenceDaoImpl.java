@@ -3,6 +3,8 @@ package eu.europeana.harvester.db.mongo;
 import com.google.code.morphia.Datastore;
 import com.google.code.morphia.query.Query;
 import com.google.code.morphia.query.UpdateOperations;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
 import com.mongodb.WriteConcern;
 import com.mongodb.WriteResult;
 import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
@@ -89,6 +91,22 @@ public class SourceDocumentReferenceDaoImpl implements SourceDocumentReferenceDa
         return false;
     }
 
+    @Override
+    public void modifyLastStatsIdAndRedirectionPath(Collection<SourceDocumentReference> sourceDocumentReferences, WriteConcern writeConcern) {
+        if (null == sourceDocumentReferences || sourceDocumentReferences.isEmpty()) {
+            return;
+        }
+
+        final BulkWriteOperation bulk = datastore.getCollection(SourceDocumentReference.class).initializeUnorderedBulkOperation();
+        for (final SourceDocumentReference sourceDocumentReference : sourceDocumentReferences) {
+            final BasicDBObject fields = new BasicDBObject("lastStatsId", sourceDocumentReference.getLastStatsId())
+                    .append("redirectPathDepth", sourceDocumentReference.getRedirectPathDepth())
+                    .append("redirectionPath", sourceDocumentReference.getRedirectionPath());
+            bulk.find(new BasicDBObject("_id", sourceDocumentReference.getId())).updateOne(new BasicDBObject("$set", fields));
+        }
+        bulk.execute(writeConcern);
+    }
+
     @Override
     public WriteResult delete(String id) {
         return datastore.delete(SourceDocumentReference.class, id);
@@ -75,6 +75,11 @@ public class SourceDocumentReferenceMetaInfoDaoImpl implements SourceDocumentRef
         return false;
     }
 
+    @Override
+    public void bulkCreateOrModify(Collection<SourceDocumentReferenceMetaInfo> sourceDocumentReferenceMetaInfos, WriteConcern writeConcern) {
+        MorphiaBulkWriter.createOrReplace(datastore, SourceDocumentReferenceMetaInfo.class, sourceDocumentReferenceMetaInfos, writeConcern);
+    }
+
     @Override
     public WriteResult delete(String id) {
         return datastore.delete(SourceDocumentReferenceMetaInfo.class, id);
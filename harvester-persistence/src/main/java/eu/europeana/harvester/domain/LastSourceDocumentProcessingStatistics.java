@@ -113,6 +113,11 @@ public class LastSourceDocumentProcessingStatistics {
      */
     private final ProcessingJobSubTaskStats processingJobSubTaskStats;
 
+    /**
+     * The MD5 (hex) of the retrieved content, computed by the slave while downloading. Null when nothing was retrieved.
+     */
+    private final String contentMd5;
+
     public LastSourceDocumentProcessingStatistics(SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics) {
         this.id = idOf(sourceDocumentProcessingStatistics.getSourceDocumentReferenceId(), sourceDocumentProcessingStatistics.getUrlSourceType());
         this.createdAt = sourceDocumentProcessingStatistics.getCreatedAt();
@@ -134,6 +139,7 @@ public class LastSourceDocumentProcessingStatistics {
         this.httpResponseHeaders = sourceDocumentProcessingStatistics.getHttpResponseHeaders();
         this.log = sourceDocumentProcessingStatistics.getLog();
         this.processingJobSubTaskStats = sourceDocumentProcessingStatistics.getProcessingJobSubTaskStats();
+        this.contentMd5 = sourceDocumentProcessingStatistics.getContentMd5();
 
     }
 
@@ -158,6 +164,7 @@ public class LastSourceDocumentProcessingStatistics {
         this.httpResponseHeaders = null;
         this.log = null;
         this.processingJobSubTaskStats = null;
+        this.contentMd5 = null;
     }
 
     public LastSourceDocumentProcessingStatistics(final Date createdAt, final Date updatedAt,
@@ -193,6 +200,7 @@ public class LastSourceDocumentProcessingStatistics {
         this.httpResponseHeaders = httpResponseHeaders;
         this.log = log;
         this.processingJobSubTaskStats = processingJobSubTaskStats;
+        this.contentMd5 = null;
     }
 
     public LastSourceDocumentProcessingStatistics(final String id,
@@ -209,6 +217,27 @@ public class LastSourceDocumentProcessingStatistics {
                                               final String sourceIp, final Map<String, String> httpResponseHeaders,
                                               final String log,
                                               final ProcessingJobSubTaskStats processingJobSubTaskStats) {
+        this(id, createdAt, updatedAt, active, taskType, state, referenceOwner, urlSourceType, sourceDocumentReferenceId,
+             processingJobId, httpResponseCode, httpResponseContentType, httpResponseContentSizeInBytes,
+             socketConnectToDownloadStartDurationInMilliSecs, retrievalDurationInMilliSecs, checkingDurationInMilliSecs,
+             sourceIp, httpResponseHeaders, log, processingJobSubTaskStats, null);
+    }
+
+    public LastSourceDocumentProcessingStatistics(final String id,
+                                                  final Date createdAt, final Date updatedAt,
+                                              final Boolean active, final DocumentReferenceTaskType taskType,
+                                              final ProcessingState state, final ReferenceOwner referenceOwner,
+                                              final URLSourceType urlSourceType, final String sourceDocumentReferenceId,
+                                              final String processingJobId, final Integer httpResponseCode,
+                                              final String httpResponseContentType,
+                                              final Long httpResponseContentSizeInBytes,
+                                              final Long socketConnectToDownloadStartDurationInMilliSecs,
+                                              final Long retrievalDurationInMilliSecs,
+                                              final Long checkingDurationInMilliSecs,
+                                              final String sourceIp, final Map<String, String> httpResponseHeaders,
+                                              final String log,
+                                              final ProcessingJobSubTaskStats processingJobSubTaskStats,
+                                              final String contentMd5) {
         this.id = id;
         this.createdAt = createdAt;
         this.updatedAt = updatedAt;
@@ -229,6 +258,7 @@ public class LastSourceDocumentProcessingStatistics {
         this.httpResponseHeaders = httpResponseHeaders;
         this.log = log;
         this.processingJobSubTaskStats = processingJobSubTaskStats;
+        this.contentMd5 = contentMd5;
     }
 
     public String getId() {
@@ -298,6 +328,11 @@ public class LastSourceDocumentProcessingStatistics {
     public ProcessingJobSubTaskStats getProcessingJobSubTaskStats() {
         return processingJobSubTaskStats;
     }
+
+    public String getContentMd5() {
+        return contentMd5;
+    }
+
     public Map<String, String> getHttpResponseHeaders() {
         return httpResponseHeaders;
     }
@@ -306,7 +341,6 @@ public class LastSourceDocumentProcessingStatistics {
         return socketConnectToDownloadStartDurationInMilliSecs;
     }
 
-
     public String getLog() {
         return log;
     }
@@ -340,7 +374,8 @@ public class LastSourceDocumentProcessingStatistics {
                                                           this.sourceIp,
                                                           httpResponseHeaders,
                                                           log,
-                                                          processingJobSubTaskStats
+                                                          processingJobSubTaskStats,
+                                                          this.contentMd5
                                                         );
     }
 
@@ -349,7 +384,7 @@ public class LastSourceDocumentProcessingStatistics {
                 newState, this.referenceOwner, this.urlSourceType, this.sourceDocumentReferenceId, this.processingJobId,
                 this.httpResponseCode, this.httpResponseContentType, this.httpResponseContentSizeInBytes,
                 this.socketConnectToDownloadStartDurationInMilliSecs, this.retrievalDurationInMilliSecs,
-                this.checkingDurationInMilliSecs, this.sourceIp, this.httpResponseHeaders, this.log, this.processingJobSubTaskStats);
+                this.checkingDurationInMilliSecs, this.sourceIp, this.httpResponseHeaders, this.log, this.processingJobSubTaskStats, this.contentMd5);
     }
 
     public LastSourceDocumentProcessingStatistics withActive(final Boolean newActive) {
@@ -358,7 +393,7 @@ public class LastSourceDocumentProcessingStatistics {
                 this.processingJobId, this.httpResponseCode, this.httpResponseContentType,
                 this.httpResponseContentSizeInBytes, this.socketConnectToDownloadStartDurationInMilliSecs,
                 this.retrievalDurationInMilliSecs, this.checkingDurationInMilliSecs, this.sourceIp,
-                this.httpResponseHeaders, this.log, this.processingJobSubTaskStats);
+                this.httpResponseHeaders, this.log, this.processingJobSubTaskStats, this.contentMd5);
     }
 
     public LastSourceDocumentProcessingStatistics withProcessingJobSubTaskStats(final ProcessingJobSubTaskStats newProcessingJobSubTaskStats) {
@@ -367,7 +402,15 @@ public class LastSourceDocumentProcessingStatistics {
                 this.processingJobId, this.httpResponseCode, this.httpResponseContentType,
                 this.httpResponseContentSizeInBytes, this.socketConnectToDownloadStartDurationInMilliSecs,
                 this.retrievalDurationInMilliSecs, this.checkingDurationInMilliSecs, this.sourceIp,
-                this.httpResponseHeaders, this.log, newProcessingJobSubTaskStats);
+                this.httpResponseHeaders, this.log, newProcessingJobSubTaskStats, this.contentMd5);
     }
 
+    public LastSourceDocumentProcessingStatistics withContentMd5(final String newContentMd5) {
+        return new LastSourceDocumentProcessingStatistics(this.id, this.createdAt, this.updatedAt, this.active, this.taskType,
+                this.state, this.referenceOwner, this.urlSourceType, this.sourceDocumentReferenceId,
+                this.processingJobId, this.httpResponseCode, this.httpResponseContentType,
+                this.httpResponseContentSizeInBytes, this.socketConnectToDownloadStartDurationInMilliSecs,
+                this.retrievalDurationInMilliSecs, this.checkingDurationInMilliSecs, this.sourceIp,
+                this.httpResponseHeaders, this.log, this.processingJobSubTaskStats, newContentMd5);
+    }
 }
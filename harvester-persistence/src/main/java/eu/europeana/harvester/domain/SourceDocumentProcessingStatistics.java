@@ -112,6 +112,11 @@ public class SourceDocumentProcessingStatistics {
      */
     private final ProcessingJobSubTaskStats processingJobSubTaskStats;
 
+    /**
+     * The MD5 (hex) of the retrieved content, computed by the slave while downloading. Null when nothing was retrieved.
+     */
+    private final String contentMd5;
+
     public SourceDocumentProcessingStatistics() {
         this.id = null;
         this.createdAt = null;
@@ -133,6 +138,7 @@ public class SourceDocumentProcessingStatistics {
         this.httpResponseHeaders = null;
         this.log = null;
         this.processingJobSubTaskStats = null;
+        this.contentMd5 = null;
     }
 
     public SourceDocumentProcessingStatistics(final Date createdAt, final Date updatedAt,
@@ -168,7 +174,7 @@ public class SourceDocumentProcessingStatistics {
         this.httpResponseHeaders = httpResponseHeaders;
         this.log = log;
         this.processingJobSubTaskStats = processingJobSubTaskStats;
-
+        this.contentMd5 = null;
     }
 
     public SourceDocumentProcessingStatistics(final String id, final Date createdAt, final Date updatedAt,
@@ -184,6 +190,26 @@ public class SourceDocumentProcessingStatistics {
                                               final String sourceIp, final Map<String, String> httpResponseHeaders,
                                               final String log,
                                               final ProcessingJobSubTaskStats processingJobSubTaskStats) {
+        this(id, createdAt, updatedAt, active, taskType, state, referenceOwner, urlSourceType, sourceDocumentReferenceId,
+             processingJobId, httpResponseCode, httpResponseContentType, httpResponseContentSizeInBytes,
+             socketConnectToDownloadStartDurationInMilliSecs, retrievalDurationInMilliSecs, checkingDurationInMilliSecs,
+             sourceIp, httpResponseHeaders, log, processingJobSubTaskStats, null);
+    }
+
+    public SourceDocumentProcessingStatistics(final String id, final Date createdAt, final Date updatedAt,
+                                              final Boolean active, final DocumentReferenceTaskType taskType,
+                                              final ProcessingState state, final ReferenceOwner referenceOwner,
+                                              final URLSourceType urlSourceType, final String sourceDocumentReferenceId,
+                                              final String processingJobId, final Integer httpResponseCode,
+                                              final String httpResponseContentType,
+                                              final Long httpResponseContentSizeInBytes,
+                                              final Long socketConnectToDownloadStartDurationInMilliSecs,
+                                              final Long retrievalDurationInMilliSecs,
+                                              final Long checkingDurationInMilliSecs,
+                                              final String sourceIp, final Map<String, String> httpResponseHeaders,
+                                              final String log,
+                                              final ProcessingJobSubTaskStats processingJobSubTaskStats,
+                                              final String contentMd5) {
         this.id = id;
         this.createdAt = createdAt;
         this.updatedAt = updatedAt;
@@ -204,7 +230,7 @@ public class SourceDocumentProcessingStatistics {
         this.httpResponseHeaders = httpResponseHeaders;
         this.log = log;
         this.processingJobSubTaskStats = processingJobSubTaskStats;
-
+        this.contentMd5 = contentMd5;
     }
 
     public String getId() {
@@ -287,6 +313,10 @@ public class SourceDocumentProcessingStatistics {
         return processingJobSubTaskStats;
     }
 
+    public String getContentMd5() {
+        return contentMd5;
+    }
+
     public SourceDocumentProcessingStatistics withUpdate(final ProcessingState state,
                                                          final String jobId, final Integer responseCode,
                                                          final Long size,
@@ -300,7 +330,7 @@ public class SourceDocumentProcessingStatistics {
                 state, this.referenceOwner, this.urlSourceType, this.sourceDocumentReferenceId, jobId, responseCode,
                 this.httpResponseContentType, size, socketConnectToDownloadStartDurationInMilliSecs,
                 retrievalDurationInMilliSecs, checkingDurationInMilliSecs, this.sourceIp, httpResponseHeaders, log,
-                                                      processingJobSubTaskStats);
+                                                      processingJobSubTaskStats, this.contentMd5);
     }
 
     public SourceDocumentProcessingStatistics withState(final ProcessingState newState) {
@@ -308,7 +338,7 @@ public class SourceDocumentProcessingStatistics {
                 newState, this.referenceOwner, this.urlSourceType, this.sourceDocumentReferenceId, this.processingJobId,
                 this.httpResponseCode, this.httpResponseContentType, this.httpResponseContentSizeInBytes,
                 this.socketConnectToDownloadStartDurationInMilliSecs, this.retrievalDurationInMilliSecs,
-                this.checkingDurationInMilliSecs, this.sourceIp, this.httpResponseHeaders, this.log, this.processingJobSubTaskStats);
+                this.checkingDurationInMilliSecs, this.sourceIp, this.httpResponseHeaders, this.log, this.processingJobSubTaskStats, this.contentMd5);
     }
 
     public SourceDocumentProcessingStatistics withActive(final Boolean newActive) {
@@ -317,7 +347,7 @@ public class SourceDocumentProcessingStatistics {
                 this.processingJobId, this.httpResponseCode, this.httpResponseContentType,
                 this.httpResponseContentSizeInBytes, this.socketConnectToDownloadStartDurationInMilliSecs,
                 this.retrievalDurationInMilliSecs, this.checkingDurationInMilliSecs, this.sourceIp,
-                this.httpResponseHeaders, this.log, this.processingJobSubTaskStats);
+                this.httpResponseHeaders, this.log, this.processingJobSubTaskStats, this.contentMd5);
     }
 
     public SourceDocumentProcessingStatistics withProcessingJobSubTaskStats (ProcessingJobSubTaskStats newSubTaskStats) {
@@ -339,7 +369,17 @@ public class SourceDocumentProcessingStatistics {
                                                       this.sourceIp,
                                                       this.httpResponseHeaders,
                                                       this.log,
-                                                        newSubTaskStats
+                                                        newSubTaskStats,
+                                                      this.contentMd5
                                                      );
     }
+
+    public SourceDocumentProcessingStatistics withContentMd5(final String newContentMd5) {
+        return new SourceDocumentProcessingStatistics(this.id, this.createdAt, this.updatedAt, this.active, this.taskType,
+                this.state, this.referenceOwner, this.urlSourceType, this.sourceDocumentReferenceId,
+                this.processingJobId, this.httpResponseCode, this.httpResponseContentType,
+                this.httpResponseContentSizeInBytes, this.socketConnectToDownloadStartDurationInMilliSecs,
+                this.retrievalDurationInMilliSecs, this.checkingDurationInMilliSecs, this.sourceIp,
+                this.httpResponseHeaders, this.log, this.processingJobSubTaskStats, newContentMd5);
+    }
 }
@@ -123,6 +123,14 @@ public class SourceDocumentReference {
 
     public Boolean getActive() {return active;}
 
+    public Long getRedirectPathDepth() {
+        return redirectPathDepth;
+    }
+
+    public List<String> getRedirectionPath() {
+        return redirectionPath;
+    }
+
 
     public SourceDocumentReference withLastStatsId(String newLastStatsId) {
         return new SourceDocumentReference(this.id, this.referenceOwner, this.url,
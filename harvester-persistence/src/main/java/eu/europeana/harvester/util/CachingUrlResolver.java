@@ -1,41 +1,138 @@
 package eu.europeana.harvester.util;
 
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.*;
 
 import java.net.InetAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.UnknownHostException;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
 
+import static com.codahale.metrics.MetricRegistry.name;
+
+/**
+ * Resolves the IPs of the hostnames of urls, with a cache. The lookups run on a bounded pool of threads, so a batch of
+ * urls is resolved in parallel & the callers which don't want to wait get a future. Concurrent lookups of the same
+ * hostname are done once. The unknown hostnames are cached too, for a shorter time.
+ */
 public class CachingUrlResolver {
 
+    /**
+     * Resolves a hostname to an IP, blocking.
+     */
+    public interface HostResolver {
+        String resolve(String hostname) throws UnknownHostException;
+    }
+
+    public static final HostResolver SYSTEM_RESOLVER = new HostResolver() {
+        @Override
+        public String resolve(String hostname) throws UnknownHostException {
+            return InetAddress.getByName(hostname).getHostAddress();
+        }
+    };
+
+    public static final int DEFAULT_PARALLELISM = 16;
+
+    public static final long DEFAULT_NEGATIVE_TTL_IN_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    public static final String NAME = "CachingUrlResolver";
+
     private static final String NO_IP = "127.0.0.1";
 
-    private final LoadingCache<String /* hostname */ , String /* IP */> hostnameToIpCache;
+    private static final int MAX_CACHED_HOSTNAMES = 10*10000;
+
+    /**
+     * Runs the listeners on the thread which completes the future.
+     */
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private final Cache<String /* hostname */ , String /* IP */> hostnameToIpCache;
+
+    private final Cache<String /* hostname */, Boolean> unknownHostnameCache;
+
+    private final ConcurrentMap<String /* hostname */, ListenableFuture<String>> pendingLookups = new ConcurrentHashMap<>();
+
+    private final ListeningExecutorService lookupExecutor;
+
+    private final HostResolver hostResolver;
+
+    private final MetricRegistry metricRegistry;
+
+    private final Counter hitCounter;
+    private final Counter negativeHitCounter;
+    private final Counter missCounter;
+    private final Counter unknownHostCounter;
+    private final Timer lookupDuration;
 
     public CachingUrlResolver() {
+        this(new MetricRegistry());
+    }
+
+    public CachingUrlResolver(final MetricRegistry metricRegistry) {
+        this(SYSTEM_RESOLVER, DEFAULT_PARALLELISM, DEFAULT_NEGATIVE_TTL_IN_MILLIS, metricRegistry);
+    }
+
+    /**
+     * @param hostResolver             does the lookups
+     * @param parallelism              the maximum number of lookups running at once
+     * @param negativeTtlInMillis      how long an unknown hostname stays unknown
+     * @param metricRegistry           where the hit rate & the duration of the lookups are reported
+     */
+    public CachingUrlResolver(final HostResolver hostResolver, final int parallelism, final long negativeTtlInMillis,
+                              final MetricRegistry metricRegistry) {
+        this.hostResolver = hostResolver;
+        this.metricRegistry = metricRegistry;
         this.hostnameToIpCache =
                 CacheBuilder.newBuilder()
-                        .maximumSize(10*10000)
+                        .maximumSize(MAX_CACHED_HOSTNAMES)
                         .expireAfterWrite(24, TimeUnit.HOURS)
-                        .build(
-                                new CacheLoader<String, String>() {
-                                    public String load(String key) throws UnknownHostException {
-                                        final InetAddress address = InetAddress.getByName(key);
-                                        return address.getHostAddress();
-                                    }
-                                });
-    }
+                        .build();
+        this.unknownHostnameCache =
+                CacheBuilder.newBuilder()
+                        .maximumSize(MAX_CACHED_HOSTNAMES)
+                        .expireAfterWrite(negativeTtlInMillis, TimeUnit.MILLISECONDS)
+                        .build();
+        this.lookupExecutor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("url-resolver-%d").build()));
 
+        this.hitCounter = metricRegistry.counter(name(NAME, "hit", "counter"));
+        this.negativeHitCounter = metricRegistry.counter(name(NAME, "negativeHit", "counter"));
+        this.missCounter = metricRegistry.counter(name(NAME, "miss", "counter"));
+        this.unknownHostCounter = metricRegistry.counter(name(NAME, "unknownHost", "counter"));
+        this.lookupDuration = metricRegistry.timer(name(NAME, "lookup", "duration"));
+        metricRegistry.register(name(NAME, "hitRate"), new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                final long hits = hitCounter.getCount() + negativeHitCounter.getCount();
+                return Ratio.of(hits, hits + missCounter.getCount());
+            }
+        });
+    }
 
+    /**
+     * @return the IP of the hostname of the url, waiting for the lookup if needed
+     * @throws ExecutionException caused by an UnknownHostException if the hostname is unknown
+     */
     public final String resolveIpOfUrl(String url) throws MalformedURLException, ExecutionException {
         final String hostname = new URL(url).getHost();
-        final String ip = hostnameToIpCache.get(hostname);
-        return ip;
+        try {
+            return resolveIpOfHostname(hostname).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ExecutionException(e);
+        }
     }
 
     public final String resolveIpOfUrlAndReturnLoopbackOnFail(String url)  {
@@ -49,4 +146,138 @@ public class CachingUrlResolver {
 
     }
 
+    /**
+     * Starts the lookup of the hostname of the url without waiting for it.
+     *
+     * @return the future IP, failed if the url is invalid or the hostname unknown
+     */
+    public final ListenableFuture<String> resolveIpOfUrlAsync(String url) {
+        try {
+            return resolveIpOfHostname(new URL(url).getHost());
+        } catch (MalformedURLException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    /**
+     * Resolves the hostnames of a batch of urls in parallel.
+     *
+     * @return the IP of each url, the loopback for the urls which can't be resolved
+     */
+    public final Map<String /* url */, String /* IP */> resolveIpsOfUrlsAndReturnLoopbackOnFail(Collection<String> urls) {
+        final Map<String, ListenableFuture<String>> lookups = new HashMap<>();
+        for (final String url : urls) {
+            if (!lookups.containsKey(url)) {
+                lookups.put(url, resolveIpOfUrlAsync(url));
+            }
+        }
+
+        final Map<String, String> ips = new HashMap<>();
+        for (final Map.Entry<String, ListenableFuture<String>> lookup : lookups.entrySet()) {
+            String ip = NO_IP;
+            try {
+                ip = lookup.getValue().get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+            }
+            ips.put(lookup.getKey(), ip);
+        }
+        return ips;
+    }
+
+    /**
+     * Starts the lookups of the hostnames of urls which will be resolved soon, without waiting for them.
+     */
+    public final void prefetch(Collection<String> urls) {
+        for (final String url : urls) {
+            if (url != null) {
+                resolveIpOfUrlAsync(url);
+            }
+        }
+    }
+
+    /**
+     * @return the IP found by a lookup if it is over & succeeded, the fallback otherwise ; it never waits
+     */
+    public static String getIpIfResolved(final Future<String> lookup, final String fallback) {
+        if (!lookup.isDone()) {
+            return fallback;
+        }
+        try {
+            return lookup.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return fallback;
+        } catch (ExecutionException e) {
+            return fallback;
+        }
+    }
+
+    /**
+     * Stops the threads of the lookups. The resolvers are meant to be shared, only their owner closes them.
+     */
+    public final void close() {
+        lookupExecutor.shutdown();
+    }
+
+    /**
+     * @return the registry of the metrics of this resolver
+     */
+    public final MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    private ListenableFuture<String> resolveIpOfHostname(final String hostname) {
+        final String ip = hostnameToIpCache.getIfPresent(hostname);
+        if (ip != null) {
+            hitCounter.inc();
+            return Futures.immediateFuture(ip);
+        }
+        if (unknownHostnameCache.getIfPresent(hostname) != null) {
+            negativeHitCounter.inc();
+            return Futures.immediateFailedFuture(new UnknownHostException(hostname));
+        }
+
+        missCounter.inc();
+        final ListenableFuture<String> pendingLookup = pendingLookups.get(hostname);
+        if (pendingLookup != null) {
+            return pendingLookup;
+        }
+
+        final ListenableFutureTask<String> lookup = ListenableFutureTask.create(new Callable<String>() {
+            @Override
+            public String call() throws UnknownHostException {
+                return lookup(hostname);
+            }
+        });
+        final ListenableFuture<String> concurrentLookup = pendingLookups.putIfAbsent(hostname, lookup);
+        if (concurrentLookup != null) {
+            return concurrentLookup;
+        }
+        lookup.addListener(new Runnable() {
+            @Override
+            public void run() {
+                pendingLookups.remove(hostname, lookup);
+            }
+        }, SAME_THREAD);
+        lookupExecutor.execute(lookup);
+        return lookup;
+    }
+
+    private String lookup(final String hostname) throws UnknownHostException {
+        final Timer.Context context = lookupDuration.time();
+        try {
+            final String ip = hostResolver.resolve(hostname);
+            hostnameToIpCache.put(hostname, ip);
+            return ip;
+        } catch (UnknownHostException e) {
+            unknownHostCounter.inc();
+            unknownHostnameCache.put(hostname, Boolean.TRUE);
+            throw e;
+        } finally {
+            context.stop();
+        }
+    }
+
 }
@@ -1,17 +1,24 @@
 package eu.europeana.harvester.db.mongo;
 
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.util.concurrent.ListenableFuture;
 import eu.europeana.harvester.util.CachingUrlResolver;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.Timeout;
 
 import java.net.MalformedURLException;
+import java.net.UnknownHostException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import static org.junit.Assert.assertEquals;
-import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.*;
 
 public class CachingUrlResolverTests {
 
@@ -56,4 +63,125 @@ public class CachingUrlResolverTests {
 
     }
 
+    /**
+     * Stands in for the DNS : knows the hostnames "host0" to "host99", answers after a delay & counts the lookups.
+     */
+    private static class StubHostResolver implements CachingUrlResolver.HostResolver {
+        private final long latencyInMillis;
+        private final ConcurrentMap<String, AtomicInteger> lookups = new ConcurrentHashMap<>();
+
+        private StubHostResolver(final long latencyInMillis) {
+            this.latencyInMillis = latencyInMillis;
+        }
+
+        @Override
+        public String resolve(String hostname) throws UnknownHostException {
+            lookups.putIfAbsent(hostname, new AtomicInteger());
+            lookups.get(hostname).incrementAndGet();
+            try {
+                Thread.sleep(latencyInMillis);
+            } catch (InterruptedException e) {
+                throw new UnknownHostException(hostname);
+            }
+            if (!hostname.matches("host\\d{1,2}")) {
+                throw new UnknownHostException(hostname);
+            }
+            return "10.0.0." + hostname.substring("host".length());
+        }
+
+        private int lookupsOf(final String hostname) {
+            final AtomicInteger count = lookups.get(hostname);
+            return null == count ? 0 : count.get();
+        }
+    }
+
+    @Test
+    public void canResolveTheSameHostnameWithOneLookup() throws Exception {
+        final StubHostResolver dns = new StubHostResolver(0);
+        final CachingUrlResolver cache = new CachingUrlResolver(dns, 4, 60000, new MetricRegistry());
+
+        assertEquals("10.0.0.1", cache.resolveIpOfUrl("http://host1/a.jpg"));
+        assertEquals("10.0.0.1", cache.resolveIpOfUrl("http://host1/b.jpg"));
+        assertEquals(1, dns.lookupsOf("host1"));
+    }
+
+    @Test
+    public void canShareALookupBetweenConcurrentCallers() throws Exception {
+        final StubHostResolver dns = new StubHostResolver(100);
+        final CachingUrlResolver cache = new CachingUrlResolver(dns, 4, 60000, new MetricRegistry());
+
+        final List<ListenableFuture<String>> ips = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            ips.add(cache.resolveIpOfUrlAsync("http://host2/" + i + ".jpg"));
+        }
+        for (final ListenableFuture<String> ip : ips) {
+            assertEquals("10.0.0.2", ip.get());
+        }
+        assertEquals(1, dns.lookupsOf("host2"));
+    }
+
+    @Test
+    public void canCacheTheUnknownHostnamesForAShorterTime() throws Exception {
+        final StubHostResolver dns = new StubHostResolver(0);
+        final CachingUrlResolver cache = new CachingUrlResolver(dns, 4, 100, new MetricRegistry());
+
+        assertEquals("127.0.0.1", cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://unknown/a.jpg"));
+        assertEquals("127.0.0.1", cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://unknown/b.jpg"));
+        assertEquals(1, dns.lookupsOf("unknown"));
+
+        Thread.sleep(150);
+        assertEquals("127.0.0.1", cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://unknown/c.jpg"));
+        assertEquals(2, dns.lookupsOf("unknown"));
+    }
+
+    @Test
+    public void canResolveABatchOfUrlsInParallel() throws Exception {
+        final StubHostResolver dns = new StubHostResolver(100);
+        final CachingUrlResolver cache = new CachingUrlResolver(dns, 20, 60000, new MetricRegistry());
+
+        final List<String> urls = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            urls.add("http://host" + i + "/image.jpg");
+        }
+        urls.add("http://unknown/image.jpg");
+        urls.add("not an url");
+
+        // 21 lookups of 100ms one after the other would take more than the 1 second limit
+        final Map<String, String> ips = cache.resolveIpsOfUrlsAndReturnLoopbackOnFail(urls);
+        assertEquals(22, ips.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals("10.0.0." + i, ips.get("http://host" + i + "/image.jpg"));
+        }
+        assertEquals("127.0.0.1", ips.get("http://unknown/image.jpg"));
+        assertEquals("127.0.0.1", ips.get("not an url"));
+    }
+
+    @Test
+    public void canReportTheHitRate() throws Exception {
+        final StubHostResolver dns = new StubHostResolver(0);
+        final MetricRegistry metrics = new MetricRegistry();
+        final CachingUrlResolver cache = new CachingUrlResolver(dns, 4, 60000, metrics);
+
+        cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://host3/a.jpg");
+        cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://host3/b.jpg");
+        cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://host3/c.jpg");
+        cache.resolveIpOfUrlAndReturnLoopbackOnFail("http://host4/a.jpg");
+
+        final Gauge<Double> hitRate = metrics.getGauges().get(MetricRegistry.name(CachingUrlResolver.NAME, "hitRate"));
+        assertEquals(0.5, hitRate.getValue(), 0.001);
+        assertEquals(2, metrics.getTimers().get(MetricRegistry.name(CachingUrlResolver.NAME, "lookup", "duration")).getCount());
+    }
+
+    @Test
+    public void canUseTheIpOfALookupOnlyWhenItIsOver() throws Exception {
+        final StubHostResolver dns = new StubHostResolver(200);
+        final CachingUrlResolver cache = new CachingUrlResolver(dns, 4, 60000, new MetricRegistry());
+
+        final ListenableFuture<String> ip = cache.resolveIpOfUrlAsync("http://host5/a.jpg");
+        assertEquals("1.2.3.4", CachingUrlResolver.getIpIfResolved(ip, "1.2.3.4"));
+        ip.get();
+        assertEquals("10.0.0.5", CachingUrlResolver.getIpIfResolved(ip, "1.2.3.4"));
+        assertEquals("1.2.3.4", CachingUrlResolver.getIpIfResolved(cache.resolveIpOfUrlAsync("http://unknown/"), "1.2.3.4"));
+    }
+
 }
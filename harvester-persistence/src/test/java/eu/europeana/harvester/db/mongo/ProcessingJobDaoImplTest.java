@@ -221,6 +221,75 @@ public class ProcessingJobDaoImplTest {
         processingJobDao.delete(processingJob.getId());
     }
 
+    @Test
+    public void testGetDiffusedJobsWithState_LimitsTheJobsPerIp() throws Exception {
+        final int normal = JobPriority.NORMAL.getPriority();
+        final int fastLane = JobPriority.FASTLANE.getPriority();
+        final String[][] jobs = new String[][] {
+                {"1.1.1.1", "5"}, {"2.2.2.2", "2"}, {"3.3.3.3", "4"}
+        };
+        for (final String[] ipAndCount : jobs) {
+            for (int i = 0; i < Integer.parseInt(ipAndCount[1]); ++i) {
+                final String id = UUID.randomUUID().toString();
+                ids.add(id);
+                processingJobDao.create(new ProcessingJob(id, normal, new Date(), new ReferenceOwner("1", "1", "1"), null,
+                                                          JobState.READY, null, ipAndCount[0], true, null), WriteConcern.ACKNOWLEDGED);
+            }
+        }
+        // Jobs that must never be selected
+        final String runningId = UUID.randomUUID().toString();
+        final String fastLaneId = UUID.randomUUID().toString();
+        ids.add(runningId);
+        ids.add(fastLaneId);
+        processingJobDao.create(new ProcessingJob(runningId, normal, new Date(), new ReferenceOwner("1", "1", "1"), null,
+                                                  JobState.RUNNING, null, "2.2.2.2", true, null), WriteConcern.ACKNOWLEDGED);
+        processingJobDao.create(new ProcessingJob(fastLaneId, fastLane, new Date(), new ReferenceOwner("1", "1", "1"), null,
+                                                  JobState.READY, null, "2.2.2.2", true, null), WriteConcern.ACKNOWLEDGED);
+
+        final Map<String, Integer> ipDistribution = new HashMap<>();
+        ipDistribution.put("1.1.1.1", 0);
+        ipDistribution.put("2.2.2.2", 0);
+        ipDistribution.put("4.4.4.4", 0);
+
+        final List<ProcessingJob> diffusedJobs =
+                processingJobDao.getDiffusedJobsWithState(JobPriority.NORMAL, JobState.READY, new Page(0, 3), ipDistribution);
+
+        final Map<String, Integer> jobsPerIp = new HashMap<>();
+        for (final ProcessingJob job : diffusedJobs) {
+            assertEquals(JobState.READY, job.getState());
+            assertEquals(normal, job.getPriority());
+            jobsPerIp.put(job.getIpAddress(), (jobsPerIp.containsKey(job.getIpAddress()) ? jobsPerIp.get(job.getIpAddress()) : 0) + 1);
+        }
+        assertEquals(2, jobsPerIp.size());
+        assertEquals(Integer.valueOf(3), jobsPerIp.get("1.1.1.1"));
+        assertEquals(Integer.valueOf(2), jobsPerIp.get("2.2.2.2"));
+
+        assertTrue(processingJobDao.getDiffusedJobsWithState(JobPriority.NORMAL, JobState.READY, new Page(0, 3),
+                                                             new HashMap<String, Integer>()).isEmpty());
+    }
+
+    @Test
+    public void testModifyStateOfJobs_ExceptTheExcludedOnes() throws Exception {
+        final Set<String> excludedIds = new HashSet<>();
+        final List<String> resetIds = new ArrayList<>();
+        for (int i = 0; i < 10; ++i) {
+            final String id = UUID.randomUUID().toString();
+            ids.add(id);
+            (i % 2 == 0 ? excludedIds : resetIds).add(id);
+            processingJobDao.create(new ProcessingJob(id, 1, new Date(), new ReferenceOwner("1", "1", "1"), null,
+                                                      JobState.RUNNING, null, "", true, null), WriteConcern.ACKNOWLEDGED);
+        }
+
+        processingJobDao.modifyStateOfJobs(JobState.RUNNING, JobState.READY, excludedIds);
+
+        for (final String id : excludedIds) {
+            assertEquals(JobState.RUNNING, processingJobDao.read(id).getState());
+        }
+        for (final String id : resetIds) {
+            assertEquals(JobState.READY, processingJobDao.read(id).getState());
+        }
+    }
+
     @Test
     public void testUpdateDocuments() throws Exception {
         final ReferenceOwner[] referenceOwners = new ReferenceOwner[] {new ReferenceOwner("1", "1", "1", "1"),
@@ -22,6 +22,7 @@ import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
 import eu.europeana.harvester.cluster.domain.messages.Monitor;
 import eu.europeana.harvester.cluster.master.ClusterMasterActor;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.limiter.domain.TokenBucketConfig;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.db.interfaces.*;
 import eu.europeana.harvester.db.mongo.*;
@@ -80,8 +81,14 @@ class Master {
 
         final JobRestarterConfig jobRestarterConfig = JobRestarterConfig.valueOf(config.getConfig("akka.cluster"));
 
+        final String journalDirectory = config.hasPath("journal.directory") ? config.getString("journal.directory") : null;
+
+        final TokenBucketConfig tokenBucketConfig = config.hasPath("ip-rate-limits") ?
+                TokenBucketConfig.valueOf(config.getConfig("ip-rate-limits")) : null;
+
         final ClusterMasterConfig clusterMasterConfig = new ClusterMasterConfig(jobsPerIP, maxTasksInMemory,
-                receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig, WriteConcern.NONE);
+                receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig, WriteConcern.NONE,
+                journalDirectory, tokenBucketConfig);
 
         Slf4jReporter reporter = Slf4jReporter.forRegistry(MasterMetrics.METRIC_REGISTRY)
                 .outputTo(org.slf4j.LoggerFactory.getLogger("metrics"))
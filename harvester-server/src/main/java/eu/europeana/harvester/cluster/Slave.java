@@ -3,6 +3,7 @@ package eu.europeana.harvester.cluster;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.routing.FromConfig;
+import com.codahale.metrics.Gauge;
 import com.codahale.metrics.MetricFilter;
 import com.codahale.metrics.Slf4jReporter;
 import com.codahale.metrics.graphite.Graphite;
@@ -12,12 +13,20 @@ import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigParseOptions;
 import com.typesafe.config.ConfigSyntax;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
 import eu.europeana.harvester.cluster.domain.NodeMasterConfig;
+import eu.europeana.harvester.cluster.domain.SlaveCacheConfig;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
+import eu.europeana.harvester.cluster.domain.SlaveUploadConfig;
 import eu.europeana.harvester.cluster.slave.NodeSupervisor;
 import eu.europeana.harvester.cluster.slave.SlaveMetrics;
+import eu.europeana.harvester.cluster.slave.caching.SlaveMediaCache;
+import eu.europeana.harvester.cluster.slave.storing.SlaveUploader;
 import eu.europeana.harvester.cluster.slave.validator.ImageMagicValidator;
 import eu.europeana.harvester.db.MediaStorageClient;
 import eu.europeana.harvester.db.dummy.DummyMediaStorageClientImpl;
+import eu.europeana.harvester.db.filesystem.FileSystemConfiguration;
+import eu.europeana.harvester.db.filesystem.ShardedFileSystemMediaStorageClientImpl;
 import eu.europeana.harvester.db.s3.S3Configuration;
 import eu.europeana.harvester.db.s3.S3MediaClientStorage;
 import eu.europeana.harvester.db.swift.SwiftConfiguration;
@@ -28,12 +37,13 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.util.concurrent.TimeUnit;
 
 public class Slave {
 
-    public static final CachingUrlResolver URL_RESOLVER = new CachingUrlResolver();
+    public static final CachingUrlResolver URL_RESOLVER = new CachingUrlResolver(SlaveMetrics.METRIC_REGISTRY);
 
     private static final Logger LOG = LogManager.getLogger(Slave.class.getName());
 
@@ -43,6 +53,26 @@ public class Slave {
 
     private Config config;
 
+    /**
+     * The local cache of the slave, kept by the restarts of its actor system.
+     */
+    private SlaveMediaCache mediaCache;
+
+    /**
+     * The storage stage of the current actor system.
+     */
+    private volatile SlaveUploader uploader;
+
+    /**
+     * The media storage of the current actor system, closed when the actor system stops.
+     */
+    private MediaStorageClient mediaStorageClient;
+
+    /**
+     * How long the uploads taken by the storage stage may still run once the actor system stopped.
+     */
+    private static final long UPLOADS_TERMINATION_TIMEOUT_IN_MINUTES = 5;
+
     private static final String containerName = "swiftUnitTesting";
 
 
@@ -103,8 +133,15 @@ public class Slave {
         final Integer nrOfRetries = config.getInt("slave.nrOfRetries");
         final Integer taskNrLimit = config.getInt("slave.taskNrLimit");
 
+        final SlaveHttpClientConfig httpClientConfig = config.hasPath("slave.http") ?
+                SlaveHttpClientConfig.valueOf(config.getConfig("slave.http")) : SlaveHttpClientConfig.defaults();
+
+        final ImagingBackend imagingBackend = config.hasPath("slave.imagingBackend") ?
+                ImagingBackend.valueOf(config.getString("slave.imagingBackend").toUpperCase()) : ImagingBackend.IMAGEMAGICK;
+
         final NodeMasterConfig nodeMasterConfig = new NodeMasterConfig(nrOfDownloaderSlaves, nrOfExtractorSlaves,
-                nrOfPingerSlaves, nrOfRetries, taskNrLimit, pathToSave, responseType, source, colorMapPath);
+                nrOfPingerSlaves, nrOfRetries, taskNrLimit, pathToSave, responseType, source, colorMapPath,
+                httpClientConfig, imagingBackend);
 
         final String mediaStorageClientType = config.hasPath("media-storage-type") ? config.getString("media-storage-type") : "DUMMY";
 
@@ -117,6 +154,9 @@ public class Slave {
 
             } else if("S3".equalsIgnoreCase(mediaStorageClientType)){
                 mediaStorageClient = new S3MediaClientStorage(S3Configuration.valueOf(config.getConfig("media-storage")));
+            } else if ("FILESYSTEM".equalsIgnoreCase(mediaStorageClientType)) {
+                LOG.debug("CLUSTER SLAVE Using the sharded file system as media-storage");
+                mediaStorageClient = new ShardedFileSystemMediaStorageClientImpl(FileSystemConfiguration.valueOf(config.getConfig("media-storage")));
             } else {
                 LOG.debug("CLUSTER SLAVE Using dummy as media-storage");
                 mediaStorageClient = new DummyMediaStorageClientImpl();
@@ -151,8 +191,9 @@ public class Slave {
 
         final ActorRef masterSender = system.actorOf(FromConfig.getInstance().props(), "masterSender");
 
+        this.mediaStorageClient = mediaStorageClient;
         NodeSupervisor.createActor(system, slave, masterSender,nodeMasterConfig,
-                mediaStorageClient, SlaveMetrics.METRIC_REGISTRY);
+                mediaStorageClient, mediaCache(), uploader(mediaStorageClient, mediaStorageClientType), SlaveMetrics.METRIC_REGISTRY);
 
         //system.actorOf(Props.create(MetricsListener.class), "metricsListener");
     }
@@ -184,8 +225,15 @@ public class Slave {
         final Integer nrOfRetries = config.getInt("slave.nrOfRetries");
         final Integer taskNrLimit = config.getInt("slave.taskNrLimit");
 
+        final SlaveHttpClientConfig httpClientConfig = config.hasPath("slave.http") ?
+                SlaveHttpClientConfig.valueOf(config.getConfig("slave.http")) : SlaveHttpClientConfig.defaults();
+
+        final ImagingBackend imagingBackend = config.hasPath("slave.imagingBackend") ?
+                ImagingBackend.valueOf(config.getString("slave.imagingBackend").toUpperCase()) : ImagingBackend.IMAGEMAGICK;
+
         final NodeMasterConfig nodeMasterConfig = new NodeMasterConfig(nrOfDownloaderSlaves, nrOfExtractorSlaves,
-                nrOfPingerSlaves, nrOfRetries, taskNrLimit, pathToSave, responseType, source, colorMapPath);
+                nrOfPingerSlaves, nrOfRetries, taskNrLimit, pathToSave, responseType, source, colorMapPath,
+                httpClientConfig, imagingBackend);
 
         final String mediaStorageClientType = config.hasPath("media-storage-type") ? config.getString("media-storage-type") : "DUMMY";
 
@@ -196,6 +244,9 @@ public class Slave {
                 LOG.debug("CLUSTER SLAVE Using swift as media-storage");
                 mediaStorageClient = new SwiftMediaStorageClientImpl(SwiftConfiguration.valueOf(config.getConfig("media-storage")));
 
+            } else if ("FILESYSTEM".equalsIgnoreCase(mediaStorageClientType)) {
+                LOG.debug("CLUSTER SLAVE Using the sharded file system as media-storage");
+                mediaStorageClient = new ShardedFileSystemMediaStorageClientImpl(FileSystemConfiguration.valueOf(config.getConfig("media-storage")));
             } else {
                 LOG.debug("CLUSTER SLAVE Using dummy as media-storage");
                 mediaStorageClient = new DummyMediaStorageClientImpl();
@@ -213,19 +264,70 @@ public class Slave {
 
         final ActorRef masterSender = system.actorOf(FromConfig.getInstance().props(), "masterSender");
 
+        this.mediaStorageClient = mediaStorageClient;
         NodeSupervisor.createActor(system, slave, masterSender,nodeMasterConfig,
-                mediaStorageClient, SlaveMetrics.METRIC_REGISTRY);
+                mediaStorageClient, mediaCache(), uploader(mediaStorageClient, mediaStorageClientType), SlaveMetrics.METRIC_REGISTRY);
 
 
     }
 
 
 
+    /**
+     * @return the local cache of the slave, null if it is not configured
+     */
+    private SlaveMediaCache mediaCache() throws IOException {
+        if (null == mediaCache && config.hasPath("slave.cache")) {
+            final SlaveMediaCache cache = new SlaveMediaCache(SlaveCacheConfig.valueOf(config.getConfig("slave.cache")));
+            SlaveMetrics.Worker.Slave.Cache.sizeInBytes.registerHandler(new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return cache.getSizeInBytes();
+                }
+            });
+            SlaveMetrics.Worker.Slave.Cache.entries.registerHandler(new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return cache.getEntryCount();
+                }
+            });
+            mediaCache = cache;
+        }
+        return mediaCache;
+    }
+
+    /**
+     * @return the storage stage for the media storage, null if it is not configured
+     */
+    private SlaveUploader uploader(final MediaStorageClient mediaStorageClient, final String mediaStorageClientType) {
+        if (!config.hasPath("slave.upload")) {
+            return null;
+        }
+        if (null == uploader) {
+            SlaveMetrics.Worker.Slave.Upload.queueDepth.registerHandler(new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return uploader.getQueueDepth();
+                }
+            });
+            SlaveMetrics.Worker.Slave.Upload.activeUploads.registerHandler(new Gauge<Integer>() {
+                @Override
+                public Integer getValue() {
+                    return uploader.getActiveUploads();
+                }
+            });
+        }
+        uploader = new SlaveUploader(mediaStorageClient,
+                SlaveUploadConfig.valueOf(config.getConfig("slave.upload"), mediaStorageClientType));
+        return uploader;
+    }
+
     public void restart() {
         LOG.debug("CLUSTER SLAVE Shutting down the actor system, restart.");
         SlaveMetrics.Worker.Slave.restartCounter.inc();
         system.shutdown();
         system.awaitTermination();
+        closeMediaStorage();
         //sleep 5 minutes
         try {
             Thread.sleep(300000l);
@@ -244,6 +346,36 @@ public class Slave {
 
     }
 
+    /**
+     * Stops the actor system, then the storage stage & the media storage.
+     */
+    public void shutdown() {
+        LOG.debug("CLUSTER SLAVE Shutting down the actor system.");
+        system.shutdown();
+        system.awaitTermination();
+        closeMediaStorage();
+    }
+
+    /**
+     * Lets the storage stage finish the uploads it took, then closes the media storage of the stopped actor system.
+     */
+    private void closeMediaStorage() {
+        if (null != uploader) {
+            uploader.shutdown();
+            try {
+                if (!uploader.awaitTermination(UPLOADS_TERMINATION_TIMEOUT_IN_MINUTES, TimeUnit.MINUTES)) {
+                    LOG.error("CLUSTER SLAVE Some uploads were still running when the media storage was closed.");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (null != mediaStorageClient) {
+            mediaStorageClient.close();
+            mediaStorageClient = null;
+        }
+    }
+
     public ActorSystem getActorSystem() {
         return system;
     }
@@ -255,6 +387,12 @@ public class Slave {
     public static void main(String[] args) throws Exception {
         final Slave slave = new Slave(args);
         slave.init(slave);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                slave.shutdown();
+            }
+        }, "slave-shutdown"));
         //slave.start();
     }
 
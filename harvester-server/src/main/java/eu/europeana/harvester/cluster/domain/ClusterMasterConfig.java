@@ -2,6 +2,7 @@ package eu.europeana.harvester.cluster.domain;
 
 import com.mongodb.WriteConcern;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
+import eu.europeana.harvester.cluster.master.limiter.domain.TokenBucketConfig;
 import org.joda.time.Duration;
 
 /**
@@ -38,14 +39,39 @@ public class ClusterMasterConfig {
      */
     private final WriteConcern writeConcern;
 
+    /**
+     * The local directory where the master journals its in-memory state or null to keep it only in memory.
+     */
+    private final String journalDirectory;
+
+    /**
+     * The adaptive request rate limits per IP, null to limit only the concurrent connections.
+     */
+    private final TokenBucketConfig tokenBucketConfig;
+
     public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
                                 JobRestarterConfig jobRestarterConfig, final WriteConcern writeConcern) {
+        this(jobsPerIP, maxTasksInMemory, receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig,
+                writeConcern, null);
+    }
+
+    public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
+                                JobRestarterConfig jobRestarterConfig, final WriteConcern writeConcern, final String journalDirectory) {
+        this(jobsPerIP, maxTasksInMemory, receiveTimeoutInterval, responseTimeoutFromSlaveInMillis, jobRestarterConfig,
+                writeConcern, journalDirectory, null);
+    }
+
+    public ClusterMasterConfig (final Integer jobsPerIP, final Long maxTasksInMemory, final Duration receiveTimeoutInterval, final Integer responseTimeoutFromSlaveInMillis,
+                                JobRestarterConfig jobRestarterConfig, final WriteConcern writeConcern, final String journalDirectory,
+                                final TokenBucketConfig tokenBucketConfig) {
         this.jobsPerIP = jobsPerIP;
         this.maxTasksInMemory = maxTasksInMemory;
         this.receiveTimeoutInterval = receiveTimeoutInterval;
         this.responseTimeoutFromSlaveInMillis = responseTimeoutFromSlaveInMillis;
         this.jobRestarterConfig = jobRestarterConfig;
         this.writeConcern = writeConcern;
+        this.journalDirectory = journalDirectory;
+        this.tokenBucketConfig = tokenBucketConfig;
     }
 
     public Duration getReceiveTimeoutInterval() {
@@ -71,4 +97,12 @@ public class ClusterMasterConfig {
     public JobRestarterConfig getJobRestarterConfig () {
         return jobRestarterConfig;
     }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public TokenBucketConfig getTokenBucketConfig() {
+        return tokenBucketConfig;
+    }
 }
@@ -0,0 +1,18 @@
+package eu.europeana.harvester.cluster.domain;
+
+/**
+ * The engine used by a slave to generate thumbnails & extract color palettes from images.
+ */
+public enum ImagingBackend {
+
+    /**
+     * Every operation forks an ImageMagick process (via im4java).
+     */
+    IMAGEMAGICK,
+
+    /**
+     * Decoding, resizing, encoding & palette quantisation happen in the JVM (via ImageIO).
+     * The formats ImageIO cannot decode and PDFs are still handled by ImageMagick.
+     */
+    JAVA
+}
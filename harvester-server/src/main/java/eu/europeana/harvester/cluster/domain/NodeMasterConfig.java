@@ -46,10 +46,21 @@ public class NodeMasterConfig {
 
     private final String colorMapPath;
 
+    /**
+     * The configuration of the http engine shared by all the workers of the node.
+     */
+    private final SlaveHttpClientConfig httpClientConfig;
+
+    /**
+     * The engine used to generate thumbnails & extract color palettes from images.
+     */
+    private final ImagingBackend imagingBackend;
+
     public NodeMasterConfig(final Integer nrOfDownloaderSlaves, final Integer nrOfExtractorSlaves,
                             final Integer nrOfPingerSlaves, final Integer nrOfRetries, final Integer taskNrLimit,
                             final String pathToSave, final ResponseType responseType, final String source,
-                            final String colorMapPath) {
+                            final String colorMapPath, final SlaveHttpClientConfig httpClientConfig,
+                            final ImagingBackend imagingBackend) {
         this.nrOfDownloaderSlaves = nrOfDownloaderSlaves;
         this.nrOfExtractorSlaves = nrOfExtractorSlaves;
         this.nrOfPingerSlaves = nrOfPingerSlaves;
@@ -59,6 +70,8 @@ public class NodeMasterConfig {
         this.responseType = responseType;
         this.source = source;
         this.colorMapPath = colorMapPath;
+        this.httpClientConfig = httpClientConfig;
+        this.imagingBackend = imagingBackend;
     }
 
     public int getNrOfDownloaderSlaves() {
@@ -96,4 +109,12 @@ public class NodeMasterConfig {
     public Integer getTaskNrLimit() {
         return taskNrLimit;
     }
+
+    public SlaveHttpClientConfig getHttpClientConfig() {
+        return httpClientConfig;
+    }
+
+    public ImagingBackend getImagingBackend() {
+        return imagingBackend;
+    }
 }
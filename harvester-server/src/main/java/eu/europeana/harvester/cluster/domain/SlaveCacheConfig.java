@@ -0,0 +1,50 @@
+package eu.europeana.harvester.cluster.domain;
+
+import com.typesafe.config.Config;
+
+/**
+ * Stores the configuration of the local cache of the thumbnails of a slave.
+ */
+public class SlaveCacheConfig {
+
+    /**
+     * The folder of the cache, it is kept between the restarts of the slave.
+     */
+    private final String folder;
+
+    /**
+     * The maximum size of the cache on the disk, the least recently used entries are evicted above it.
+     */
+    private final Long maxSizeInBytes;
+
+    /**
+     * The maximum age of an entry, an older entry is evicted when it is looked up.
+     */
+    private final Long maxAgeInMillis;
+
+    public SlaveCacheConfig(final String folder, final Long maxSizeInBytes, final Long maxAgeInMillis) {
+        this.folder = folder;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.maxAgeInMillis = maxAgeInMillis;
+    }
+
+    public static SlaveCacheConfig valueOf(final Config config) {
+        if (!config.hasPath("folder")) throw new IllegalArgumentException("The slave cache configuration needs a folder");
+        return new SlaveCacheConfig(
+                config.getString("folder"),
+                config.hasPath("maxSizeInMegabytes") ? config.getLong("maxSizeInMegabytes") * 1024 * 1024 : 10L * 1024 * 1024 * 1024,
+                config.hasPath("maxAgeInHours") ? config.getLong("maxAgeInHours") * 60 * 60 * 1000 : 7L * 24 * 60 * 60 * 1000);
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public Long getMaxSizeInBytes() {
+        return maxSizeInBytes;
+    }
+
+    public Long getMaxAgeInMillis() {
+        return maxAgeInMillis;
+    }
+}
@@ -0,0 +1,90 @@
+package eu.europeana.harvester.cluster.domain;
+
+import com.typesafe.config.Config;
+
+/**
+ * Stores the configuration of the http engine shared by all the workers of a slave.
+ * The per task limits (timeouts, redirects) are applied on each request, these are only the slave wide bounds.
+ */
+public class SlaveHttpClientConfig {
+
+    /**
+     * The maximum number of open connections of the slave.
+     */
+    private final Integer maxConnections;
+
+    /**
+     * The maximum number of open connections towards a single host.
+     */
+    private final Integer maxConnectionsPerHost;
+
+    /**
+     * The upper bound of redirects followed for any request.
+     */
+    private final Integer maxRedirects;
+
+    /**
+     * The connect timeout value in milliseconds.
+     */
+    private final Integer connectTimeoutInMillis;
+
+    /**
+     * The time in milliseconds an idle keep-alive connection stays in the pool.
+     */
+    private final Integer pooledConnectionIdleTimeoutInMillis;
+
+    /**
+     * The number of times a request is retried when the connection is lost.
+     */
+    private final Integer maxRequestRetry;
+
+    public SlaveHttpClientConfig(final Integer maxConnections, final Integer maxConnectionsPerHost,
+                                 final Integer maxRedirects, final Integer connectTimeoutInMillis,
+                                 final Integer pooledConnectionIdleTimeoutInMillis, final Integer maxRequestRetry) {
+        this.maxConnections = maxConnections;
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        this.maxRedirects = maxRedirects;
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+        this.pooledConnectionIdleTimeoutInMillis = pooledConnectionIdleTimeoutInMillis;
+        this.maxRequestRetry = maxRequestRetry;
+    }
+
+    public static SlaveHttpClientConfig defaults() {
+        return new SlaveHttpClientConfig(500, 20, 10, 100000, 60000, 3);
+    }
+
+    public static SlaveHttpClientConfig valueOf(final Config config) {
+        final SlaveHttpClientConfig defaults = defaults();
+        return new SlaveHttpClientConfig(
+                config.hasPath("maxConnections") ? config.getInt("maxConnections") : defaults.getMaxConnections(),
+                config.hasPath("maxConnectionsPerHost") ? config.getInt("maxConnectionsPerHost") : defaults.getMaxConnectionsPerHost(),
+                config.hasPath("maxRedirects") ? config.getInt("maxRedirects") : defaults.getMaxRedirects(),
+                config.hasPath("connectTimeoutInMillis") ? config.getInt("connectTimeoutInMillis") : defaults.getConnectTimeoutInMillis(),
+                config.hasPath("pooledConnectionIdleTimeoutInMillis") ? config.getInt("pooledConnectionIdleTimeoutInMillis") : defaults.getPooledConnectionIdleTimeoutInMillis(),
+                config.hasPath("maxRequestRetry") ? config.getInt("maxRequestRetry") : defaults.getMaxRequestRetry());
+    }
+
+    public Integer getMaxConnections() {
+        return maxConnections;
+    }
+
+    public Integer getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    public Integer getMaxRedirects() {
+        return maxRedirects;
+    }
+
+    public Integer getConnectTimeoutInMillis() {
+        return connectTimeoutInMillis;
+    }
+
+    public Integer getPooledConnectionIdleTimeoutInMillis() {
+        return pooledConnectionIdleTimeoutInMillis;
+    }
+
+    public Integer getMaxRequestRetry() {
+        return maxRequestRetry;
+    }
+}
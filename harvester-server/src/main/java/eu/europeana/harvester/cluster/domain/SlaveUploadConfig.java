@@ -0,0 +1,91 @@
+package eu.europeana.harvester.cluster.domain;
+
+import com.typesafe.config.Config;
+
+/**
+ * Stores the configuration of the storage stage of a slave : the thumbnails & originals are uploaded on their own
+ * threads while the workers go on with the next tasks.
+ */
+public class SlaveUploadConfig {
+
+    /**
+     * The maximum number of uploads running at once, it depends on what the storage backend can take.
+     */
+    private final Integer concurrency;
+
+    /**
+     * The maximum number of uploads waiting for a thread, a worker uploads by itself above it.
+     */
+    private final Integer queueSize;
+
+    /**
+     * The number of times a failed upload is tried again.
+     */
+    private final Integer maxRetries;
+
+    /**
+     * The upper bound of the wait before the first retry, it doubles with each retry.
+     */
+    private final Long initialBackoffInMillis;
+
+    /**
+     * The upper bound of the wait before any retry.
+     */
+    private final Long maxBackoffInMillis;
+
+    public SlaveUploadConfig(final Integer concurrency, final Integer queueSize, final Integer maxRetries,
+                             final Long initialBackoffInMillis, final Long maxBackoffInMillis) {
+        this.concurrency = concurrency;
+        this.queueSize = queueSize;
+        this.maxRetries = maxRetries;
+        this.initialBackoffInMillis = initialBackoffInMillis;
+        this.maxBackoffInMillis = maxBackoffInMillis;
+    }
+
+    public static SlaveUploadConfig defaults() {
+        return new SlaveUploadConfig(8, 1000, 3, 500L, 30000L);
+    }
+
+    /**
+     * @param backendType the type of the media storage, its limit in concurrency.<backendType> wins over
+     *                    concurrency.default
+     */
+    public static SlaveUploadConfig valueOf(final Config config, final String backendType) {
+        final SlaveUploadConfig defaults = defaults();
+        final String backendConcurrency = "concurrency." + backendType.toUpperCase();
+        final Integer concurrency;
+        if (config.hasPath(backendConcurrency)) {
+            concurrency = config.getInt(backendConcurrency);
+        } else if (config.hasPath("concurrency.default")) {
+            concurrency = config.getInt("concurrency.default");
+        } else {
+            concurrency = defaults.getConcurrency();
+        }
+        return new SlaveUploadConfig(
+                concurrency,
+                config.hasPath("queueSize") ? config.getInt("queueSize") : defaults.getQueueSize(),
+                config.hasPath("maxRetries") ? config.getInt("maxRetries") : defaults.getMaxRetries(),
+                config.hasPath("initialBackoffInMillis") ? config.getLong("initialBackoffInMillis") : defaults.getInitialBackoffInMillis(),
+                config.hasPath("maxBackoffInMillis") ? config.getLong("maxBackoffInMillis") : defaults.getMaxBackoffInMillis());
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public Integer getQueueSize() {
+        return queueSize;
+    }
+
+    public Integer getMaxRetries() {
+        return maxRetries;
+    }
+
+    public Long getInitialBackoffInMillis() {
+        return initialBackoffInMillis;
+    }
+
+    public Long getMaxBackoffInMillis() {
+        return maxBackoffInMillis;
+    }
+}
@@ -153,6 +153,12 @@ public class DoneProcessing implements Serializable {
      */
     private final String log;
 
+    /**
+     * The MD5 (hex) of the retrieved content. For a conditional download that was skipped it is the MD5 of the
+     * previously retrieved content. Null if nothing was retrieved.
+     */
+    private final String contentMd5;
+
     public DoneProcessing(
             final String taskID, final String url, String referenceId, final String jobId,
             final DocumentReferenceTaskType taskType,
@@ -176,6 +182,7 @@ public class DoneProcessing implements Serializable {
         this.sourceIp = (httpRetrieveResponse != null) ? httpRetrieveResponse.getSourceIp() : null;
         this.httpResponseHeaders = (httpRetrieveResponse != null) ? httpRetrieveResponse.getResponseHeaders() : null;
         this.redirectionPath = (httpRetrieveResponse != null) ? httpRetrieveResponse.getRedirectionPath() : null;
+        this.contentMd5 = (httpRetrieveResponse != null) ? httpRetrieveResponse.getContentMd5() : null;
         this.imageMetaInfo = imageMetaInfo;
         this.audioMetaInfo = audioMetaInfo;
         this.videoMetaInfo = videoMetaInfo;
@@ -194,7 +201,8 @@ public class DoneProcessing implements Serializable {
                           final List<String> redirectionPath,
                           final ProcessingJobSubTaskStats stats, final String log,
                           final ImageMetaInfo imageMetaInfo, final AudioMetaInfo audioMetaInfo,
-                          final VideoMetaInfo videoMetaInfo, final TextMetaInfo textMetaInfo) {
+                          final VideoMetaInfo videoMetaInfo, final TextMetaInfo textMetaInfo,
+                          final String contentMd5) {
         this.taskID = taskID;
         this.url = url;
         this.referenceId = referenceId;
@@ -215,6 +223,7 @@ public class DoneProcessing implements Serializable {
         this.textMetaInfo = textMetaInfo;
         this.stats = stats;
         this.log = log;
+        this.contentMd5 = contentMd5;
     }
 
     public String getUrl() {
@@ -301,6 +310,10 @@ public class DoneProcessing implements Serializable {
         return taskID;
     }
 
+    public String getContentMd5() {
+        return contentMd5;
+    }
+
     public DoneProcessing withProcessingInfo(final ProcessingJobSubTaskStats newSubTaskState,
                                              final ImageMetaInfo newImageMetaInfo,
                                              final AudioMetaInfo newAudioMetaInfo, final VideoMetaInfo newVideoMetaInfo,
@@ -314,6 +327,21 @@ public class DoneProcessing implements Serializable {
                 redirectionPath,
                 newSubTaskState, log,
                 newImageMetaInfo, newAudioMetaInfo,
-                newVideoMetaInfo, newTextMetaInfo);
+                newVideoMetaInfo, newTextMetaInfo,
+                contentMd5);
+    }
+
+    public DoneProcessing withContentMd5(final String newContentMd5) {
+        return new DoneProcessing(taskID, url, referenceId, jobId,
+                taskType, httpResponseCode,
+                httpResponseContentType, httpResponseContentSizeInBytes,
+                socketConnectToDownloadStartDurationInMilliSecs,
+                retrievalDurationInMilliSecs, checkingDurationInMilliSecs,
+                sourceIp, httpResponseHeaders,
+                redirectionPath,
+                stats, log,
+                imageMetaInfo, audioMetaInfo,
+                videoMetaInfo, textMetaInfo,
+                newContentMd5);
     }
 }
@@ -0,0 +1,44 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by a download worker to the node master when the retrieval of a task is done and the downloaded
+ * content has to be processed. The node master forwards it to a processing worker.
+ */
+public class ProcessDownloadedUrl implements Serializable {
+
+    /**
+     * The task & the path where its content was downloaded.
+     */
+    private final RetrieveUrlWithProcessingConfig taskWithProcessingConfig;
+
+    /**
+     * The result of the retrieval, completed by the processing worker.
+     */
+    private final DoneProcessing retrieval;
+
+    /**
+     * The url from which the content was retrieved.
+     */
+    private final String originalFileUrl;
+
+    public ProcessDownloadedUrl(final RetrieveUrlWithProcessingConfig taskWithProcessingConfig,
+                                final DoneProcessing retrieval, final String originalFileUrl) {
+        this.taskWithProcessingConfig = taskWithProcessingConfig;
+        this.retrieval = retrieval;
+        this.originalFileUrl = originalFileUrl;
+    }
+
+    public RetrieveUrlWithProcessingConfig getTaskWithProcessingConfig() {
+        return taskWithProcessingConfig;
+    }
+
+    public DoneProcessing getRetrieval() {
+        return retrieval;
+    }
+
+    public String getOriginalFileUrl() {
+        return originalFileUrl;
+    }
+}
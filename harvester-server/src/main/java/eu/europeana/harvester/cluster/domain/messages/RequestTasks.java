@@ -2,5 +2,63 @@ package eu.europeana.harvester.cluster.domain.messages;
 
 import java.io.Serializable;
 
+/**
+ * Message sent by slaves to ask for a bag of tasks. It carries the demand of the slave (the credit) : the number of
+ * tasks it can take now, with the free capacity & the local queue it was computed from.
+ * A request without demand (created with the no-arg constructor) gets a bag of the default size.
+ */
 public class RequestTasks implements Serializable {
+
+    /**
+     * The number of tasks the slave can take, null if unknown.
+     */
+    private final Integer demand;
+
+    /**
+     * The download workers of the slave waiting for a task.
+     */
+    private final Integer freeDownloadSlots;
+
+    /**
+     * The processing workers of the slave waiting for a downloaded task.
+     */
+    private final Integer freeProcessingSlots;
+
+    /**
+     * The tasks the slave holds, waiting for a connection slot, waiting for a worker or in progress.
+     */
+    private final Integer queuedTasks;
+
+    public RequestTasks() {
+        this(null, null, null, null);
+    }
+
+    public RequestTasks(Integer demand, Integer freeDownloadSlots, Integer freeProcessingSlots, Integer queuedTasks) {
+        this.demand = demand;
+        this.freeDownloadSlots = freeDownloadSlots;
+        this.freeProcessingSlots = freeProcessingSlots;
+        this.queuedTasks = queuedTasks;
+    }
+
+    public Integer getDemand() {
+        return demand;
+    }
+
+    public Integer getFreeDownloadSlots() {
+        return freeDownloadSlots;
+    }
+
+    public Integer getFreeProcessingSlots() {
+        return freeProcessingSlots;
+    }
+
+    public Integer getQueuedTasks() {
+        return queuedTasks;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestTasks{demand=" + demand + ", freeDownloadSlots=" + freeDownloadSlots +
+                ", freeProcessingSlots=" + freeProcessingSlots + ", queuedTasks=" + queuedTasks + "}";
+    }
 }
@@ -61,9 +61,21 @@ public class RetrieveUrl implements Serializable {
      */
     private final ReferenceOwner referenceOwner;
 
+    /**
+     * The MD5 (hex) of the content retrieved the last time. Null if the url was never retrieved.
+     */
+    private final String contentMd5;
+
     public RetrieveUrl(final String id, final String url, final DocumentReferenceTaskType taskType, final ProcessingJobLimits limits, final String jobId,
                        final String referenceId, final Map<String, String> headers,
                        final ProcessingJobTaskDocumentReference documentReferenceTask, String ipAddress, final ReferenceOwner referenceOwner) {
+        this(id, url, taskType, limits, jobId, referenceId, headers, documentReferenceTask, ipAddress, referenceOwner, null);
+    }
+
+    public RetrieveUrl(final String id, final String url, final DocumentReferenceTaskType taskType, final ProcessingJobLimits limits, final String jobId,
+                       final String referenceId, final Map<String, String> headers,
+                       final ProcessingJobTaskDocumentReference documentReferenceTask, String ipAddress, final ReferenceOwner referenceOwner,
+                       final String contentMd5) {
         this.id = id;
         this.url = url;
         this.taskType = taskType;
@@ -74,21 +86,14 @@ public class RetrieveUrl implements Serializable {
         this.documentReferenceTask = documentReferenceTask;
         this.ipAddress = ipAddress;
         this.referenceOwner = referenceOwner;
+        this.contentMd5 = contentMd5;
     }
 
     public RetrieveUrl(final String url, final ProcessingJobLimits limits, DocumentReferenceTaskType taskType, final String jobId,
                        final String referenceId, final Map<String, String> headers,
                        final ProcessingJobTaskDocumentReference documentReferenceTask, String ipAddress, final ReferenceOwner referenceOwner) {
-        this.id = UUID.randomUUID().toString();
-        this.url = url;
-        this.limits = limits;
-        this.taskType = taskType;
-        this.jobId = jobId;
-        this.referenceId = referenceId;
-        this.headers = headers;
-        this.documentReferenceTask = documentReferenceTask;
-        this.ipAddress = ipAddress;
-        this.referenceOwner = referenceOwner;
+        this(UUID.randomUUID().toString(), url, taskType, limits, jobId, referenceId, headers, documentReferenceTask, ipAddress,
+                referenceOwner, null);
     }
 
     public String getUrl() {
@@ -155,14 +160,25 @@ public class RetrieveUrl implements Serializable {
         return referenceOwner;
     }
 
+    public String getContentMd5() {
+        return contentMd5;
+    }
+
     public RetrieveUrl withTaskType(final DocumentReferenceTaskType newTaskType) {
-        return new RetrieveUrl(url, limits, newTaskType, jobId, referenceId, headers, documentReferenceTask, ipAddress, referenceOwner);
+        return new RetrieveUrl(UUID.randomUUID().toString(), url, newTaskType, limits, jobId, referenceId, headers,
+                documentReferenceTask, ipAddress, referenceOwner, contentMd5);
     }
 
     public RetrieveUrl withContentLengthHeaderValue(final Long value) {
         final Map<String,String> newHeaders = Maps.newHashMap(headers);
         newHeaders.put("Content-Length",value+"");
-        return new RetrieveUrl(url, limits, taskType, jobId, referenceId, newHeaders, documentReferenceTask, ipAddress, referenceOwner);
+        return new RetrieveUrl(UUID.randomUUID().toString(), url, taskType, limits, jobId, referenceId, newHeaders,
+                documentReferenceTask, ipAddress, referenceOwner, contentMd5);
+    }
+
+    public RetrieveUrl withContentMd5(final String newContentMd5) {
+        return new RetrieveUrl(id, url, taskType, limits, jobId, referenceId, headers, documentReferenceTask, ipAddress,
+                referenceOwner, newContentMd5);
     }
 
 }
@@ -0,0 +1,24 @@
+package eu.europeana.harvester.cluster.domain.messages;
+
+import java.io.Serializable;
+
+/**
+ * Message sent by a processing worker to the node master when it handed the thumbnails of a task over to the
+ * storage stage. The worker & the connection slot of the task are free from then on, the {@link DoneProcessing}
+ * of the task follows once the upload is done.
+ */
+public class UploadStarted implements Serializable {
+
+    /**
+     * The ID of the task.
+     */
+    private final String taskID;
+
+    public UploadStarted(final String taskID) {
+        this.taskID = taskID;
+    }
+
+    public String getTaskID() {
+        return taskID;
+    }
+}
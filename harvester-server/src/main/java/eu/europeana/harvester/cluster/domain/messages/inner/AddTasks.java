@@ -0,0 +1,29 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Message sent by the job loader to the accountant with a batch of new tasks of the same priority.
+ */
+public class AddTasks implements Serializable {
+
+    private final Integer jobPriority;
+
+    private final List<RetrieveUrl> tasks;
+
+    public AddTasks(Integer jobPriority, List<RetrieveUrl> tasks) {
+        this.jobPriority = jobPriority;
+        this.tasks = tasks;
+    }
+
+    public Integer getJobPriority() {
+        return jobPriority;
+    }
+
+    public List<RetrieveUrl> getTasks() {
+        return tasks;
+    }
+}
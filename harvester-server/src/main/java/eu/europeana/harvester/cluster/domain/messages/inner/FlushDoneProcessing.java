@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * Tells the job dumper to write the buffered done tasks, even if the batch is not full.
+ */
+public class FlushDoneProcessing implements Serializable {
+}
@@ -0,0 +1,9 @@
+package eu.europeana.harvester.cluster.domain.messages.inner;
+
+import java.io.Serializable;
+
+/**
+ * Asks the accountant the ids of the jobs which have waiting or started tasks, answered with a set of ids.
+ */
+public class GetJobIdsOfTasks implements Serializable {
+}
@@ -0,0 +1,192 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import akka.serialization.JSerializer;
+import com.esotericsoftware.kryo.Kryo;
+import com.esotericsoftware.kryo.io.Input;
+import com.esotericsoftware.kryo.io.Output;
+import com.esotericsoftware.kryo.serializers.CollectionSerializer;
+import com.esotericsoftware.kryo.serializers.MapSerializer;
+import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotsLease;
+import eu.europeana.harvester.cluster.master.limiter.domain.RevokeConnectionSlotsLeases;
+import eu.europeana.harvester.domain.*;
+import org.objenesis.strategy.StdInstantiatorStrategy;
+
+import java.util.*;
+
+/**
+ * Serializes the messages exchanged by the master & the slaves with Kryo instead of the Java serialization : the
+ * classes are written as small registration ids & the fields without their names, which makes the messages several
+ * times smaller & faster to write. It is bound to the message classes in the akka.actor.serialization-bindings of
+ * master.conf & slave.conf.
+ * <p/>
+ * The ids of the registered classes are part of the format : the master & the slaves must run the same version of the
+ * messages, new classes are added at the end of {@link #REGISTERED_CLASSES}.
+ */
+public class KryoSerializer extends JSerializer {
+
+    /**
+     * The id of the serializer in the messages, Akka keeps 0 - 40 for its own serializers.
+     */
+    public static final int IDENTIFIER = 7431;
+
+    /**
+     * The id of the first registered class, Kryo uses the first ones for the primitives & String.
+     */
+    public static final int FIRST_REGISTRATION_ID = 100;
+
+    private static final int INITIAL_BUFFER_SIZE_IN_BYTES = 4096;
+
+    /**
+     * The classes which travel in the messages, in the order of their ids.
+     */
+    public static final List<Class<?>> REGISTERED_CLASSES = Collections.unmodifiableList(Arrays.<Class<?>>asList(
+            // Messages
+            RequestTasks.class,
+            BagOfTasks.class,
+            RetrieveUrl.class,
+            RetrieveUrlWithProcessingConfig.class,
+            StartedTask.class,
+            DoneProcessing.class,
+            ChangeJobState.class,
+            SendHearbeat.class,
+            SlaveHeartbeat.class,
+            LeaseConnectionSlotsRequest.class,
+            LeaseConnectionSlotsResponse.class,
+            ReturnConnectionSlotsLease.class,
+
+            // The domain objects in the messages
+            ProcessingJobLimits.class,
+            ProcessingJobTaskDocumentReference.class,
+            ProcessingJobSubTask.class,
+            GenericSubTaskConfiguration.class,
+            ThumbnailConfig.class,
+            ReferenceOwner.class,
+            ImageMetaInfo.class,
+            AudioMetaInfo.class,
+            VideoMetaInfo.class,
+            TextMetaInfo.class,
+            ProcessingJobSubTaskStats.class,
+            DocumentReferenceTaskType.class,
+            ProcessingJobSubTaskType.class,
+            ProcessingJobRetrieveSubTaskState.class,
+            ProcessingJobSubTaskState.class,
+            ProcessingState.class,
+            ImageOrientation.class,
+            JobState.class,
+
+            // The collections & arrays in the messages
+            ArrayList.class,
+            LinkedList.class,
+            HashMap.class,
+            LinkedHashMap.class,
+            TreeMap.class,
+            HashSet.class,
+            String[].class,
+
+            // Added since
+            RevokeConnectionSlotsLeases.class
+    ));
+
+    /**
+     * A Kryo instance is not thread safe & costly to create, each thread which serializes messages keeps its own.
+     */
+    private static final ThreadLocal<Kryo> KRYO = new ThreadLocal<Kryo>() {
+        @Override
+        protected Kryo initialValue() {
+            return createKryo();
+        }
+    };
+
+    /**
+     * @return a Kryo configured for the messages
+     */
+    public static Kryo createKryo() {
+        final Kryo kryo = new Kryo();
+        // The messages are trees, no need to track the references
+        kryo.setReferences(false);
+        // Unknown classes are written with their name
+        kryo.setRegistrationRequired(false);
+        // Most of the messages have only final fields & no constructor without arguments
+        final Kryo.DefaultInstantiatorStrategy instantiatorStrategy = new Kryo.DefaultInstantiatorStrategy();
+        instantiatorStrategy.setFallbackInstantiatorStrategy(new StdInstantiatorStrategy());
+        kryo.setInstantiatorStrategy(instantiatorStrategy);
+
+        kryo.addDefaultSerializer(Collection.class, new PlainCollectionSerializer());
+        kryo.addDefaultSerializer(Map.class, new PlainMapSerializer());
+
+        int id = FIRST_REGISTRATION_ID;
+        for (final Class<?> registeredClass : REGISTERED_CLASSES) {
+            kryo.register(registeredClass, id++);
+        }
+        return kryo;
+    }
+
+    @Override
+    public int identifier() {
+        return IDENTIFIER;
+    }
+
+    @Override
+    public boolean includeManifest() {
+        // The class is written by Kryo
+        return false;
+    }
+
+    @Override
+    public byte[] toBinary(Object o) {
+        final Output output = new Output(INITIAL_BUFFER_SIZE_IN_BYTES, -1);
+        KRYO.get().writeClassAndObject(output, o);
+        return output.toBytes();
+    }
+
+    @Override
+    public Object fromBinaryJava(byte[] bytes, Class<?> manifest) {
+        return KRYO.get().readClassAndObject(new Input(bytes));
+    }
+
+    /**
+     * Reads the collections which can't be filled after their creation (unmodifiable, Arrays.asList, ...) as plain
+     * collections of the same kind.
+     */
+    private static class PlainCollectionSerializer extends CollectionSerializer {
+        @Override
+        protected Collection create(Kryo kryo, Input input, Class<Collection> type) {
+            if (hasDefaultConstructor(type)) {
+                return super.create(kryo, input, type);
+            }
+            if (Set.class.isAssignableFrom(type)) {
+                return new HashSet();
+            }
+            return new ArrayList();
+        }
+    }
+
+    /**
+     * Reads the maps which can't be filled after their creation (unmodifiable, singleton, ...) as hash maps.
+     */
+    private static class PlainMapSerializer extends MapSerializer {
+        @Override
+        protected Map create(Kryo kryo, Input input, Class<Map> type) {
+            if (hasDefaultConstructor(type)) {
+                return super.create(kryo, input, type);
+            }
+            return new HashMap();
+        }
+    }
+
+    private static boolean hasDefaultConstructor(final Class<?> type) {
+        if (!type.getName().startsWith("java.util.") || type.getName().contains("$")) {
+            // The collections of the libraries (eg. Guava) may refuse to be filled
+            return false;
+        }
+        try {
+            type.getConstructor();
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
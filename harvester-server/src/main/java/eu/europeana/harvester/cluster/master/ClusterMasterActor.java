@@ -21,8 +21,10 @@ import eu.europeana.harvester.cluster.master.accountants.AccountantActor;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterActor;
 import eu.europeana.harvester.cluster.master.limiter.IPLimiterAccountantActor;
 import eu.europeana.harvester.cluster.master.limiter.domain.IPLimiterConfig;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsRequest;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotsLease;
 import eu.europeana.harvester.cluster.master.loaders.JobLoaderMasterActor;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.cluster.master.receivers.ReceiverMasterActor;
@@ -205,7 +207,11 @@ public class ClusterMasterActor extends UntypedActor {
 
         monitoringActor = getContext().system().actorOf(Props.create(ClusterMasterMonitoringActor.class), "monitoring");
 
-        accountantActor = getContext().system().actorOf(Props.create(AccountantActor.class,defaultLimits), "accountant");
+        masterLimiter = IPLimiterAccountantActor.createActor(getContext().system(), new IPLimiterConfig(defaultLimits.getDefaultMaxConcurrentConnectionsLimit(), Collections.EMPTY_MAP, defaultLimits.getMaxJobProcessingDuration(),
+                clusterMasterConfig.getJournalDirectory(), clusterMasterConfig.getTokenBucketConfig()), "masterLimiter");
+
+        accountantActor = getContext().system().actorOf(Props.create(AccountantActor.class,defaultLimits,
+                clusterMasterConfig.getJournalDirectory()), "accountant");
 
         receiverActor = getContext().system().actorOf(Props.create(ReceiverMasterActor.class, clusterMasterConfig,
                 accountantActor, monitoringActor, processingJobDao, historicalProcessingJobDao,
@@ -213,8 +219,6 @@ public class ClusterMasterActor extends UntypedActor {
                 lastSourceDocumentProcessingStatisticsDao,
                 sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao
         ), "receiver");
-        masterLimiter = IPLimiterAccountantActor.createActor(getContext().system(), new IPLimiterConfig(defaultLimits.getDefaultMaxConcurrentConnectionsLimit(), Collections.EMPTY_MAP, defaultLimits.getMaxJobProcessingDuration()), "masterLimiter");
-
         jobLoaderActor = getContext().system().actorOf(Props.create(JobLoaderMasterActor.class, receiverActor,
                 clusterMasterConfig, accountantActor,masterLimiter, processingJobDao,
                 sourceDocumentProcessingStatisticsDao, sourceDocumentReferenceDao, machineResourceReferenceDao,
@@ -416,6 +420,16 @@ public class ClusterMasterActor extends UntypedActor {
             return;
         }
 
+        if(message instanceof LeaseConnectionSlotsRequest) {
+            masterLimiter.tell(message, getSender());
+            return;
+        }
+
+        if(message instanceof ReturnConnectionSlotsLease) {
+            masterLimiter.tell(message, getSender());
+            return;
+        }
+
         if(message instanceof RequestTasks) {
             accountantActor.tell(message, getSender());
             jobLoaderActor.tell(new LoadJobs(), ActorRef.noSender());
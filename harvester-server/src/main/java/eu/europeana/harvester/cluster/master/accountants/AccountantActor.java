@@ -3,39 +3,108 @@ package eu.europeana.harvester.cluster.master.accountants;
 import akka.actor.ActorRef;
 import akka.actor.UntypedActor;
 import com.codahale.metrics.Gauge;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import eu.europeana.harvester.cluster.domain.DefaultLimits;
+import eu.europeana.harvester.cluster.domain.messages.BagOfTasks;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
 import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.inner.*;
+import eu.europeana.harvester.cluster.master.journal.FileJournal;
+import eu.europeana.harvester.cluster.master.limiter.domain.HostResponseReport;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Keeps the waiting & the started tasks. When a journal directory is configured every change is journaled, with a
+ * snapshot every {@link #SNAPSHOT_INTERVAL_IN_EVENTS} events, so a restarted master gets back its tasks without
+ * loading them again from the database nor sending again the started ones. The actor only copies its state for a
+ * snapshot, the copy is serialized & written to the disk on another thread while the actor goes on.
+ */
 public class AccountantActor extends UntypedActor {
 
+    /**
+     * The name of the journal in the journal directory.
+     */
+    public static final String JOURNAL_NAME = "accountant";
+
+    /**
+     * The number of journaled events after which a snapshot is taken.
+     */
+    public static final int SNAPSHOT_INTERVAL_IN_EVENTS = 10000;
+
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
     private AccountantActorHelper accountantActorHelper;
 
     private ActorRef masterReceiver;
 
+    /**
+     * Told how each IP answered the finished tasks, to adapt the request rate of the IP.
+     */
+    private ActorRef masterLimiter;
+
     private int lastNumberOfJobsCleaned = 0;
 
+    /**
+     * The directory of the journal or null if the state is kept only in memory.
+     */
+    private final String journalDirectory;
+
+    private FileJournal journal = null;
+
+    /**
+     * Writes the snapshots in the background, created with the journal.
+     */
+    private ExecutorService snapshotWriter = null;
+
     public AccountantActor(DefaultLimits defaultLimits) {
+        this(defaultLimits, null);
+    }
+
+    public AccountantActor(DefaultLimits defaultLimits, String journalDirectory) {
         accountantActorHelper = new AccountantActorHelper(defaultLimits);
         masterReceiver = getContext().actorFor("../receiver");
+        masterLimiter = getContext().actorFor("../masterLimiter");
+        this.journalDirectory = journalDirectory;
     }
 
     @Override
     public void preStart() {
+        recover();
         registerAccountantMetrics();
     }
 
+    @Override
+    public void postStop() {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.saveSnapshot(accountantActorHelper.snapshot());
+        } catch (IOException e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                    "Cannot save the snapshot of the accountant", e);
+        }
+        closeJournal();
+    }
+
     @Override
     public void postRestart(Throwable reason) throws Exception {
+        recover();
         getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(10,
                 TimeUnit.MINUTES), getSelf(), new Clean(), getContext().system().dispatcher(), getSelf());
         registerAccountantMetrics();
@@ -79,6 +148,86 @@ public class AccountantActor extends UntypedActor {
 
     }
 
+    /**
+     * Rebuilds the state from the journal, if there is one.
+     */
+    private void recover() {
+        if (journalDirectory == null || journalDirectory.isEmpty()) {
+            return;
+        }
+
+        try {
+            journal = new FileJournal(new File(journalDirectory), JOURNAL_NAME);
+            snapshotWriter = Executors.newSingleThreadExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat("accountant-snapshot-%d").build());
+            final boolean recovered = journal.recover(new FileJournal.Recovery() {
+                @Override
+                public void onSnapshot(Object snapshot) {
+                    accountantActorHelper.restore((AccountantEvents.Snapshot) snapshot);
+                }
+
+                @Override
+                public void onEvent(Object event) {
+                    replay(event);
+                }
+            });
+            if (recovered) {
+                LOG.info(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                        "Recovered {} waiting & {} started tasks from the journal.", accountantActorHelper.getNumberOfTasks(),
+                        accountantActorHelper.allStartedTaskSize());
+            }
+        } catch (IOException | RuntimeException e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                    "Cannot recover the accountant from its journal, the state is kept only in memory", e);
+            closeJournal();
+        }
+    }
+
+    private void replay(Object event) {
+        if (event instanceof AddTasks) {
+            accountantActorHelper.addTasks((AddTasks) event);
+        } else if (event instanceof AccountantEvents.TasksStarted) {
+            final AccountantEvents.TasksStarted tasksStarted = (AccountantEvents.TasksStarted) event;
+            accountantActorHelper.markStarted(tasksStarted.getTaskIDs(), tasksStarted.getStartTimeInMillis());
+        } else if (event instanceof AccountantEvents.TaskDone) {
+            accountantActorHelper.doneTask(((AccountantEvents.TaskDone) event).getTaskID());
+        } else if (event instanceof AccountantEvents.TasksRestarted) {
+            accountantActorHelper.restartTasks(((AccountantEvents.TasksRestarted) event).getTaskIDs());
+        }
+    }
+
+    private void journal(Serializable event) {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.append(event);
+            if (journal.getEventsSinceSnapshot() >= SNAPSHOT_INTERVAL_IN_EVENTS && !journal.isSavingSnapshot()) {
+                journal.saveSnapshotInBackground(accountantActorHelper.snapshot(), snapshotWriter);
+            }
+        } catch (IOException e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
+                    "Cannot write the journal of the accountant, the state is kept only in memory from now on", e);
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdown();
+            snapshotWriter = null;
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.error("Cannot close the journal of the accountant", e);
+            }
+        }
+        journal = null;
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
 
@@ -91,24 +240,51 @@ public class AccountantActor extends UntypedActor {
         } else if (message instanceof RequestTasks) {
 
             LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_SENDER),
-                    "Received request for tasks from " + getSender());
+                    "Received request for tasks from " + getSender() + ", " + message);
 
             MasterMetrics.Master.sendJobSetToSlaveCounter.inc();
             final com.codahale.metrics.Timer.Context context = MasterMetrics.Master.sendJobSetToSlaveDuration.time();
-            getSender().tell(accountantActorHelper.getBagOfTasks(), masterReceiver);
+            final BagOfTasks bagOfTasks = accountantActorHelper.getBagOfTasks((RequestTasks) message);
+            if (!bagOfTasks.getTasks().isEmpty()) {
+                final ArrayList<String> taskIDs = new ArrayList<>(bagOfTasks.getTasks().size());
+                for (final RetrieveUrl task : bagOfTasks.getTasks()) {
+                    taskIDs.add(task.getId());
+                }
+                journal(new AccountantEvents.TasksStarted(taskIDs, System.currentTimeMillis()));
+            }
+            getSender().tell(bagOfTasks, masterReceiver);
             context.stop();
             return;
         } else if (message instanceof AddTask) {
-            accountantActorHelper.addTask((AddTask) message);
+            final AddTask addTask = (AddTask) message;
+            accountantActorHelper.addTask(addTask);
+            journal(new AddTasks(addTask.getJobPriority(), Collections.singletonList(addTask.getTaskWithState().getKey())));
+            return;
+        } else if (message instanceof AddTasks) {
+            accountantActorHelper.addTasks((AddTasks) message);
+            journal((AddTasks) message);
             return;
         } else if (message instanceof DoneProcessing) {
-            accountantActorHelper.doneTask((DoneProcessing) message);
+            final DoneProcessing doneProcessing = (DoneProcessing) message;
+            final RetrieveUrl task = accountantActorHelper.doneTask(doneProcessing);
+            if (task != null) {
+                masterLimiter.tell(HostResponseReport.valueOf(task.getIpAddress(), doneProcessing, System.currentTimeMillis()),
+                        ActorRef.noSender());
+            }
+            journal(new AccountantEvents.TaskDone(((DoneProcessing) message).getTaskID()));
+            return;
+        } else if (message instanceof GetJobIdsOfTasks) {
+            getSender().tell(accountantActorHelper.getJobIds(), ActorRef.noSender());
             return;
         } else if (message instanceof Monitor) {
             accountantActorHelper.monitor();
             return;
         } else if (message instanceof Clean) {
-            lastNumberOfJobsCleaned = accountantActorHelper.clean();
+            final List<String> restartedTaskIDs = accountantActorHelper.clean();
+            if (!restartedTaskIDs.isEmpty()) {
+                journal(new AccountantEvents.TasksRestarted(restartedTaskIDs));
+            }
+            lastNumberOfJobsCleaned = restartedTaskIDs.size();
             getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(10,
                     TimeUnit.MINUTES), getSelf(), new Clean(), getContext().system().dispatcher(), getSelf());
             return;
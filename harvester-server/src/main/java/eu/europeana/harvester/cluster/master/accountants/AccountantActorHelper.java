@@ -4,8 +4,10 @@ import eu.europeana.harvester.cluster.domain.DefaultLimits;
 import eu.europeana.harvester.cluster.domain.TaskState;
 import eu.europeana.harvester.cluster.domain.messages.BagOfTasks;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
 import eu.europeana.harvester.domain.JobPriority;
 import org.joda.time.DateTime;
@@ -19,11 +21,24 @@ import java.util.*;
  */
 public class AccountantActorHelper {
 
+    /**
+     * The tasks of an IP in a bag sized to a demand, per connection allowed to the IP.
+     */
+    public static final int TASKS_PER_CONNECTION_IN_BAG = 10;
 
-    private class MapWrapper {
+    /**
+     * The waiting tasks of a lane, handed out round robin over their IPs. Each IP has a queue of task ids & the IPs
+     * which have tasks are kept in a ring, so handing out a task costs O(1) whatever the number of waiting tasks.
+     */
+    static class MapWrapper {
 
         private final Map<String, RetrieveUrl> waitingTasks = new HashMap<>();
-        private final Map<String, List<String>> tasksPerIP = new HashMap<>();
+        private final Map<String, Deque<String>> tasksPerIP = new HashMap<>();
+
+        /**
+         * The IPs with waiting tasks, in the order in which they get their next task.
+         */
+        private final Deque<String> activeIPs = new ArrayDeque<>();
 
         public int getSize() {
             return waitingTasks.size();
@@ -32,16 +47,18 @@ public class AccountantActorHelper {
         public void addTask(RetrieveUrl retrieveUrl) {
             waitingTasks.put(retrieveUrl.getId(), retrieveUrl);
             final String IP = retrieveUrl.getIpAddress();
-            List<String> tasks = tasksPerIP.get(IP);
-            if (tasks == null)
-                tasks = new ArrayList<>();
+            Deque<String> tasks = tasksPerIP.get(IP);
+            if (tasks == null) {
+                tasks = new ArrayDeque<>();
+                tasksPerIP.put(IP, tasks);
+                activeIPs.add(IP);
+            }
             tasks.add(retrieveUrl.getId());
-            tasksPerIP.put(IP, tasks);
         }
 
         public ArrayList<String> getOverloadedIPs(int threshold) {
             ArrayList<String> IPs = new ArrayList<>();
-            for (final Map.Entry<String, List<String>> task : tasksPerIP.entrySet())
+            for (final Map.Entry<String, Deque<String>> task : tasksPerIP.entrySet())
                 if (task.getValue().size() > threshold)
                     IPs.add(task.getKey());
             return IPs;
@@ -49,46 +66,87 @@ public class AccountantActorHelper {
         }
 
         public List<RetrieveUrl> getListOfTasksWithRoundRobinStrategy(int maxToSend) {
+            return getListOfTasksWithRoundRobinStrategy(maxToSend, Integer.MAX_VALUE, new HashMap<String, Integer>());
+        }
 
-            ArrayList<RetrieveUrl> tasksToSend = new ArrayList<>();
-
-            boolean foundTasks = true;
+        /**
+         * Hands out tasks round robin, at most maxPerIP per IP. The IPs which reach their limit keep their turn for
+         * the next call.
+         *
+         * @param tasksPerIPSent the number of tasks already handed out per IP, updated with the tasks handed out here
+         */
+        public List<RetrieveUrl> getListOfTasksWithRoundRobinStrategy(int maxToSend, int maxPerIP, Map<String, Integer> tasksPerIPSent) {
+
+            ArrayList<RetrieveUrl> tasksToSend = new ArrayList<>(Math.min(maxToSend, waitingTasks.size()));
+            final List<String> fullIPs = new ArrayList<>();
+
+            while (tasksToSend.size() < maxToSend && !activeIPs.isEmpty()) {
+                final String ip = activeIPs.poll();
+                final Integer sent = tasksPerIPSent.get(ip);
+                if (sent != null && sent >= maxPerIP) {
+                    fullIPs.add(ip);
+                    continue;
+                }
+                final Deque<String> tasks = tasksPerIP.get(ip);
 
-            while (foundTasks && tasksToSend.size() < maxToSend) {
+                // The ids of the tasks added more than once are already removed from waitingTasks
+                final RetrieveUrl retrieveUrl = waitingTasks.remove(tasks.poll());
+                if (retrieveUrl != null) {
+                    tasksToSend.add(retrieveUrl);
+                    tasksPerIPSent.put(ip, (sent == null) ? 1 : sent + 1);
+                }
 
-                List<String> ips = new ArrayList<>(tasksPerIP.keySet());
-                foundTasks = false;
-                for (String ip : ips) {
+                if (tasks.isEmpty())
+                    removeEmptyIP(ip);
+                else
+                    activeIPs.add(ip);
+            }
 
-                    List<String> tasks = tasksPerIP.get(ip);
+            // The full IPs did not have their turn, they are the next ones
+            for (int i = fullIPs.size() - 1; i >= 0; i--)
+                activeIPs.addFirst(fullIPs.get(i));
 
-                    String task = tasks.remove(0);
+            return tasksToSend;
 
-                    if (tasks.size() == 0)
-                        tasksPerIP.remove(ip);
-                    else
-                        tasksPerIP.put(ip, tasks);
+        }
 
+        /**
+         * Forgets an IP whose tasks were all handed out, it is already out of the ring.
+         */
+        private void removeEmptyIP(final String ip) {
+            tasksPerIP.remove(ip);
+        }
 
-                    RetrieveUrl retrieveUrl = waitingTasks.remove(task);
+        public final Set<String> uniqueIPs() {
+            return tasksPerIP.keySet();
+        }
 
+        /**
+         * Removes a waiting task, its id stays in the queue of its IP & is skipped when its turn comes.
+         *
+         * @return the task or null if it was not waiting
+         */
+        public RetrieveUrl removeTask(final String taskId) {
+            return waitingTasks.remove(taskId);
+        }
 
+        /**
+         * @return the waiting tasks, in an order which gives back the same round robin when they are added again
+         */
+        public List<RetrieveUrl> getTasksInOrder() {
+            final List<RetrieveUrl> tasks = new ArrayList<>(waitingTasks.size());
+            for (final String ip : activeIPs) {
+                for (final String taskId : tasksPerIP.get(ip)) {
+                    final RetrieveUrl retrieveUrl = waitingTasks.get(taskId);
                     if (retrieveUrl != null)
-                        tasksToSend.add(retrieveUrl);
-
-                    foundTasks = true;
-
-                    if (tasksToSend.size() == maxToSend)
-                        break;
+                        tasks.add(retrieveUrl);
                 }
             }
-
-            return tasksToSend;
-
+            return tasks;
         }
 
-        public final Set<String> uniqueIPs() {
-            return tasksPerIP.keySet();
+        public Collection<RetrieveUrl> getTasks() {
+            return waitingTasks.values();
         }
 
     }
@@ -131,20 +189,40 @@ public class AccountantActorHelper {
         }
     }
 
-    public void doneTask(DoneProcessing message) {
+    public void addTasks(AddTasks message) {
+        final JobPriority prio = JobPriority.fromPriority(message.getJobPriority());
+        if (prio == null) {
+            return;
+        }
+
+        final MapWrapper lane = (prio == JobPriority.FASTLANE) ? fastLane : normalLane;
+        for (final RetrieveUrl task : message.getTasks()) {
+            lane.addTask(task);
+        }
+    }
+
+    /**
+     * @return the finished task, null if it was not started by this master
+     */
+    public RetrieveUrl doneTask(DoneProcessing message) {
+        return doneTask(message.getTaskID());
+    }
 
-        final String taskID = message.getTaskID();
-        allStartedTasks.remove(taskID);
+    public RetrieveUrl doneTask(String taskID) {
         allStartedTaskStartTime.remove(taskID);
-
-        return;
+        return allStartedTasks.remove(taskID);
     }
 
     public void monitor() {
         return;
     }
 
-    public int clean() {
+    /**
+     * Puts back in the fast lane the tasks started too long ago.
+     *
+     * @return the ids of the restarted tasks
+     */
+    public List<String> clean() {
         DateTime minDateTime = DateTime.now().minus(defaultLimits.getMaxJobProcessingDuration());
         ArrayList<String> tasksToRestart = new ArrayList<>();
 
@@ -152,13 +230,70 @@ public class AccountantActorHelper {
             if (allStartedTaskStartTime.get(taskID).isBefore(minDateTime))
                 tasksToRestart.add(taskID);
 
-        for (String taskID : tasksToRestart) {
+        restartTasks(tasksToRestart);
+
+        return tasksToRestart;
+    }
+
+    public void restartTasks(List<String> taskIDs) {
+        for (String taskID : taskIDs) {
             allStartedTaskStartTime.remove(taskID);
             RetrieveUrl retrieveUrl = allStartedTasks.remove(taskID);
-            fastLane.addTask(retrieveUrl);
+            if (retrieveUrl != null)
+                fastLane.addTask(retrieveUrl);
+        }
+    }
+
+    /**
+     * Marks waiting tasks as started, as if they were handed out in a bag of tasks.
+     */
+    public void markStarted(List<String> taskIDs, long startTimeInMillis) {
+        for (String taskID : taskIDs) {
+            RetrieveUrl retrieveUrl = fastLane.removeTask(taskID);
+            if (retrieveUrl == null)
+                retrieveUrl = normalLane.removeTask(taskID);
+            if (retrieveUrl != null) {
+                allStartedTasks.put(taskID, retrieveUrl);
+                allStartedTaskStartTime.put(taskID, new DateTime(startTimeInMillis));
+            }
         }
+    }
 
-        return tasksToRestart.size();
+    /**
+     * @return the ids of the jobs which have waiting or started tasks
+     */
+    public HashSet<String> getJobIds() {
+        final HashSet<String> jobIds = new HashSet<>();
+        for (final RetrieveUrl retrieveUrl : fastLane.getTasks())
+            jobIds.add(retrieveUrl.getJobId());
+        for (final RetrieveUrl retrieveUrl : normalLane.getTasks())
+            jobIds.add(retrieveUrl.getJobId());
+        for (final RetrieveUrl retrieveUrl : allStartedTasks.values())
+            jobIds.add(retrieveUrl.getJobId());
+        return jobIds;
+    }
+
+    public AccountantEvents.Snapshot snapshot() {
+        final HashMap<String, Long> startTimes = new HashMap<>();
+        for (final Map.Entry<String, DateTime> startTime : allStartedTaskStartTime.entrySet())
+            startTimes.put(startTime.getKey(), startTime.getValue().getMillis());
+
+        return new AccountantEvents.Snapshot(new ArrayList<>(fastLane.getTasksInOrder()), new ArrayList<>(normalLane.getTasksInOrder()),
+                new HashMap<>(allStartedTasks), startTimes);
+    }
+
+    /**
+     * Adds the tasks of a snapshot, meant for an empty helper.
+     */
+    public void restore(AccountantEvents.Snapshot snapshot) {
+        for (final RetrieveUrl retrieveUrl : snapshot.getFastLaneTasks())
+            fastLane.addTask(retrieveUrl);
+        for (final RetrieveUrl retrieveUrl : snapshot.getNormalLaneTasks())
+            normalLane.addTask(retrieveUrl);
+        for (final Map.Entry<String, RetrieveUrl> startedTask : snapshot.getStartedTasks().entrySet()) {
+            allStartedTasks.put(startedTask.getKey(), startedTask.getValue());
+            allStartedTaskStartTime.put(startedTask.getKey(), new DateTime(snapshot.getStartTimesInMillis().get(startedTask.getKey())));
+        }
     }
 
 
@@ -172,28 +307,56 @@ public class AccountantActorHelper {
 
 
     public BagOfTasks getBagOfTasks() {
+        return getBagOfTasks(new RequestTasks());
+    }
 
-        List<RetrieveUrl> tasksToSend = startTasks();
+    /**
+     * @return a bag sized to the demand of the slave, never bigger than the task batch size
+     */
+    public BagOfTasks getBagOfTasks(RequestTasks request) {
+
+        List<RetrieveUrl> tasksToSend = startTasks(computeBagSize(request), computeMaxTasksPerIPInBag(request));
         final BagOfTasks bagOfTasks = new BagOfTasks(tasksToSend);
         return bagOfTasks;
 
     }
 
+    int computeBagSize(RequestTasks request) {
+        final int taskBatchSize = defaultLimits.getTaskBatchSize();
+        if (request.getDemand() == null)
+            return taskBatchSize;
+        return Math.max(0, Math.min(taskBatchSize, request.getDemand()));
+    }
+
+    /**
+     * A slave runs at most a few connections at once per IP, so more tasks of an IP would only wait in its queue
+     * while other slaves could run them. A request without demand keeps the plain round robin.
+     */
+    int computeMaxTasksPerIPInBag(RequestTasks request) {
+        final Integer connectionsPerIP = defaultLimits.getDefaultMaxConcurrentConnectionsLimit();
+        if (request.getDemand() == null || connectionsPerIP == null)
+            return Integer.MAX_VALUE;
+        return Math.max(1, connectionsPerIP) * TASKS_PER_CONNECTION_IN_BAG;
+    }
+
 
     /**
      * Check if we are allowed to start one or more jobs if yes then starts them.
      */
-    private List<RetrieveUrl> startTasks() {
+    private List<RetrieveUrl> startTasks(final int maxToSend, final int maxPerIP) {
 
         List<RetrieveUrl> tasksToSend = new ArrayList<>();
+        if (maxToSend <= 0)
+            return tasksToSend;
 
-        final int maxToSend = defaultLimits.getTaskBatchSize();
+        final Map<String, Integer> tasksPerIPSent = new HashMap<>();
 
         // first we go through the fastlane tasks
-        List<RetrieveUrl> fastLaneTasks = fastLane.getListOfTasksWithRoundRobinStrategy(maxToSend);
+        List<RetrieveUrl> fastLaneTasks = fastLane.getListOfTasksWithRoundRobinStrategy(maxToSend, maxPerIP, tasksPerIPSent);
 
-        List<RetrieveUrl> normalLaneTasks = (tasksToSend.size() < maxToSend) ?
-                normalLane.getListOfTasksWithRoundRobinStrategy(maxToSend - fastLaneTasks.size()) : new ArrayList<RetrieveUrl>();
+        List<RetrieveUrl> normalLaneTasks = (fastLaneTasks.size() < maxToSend) ?
+                normalLane.getListOfTasksWithRoundRobinStrategy(maxToSend - fastLaneTasks.size(), maxPerIP, tasksPerIPSent) :
+                new ArrayList<RetrieveUrl>();
 
         tasksToSend.addAll(fastLaneTasks);
         tasksToSend.addAll(normalLaneTasks);
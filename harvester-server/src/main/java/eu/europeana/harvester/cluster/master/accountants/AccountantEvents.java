@@ -0,0 +1,103 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The changes of the state of the accountant written to its journal, besides the added tasks which are journaled as
+ * {@link eu.europeana.harvester.cluster.domain.messages.inner.AddTasks} messages.
+ */
+public class AccountantEvents {
+
+    /**
+     * Waiting tasks were sent to a slave.
+     */
+    public static class TasksStarted implements Serializable {
+        private final List<String> taskIDs;
+
+        private final long startTimeInMillis;
+
+        public TasksStarted(List<String> taskIDs, long startTimeInMillis) {
+            this.taskIDs = taskIDs;
+            this.startTimeInMillis = startTimeInMillis;
+        }
+
+        public List<String> getTaskIDs() {
+            return taskIDs;
+        }
+
+        public long getStartTimeInMillis() {
+            return startTimeInMillis;
+        }
+    }
+
+    /**
+     * A slave finished a task.
+     */
+    public static class TaskDone implements Serializable {
+        private final String taskID;
+
+        public TaskDone(String taskID) {
+            this.taskID = taskID;
+        }
+
+        public String getTaskID() {
+            return taskID;
+        }
+    }
+
+    /**
+     * Started tasks were put back in the fast lane by a clean.
+     */
+    public static class TasksRestarted implements Serializable {
+        private final List<String> taskIDs;
+
+        public TasksRestarted(List<String> taskIDs) {
+            this.taskIDs = taskIDs;
+        }
+
+        public List<String> getTaskIDs() {
+            return taskIDs;
+        }
+    }
+
+    /**
+     * The whole state of the accountant.
+     */
+    public static class Snapshot implements Serializable {
+        private final List<RetrieveUrl> fastLaneTasks;
+
+        private final List<RetrieveUrl> normalLaneTasks;
+
+        private final HashMap<String, RetrieveUrl> startedTasks;
+
+        private final HashMap<String, Long> startTimesInMillis;
+
+        public Snapshot(List<RetrieveUrl> fastLaneTasks, List<RetrieveUrl> normalLaneTasks,
+                        HashMap<String, RetrieveUrl> startedTasks, HashMap<String, Long> startTimesInMillis) {
+            this.fastLaneTasks = fastLaneTasks;
+            this.normalLaneTasks = normalLaneTasks;
+            this.startedTasks = startedTasks;
+            this.startTimesInMillis = startTimesInMillis;
+        }
+
+        public List<RetrieveUrl> getFastLaneTasks() {
+            return fastLaneTasks;
+        }
+
+        public List<RetrieveUrl> getNormalLaneTasks() {
+            return normalLaneTasks;
+        }
+
+        public HashMap<String, RetrieveUrl> getStartedTasks() {
+            return startedTasks;
+        }
+
+        public HashMap<String, Long> getStartTimesInMillis() {
+            return startTimesInMillis;
+        }
+    }
+}
@@ -0,0 +1,303 @@
+package eu.europeana.harvester.cluster.master.journal;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executor;
+
+/**
+ * An append-only journal of events with snapshots, kept in a local directory, so that the state of an actor survives
+ * a restart of the master. The state is rebuilt from the latest snapshot & the events journaled after it.
+ * <p/>
+ * Each event is written as a record (length, sequence number, serialized event) & handed to the OS right away, so
+ * nothing is lost when the process dies. A record torn by a crash is dropped on recovery. A snapshot is written to a
+ * temporary file which replaces the previous snapshot atomically, then the journal starts over. The events already
+ * contained in the snapshot are recognised by their sequence number if the master died in between.
+ * <p/>
+ * A snapshot can also be written in the background : the journal is first set aside as the previous segment & a new
+ * one is started, the previous segment is deleted once the snapshot is saved. Until then it is recovered before the
+ * journal.
+ * <p/>
+ * A journal is used by a single actor, only the snapshots written in the background run on another thread.
+ */
+public class FileJournal implements Closeable {
+
+    /**
+     * Receives the recovered state.
+     */
+    public interface Recovery {
+        void onSnapshot(Object snapshot);
+
+        void onEvent(Object event);
+    }
+
+    private static final int RECORD_HEADER_SIZE = 4 + 8;
+
+    private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final File journalFile;
+
+    private final File snapshotFile;
+
+    /**
+     * The events journaled before the snapshot being written in the background.
+     */
+    private final File previousJournalFile;
+
+    /**
+     * Guards the snapshot file, written by the actor & the background snapshots.
+     */
+    private final Object snapshotLock = new Object();
+
+    private FileChannel journal;
+
+    private long lastSequenceNr = 0;
+
+    private long eventsSinceSnapshot = 0;
+
+    /**
+     * The sequence number of the latest saved snapshot, a background snapshot older than it is dropped.
+     */
+    private long snapshotSequenceNr = 0;
+
+    private volatile boolean savingSnapshot = false;
+
+    /**
+     * @param directory the directory of the journal, created if missing
+     * @param name      the name of the journal, unique in the directory
+     */
+    public FileJournal(final File directory, final String name) throws IOException {
+        Files.createDirectories(directory.toPath());
+        this.journalFile = new File(directory, name + ".journal");
+        this.snapshotFile = new File(directory, name + ".snapshot");
+        this.previousJournalFile = new File(directory, name + ".journal.previous");
+    }
+
+    /**
+     * Hands the latest snapshot & the events journaled after it to the recovery, then opens the journal for writing.
+     *
+     * @return true if there was anything to recover
+     */
+    public boolean recover(final Recovery recovery) throws IOException {
+        boolean recovered = false;
+
+        long snapshotSequenceNr = 0;
+        if (snapshotFile.exists()) {
+            try (final ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)))) {
+                snapshotSequenceNr = in.readLong();
+                recovery.onSnapshot(in.readObject());
+                recovered = true;
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Cannot read the snapshot " + snapshotFile, e);
+            }
+        }
+        lastSequenceNr = snapshotSequenceNr;
+        this.snapshotSequenceNr = snapshotSequenceNr;
+
+        recoverEvents(previousJournalFile, snapshotSequenceNr, recovery);
+        final long validLength = recoverEvents(journalFile, snapshotSequenceNr, recovery);
+        recovered |= eventsSinceSnapshot > 0;
+
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.truncate(validLength);
+        journal.position(validLength);
+
+        return recovered;
+    }
+
+    /**
+     * Hands the events of a journal file journaled after the snapshot to the recovery.
+     *
+     * @return the length of the valid records of the file
+     */
+    private long recoverEvents(final File file, final long snapshotSequenceNr, final Recovery recovery) throws IOException {
+        long validLength = 0;
+        if (!file.exists()) {
+            return validLength;
+        }
+
+        final long fileLength = file.length();
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                final int length;
+                final long sequenceNr;
+                final byte[] bytes;
+                try {
+                    length = in.readInt();
+                    sequenceNr = in.readLong();
+                    // A torn record
+                    if (length < 0 || validLength + RECORD_HEADER_SIZE + length > fileLength) {
+                        break;
+                    }
+                    bytes = new byte[length];
+                    in.readFully(bytes);
+                } catch (EOFException e) {
+                    break;
+                }
+
+                final Object event;
+                try {
+                    event = deserialize(bytes);
+                } catch (IOException | ClassNotFoundException e) {
+                    LOG.error("Dropping the corrupted end of the journal {}", file, e);
+                    break;
+                }
+
+                validLength += RECORD_HEADER_SIZE + length;
+                if (sequenceNr > snapshotSequenceNr) {
+                    recovery.onEvent(event);
+                    lastSequenceNr = sequenceNr;
+                    eventsSinceSnapshot++;
+                }
+            }
+        }
+        return validLength;
+    }
+
+    /**
+     * Appends an event to the journal.
+     */
+    public void append(final Serializable event) throws IOException {
+        final byte[] bytes = serialize(event);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + bytes.length);
+        record.putInt(bytes.length);
+        record.putLong(lastSequenceNr + 1);
+        record.put(bytes);
+        record.flip();
+        while (record.hasRemaining()) {
+            journal.write(record);
+        }
+        lastSequenceNr++;
+        eventsSinceSnapshot++;
+    }
+
+    /**
+     * Saves the whole state, which replaces the events journaled so far. It waits for a snapshot being written in the
+     * background.
+     */
+    public void saveSnapshot(final Serializable snapshot) throws IOException {
+        writeSnapshot(lastSequenceNr, snapshot);
+
+        journal.truncate(0);
+        journal.position(0);
+        Files.deleteIfExists(previousJournalFile.toPath());
+        eventsSinceSnapshot = 0;
+    }
+
+    /**
+     * Saves the whole state on the executor, the events keep being journaled meanwhile. The snapshot must be a copy
+     * of the state, which the actor does not modify anymore. Nothing is done while another snapshot is being
+     * written in the background.
+     */
+    public void saveSnapshotInBackground(final Serializable snapshot, final Executor executor) throws IOException {
+        if (savingSnapshot) {
+            return;
+        }
+
+        final long sequenceNr = lastSequenceNr;
+        setJournalAside();
+        eventsSinceSnapshot = 0;
+
+        savingSnapshot = true;
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSnapshot(sequenceNr, snapshot);
+                    Files.deleteIfExists(previousJournalFile.toPath());
+                } catch (IOException | RuntimeException e) {
+                    // The previous segment is kept, the journal is appended to it when the next snapshot starts
+                    LOG.error("Cannot save the snapshot {}", snapshotFile, e);
+                } finally {
+                    savingSnapshot = false;
+                }
+            }
+        });
+    }
+
+    /**
+     * @return true while a snapshot is being written in the background
+     */
+    public boolean isSavingSnapshot() {
+        return savingSnapshot;
+    }
+
+    /**
+     * Moves the journal to the previous segment (appended to it if a failed snapshot left it) & starts a new one.
+     */
+    private void setJournalAside() throws IOException {
+        if (previousJournalFile.exists()) {
+            try (final FileChannel previous = FileChannel.open(previousJournalFile.toPath(), StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND)) {
+                final long length = journal.size();
+                long copied = 0;
+                while (copied < length) {
+                    copied += journal.transferTo(copied, length - copied, previous);
+                }
+            }
+            journal.truncate(0);
+            journal.position(0);
+            return;
+        }
+
+        journal.close();
+        Files.move(journalFile.toPath(), previousJournalFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private void writeSnapshot(final long sequenceNr, final Serializable snapshot) throws IOException {
+        synchronized (snapshotLock) {
+            // A snapshot saved meanwhile holds a later state
+            if (sequenceNr < snapshotSequenceNr) {
+                return;
+            }
+
+            final File temporaryFile = new File(snapshotFile.getPath() + ".tmp");
+            try (final FileOutputStream file = new FileOutputStream(temporaryFile);
+                 final ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(file))) {
+                out.writeLong(sequenceNr);
+                out.writeObject(snapshot);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temporaryFile.toPath(), snapshotFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            snapshotSequenceNr = sequenceNr;
+        }
+    }
+
+    /**
+     * @return the number of events journaled since the latest snapshot
+     */
+    public long getEventsSinceSnapshot() {
+        return eventsSinceSnapshot;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private static byte[] serialize(final Serializable event) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(event);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Object deserialize(final byte[] bytes) throws IOException, ClassNotFoundException {
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return in.readObject();
+        }
+    }
+}
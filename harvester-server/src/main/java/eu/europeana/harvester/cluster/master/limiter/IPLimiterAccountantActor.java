@@ -3,18 +3,52 @@ package eu.europeana.harvester.cluster.master.limiter;
 import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.actor.Props;
+import akka.actor.Terminated;
 import akka.actor.UntypedActor;
+import eu.europeana.harvester.cluster.master.journal.FileJournal;
 import eu.europeana.harvester.cluster.master.limiter.domain.*;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
 import eu.europeana.harvester.logging.LoggingComponent;
-import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 public class IPLimiterAccountantActor extends UntypedActor {
 
+    /**
+     * The name of the snapshot file in the journal directory.
+     */
+    public static final String JOURNAL_NAME = "ipLimiter";
+
+    /**
+     * How long a lease request waits before it is dropped. The slaves send a pending request again every 30 seconds,
+     * which refreshes it & keeps its place : a request the slave did not send again for three of those is from a slave
+     * which died or left.
+     */
+    public static final long WAITING_LEASE_REQUEST_TIMEOUT_IN_MILLIS = 3 * 30 * 1000;
+
+    /**
+     * A lease request waiting for a slot of its IP.
+     */
+    private static final class WaitingLeaseRequest {
+        private final Integer slots;
+        private final long sinceMillis;
+
+        private WaitingLeaseRequest(final Integer slots, final long sinceMillis) {
+            this.slots = slots;
+            this.sinceMillis = sinceMillis;
+        }
+    }
+
     public static final ActorRef createActor(final ActorSystem system,
                                              final IPLimiterConfig IPLimiterConfig, final String name
     ) {
@@ -34,8 +68,34 @@ public class IPLimiterAccountantActor extends UntypedActor {
     private final IpLimiterAccountant ipLimiterAccountant;
     private final IPLimiterConfig IPLimiterConfig;
 
+    /**
+     * The lease requests which could not be granted, answered as soon as a slot of their IP is freed. The slaves are
+     * watched, the requests of a slave are dropped when it dies or after {@link #WAITING_LEASE_REQUEST_TIMEOUT_IN_MILLIS}.
+     */
+    private final Map<String /* IP */, LinkedHashMap<ActorRef /* Slave */, WaitingLeaseRequest>> waitingLeaseRequests = new HashMap<>();
+
+    /**
+     * The number of IPs each watched slave waits for, a slave is unwatched once it waits for none.
+     */
+    private final Map<ActorRef /* Slave */, Integer> waitingIpsPerSlave = new HashMap<>();
+
+    /**
+     * The slaves holding the granted leases, so that the leases of a paused IP can be revoked. The returned leases are
+     * removed right away, the expired ones with the expired slots.
+     */
+    private final Map<String /* IP */, Map<String /* Lease id */, ActorRef /* Slave */>> leaseHoldersPerIp = new HashMap<>();
+
+    /**
+     * Keeps the occupied slots between the restarts of the master, null when disabled. Only snapshots are saved: the
+     * slots granted since the last one expire on their own.
+     */
+    private FileJournal journal = null;
+
+    private long lastSnapshotInMillis = System.currentTimeMillis();
+
     public IPLimiterAccountantActor(final IPLimiterConfig IPLimiterConfig) {
-        this.ipLimiterAccountant = new IpLimiterAccountant(IPLimiterConfig.getDefaultLimitsPerIp(), IPLimiterConfig.getSpecificLimitsPerIp());
+        this.ipLimiterAccountant = new IpLimiterAccountant(IPLimiterConfig.getDefaultLimitsPerIp(), IPLimiterConfig.getSpecificLimitsPerIp(),
+                IPLimiterConfig.getMaxSlotUsageLife().getMillis(), IPLimiterConfig.getTokenBucketConfig());
         this.IPLimiterConfig = IPLimiterConfig;
     }
 
@@ -44,11 +104,20 @@ public class IPLimiterAccountantActor extends UntypedActor {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
                 "IP limiter pre starting.");
 
-        getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(IPLimiterConfig.getMaxSlotUsageLife().getStandardSeconds(),
-                TimeUnit.SECONDS), getSelf(), new IPLimitCleanExpiredSlots(), getContext().system().dispatcher(), getSelf());
+        recover();
+
+        scheduleCleanExpiredSlots();
     }
 
 
+    @Override
+    public void postStop() throws Exception {
+        saveSnapshot();
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
     @Override
     public void onReceive(Object message) throws Exception {
 
@@ -71,22 +140,59 @@ public class IPLimiterAccountantActor extends UntypedActor {
             final ReturnConnectionSlotRequest returnConnectionSlotRequest = (ReturnConnectionSlotRequest) message;
             ipLimiterAccountant.returnConnectionSlotRequest(returnConnectionSlotRequest);
             MasterMetrics.Master.ipLimitReturnedGrantedSlotRequestCounter.inc();
+            grantWaitingLeaseRequests(returnConnectionSlotRequest.getIp());
+            return;
+        }
+        if (message instanceof LeaseConnectionSlotsRequest) {
+            final LeaseConnectionSlotsRequest leaseConnectionSlotsRequest = (LeaseConnectionSlotsRequest) message;
+            LOG.debug("IO limiter instanceof LeaseConnectionSlotsRequest, ip: {}, slots: {}", leaseConnectionSlotsRequest.getIp(), leaseConnectionSlotsRequest.getSlots());
+
+            if (!leaseOrWait(leaseConnectionSlotsRequest.getIp(), leaseConnectionSlotsRequest.getSlots(), getSender())) {
+                MasterMetrics.Master.ipLimitNotGrantedSlotRequestCounter.inc();
+            }
+            return;
+        }
+        if (message instanceof ReturnConnectionSlotsLease) {
+            final ReturnConnectionSlotsLease returnConnectionSlotsLease = (ReturnConnectionSlotsLease) message;
+            LOG.debug("IO limiter instanceof ReturnConnectionSlotsLease, lease id: {}", returnConnectionSlotsLease.getLeaseId());
+
+            if (ipLimiterAccountant.returnConnectionSlotsLease(returnConnectionSlotsLease)) {
+                MasterMetrics.Master.ipLimitReturnedLeaseCounter.inc();
+            }
+            removeLeaseHolder(returnConnectionSlotsLease.getIp(), returnConnectionSlotsLease.getLeaseId());
+            grantWaitingLeaseRequests(returnConnectionSlotsLease.getIp());
             return;
         }
         if (message instanceof IPLimitCleanExpiredSlots) {
             LOG.debug("IO limiter instanceof IPLimitCleanExpiredSlots");
 
             cleanExpiredSlots();
-            getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(IPLimiterConfig.getMaxSlotUsageLife().getStandardSeconds(),
-                    TimeUnit.SECONDS), getSelf(), new IPLimitCleanExpiredSlots(), getContext().system().dispatcher(), getSelf());
+            if (System.currentTimeMillis() - lastSnapshotInMillis >= IPLimiterConfig.getMaxSlotUsageLife().getMillis()) {
+                saveSnapshot();
+            }
+            scheduleCleanExpiredSlots();
             return ;
         }
 
+        if (message instanceof Terminated) {
+            dropWaitingLeaseRequestsOf(((Terminated) message).getActor());
+            return;
+        }
+
+        if (message instanceof HostResponseReport) {
+            final HostResponseReport report = (HostResponseReport) message;
+            if (ipLimiterAccountant.reportResponse(report, System.currentTimeMillis())) {
+                revokeLeases(report.getIp());
+            }
+            return;
+        }
+
         if (message instanceof  ChangeMaxAvailableSlotsRequest) {
             LOG.debug("IO limiter instanceof ChangeMaxAvailableSlotsRequest");
 
             final ChangeMaxAvailableSlotsRequest changeMaxAvailableSlotsRequest = (ChangeMaxAvailableSlotsRequest) message;
             ipLimiterAccountant.setSpecificLimitPerIp(changeMaxAvailableSlotsRequest.getIp(),changeMaxAvailableSlotsRequest.getMaxAvailableSlots());
+            grantWaitingLeaseRequests(changeMaxAvailableSlotsRequest.getIp());
             return ;
         }
 
@@ -94,11 +200,245 @@ public class IPLimiterAccountantActor extends UntypedActor {
 
     }
 
+    private void recover() {
+        if (IPLimiterConfig.getJournalDirectory() == null || IPLimiterConfig.getJournalDirectory().isEmpty()) {
+            return;
+        }
+
+        try {
+            journal = new FileJournal(new File(IPLimiterConfig.getJournalDirectory()), JOURNAL_NAME);
+            journal.recover(new FileJournal.Recovery() {
+                @Override
+                public void onSnapshot(Object snapshot) {
+                    ipLimiterAccountant.restore((IpLimiterAccountant.Snapshot) snapshot);
+                }
+
+                @Override
+                public void onEvent(Object event) {
+                }
+            });
+            cleanExpiredSlots();
+        } catch (IOException | RuntimeException e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
+                    "IP limiter could not recover the occupied slots, starting empty.", e);
+            closeJournal();
+        }
+    }
+
+    private void saveSnapshot() {
+        if (journal == null) {
+            return;
+        }
+
+        try {
+            journal.saveSnapshot(ipLimiterAccountant.snapshot());
+            lastSnapshotInMillis = System.currentTimeMillis();
+        } catch (IOException e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
+                    "IP limiter could not save the occupied slots, the journal is disabled.", e);
+            closeJournal();
+        }
+    }
+
+    private void closeJournal() {
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                LOG.error("IP limiter could not close the journal", e);
+            }
+        }
+        journal = null;
+    }
+
+    private void scheduleCleanExpiredSlots() {
+        getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(IpLimiterAccountant.EXPIRY_TICK_IN_MILLIS,
+                TimeUnit.MILLISECONDS), getSelf(), new IPLimitCleanExpiredSlots(), getContext().system().dispatcher(), getSelf());
+    }
+
     private final void cleanExpiredSlots() {
-        final int reclaimedSlots = ipLimiterAccountant.reclaimOccupiedSlotsOlderThan(DateTime.now().minus(IPLimiterConfig.getMaxSlotUsageLife()));
-        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
-                "IP limiter reclaimed {} slots. Next reclaiming will execute in {} seconds.", reclaimedSlots, IPLimiterConfig.getMaxSlotUsageLife().toStandardSeconds().getSeconds());
+        final boolean droppedRequests = dropTimedOutWaitingLeaseRequests(System.currentTimeMillis());
+
+        final int reclaimedSlots = ipLimiterAccountant.reclaimExpiredSlots(System.currentTimeMillis());
+        if (reclaimedSlots > 0) {
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
+                    "IP limiter reclaimed {} slots.", reclaimedSlots);
+            removeExpiredLeaseHolders();
+        }
 
+        // Slots were freed, the requests ahead were dropped or, for the rate limited IPs, tokens came back
+        if (reclaimedSlots > 0 || droppedRequests || IPLimiterConfig.getTokenBucketConfig() != null) {
+            for (final String ip : new ArrayList<>(waitingLeaseRequests.keySet())) {
+                grantWaitingLeaseRequests(ip);
+            }
+        }
+    }
+
+    /**
+     * Leases the slots to the slave or, if none is available, keeps the request until a slot of the IP is freed.
+     * A slave has at most one waiting request per IP, a newer one replaces the older.
+     *
+     * @return true if the lease was granted
+     */
+    private boolean leaseOrWait(final String ip, final Integer slots, final ActorRef slave) {
+        final LeaseConnectionSlotsResponse response = ipLimiterAccountant.leaseConnectionSlotsRequest(new LeaseConnectionSlotsRequest(ip, slots),
+                IPLimiterConfig.getMaxSlotUsageLife().getMillis());
+        if (response.getGranted()) {
+            MasterMetrics.Master.ipLimitGrantedLeaseCounter.inc();
+            addLeaseHolder(response, slave);
+            slave.tell(response, getSelf());
+            return true;
+        }
+
+        LinkedHashMap<ActorRef, WaitingLeaseRequest> waiting = waitingLeaseRequests.get(ip);
+        if (waiting == null) {
+            waiting = new LinkedHashMap<>();
+            waitingLeaseRequests.put(ip, waiting);
+        }
+        // A request sent again keeps the place of the older one in the queue
+        if (waiting.put(slave, new WaitingLeaseRequest(slots, System.currentTimeMillis())) == null) {
+            final Integer waitingIps = waitingIpsPerSlave.get(slave);
+            if (waitingIps == null) {
+                getContext().watch(slave);
+                waitingIpsPerSlave.put(slave, 1);
+            } else {
+                waitingIpsPerSlave.put(slave, waitingIps + 1);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called once a waiting request of the slave is granted or dropped.
+     */
+    private void doneWaiting(final ActorRef slave) {
+        final Integer waitingIps = waitingIpsPerSlave.get(slave);
+        if (waitingIps == null) {
+            return;
+        }
+        if (waitingIps > 1) {
+            waitingIpsPerSlave.put(slave, waitingIps - 1);
+        } else {
+            waitingIpsPerSlave.remove(slave);
+            getContext().unwatch(slave);
+        }
+    }
+
+    /**
+     * Drops the waiting lease requests of a dead slave, the requests behind them may be granted now.
+     */
+    private void dropWaitingLeaseRequestsOf(final ActorRef slave) {
+        waitingIpsPerSlave.remove(slave);
+        for (final String ip : new ArrayList<>(waitingLeaseRequests.keySet())) {
+            if (waitingLeaseRequests.get(ip).remove(slave) != null) {
+                LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
+                        "IP limiter dropped the waiting lease request of the dead slave {} for {}.", slave, ip);
+                grantWaitingLeaseRequests(ip);
+            }
+        }
+    }
+
+    /**
+     * Drops the waiting lease requests older than {@link #WAITING_LEASE_REQUEST_TIMEOUT_IN_MILLIS}.
+     *
+     * @return true if a request was dropped
+     */
+    private boolean dropTimedOutWaitingLeaseRequests(final long now) {
+        boolean dropped = false;
+        final Iterator<LinkedHashMap<ActorRef, WaitingLeaseRequest>> ips = waitingLeaseRequests.values().iterator();
+        while (ips.hasNext()) {
+            final LinkedHashMap<ActorRef, WaitingLeaseRequest> waiting = ips.next();
+            final Iterator<Map.Entry<ActorRef, WaitingLeaseRequest>> requests = waiting.entrySet().iterator();
+            while (requests.hasNext()) {
+                final Map.Entry<ActorRef, WaitingLeaseRequest> request = requests.next();
+                if (now - request.getValue().sinceMillis >= WAITING_LEASE_REQUEST_TIMEOUT_IN_MILLIS) {
+                    requests.remove();
+                    doneWaiting(request.getKey());
+                    dropped = true;
+                }
+            }
+            if (waiting.isEmpty()) {
+                ips.remove();
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * Grants the waiting lease requests of an IP, in the order they came, while there are available slots.
+     */
+    private void grantWaitingLeaseRequests(final String ip) {
+        final LinkedHashMap<ActorRef, WaitingLeaseRequest> waiting = waitingLeaseRequests.get(ip);
+        if (waiting == null) {
+            return;
+        }
+
+        final Iterator<Map.Entry<ActorRef, WaitingLeaseRequest>> iterator = waiting.entrySet().iterator();
+        while (iterator.hasNext()) {
+            final Map.Entry<ActorRef, WaitingLeaseRequest> request = iterator.next();
+            final LeaseConnectionSlotsResponse response = ipLimiterAccountant.leaseConnectionSlotsRequest(new LeaseConnectionSlotsRequest(ip, request.getValue().slots),
+                    IPLimiterConfig.getMaxSlotUsageLife().getMillis());
+            if (!response.getGranted()) {
+                break;
+            }
+            MasterMetrics.Master.ipLimitGrantedLeaseCounter.inc();
+            addLeaseHolder(response, request.getKey());
+            request.getKey().tell(response, getSelf());
+            iterator.remove();
+            doneWaiting(request.getKey());
+        }
+
+        if (waiting.isEmpty()) {
+            waitingLeaseRequests.remove(ip);
+        }
+    }
+
+    private void addLeaseHolder(final LeaseConnectionSlotsResponse lease, final ActorRef slave) {
+        Map<String, ActorRef> holders = leaseHoldersPerIp.get(lease.getIp());
+        if (holders == null) {
+            holders = new HashMap<>();
+            leaseHoldersPerIp.put(lease.getIp(), holders);
+        }
+        holders.put(lease.getLeaseId(), slave);
     }
-}
 
+    private void removeLeaseHolder(final String ip, final String leaseId) {
+        final Map<String, ActorRef> holders = leaseHoldersPerIp.get(ip);
+        if (holders != null && holders.remove(leaseId) != null && holders.isEmpty()) {
+            leaseHoldersPerIp.remove(ip);
+        }
+    }
+
+    private void removeExpiredLeaseHolders() {
+        final Iterator<Map.Entry<String, Map<String, ActorRef>>> ips = leaseHoldersPerIp.entrySet().iterator();
+        while (ips.hasNext()) {
+            final Map.Entry<String, Map<String, ActorRef>> holders = ips.next();
+            final Iterator<String> leaseIds = holders.getValue().keySet().iterator();
+            while (leaseIds.hasNext()) {
+                if (!ipLimiterAccountant.isLeased(holders.getKey(), leaseIds.next())) {
+                    leaseIds.remove();
+                }
+            }
+            if (holders.getValue().isEmpty()) {
+                ips.remove();
+            }
+        }
+    }
+
+    /**
+     * Tells the slaves holding leases for a paused IP to stop starting tasks with them. The slaves return the leases
+     * once their slots are free, the slots are counted until then.
+     */
+    private void revokeLeases(final String ip) {
+        final Map<String, ActorRef> holders = leaseHoldersPerIp.get(ip);
+        if (holders == null) {
+            return;
+        }
+
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.IP_LIMITER),
+                "IP limiter revokes the {} leases of the paused IP {}.", holders.size(), ip);
+        for (final ActorRef slave : new HashSet<>(holders.values())) {
+            slave.tell(new RevokeConnectionSlotsLeases(ip), getSelf());
+        }
+    }
+}
@@ -1,20 +1,28 @@
 package eu.europeana.harvester.cluster.master.limiter;
 
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class IpConnectionSlots {
+public class IpConnectionSlots implements Serializable {
 
     private Integer maxAvailableSlots;
     private final String ip;
     private final HashMap<String /* Slot token */, DateTime /* The time when it was granted */> slots;
-    private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
+
+    /**
+     * Every slot of a lease is kept in slots (as leaseId#index) so it is counted & reclaimed as any other slot.
+     */
+    private final HashMap<String /* Lease id */, Integer /* The number of slots */> leases = new HashMap<>();
+    private static final Logger LOG = LoggerFactory.getLogger(IpConnectionSlots.class.getName());
 
     public IpConnectionSlots(Integer maxAvailableSlots, String ip) {
         this.maxAvailableSlots = maxAvailableSlots;
@@ -46,6 +54,52 @@ public class IpConnectionSlots {
         }
     }
 
+    /**
+     * Leases as many of the requested slots as are available.
+     *
+     * @return the lease, which is not granted if no slot is available
+     */
+    public final LeaseConnectionSlotsResponse requestConnectionSlotsLease(final int requestedSlots, final long leaseDurationInMillis) {
+        return requestConnectionSlotsLease(requestedSlots, leaseDurationInMillis, null);
+    }
+
+    /**
+     * Leases as many of the requested slots as are available, for at most the given number of tasks.
+     *
+     * @param tasks the number of tasks the lease may start, null if not limited
+     * @return the lease, which is not granted if no slot is available
+     */
+    public final LeaseConnectionSlotsResponse requestConnectionSlotsLease(final int requestedSlots, final long leaseDurationInMillis,
+                                                                          final Integer tasks) {
+        final int slotsToLease = Math.max(0, Math.min(requestedSlots, getNumberOfAvailableSlots()));
+        final LeaseConnectionSlotsResponse response = new LeaseConnectionSlotsResponse(ip, slotsToLease, leaseDurationInMillis, tasks);
+        if (slotsToLease > 0) {
+            final DateTime now = DateTime.now();
+            for (int index = 0; index < slotsToLease; index++) {
+                slots.put(leaseSlotId(response.getLeaseId(), index), now);
+            }
+            leases.put(response.getLeaseId(), slotsToLease);
+        }
+        LOG.debug("lease connection slots, ip {}, requested {}, leased {}, lease id {}", ip, requestedSlots, slotsToLease, response.getLeaseId());
+
+        return response;
+    }
+
+    public final boolean returnConnectionSlotsLease(final String leaseId) {
+        final Integer leasedSlots = leases.remove(leaseId);
+        if (leasedSlots == null) {
+            return false;
+        }
+        for (int index = 0; index < leasedSlots; index++) {
+            slots.remove(leaseSlotId(leaseId, index));
+        }
+        return true;
+    }
+
+    private static String leaseSlotId(final String leaseId, final int index) {
+        return leaseId + "#" + index;
+    }
+
     public final Integer reclaimOccupiedSlotsOlderThan(final DateTime limit) {
         final List<String> slotIdsToBeReclaimed = new ArrayList<>();
         for (final String slotId : slots.keySet()) {
@@ -55,9 +109,63 @@ public class IpConnectionSlots {
         for (final String slotId : slotIdsToBeReclaimed) {
             slots.remove(slotId);
         }
+
+        // All the slots of a lease are granted at once so they expire together
+        final List<String> expiredLeaseIds = new ArrayList<>();
+        for (final String leaseId : leases.keySet()) {
+            if (!slots.containsKey(leaseSlotId(leaseId, 0))) expiredLeaseIds.add(leaseId);
+        }
+        for (final String leaseId : expiredLeaseIds) {
+            leases.remove(leaseId);
+        }
         return slotIdsToBeReclaimed.size();
     }
 
+    /**
+     * Reclaims a single slot which expired.
+     *
+     * @return 1 if the slot was still occupied, 0 otherwise
+     */
+    public final int reclaimSlot(final String slotId) {
+        return slots.remove(slotId) != null ? 1 : 0;
+    }
+
+    /**
+     * Reclaims the slots of a lease which expired.
+     *
+     * @return the number of reclaimed slots
+     */
+    public final int reclaimLease(final String leaseId) {
+        final Integer leasedSlots = leases.remove(leaseId);
+        if (leasedSlots == null) {
+            return 0;
+        }
+        int reclaimedSlots = 0;
+        for (int index = 0; index < leasedSlots; index++) {
+            if (slots.remove(leaseSlotId(leaseId, index)) != null) reclaimedSlots++;
+        }
+        return reclaimedSlots;
+    }
+
+    /**
+     * @return the time when each single slot & each lease was granted
+     */
+    public final Map<String /* Slot or lease id */, DateTime> getGrantTimes() {
+        final Map<String, DateTime> grantTimes = new HashMap<>();
+        for (final Map.Entry<String, DateTime> slot : slots.entrySet()) {
+            if (!slot.getKey().contains("#")) grantTimes.put(slot.getKey(), slot.getValue());
+        }
+        for (final String leaseId : leases.keySet()) {
+            final DateTime grantTime = slots.get(leaseSlotId(leaseId, 0));
+            if (grantTime != null) grantTimes.put(leaseId, grantTime);
+        }
+        return grantTimes;
+    }
+
+    public final boolean isLease(final String id) {
+        return leases.containsKey(id);
+    }
+
     public final int getNumberOfAvailableSlots() {
         return maxAvailableSlots-slots.keySet().size();
     }
@@ -1,24 +1,93 @@
 package eu.europeana.harvester.cluster.master.limiter;
 
+import eu.europeana.harvester.cluster.master.limiter.domain.HostResponseReport;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotsLease;
+import eu.europeana.harvester.cluster.master.limiter.domain.TokenBucketConfig;
 import org.joda.time.DateTime;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
 
 public class IpLimiterAccountant {
 
+    /**
+     * The precision of the expiry of the slots.
+     */
+    public static final long EXPIRY_TICK_IN_MILLIS = 1000;
+
+    /**
+     * The number of ticks of the expiry wheel, a turn covers the usual life of a slot.
+     */
+    public static final int EXPIRY_WHEEL_SIZE = 1024;
+
+    /**
+     * The occupied slots, the specific limits & the rates, saved so that a restarted master does not grant the slots
+     * twice nor hits a slow IP at full rate.
+     */
+    public static class Snapshot implements Serializable {
+        private final HashMap<String, Integer> specificLimitsPerIp;
+
+        private final HashMap<String, IpConnectionSlots> occupiedConnectionSlotsPerIp;
+
+        private final HashMap<String, IpTokenBucket> tokenBucketsPerIp;
+
+        public Snapshot(HashMap<String, Integer> specificLimitsPerIp, HashMap<String, IpConnectionSlots> occupiedConnectionSlotsPerIp,
+                        HashMap<String, IpTokenBucket> tokenBucketsPerIp) {
+            this.specificLimitsPerIp = specificLimitsPerIp;
+            this.occupiedConnectionSlotsPerIp = occupiedConnectionSlotsPerIp;
+            this.tokenBucketsPerIp = tokenBucketsPerIp;
+        }
+
+        public HashMap<String, Integer> getSpecificLimitsPerIp() {
+            return specificLimitsPerIp;
+        }
+
+        public HashMap<String, IpConnectionSlots> getOccupiedConnectionSlotsPerIp() {
+            return occupiedConnectionSlotsPerIp;
+        }
+
+        public HashMap<String, IpTokenBucket> getTokenBucketsPerIp() {
+            return tokenBucketsPerIp;
+        }
+    }
+
     private final Integer defaultLimitsPerIp;
     private final Map<String, Integer> specificLimitsPerIp = new HashMap<>();
     private final Map<String /* IP */, IpConnectionSlots> occupiedConnectionSlotsPerIp = new HashMap<>();
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
+    /**
+     * The life of a single reserved slot, null if the slots are only returned & never expire.
+     */
+    private final Long maxSlotUsageLifeInMillis;
+
+    /**
+     * The rate limits of the IPs, null if only the number of concurrent connections is limited.
+     */
+    private final TokenBucketConfig tokenBucketConfig;
+
+    private final Map<String /* IP */, IpTokenBucket> tokenBucketsPerIp = new HashMap<>();
+
+    private final SlotExpiryWheel expiryWheel;
+
     public IpLimiterAccountant(Integer defaultLimitsPerIp, Map<String, Integer> newSpecificLimitsPerIp) {
+        this(defaultLimitsPerIp, newSpecificLimitsPerIp, null, null);
+    }
+
+    public IpLimiterAccountant(Integer defaultLimitsPerIp, Map<String, Integer> newSpecificLimitsPerIp,
+                               Long maxSlotUsageLifeInMillis, TokenBucketConfig tokenBucketConfig) {
         this.defaultLimitsPerIp = defaultLimitsPerIp;
+        this.maxSlotUsageLifeInMillis = maxSlotUsageLifeInMillis;
+        this.tokenBucketConfig = tokenBucketConfig;
+        this.expiryWheel = new SlotExpiryWheel(EXPIRY_TICK_IN_MILLIS, EXPIRY_WHEEL_SIZE, System.currentTimeMillis());
         for (final String ip : newSpecificLimitsPerIp.keySet()) {
             setSpecificLimitPerIp(ip,newSpecificLimitsPerIp.get(ip));
         }
@@ -34,9 +103,34 @@ public class IpLimiterAccountant {
             occupiedConnectionSlotsPerIp.put(ip, new IpConnectionSlots(computeLimitPerIp(ip), ip));
     }
 
+    private IpTokenBucket tokenBucket(final String ip, final long nowInMillis) {
+        if (tokenBucketConfig == null) {
+            return null;
+        }
+        IpTokenBucket tokenBucket = tokenBucketsPerIp.get(ip);
+        if (tokenBucket == null) {
+            tokenBucket = new IpTokenBucket(tokenBucketConfig, nowInMillis);
+            tokenBucketsPerIp.put(ip, tokenBucket);
+        }
+        return tokenBucket;
+    }
+
     public final ReserveConnectionSlotResponse reserveConnectionSlotRequest(final ReserveConnectionSlotRequest reserveConnectionSlotRequest) {
-        occupiedConnectionSlotsPerIpFull(reserveConnectionSlotRequest.getIp());
-        return occupiedConnectionSlotsPerIp.get(reserveConnectionSlotRequest.getIp()).requestConnectionSlotReservation(reserveConnectionSlotRequest.getTaskID());
+        final String ip = reserveConnectionSlotRequest.getIp();
+        final long now = System.currentTimeMillis();
+        occupiedConnectionSlotsPerIpFull(ip);
+
+        final IpTokenBucket tokenBucket = tokenBucket(ip, now);
+        if (tokenBucket != null && tokenBucket.getAvailableTokens(now) < 1) {
+            return new ReserveConnectionSlotResponse(ip, reserveConnectionSlotRequest.getTaskID(), false);
+        }
+
+        final ReserveConnectionSlotResponse response = occupiedConnectionSlotsPerIp.get(ip).requestConnectionSlotReservation(reserveConnectionSlotRequest.getTaskID());
+        if (response.getGranted()) {
+            if (tokenBucket != null) tokenBucket.take(1, now);
+            if (maxSlotUsageLifeInMillis != null) expiryWheel.schedule(ip, response.getSlotId(), false, now + maxSlotUsageLifeInMillis);
+        }
+        return response;
     }
 
     public final boolean returnConnectionSlotRequest(final ReturnConnectionSlotRequest returnConnectionSlotRequest) {
@@ -44,12 +138,77 @@ public class IpLimiterAccountant {
         return occupiedConnectionSlotsPerIp.get(returnConnectionSlotRequest.getIp()).returnConnectionSlotReservation(returnConnectionSlotRequest.getSlotId());
     }
 
-    public final int reclaimOccupiedSlotsOlderThan(final DateTime limit) {
-        int reclaimedSlots = 0;
-        for (final String ip : occupiedConnectionSlotsPerIp.keySet()) {
-            reclaimedSlots = reclaimedSlots + occupiedConnectionSlotsPerIp.get(ip).reclaimOccupiedSlotsOlderThan(limit);
+    public final LeaseConnectionSlotsResponse leaseConnectionSlotsRequest(final LeaseConnectionSlotsRequest leaseConnectionSlotsRequest, final long leaseDurationInMillis) {
+        final String ip = leaseConnectionSlotsRequest.getIp();
+        final long now = System.currentTimeMillis();
+        occupiedConnectionSlotsPerIpFull(ip);
+
+        final IpTokenBucket tokenBucket = tokenBucket(ip, now);
+        if (tokenBucket == null) {
+            final LeaseConnectionSlotsResponse response = occupiedConnectionSlotsPerIp.get(ip).requestConnectionSlotsLease(leaseConnectionSlotsRequest.getSlots(), leaseDurationInMillis);
+            if (response.getGranted()) expiryWheel.schedule(ip, response.getLeaseId(), true, now + leaseDurationInMillis);
+            return response;
+        }
+
+        // Every task the lease may start takes a token, however many times the slave uses the slots
+        final int tasks = Math.min(leaseConnectionSlotsRequest.getSlots(), tokenBucket.getAvailableTokens(now));
+        final LeaseConnectionSlotsResponse response = occupiedConnectionSlotsPerIp.get(ip).requestConnectionSlotsLease(tasks, leaseDurationInMillis, tasks);
+        if (response.getGranted()) {
+            tokenBucket.take(tasks, now);
+            expiryWheel.schedule(ip, response.getLeaseId(), true, now + leaseDurationInMillis);
         }
-        return reclaimedSlots;
+        return response;
+    }
+
+    /**
+     * @return true if the lease was granted & is neither returned nor expired
+     */
+    public final boolean isLeased(final String ip, final String leaseId) {
+        final IpConnectionSlots slots = occupiedConnectionSlotsPerIp.get(ip);
+        return slots != null && slots.isLease(leaseId);
+    }
+
+    public final boolean returnConnectionSlotsLease(final ReturnConnectionSlotsLease returnConnectionSlotsLease) {
+        occupiedConnectionSlotsPerIpFull(returnConnectionSlotsLease.getIp());
+        return occupiedConnectionSlotsPerIp.get(returnConnectionSlotsLease.getIp()).returnConnectionSlotsLease(returnConnectionSlotsLease.getLeaseId());
+    }
+
+    /**
+     * Reclaims the slots & the leases which expired until now.
+     *
+     * @return the number of reclaimed slots
+     */
+    public final int reclaimExpiredSlots(final long nowInMillis) {
+        final int[] reclaimedSlots = {0};
+        expiryWheel.advance(nowInMillis, new SlotExpiryWheel.Expiry() {
+            @Override
+            public void onExpired(String ip, String id, boolean lease) {
+                final IpConnectionSlots slots = occupiedConnectionSlotsPerIp.get(ip);
+                if (slots != null) {
+                    reclaimedSlots[0] += lease ? slots.reclaimLease(id) : slots.reclaimSlot(id);
+                }
+            }
+        });
+        return reclaimedSlots[0];
+    }
+
+    /**
+     * Adapts the rate of an IP to the way it answered.
+     *
+     * @return true if the IP asked for a pause, the leases of the IP should then stop starting tasks
+     */
+    public final boolean reportResponse(final HostResponseReport report, final long nowInMillis) {
+        final IpTokenBucket tokenBucket = tokenBucket(report.getIp(), nowInMillis);
+        return tokenBucket != null && tokenBucket.onResponse(report, nowInMillis);
+    }
+
+    /**
+     * @return the current rate of an IP, null if the rate is not limited
+     */
+    public final Double getRatePerSecond(final String ip) {
+        final IpTokenBucket tokenBucket = tokenBucketsPerIp.get(ip);
+        if (tokenBucket != null) return tokenBucket.getRatePerSecond();
+        return (tokenBucketConfig != null) ? tokenBucketConfig.getInitialRatePerSecond() : null;
     }
 
     public final void setSpecificLimitPerIp(final String ip,final Integer limit) {
@@ -58,4 +217,43 @@ public class IpLimiterAccountant {
         specificLimitsPerIp.put(ip,limit);
         occupiedConnectionSlotsPerIp.get(ip).setMaxAvailableSlots(limit);
     }
+
+    /**
+     * @return the current state, to be serialized right away as it shares the slots with this accountant
+     */
+    public final Snapshot snapshot() {
+        return new Snapshot(new HashMap<>(specificLimitsPerIp), new HashMap<>(occupiedConnectionSlotsPerIp),
+                new HashMap<>(tokenBucketsPerIp));
+    }
+
+    /**
+     * Replaces the current state with a saved one. The limits given at construction win over the saved limits.
+     */
+    public final void restore(final Snapshot snapshot) {
+        final Map<String, Integer> configuredLimitsPerIp = new HashMap<>(specificLimitsPerIp);
+        specificLimitsPerIp.clear();
+        specificLimitsPerIp.putAll(snapshot.getSpecificLimitsPerIp());
+        occupiedConnectionSlotsPerIp.clear();
+        occupiedConnectionSlotsPerIp.putAll(snapshot.getOccupiedConnectionSlotsPerIp());
+        tokenBucketsPerIp.clear();
+        if (tokenBucketConfig != null && snapshot.getTokenBucketsPerIp() != null) {
+            for (final Map.Entry<String, IpTokenBucket> tokenBucket : snapshot.getTokenBucketsPerIp().entrySet()) {
+                tokenBucket.getValue().setConfig(tokenBucketConfig);
+                tokenBucketsPerIp.put(tokenBucket.getKey(), tokenBucket.getValue());
+            }
+        }
+        for (final Map.Entry<String, Integer> limit : configuredLimitsPerIp.entrySet()) {
+            setSpecificLimitPerIp(limit.getKey(), limit.getValue());
+        }
+
+        // The saved slots expire a life after they were granted
+        if (maxSlotUsageLifeInMillis != null) {
+            for (final Map.Entry<String, IpConnectionSlots> slots : occupiedConnectionSlotsPerIp.entrySet()) {
+                for (final Map.Entry<String, DateTime> grantTime : slots.getValue().getGrantTimes().entrySet()) {
+                    expiryWheel.schedule(slots.getKey(), grantTime.getKey(), slots.getValue().isLease(grantTime.getKey()),
+                            grantTime.getValue().getMillis() + maxSlotUsageLifeInMillis);
+                }
+            }
+        }
+    }
 }
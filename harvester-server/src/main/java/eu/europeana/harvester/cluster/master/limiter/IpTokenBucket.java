@@ -0,0 +1,113 @@
+package eu.europeana.harvester.cluster.master.limiter;
+
+import eu.europeana.harvester.cluster.master.limiter.domain.HostResponseReport;
+import eu.europeana.harvester.cluster.master.limiter.domain.TokenBucketConfig;
+
+import java.io.Serializable;
+
+/**
+ * The request rate of an IP, as a token bucket : every granted connection slot takes a token & the tokens come back at
+ * the rate of the IP, up to the burst. The rate adapts to the responses of the IP (AIMD) : each good response adds
+ * increase / rate, so the rate grows by about the additive increase every second, while a slow response, a 429 or a
+ * 503 multiplies it by the decrease factor. A Retry-After pauses the IP. The tokens are refilled lazily when asked.
+ */
+public class IpTokenBucket implements Serializable {
+
+    /**
+     * The shortest time between two decreases, so that the responses to the requests sent at the same rate cut the
+     * rate only once.
+     */
+    public static final long DECREASE_INTERVAL_IN_MILLIS = 1000;
+
+    private TokenBucketConfig config;
+
+    private double ratePerSecond;
+
+    private double tokens;
+
+    private long lastRefillInMillis;
+
+    private long pausedUntilInMillis = 0;
+
+    private long lastDecreaseInMillis = -DECREASE_INTERVAL_IN_MILLIS;
+
+    public IpTokenBucket(final TokenBucketConfig config, final long nowInMillis) {
+        this.config = config;
+        this.ratePerSecond = config.getInitialRatePerSecond();
+        this.tokens = config.getBurst();
+        this.lastRefillInMillis = nowInMillis;
+    }
+
+    /**
+     * @return the number of whole tokens which can be taken now
+     */
+    public int getAvailableTokens(final long nowInMillis) {
+        refill(nowInMillis);
+        if (nowInMillis < pausedUntilInMillis) {
+            return 0;
+        }
+        return (int) tokens;
+    }
+
+    /**
+     * Takes tokens which were checked as available.
+     */
+    public void take(final int taken, final long nowInMillis) {
+        refill(nowInMillis);
+        tokens = Math.max(0, tokens - taken);
+    }
+
+    /**
+     * Adapts the rate to a response of the IP.
+     *
+     * @return true if the response paused the IP
+     */
+    public boolean onResponse(final HostResponseReport report, final long nowInMillis) {
+        final Integer code = report.getHttpResponseCode();
+        if (code == null || code <= 0) {
+            // No response, ie. the connection failed : nothing to learn about the load of the server
+            return false;
+        }
+
+        refill(nowInMillis);
+        final boolean overloaded = code == 429 || code == 503;
+        final boolean paused = overloaded && report.getRetryAfterInMillis() != null && report.getRetryAfterInMillis() > 0;
+        if (paused) {
+            pausedUntilInMillis = Math.max(pausedUntilInMillis,
+                    nowInMillis + Math.min(report.getRetryAfterInMillis(), config.getMaxRetryAfterInMillis()));
+            tokens = 0;
+        }
+
+        final boolean slow = report.getLatencyInMillis() != null &&
+                report.getLatencyInMillis() > config.getSlowResponseThresholdInMillis();
+        if (overloaded || slow) {
+            if (nowInMillis - lastDecreaseInMillis >= DECREASE_INTERVAL_IN_MILLIS) {
+                ratePerSecond = Math.max(config.getMinRatePerSecond(), ratePerSecond * config.getMultiplicativeDecreaseFactor());
+                lastDecreaseInMillis = nowInMillis;
+            }
+        } else {
+            ratePerSecond = Math.min(config.getMaxRatePerSecond(), ratePerSecond + config.getAdditiveIncreasePerSecond() / ratePerSecond);
+        }
+        return paused;
+    }
+
+    /**
+     * Applies a new configuration to a restored bucket, keeping its rate within the new bounds.
+     */
+    public void setConfig(final TokenBucketConfig config) {
+        this.config = config;
+        this.ratePerSecond = Math.max(config.getMinRatePerSecond(), Math.min(config.getMaxRatePerSecond(), ratePerSecond));
+        this.tokens = Math.min(config.getBurst(), tokens);
+    }
+
+    public double getRatePerSecond() {
+        return ratePerSecond;
+    }
+
+    private void refill(final long nowInMillis) {
+        if (nowInMillis > lastRefillInMillis) {
+            tokens = Math.min(config.getBurst(), tokens + (nowInMillis - lastRefillInMillis) * ratePerSecond / 1000.0);
+            lastRefillInMillis = nowInMillis;
+        }
+    }
+}
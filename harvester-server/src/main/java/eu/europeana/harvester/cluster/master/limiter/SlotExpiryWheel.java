@@ -0,0 +1,108 @@
+package eu.europeana.harvester.cluster.master.limiter;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timer wheel of the connection slots & leases waiting to expire. Each one is put in the bucket of the tick
+ * in which it expires, so a tick looks only at the slots expiring in it instead of scanning all the occupied slots.
+ * Those further away than a turn of the wheel stay in their bucket until their turn comes.
+ * <p/>
+ * Returned slots are not removed from the wheel : their expiry is ignored by the owner of the slots.
+ * It is not thread safe.
+ */
+public class SlotExpiryWheel {
+
+    /**
+     * Receives the expired slots & leases.
+     */
+    public interface Expiry {
+        void onExpired(String ip, String id, boolean lease);
+    }
+
+    private static class Entry {
+        private final String ip;
+        private final String id;
+        private final boolean lease;
+        private final long deadlineInMillis;
+
+        private Entry(final String ip, final String id, final boolean lease, final long deadlineInMillis) {
+            this.ip = ip;
+            this.id = id;
+            this.lease = lease;
+            this.deadlineInMillis = deadlineInMillis;
+        }
+    }
+
+    private final long tickInMillis;
+
+    private final List<List<Entry>> buckets;
+
+    /**
+     * The last tick which was processed.
+     */
+    private long currentTick;
+
+    private int size = 0;
+
+    /**
+     * @param tickInMillis the precision of the expiry
+     * @param wheelSize    the number of buckets, a turn of the wheel should cover the usual life of a slot
+     * @param nowInMillis  the current time
+     */
+    public SlotExpiryWheel(final long tickInMillis, final int wheelSize, final long nowInMillis) {
+        this.tickInMillis = tickInMillis;
+        this.buckets = new ArrayList<>(wheelSize);
+        for (int i = 0; i < wheelSize; i++) {
+            buckets.add(new ArrayList<Entry>());
+        }
+        this.currentTick = nowInMillis / tickInMillis;
+    }
+
+    public void schedule(final String ip, final String id, final boolean lease, final long deadlineInMillis) {
+        // The first tick which ends at or after the deadline, never one already processed
+        final long tick = Math.max(currentTick + 1, (deadlineInMillis + tickInMillis - 1) / tickInMillis);
+        buckets.get((int) (tick % buckets.size())).add(new Entry(ip, id, lease, deadlineInMillis));
+        size++;
+    }
+
+    /**
+     * Processes the ticks passed until now & hands over the slots & leases which expired.
+     *
+     * @return the number of expired entries
+     */
+    public int advance(final long nowInMillis, final Expiry expiry) {
+        final long targetTick = nowInMillis / tickInMillis;
+        int expired = 0;
+        // After a long pause a turn of the wheel visits every bucket once
+        final long firstTick = Math.max(currentTick + 1, targetTick - buckets.size() + 1);
+        for (long tick = firstTick; tick <= targetTick; tick++) {
+            final int index = (int) (tick % buckets.size());
+            final List<Entry> bucket = buckets.get(index);
+            if (bucket.isEmpty()) {
+                continue;
+            }
+
+            final List<Entry> remaining = new ArrayList<>();
+            for (final Entry entry : bucket) {
+                if (entry.deadlineInMillis <= nowInMillis) {
+                    expiry.onExpired(entry.ip, entry.id, entry.lease);
+                    expired++;
+                } else {
+                    remaining.add(entry);
+                }
+            }
+            buckets.set(index, remaining);
+        }
+        currentTick = Math.max(currentTick, targetTick);
+        size -= expired;
+        return expired;
+    }
+
+    /**
+     * @return the number of scheduled entries, including those of the returned slots
+     */
+    public int size() {
+        return size;
+    }
+}
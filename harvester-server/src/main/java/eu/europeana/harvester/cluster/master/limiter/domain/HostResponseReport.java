@@ -0,0 +1,103 @@
+package eu.europeana.harvester.cluster.master.limiter.domain;
+
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+
+import java.io.Serializable;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * How an IP answered a finished task, used by the limiter to adapt the request rate of the IP.
+ */
+public class HostResponseReport implements Serializable {
+
+    private static final DateTimeFormatter HTTP_DATE_FORMAT =
+            DateTimeFormat.forPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'").withLocale(Locale.US).withZone(DateTimeZone.UTC);
+
+    private final String ip;
+
+    private final Integer httpResponseCode;
+
+    /**
+     * The time between the connection & the first byte of the response, -1 if unknown.
+     */
+    private final Long latencyInMillis;
+
+    /**
+     * The pause asked by the server with a Retry-After header, 0 if none.
+     */
+    private final Long retryAfterInMillis;
+
+    public HostResponseReport(String ip, Integer httpResponseCode, Long latencyInMillis, Long retryAfterInMillis) {
+        this.ip = ip;
+        this.httpResponseCode = httpResponseCode;
+        this.latencyInMillis = latencyInMillis;
+        this.retryAfterInMillis = retryAfterInMillis;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public Integer getHttpResponseCode() {
+        return httpResponseCode;
+    }
+
+    public Long getLatencyInMillis() {
+        return latencyInMillis;
+    }
+
+    public Long getRetryAfterInMillis() {
+        return retryAfterInMillis;
+    }
+
+    /**
+     * @param ip             the IP the task was limited by
+     * @param doneProcessing the finished task
+     * @param nowInMillis    the current time, to turn a Retry-After date into a pause
+     */
+    public static HostResponseReport valueOf(final String ip, final DoneProcessing doneProcessing, final long nowInMillis) {
+        final Long latency = doneProcessing.getSocketConnectToDownloadStartDurationInMilliSecs();
+        return new HostResponseReport(ip, doneProcessing.getHttpResponseCode(),
+                latency != null && latency > 0 ? latency : -1l,
+                parseRetryAfter(doneProcessing.getHttpResponseHeaders(), nowInMillis));
+    }
+
+    /**
+     * Reads a Retry-After header given either in seconds or as an HTTP date.
+     *
+     * @return the pause in milliseconds, 0 if there is no valid header
+     */
+    public static long parseRetryAfter(final Map<String, String> headers, final long nowInMillis) {
+        if (headers == null) {
+            return 0;
+        }
+        String value = null;
+        for (final Map.Entry<String, String> entry : headers.entrySet()) {
+            if ("Retry-After".equalsIgnoreCase(entry.getKey())) {
+                value = entry.getValue();
+                break;
+            }
+        }
+        if (value == null) {
+            return 0;
+        }
+
+        value = value.trim();
+        try {
+            return Math.max(0, Long.parseLong(value) * 1000);
+        } catch (NumberFormatException e) {
+            // Not in seconds, maybe a date
+        }
+        try {
+            final DateTime retryAt = HTTP_DATE_FORMAT.parseDateTime(value);
+            return Math.max(0, retryAt.getMillis() - nowInMillis);
+        } catch (IllegalArgumentException e) {
+            return 0;
+        }
+    }
+}
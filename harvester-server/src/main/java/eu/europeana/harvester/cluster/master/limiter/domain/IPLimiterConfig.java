@@ -11,10 +11,27 @@ public class IPLimiterConfig {
 
     private final Duration maxSlotUsageLife;
 
+    /**
+     * The directory where the occupied slots are saved or null to keep them only in memory.
+     */
+    private final String journalDirectory;
+
+    /**
+     * The adaptive rate limits per IP or null to limit only the concurrent connections.
+     */
+    private final TokenBucketConfig tokenBucketConfig;
+
     public IPLimiterConfig(Integer defaultLimitsPerIp, Map<String, Integer> specificLimitsPerIp, Duration maxSlotUsageLife) {
+        this(defaultLimitsPerIp, specificLimitsPerIp, maxSlotUsageLife, null, null);
+    }
+
+    public IPLimiterConfig(Integer defaultLimitsPerIp, Map<String, Integer> specificLimitsPerIp, Duration maxSlotUsageLife,
+                           String journalDirectory, TokenBucketConfig tokenBucketConfig) {
         this.defaultLimitsPerIp = defaultLimitsPerIp;
         this.specificLimitsPerIp = specificLimitsPerIp;
         this.maxSlotUsageLife = maxSlotUsageLife;
+        this.journalDirectory = journalDirectory;
+        this.tokenBucketConfig = tokenBucketConfig;
     }
 
     public Integer getDefaultLimitsPerIp() {
@@ -28,4 +45,12 @@ public class IPLimiterConfig {
     public Map<String, Integer> getSpecificLimitsPerIp() {
         return specificLimitsPerIp;
     }
+
+    public String getJournalDirectory() {
+        return journalDirectory;
+    }
+
+    public TokenBucketConfig getTokenBucketConfig() {
+        return tokenBucketConfig;
+    }
 }
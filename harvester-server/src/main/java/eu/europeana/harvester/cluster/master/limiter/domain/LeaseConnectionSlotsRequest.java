@@ -0,0 +1,30 @@
+package eu.europeana.harvester.cluster.master.limiter.domain;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a slave which wants a block of connection slots for an IP, that it can use for many tasks without asking
+ * the master for each of them. If no slot is available the request waits in the limiter until one is freed.
+ */
+public class LeaseConnectionSlotsRequest implements Serializable {
+
+    private final String ip;
+
+    /**
+     * The number of slots wanted, the lease might contain less.
+     */
+    private final Integer slots;
+
+    public LeaseConnectionSlotsRequest(String ip, Integer slots) {
+        this.ip = ip;
+        this.slots = slots;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public Integer getSlots() {
+        return slots;
+    }
+}
@@ -0,0 +1,60 @@
+package eu.europeana.harvester.cluster.master.limiter.domain;
+
+import java.io.Serializable;
+
+/**
+ * A block of connection slots for an IP leased to a slave. The limiter reclaims the slots when the lease expires.
+ * For the rate limited IPs the lease also carries the number of tasks it may start, paid with the tokens of the IP
+ * when it is granted : a slot is used again only while some of them are left.
+ */
+public class LeaseConnectionSlotsResponse implements Serializable {
+
+    private final String leaseId;
+
+    private final String ip;
+
+    private final Integer slots;
+
+    private final Long leaseDurationInMillis;
+
+    /**
+     * The number of tasks which may be started with the slots, null if the rate of the IP is not limited.
+     */
+    private final Integer tasks;
+
+    public LeaseConnectionSlotsResponse(final String ip, final Integer slots, final Long leaseDurationInMillis) {
+        this(ip, slots, leaseDurationInMillis, null);
+    }
+
+    public LeaseConnectionSlotsResponse(final String ip, final Integer slots, final Long leaseDurationInMillis, final Integer tasks) {
+        this.leaseId = ReserveConnectionSlotResponse.generateId();
+        this.ip = ip;
+        this.slots = slots;
+        this.leaseDurationInMillis = leaseDurationInMillis;
+        this.tasks = tasks;
+    }
+
+    public String getLeaseId() {
+        return leaseId;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public Integer getSlots() {
+        return slots;
+    }
+
+    public Boolean getGranted() {
+        return slots > 0;
+    }
+
+    public Long getLeaseDurationInMillis() {
+        return leaseDurationInMillis;
+    }
+
+    public Integer getTasks() {
+        return tasks;
+    }
+}
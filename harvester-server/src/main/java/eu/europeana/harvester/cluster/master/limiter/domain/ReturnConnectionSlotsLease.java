@@ -0,0 +1,25 @@
+package eu.europeana.harvester.cluster.master.limiter.domain;
+
+import java.io.Serializable;
+
+/**
+ * Sent by a slave when it does not need the slots of a lease anymore.
+ */
+public class ReturnConnectionSlotsLease implements Serializable {
+
+    private final String leaseId;
+    private final String ip;
+
+    public ReturnConnectionSlotsLease(String leaseId, String ip) {
+        this.leaseId = leaseId;
+        this.ip = ip;
+    }
+
+    public String getLeaseId() {
+        return leaseId;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+}
@@ -0,0 +1,20 @@
+package eu.europeana.harvester.cluster.master.limiter.domain;
+
+import java.io.Serializable;
+
+/**
+ * Sent to the slaves holding leases for an IP which asked for a pause : the leases must not start any other task &
+ * are returned once their slots are free.
+ */
+public class RevokeConnectionSlotsLeases implements Serializable {
+
+    private final String ip;
+
+    public RevokeConnectionSlotsLeases(String ip) {
+        this.ip = ip;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+}
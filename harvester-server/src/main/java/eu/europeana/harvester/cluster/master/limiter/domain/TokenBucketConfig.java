@@ -0,0 +1,103 @@
+package eu.europeana.harvester.cluster.master.limiter.domain;
+
+import com.typesafe.config.Config;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The limits of the request rate per IP. Every IP starts at the initial rate, which grows by an additive step while
+ * the responses are fast & is cut by a factor on a slow response, a 429 or a 503.
+ */
+public class TokenBucketConfig implements Serializable {
+
+    /**
+     * The rate of a new IP, in connection slots per second.
+     */
+    private final Double initialRatePerSecond;
+
+    private final Double minRatePerSecond;
+
+    private final Double maxRatePerSecond;
+
+    /**
+     * The number of slots that can be granted at once after an idle period.
+     */
+    private final Integer burst;
+
+    /**
+     * The growth of the rate per second while the responses are good.
+     */
+    private final Double additiveIncreasePerSecond;
+
+    /**
+     * The factor applied to the rate on a bad response, between 0 and 1.
+     */
+    private final Double multiplicativeDecreaseFactor;
+
+    /**
+     * The time to the first byte above which a response counts as slow.
+     */
+    private final Long slowResponseThresholdInMillis;
+
+    /**
+     * The longest pause honoured from a Retry-After header.
+     */
+    private final Long maxRetryAfterInMillis;
+
+    public TokenBucketConfig(Double initialRatePerSecond, Double minRatePerSecond, Double maxRatePerSecond, Integer burst,
+                             Double additiveIncreasePerSecond, Double multiplicativeDecreaseFactor,
+                             Long slowResponseThresholdInMillis, Long maxRetryAfterInMillis) {
+        this.initialRatePerSecond = initialRatePerSecond;
+        this.minRatePerSecond = minRatePerSecond;
+        this.maxRatePerSecond = maxRatePerSecond;
+        this.burst = burst;
+        this.additiveIncreasePerSecond = additiveIncreasePerSecond;
+        this.multiplicativeDecreaseFactor = multiplicativeDecreaseFactor;
+        this.slowResponseThresholdInMillis = slowResponseThresholdInMillis;
+        this.maxRetryAfterInMillis = maxRetryAfterInMillis;
+    }
+
+    public Double getInitialRatePerSecond() {
+        return initialRatePerSecond;
+    }
+
+    public Double getMinRatePerSecond() {
+        return minRatePerSecond;
+    }
+
+    public Double getMaxRatePerSecond() {
+        return maxRatePerSecond;
+    }
+
+    public Integer getBurst() {
+        return burst;
+    }
+
+    public Double getAdditiveIncreasePerSecond() {
+        return additiveIncreasePerSecond;
+    }
+
+    public Double getMultiplicativeDecreaseFactor() {
+        return multiplicativeDecreaseFactor;
+    }
+
+    public Long getSlowResponseThresholdInMillis() {
+        return slowResponseThresholdInMillis;
+    }
+
+    public Long getMaxRetryAfterInMillis() {
+        return maxRetryAfterInMillis;
+    }
+
+    public static TokenBucketConfig valueOf(final Config config) {
+        return new TokenBucketConfig(config.getDouble("initialRatePerSecond"),
+                config.getDouble("minRatePerSecond"),
+                config.getDouble("maxRatePerSecond"),
+                config.getInt("burst"),
+                config.getDouble("additiveIncreasePerSecond"),
+                config.getDouble("multiplicativeDecreaseFactor"),
+                config.getDuration("slowResponseThreshold", TimeUnit.MILLISECONDS),
+                config.getDuration("maxRetryAfter", TimeUnit.MILLISECONDS));
+    }
+}
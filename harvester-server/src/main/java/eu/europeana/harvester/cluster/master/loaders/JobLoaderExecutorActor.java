@@ -1,35 +1,70 @@
 package eu.europeana.harvester.cluster.master.loaders;
 
 import akka.actor.*;
+import akka.dispatch.Mapper;
+import akka.dispatch.Recover;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
 import com.codahale.metrics.Timer;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.IPExceptions;
 import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetNumberOfTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetOverLoadedIPs;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
-import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
+import eu.europeana.harvester.domain.JobPriority;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.concurrent.ExecutionContext;
+import scala.concurrent.Future;
+import scala.concurrent.duration.Duration;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * Loads the jobs of each priority, the fast lane first, without ever blocking on the accountant : its answers are
+ * piped back to the loader as messages. The jobs of a priority are loaded only if the accountant has room for more
+ * tasks & only for the IPs that are not overloaded. The loader stops itself when all the priorities were loaded.
+ * Each answer is tagged with the question it answers, so a late answer to an earlier question is dropped.
+ */
 public class JobLoaderExecutorActor extends UntypedActor {
 
+    /**
+     * The dispatcher of the loader, which reads the jobs from the database. The default dispatcher is used if it
+     * is not configured.
+     */
+    public static final String DISPATCHER = "master-loader-dispatcher";
+
+    /**
+     * How long the loader waits for an answer of the accountant.
+     */
+    public static final long ACCOUNTANT_TIMEOUT_IN_SECONDS = 30;
+
+    /**
+     * The threshold sent to the accountant when asking for the overloaded IPs.
+     */
+    public static final int OVERLOADED_IP_THRESHOLD = 10000;
+
     public static final ActorRef createActor(final ActorSystem system, final ClusterMasterConfig clusterMasterConfig,
                                              final ActorRef accountantActor,final ActorRef limiterActor, final ProcessingJobDao processingJobDao,
                                              final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
                                              final SourceDocumentReferenceDao SourceDocumentReferenceDao,
-                                             final MachineResourceReferenceDao machineResourceReferenceDao,
+                                             final MachineResourceReferenceCache machineResources,
                                              final HashMap<String, Boolean> ipsWithJobs, final IPExceptions ipExceptions,
                                              final Map<String, Integer> ipDistribution
     ) {
-        return system.actorOf(Props.create(JobLoaderExecutorActor.class,
+        Props props = Props.create(JobLoaderExecutorActor.class,
                 clusterMasterConfig, accountantActor,limiterActor, processingJobDao, sourceDocumentProcessingStatisticsDao,
-                                           SourceDocumentReferenceDao, machineResourceReferenceDao, ipsWithJobs, ipExceptions, ipDistribution ));
+                                           SourceDocumentReferenceDao, machineResources, ipsWithJobs, ipExceptions, ipDistribution );
+        if (system.dispatchers().hasDispatcher(DISPATCHER)) {
+            props = props.withDispatcher(DISPATCHER);
+        }
+        return system.actorOf(props);
 
     }
 
@@ -62,9 +97,9 @@ public class JobLoaderExecutorActor extends UntypedActor {
     private final SourceDocumentReferenceDao SourceDocumentReferenceDao;
 
     /**
-     * MachineResourceReference DAO object which lets us to read and store data to and from the database.
+     * The machine resource references, shared by the successive loaders.
      */
-    private final MachineResourceReferenceDao machineResourceReferenceDao;
+    private final MachineResourceReferenceCache machineResources;
 
     /**
      * A map which maps each ip with the number of jobs from that ip.
@@ -87,11 +122,28 @@ public class JobLoaderExecutorActor extends UntypedActor {
 
     private final ActorRef limiterActor;
 
+    /**
+     * The priorities not loaded yet.
+     */
+    private final Deque<JobPriority> prioritiesToLoad = new ArrayDeque<>();
+
+    /**
+     * The priority being loaded.
+     */
+    private JobPriority currentPriority = null;
+
+    /**
+     * The id of the question the loader waits an answer for, the answers of the previous questions are dropped.
+     */
+    private long questionInFlight = 0;
+
+    private Timer.Context loadDuration = null;
+
     public JobLoaderExecutorActor(final ClusterMasterConfig clusterMasterConfig,
                                   final ActorRef accountantActor,final ActorRef limiterActor, final ProcessingJobDao processingJobDao,
                                   final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
                                   final SourceDocumentReferenceDao SourceDocumentReferenceDao,
-                                  final MachineResourceReferenceDao machineResourceReferenceDao,
+                                  final MachineResourceReferenceCache machineResources,
                                   final HashMap<String, Boolean> ipsWithJobs, final IPExceptions ipExceptions,
                                   final Map<String, Integer> ipDistribution) {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
@@ -103,7 +155,7 @@ public class JobLoaderExecutorActor extends UntypedActor {
         this.processingJobDao = processingJobDao;
         this.sourceDocumentProcessingStatisticsDao = sourceDocumentProcessingStatisticsDao;
         this.SourceDocumentReferenceDao = SourceDocumentReferenceDao;
-        this.machineResourceReferenceDao = machineResourceReferenceDao;
+        this.machineResources = machineResources;
         this.ipsWithJobs = ipsWithJobs;
         this.ipExceptions = ipExceptions;
         this.ipDistribution = ipDistribution;
@@ -114,27 +166,143 @@ public class JobLoaderExecutorActor extends UntypedActor {
     @Override
     public void onReceive(Object message) throws Exception {
         if (message instanceof LoadJobs) {
+            loadDuration = MasterMetrics.Master.loadJobFromDBDuration.time();
+            try {
+                JobLoaderExecutorHelper.updateMachineResources(ipDistribution, limiterActor, machineResources, LOG);
+            } catch (Exception e) {
+                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                        "Exception while loading the machine resources", e);
+            }
 
+            prioritiesToLoad.add(JobPriority.FASTLANE);
+            prioritiesToLoad.add(JobPriority.NORMAL);
+            loadNextPriority();
+            return;
+        }
+        if (message instanceof AccountantAnswer) {
+            onAccountantAnswer((AccountantAnswer) message);
+            return;
+        }
 
-            final Timer.Context context = MasterMetrics.Master.loadJobFromDBDuration.time();
-            try {
+        unhandled(message);
+    }
 
-                JobLoaderExecutorHelper.checkForNewFastLaneJobs(clusterMasterConfig, ipDistribution, ipsWithJobs, accountantActor,limiterActor, processingJobDao,
-                                                                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
+    private void onAccountantAnswer(final AccountantAnswer answer) {
+        if (answer.questionId != questionInFlight) {
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                    "{} priority - Dropping a late answer of the accountant to {}", answer.priority,
+                    answer.question.getClass().getSimpleName());
+            return;
+        }
+        if (answer.failure != null) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                    "{} priority - No answer from the accountant, the jobs are not loaded", answer.priority,
+                    answer.failure);
+            loadNextPriority();
+            return;
+        }
+        if (answer.question instanceof GetNumberOfTasks && answer.answer instanceof Integer) {
+            onNumberOfTasksReceived((Integer) answer.answer);
+            return;
+        }
+        if (answer.question instanceof GetOverLoadedIPs && answer.answer instanceof List) {
+            final List<String> overLoadedIPs = new ArrayList<>();
+            for (final Object ip : (List<?>) answer.answer) {
+                overLoadedIPs.add((String) ip);
+            }
+            onOverLoadedIPsReceived(overLoadedIPs);
+            return;
+        }
 
-                JobLoaderExecutorHelper.checkForNewJobs(clusterMasterConfig, ipDistribution, ipsWithJobs,
-                                                        accountantActor,limiterActor, processingJobDao,
-                                                        SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
+        LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "{} priority - Unexpected answer of the accountant to {} : {}, the jobs are not loaded", answer.priority,
+                answer.question.getClass().getSimpleName(), answer.answer);
+        loadNextPriority();
+    }
 
-            } catch (Exception e) {
-                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                        "Exception while loading jobs", e);
+    /**
+     * Asks the accountant the number of tasks it holds before loading the next priority or stops the loader.
+     */
+    private void loadNextPriority() {
+        currentPriority = prioritiesToLoad.poll();
+        if (currentPriority == null) {
+            if (loadDuration != null) {
+                loadDuration.stop();
             }
-            context.stop();
-            self().tell(PoisonPill.getInstance(), ActorRef.noSender());
+            getContext().stop(getSelf());
+            return;
+        }
+
+        askAccountant(new GetNumberOfTasks());
+    }
 
+    private void onNumberOfTasksReceived(final int numberOfTasks) {
+        LOG.debug("{} priority - Starting job loading, tasksize = {}", currentPriority.name(), numberOfTasks);
+
+        if (numberOfTasks >= clusterMasterConfig.getMaxTasksInMemory()) {
+            loadNextPriority();
             return;
         }
+
+        askAccountant(new GetOverLoadedIPs(OVERLOADED_IP_THRESHOLD));
+    }
+
+    private void onOverLoadedIPsReceived(final List<String> overLoadedIPs) {
+        try {
+            JobLoaderExecutorHelper.loadJobsByPriority(currentPriority, clusterMasterConfig, ipDistribution, overLoadedIPs,
+                    ipsWithJobs, accountantActor, processingJobDao, SourceDocumentReferenceDao,
+                    sourceDocumentProcessingStatisticsDao, LOG);
+        } catch (Exception e) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                    "Exception while loading jobs", e);
+        }
+        loadNextPriority();
+    }
+
+    /**
+     * Sends a question to the accountant, the answer (or the failure) comes back to this actor as an
+     * {@link AccountantAnswer} tagged with the id of the question.
+     */
+    private void askAccountant(final Object question) {
+        final long questionId = ++questionInFlight;
+        final JobPriority priority = currentPriority;
+        final Timeout timeout = new Timeout(Duration.create(ACCOUNTANT_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS));
+        final ExecutionContext dispatcher = getContext().dispatcher();
+
+        final Future<AccountantAnswer> answer = Patterns.ask(accountantActor, question, timeout)
+                .map(new Mapper<Object, AccountantAnswer>() {
+                    @Override
+                    public AccountantAnswer apply(final Object answer) {
+                        return new AccountantAnswer(questionId, priority, question, answer, null);
+                    }
+                }, dispatcher)
+                .recover(new Recover<AccountantAnswer>() {
+                    @Override
+                    public AccountantAnswer recover(final Throwable failure) {
+                        return new AccountantAnswer(questionId, priority, question, null, failure);
+                    }
+                }, dispatcher);
+        Patterns.pipe(answer, dispatcher).to(getSelf());
+    }
+
+    /**
+     * The answer of the accountant (or the failure to get one) to a question of the loader.
+     */
+    private static final class AccountantAnswer {
+        private final long questionId;
+        private final JobPriority priority;
+        private final Object question;
+        private final Object answer;
+        private final Throwable failure;
+
+        private AccountantAnswer(final long questionId, final JobPriority priority, final Object question,
+                                 final Object answer, final Throwable failure) {
+            this.questionId = questionId;
+            this.priority = priority;
+            this.question = question;
+            this.answer = answer;
+            this.failure = failure;
+        }
     }
 
-}
\ No newline at end of file
+}
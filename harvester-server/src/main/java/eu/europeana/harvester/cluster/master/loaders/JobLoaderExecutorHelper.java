@@ -1,149 +1,120 @@
 package eu.europeana.harvester.cluster.master.loaders;
 
 import akka.actor.ActorRef;
-import akka.pattern.Patterns;
-import akka.util.Timeout;
 import com.codahale.metrics.Timer;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
-import eu.europeana.harvester.cluster.domain.TaskState;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
-import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
-import eu.europeana.harvester.cluster.domain.messages.inner.GetNumberOfTasks;
-import eu.europeana.harvester.cluster.domain.messages.inner.GetOverLoadedIPs;
-import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
 import eu.europeana.harvester.cluster.master.limiter.domain.ChangeMaxAvailableSlotsRequest;
 import eu.europeana.harvester.cluster.master.metrics.MasterMetrics;
-import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
-import scala.concurrent.Await;
-import scala.concurrent.Future;
 
 import java.util.*;
-import java.util.concurrent.TimeUnit;
 
 public class JobLoaderExecutorHelper {
 
     /**
-     * Checks if there were added any new jobs in the db
+     * The maximum number of tasks sent to the accountant in a single message.
      */
-    public static void checkForNewJobs(ClusterMasterConfig clusterMasterConfig, Map<String, Integer> ipDistribution,
-                                       HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor,ActorRef limiterActor, ProcessingJobDao processingJobDao,
-                                       SourceDocumentReferenceDao SourceDocumentReferenceDao, MachineResourceReferenceDao machineResourceReferenceDao,
-                                       final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
-                                       Logger LOG) {
-
-        checkForNewJobsByPriority(JobPriority.NORMAL, clusterMasterConfig, ipDistribution, ipsWithJobs,
-                accountantActor, limiterActor, processingJobDao,
-                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
-
-    }
-
-    public static void checkForNewFastLaneJobs(ClusterMasterConfig clusterMasterConfig, Map<String, Integer> ipDistribution,
-                                               HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor,ActorRef limiterActor, ProcessingJobDao processingJobDao,
-                                               SourceDocumentReferenceDao SourceDocumentReferenceDao, MachineResourceReferenceDao machineResourceReferenceDao,
-                                               final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
-                                               Logger LOG) {
-
-        checkForNewJobsByPriority(JobPriority.FASTLANE, clusterMasterConfig, ipDistribution, ipsWithJobs,
-                accountantActor, limiterActor, processingJobDao,
-                SourceDocumentReferenceDao, machineResourceReferenceDao, sourceDocumentProcessingStatisticsDao, LOG);
-
-    }
-
-    public static void checkForNewJobsByPriority(JobPriority jobPriority, ClusterMasterConfig clusterMasterConfig, Map<String, Integer> ipDistribution,
-                                                 HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor,ActorRef limiterActor, ProcessingJobDao processingJobDao,
-                                                 SourceDocumentReferenceDao SourceDocumentReferenceDao, MachineResourceReferenceDao machineResourceReferenceDao,
-                                                 final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
-                                                 Logger LOG) {
-        final int taskSize = getAllTasks(accountantActor, LOG);
-
-        LOG.debug("{} priority - Starting job loading, tasksize = {}", jobPriority.name(), taskSize);
+    public static final int ADD_TASKS_BATCH_SIZE = 5000;
 
+    /**
+     * Adds the new IPs of the machine resource references to the distribution & sends the new or changed connection
+     * limits to the limiter.
+     */
+    public static void updateMachineResources(Map<String, Integer> ipDistribution, ActorRef limiterActor,
+                                              MachineResourceReferenceCache machineResources, Logger LOG) {
         LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                "{} priority - Checking IPs in database", jobPriority.name());
+                "Checking IPs in database");
 
-        List<MachineResourceReference> ips = machineResourceReferenceDao.getAllMachineResourceReferences(new Page(0, 10000));
-        for (MachineResourceReference machine : ips) {
-            if (!ipDistribution.containsKey(machine.getIp())) {
-                ipDistribution.put(machine.getIp(), 0);
+        machineResources.refresh(System.currentTimeMillis());
+        for (final String ip : machineResources.getIps()) {
+            if (!ipDistribution.containsKey(ip)) {
+                ipDistribution.put(ip, 0);
             }
         }
 
-        // Set all the limits found in the machine resource reference table (unless null)
-        for (final MachineResourceReference reference : ips) {
+        // Set the limits found in the machine resource reference table (unless null), the unchanged ones are already set
+        for (final MachineResourceReference reference : machineResources.takeChangedReferences()) {
             if (reference.getMaxConcurrentConnectionsLimit() != null) {
                 limiterActor.tell(new ChangeMaxAvailableSlotsRequest(reference.getIp(),reference.getMaxConcurrentConnectionsLimit()),ActorRef.noSender());
             }
         }
+    }
 
-        if (taskSize < clusterMasterConfig.getMaxTasksInMemory()) {
-
-            //don't load for IPs that are overloaded
-            ArrayList<String> noLoadIPs = getOverLoadedIPList(10000, accountantActor, LOG);
-            HashMap<String, Integer> tempDistribution = new HashMap<>(ipDistribution);
-            if (noLoadIPs != null) {
-                for (String ip : noLoadIPs) {
-                    if (tempDistribution.containsKey(ip))
-                        tempDistribution.remove(ip);
-                }
+    /**
+     * Loads the jobs with the given priority of the IPs that are not overloaded & sends their tasks to the accountant
+     * in batches.
+     */
+    public static void loadJobsByPriority(JobPriority jobPriority, ClusterMasterConfig clusterMasterConfig, Map<String, Integer> ipDistribution,
+                                          List<String> noLoadIPs, HashMap<String, Boolean> ipsWithJobs, ActorRef accountantActor, ProcessingJobDao processingJobDao,
+                                          SourceDocumentReferenceDao SourceDocumentReferenceDao,
+                                          final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                          Logger LOG) {
+        //don't load for IPs that are overloaded
+        HashMap<String, Integer> tempDistribution = new HashMap<>(ipDistribution);
+        if (noLoadIPs != null) {
+            for (String ip : noLoadIPs) {
+                if (tempDistribution.containsKey(ip))
+                    tempDistribution.remove(ip);
             }
+        }
 
-            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                    "{} priority - #IPs with tasks: ip temp size {}, ip all size : {}", jobPriority.name(), tempDistribution.size(), ipDistribution.size());
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "{} priority - #IPs with tasks: ip temp size {}, ip all size : {}", jobPriority.name(), tempDistribution.size(), ipDistribution.size());
 
-            final Timer.Context loadJobTasksFromDBDuration = MasterMetrics.Master.loadJobTasksFromDBDuration.time();
-            final Page page = new Page(0, clusterMasterConfig.getJobsPerIP());
-            final List<ProcessingJob> all =
-                    processingJobDao.getDiffusedJobsWithState(jobPriority, JobState.READY, page, tempDistribution);
-            loadJobTasksFromDBDuration.stop();
+        final Timer.Context loadJobTasksFromDBDuration = MasterMetrics.Master.loadJobTasksFromDBDuration.time();
+        final Page page = new Page(0, clusterMasterConfig.getJobsPerIP());
+        final List<ProcessingJob> all =
+                processingJobDao.getDiffusedJobsWithState(jobPriority, JobState.READY, page, tempDistribution);
+        loadJobTasksFromDBDuration.stop();
 
-            // Update the IP with jobs distributed state
-            for (ProcessingJob job : all) ipsWithJobs.put(job.getIpAddress(),true);
+        // Update the IP with jobs distributed state
+        for (ProcessingJob job : all) ipsWithJobs.put(job.getIpAddress(),true);
 
-            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                    "{} priority - Done with loading {} priority jobs. Creating tasks from them.", jobPriority.name(), all.size());
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "{} priority - Done with loading {} priority jobs. Creating tasks from them.", jobPriority.name(), all.size());
 
-            final Timer.Context loadJobResourcesFromDBDuration = MasterMetrics.Master.loadJobResourcesFromDBDuration.time();
+        final Timer.Context loadJobResourcesFromDBDuration = MasterMetrics.Master.loadJobResourcesFromDBDuration.time();
 
-            final Map<String, SourceDocumentReference> sourceDocumentReferenceIdToDoc = getStringSourceDocumentReferenceMap(SourceDocumentReferenceDao, all);
-            final Map<String, SourceDocumentProcessingStatistics> referenceIdTolastJobProcessingStatisticsMap = getSourceDocumentProcessingStatisticsMap(sourceDocumentProcessingStatisticsDao, sourceDocumentReferenceIdToDoc.values());
-            loadJobResourcesFromDBDuration.stop();
+        final Map<String, SourceDocumentReference> sourceDocumentReferenceIdToDoc = getStringSourceDocumentReferenceMap(SourceDocumentReferenceDao, all);
+        final Map<String, SourceDocumentProcessingStatistics> referenceIdTolastJobProcessingStatisticsMap = getSourceDocumentProcessingStatisticsMap(sourceDocumentProcessingStatisticsDao, sourceDocumentReferenceIdToDoc.values());
+        loadJobResourcesFromDBDuration.stop();
 
-            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                    "{} priority -  Done with loading {} resources.", jobPriority.name(), sourceDocumentReferenceIdToDoc.size());
-
-            List<String> processingJobIdsThatAreRunningInHarvester = new ArrayList<>();
-            int i = 0;
-            for (final ProcessingJob job : all) {
-                try {
-//
-//                    i++;
-//                    if (i >= 500) {
-                        //LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                            //    "{} priority -  Done with another 500 jobs out of {}", jobPriority.name(), all.size());
-//                        i = 0;
-//                    }
-                    addJob(job, jobPriority.getPriority(), sourceDocumentReferenceIdToDoc, referenceIdTolastJobProcessingStatisticsMap, clusterMasterConfig, processingJobDao, sourceDocumentProcessingStatisticsDao,
-                            accountantActor, LOG);
-
-                    processingJobIdsThatAreRunningInHarvester.add(job.getId());
-                } catch (Exception e) {
-                    LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                            "{} priority -   JobLoaderMasterActor, while loading job: {} -> {}", jobPriority.name(), job.getId(), e.getMessage());
-                }
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "{} priority -  Done with loading {} resources.", jobPriority.name(), sourceDocumentReferenceIdToDoc.size());
+
+        List<String> processingJobIdsThatAreRunningInHarvester = new ArrayList<>();
+        List<RetrieveUrl> tasksToAdd = new ArrayList<>();
+        for (final ProcessingJob job : all) {
+            try {
+                tasksToAdd.addAll(generateTasks(job, sourceDocumentReferenceIdToDoc, referenceIdTolastJobProcessingStatisticsMap, LOG));
+
+                processingJobIdsThatAreRunningInHarvester.add(job.getId());
+            } catch (Exception e) {
+                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                        "{} priority -   JobLoaderMasterActor, while loading job: {} -> {}", jobPriority.name(), job.getId(), e.getMessage());
             }
 
-            if (!processingJobIdsThatAreRunningInHarvester.isEmpty()) {
-                processingJobDao.modifyStateOfJobsWithIds(JobState.RUNNING, processingJobIdsThatAreRunningInHarvester);
-                LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                        "{} priority -   JobLoaderMasterActor, {} new jobs loaded & their state in DB is RUNNING.", jobPriority.name(), processingJobIdsThatAreRunningInHarvester.size());
+            if (tasksToAdd.size() >= ADD_TASKS_BATCH_SIZE) {
+                accountantActor.tell(new AddTasks(jobPriority.getPriority(), tasksToAdd), ActorRef.noSender());
+                tasksToAdd = new ArrayList<>();
             }
         }
+        if (!tasksToAdd.isEmpty()) {
+            accountantActor.tell(new AddTasks(jobPriority.getPriority(), tasksToAdd), ActorRef.noSender());
+        }
+
+        if (!processingJobIdsThatAreRunningInHarvester.isEmpty()) {
+            processingJobDao.modifyStateOfJobsWithIds(JobState.RUNNING, processingJobIdsThatAreRunningInHarvester);
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                    "{} priority -   JobLoaderMasterActor, {} new jobs loaded & their state in DB is RUNNING.", jobPriority.name(), processingJobIdsThatAreRunningInHarvester.size());
+        }
     }
 
     private static Map<String, SourceDocumentProcessingStatistics> getSourceDocumentProcessingStatisticsMap(SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao, Collection<SourceDocumentReference> all) {
@@ -184,84 +155,30 @@ public class JobLoaderExecutorHelper {
     }
 
 
-    private static int getAllTasks(ActorRef accountantActor, Logger LOG) {
-        final Timeout timeout = new Timeout(scala.concurrent.duration.Duration.create(10, TimeUnit.SECONDS));
-        final Future<Object> future = Patterns.ask(accountantActor, new GetNumberOfTasks(), timeout);
-        int tasks = 0;
-        try {
-            tasks = (int) Await.result(future, timeout.duration());
-        } catch (Exception e) {
-            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                    "Exception while getting all tasks", e);
-        }
-
-        return tasks;
-    }
-
-    private static ArrayList<String> getOverLoadedIPList(int threshold, ActorRef accountantActor, Logger LOG) {
-        final Timeout timeout = new Timeout(scala.concurrent.duration.Duration.create(30, TimeUnit.SECONDS));
-        final Future<Object> future = Patterns.ask(accountantActor, new GetOverLoadedIPs(threshold), timeout);
-        ArrayList<String> ips = null;
-        try {
-            ips = (ArrayList<String>) Await.result(future, timeout.duration());
-        } catch (Exception e) {
-            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                    "OverloadedIPs", e);
-        }
-
-        return ips;
-    }
-
-
     /**
-     * Adds a job and its tasks to our evidence.
+     * Generates the tasks of a job.
      *
      * @param job the ProcessingJob object
+     * @return the tasks, without the ones whose source document reference is missing
      */
-    private static void addJob(final ProcessingJob job, final Integer jobPriority, final Map<String, SourceDocumentReference> resources, final Map<String, SourceDocumentProcessingStatistics> lastJobProcessingStatistics,
-                               final ClusterMasterConfig clusterMasterConfig, final ProcessingJobDao processingJobDao,
-                               final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
-                               final ActorRef accountantActor, Logger LOG) {
-
-        // (Step 1) Generate the tasks.
+    private static List<RetrieveUrl> generateTasks(final ProcessingJob job, final Map<String, SourceDocumentReference> resources,
+                                                   final Map<String, SourceDocumentProcessingStatistics> lastJobProcessingStatistics,
+                                                   Logger LOG) {
         final List<ProcessingJobTaskDocumentReference> tasks = job.getTasks();
 
-        LOG.debug("jobloaderexecutorhelper addjob job tasks size: {} and task type: {} ", tasks.size(), tasks.get(0).getTaskType().name());
-
         final List<RetrieveUrl> generatedTasks = new ArrayList<>();
         for (final ProcessingJobTaskDocumentReference task : tasks) {
             final RetrieveUrl retrieveUrl = generateTask(job, task, resources, lastJobProcessingStatistics, LOG);
 
-            LOG.debug("jobloaderexecutorhelper addjob retrieve url: {} ", retrieveUrl);
-
             if (retrieveUrl != null) {
                 generatedTasks.add(retrieveUrl);
             }
         }
 
-        LOG.debug("jobloaderexecutorhelper addjob job generated tasks size: {}", generatedTasks.size());
-
-//        if (tasks.size() > 10)
-            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
-                    "Loaded {} tasks for jobID {} on IP {}", tasks.size(), job.getId(), job.getIpAddress());
-
-        final List<String> taskIds = new ArrayList<>();
-        for (final RetrieveUrl retrieveUrl : generatedTasks) {
-            taskIds.add(retrieveUrl.getId());
-        }
-
-        LOG.debug("jobloaderexecutorhelper addjob job task ids size: {}", taskIds.size());
-
-        // (Step 2) Send the tasks to accountant
-
-
-        for (final RetrieveUrl retrieveUrl : generatedTasks) {
-            accountantActor.tell(new AddTask(job.getPriority(), retrieveUrl.getId(), new Pair<>(retrieveUrl, TaskState.READY)), ActorRef.noSender());
-        }
-
-        LOG.debug("jobloaderexecutorhelper addjob job done");
-
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                "Loaded {} tasks for jobID {} on IP {}", generatedTasks.size(), job.getId(), job.getIpAddress());
 
+        return generatedTasks;
     }
 
     /**
@@ -291,11 +208,13 @@ public class JobLoaderExecutorHelper {
 
         final String ipAddress = job.getIpAddress();
 
-        final Map<String, String> headers = lastJobProcessingStatistics.containsKey(task.getSourceDocumentReferenceID()) ? lastJobProcessingStatistics.get(task.getSourceDocumentReferenceID()).getHttpResponseHeaders() : new HashMap<String, String>();
+        final SourceDocumentProcessingStatistics lastStatistics = lastJobProcessingStatistics.get(task.getSourceDocumentReferenceID());
+        final Map<String, String> headers = (lastStatistics != null) ? lastStatistics.getHttpResponseHeaders() : new HashMap<String, String>();
+        final String contentMd5 = (lastStatistics != null) ? lastStatistics.getContentMd5() : null;
 
         final RetrieveUrl retrieveUrl = new RetrieveUrl(sourceDocumentReference.getUrl(), job.getLimits(), task.getTaskType(),
                 job.getId(), task.getSourceDocumentReferenceID(),
-                headers, task, ipAddress, sourceDocumentReference.getReferenceOwner());
+                headers, task, ipAddress, sourceDocumentReference.getReferenceOwner()).withContentMd5(contentMd5);
 
         return retrieveUrl;
     }
@@ -1,13 +1,17 @@
 package eu.europeana.harvester.cluster.master.loaders;
 
 import akka.actor.ActorRef;
+import akka.actor.Status;
 import akka.actor.Terminated;
 import akka.actor.UntypedActor;
+import akka.pattern.Patterns;
+import akka.util.Timeout;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.DefaultLimits;
 import eu.europeana.harvester.cluster.domain.IPExceptions;
 import eu.europeana.harvester.cluster.domain.messages.Clean;
 import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetJobIdsOfTasks;
 import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
@@ -15,12 +19,25 @@ import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.Duration;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 public class JobLoaderMasterActor extends UntypedActor {
 
+    /**
+     * The time after which the machine resource references are read again even if their number did not change.
+     */
+    public static final long MACHINE_RESOURCES_MAX_AGE_IN_MILLIS = 10 * 60 * 1000;
+
+    /**
+     * How long to wait for the accountant to tell which jobs it holds.
+     */
+    public static final int ACCOUNTANT_TIMEOUT_IN_SECONDS = 30;
+
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
     /**
@@ -60,6 +77,11 @@ public class JobLoaderMasterActor extends UntypedActor {
      */
     private final MachineResourceReferenceDao machineResourceReferenceDao;
 
+    /**
+     * The machine resource references, kept between the job loads.
+     */
+    private final MachineResourceReferenceCache machineResources;
+
     /**
      * A map which maps each ip with the number of jobs from that ip.
      */
@@ -88,6 +110,11 @@ public class JobLoaderMasterActor extends UntypedActor {
 
     private final ActorRef limiterActor;
 
+    /**
+     * The jobs are loaded only after the abandoned ones were put back, which needs the jobs recovered by the accountant.
+     */
+    private boolean abandonedJobsChecked = false;
+
     public JobLoaderMasterActor(final ActorRef receiverActor, final ClusterMasterConfig clusterMasterConfig,
                                 final ActorRef accountantActor, final ActorRef limiterActor, final ProcessingJobDao processingJobDao,
                                 final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
@@ -106,33 +133,51 @@ public class JobLoaderMasterActor extends UntypedActor {
         this.sourceDocumentProcessingStatisticsDao = sourceDocumentProcessingStatisticsDao;
         this.SourceDocumentReferenceDao = SourceDocumentReferenceDao;
         this.machineResourceReferenceDao = machineResourceReferenceDao;
+        this.machineResources = new MachineResourceReferenceCache(machineResourceReferenceDao, MACHINE_RESOURCES_MAX_AGE_IN_MILLIS);
         this.defaultLimits = defaultLimits;
         this.ipsWithJobs = ipsWithJobs;
         this.ipExceptions = ipExceptions;
         this.haveLoader = false;
 
-        LOG.debug("Call check for abandoned jobs from constructor - job loader");
-
-        JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, LOG);
-
         LOG.debug("Call ip distribution from constructor - job loader");
 
-        ipDistribution = JobLoaderMasterHelper.getIPDistribution(machineResourceReferenceDao, LOG);
+        ipDistribution = JobLoaderMasterHelper.getIPDistribution(machineResources, LOG);
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        askForJobIdsInMemory();
     }
 
     @Override
     public void onReceive(Object message) throws Exception {
+        if (message instanceof Set) {
+            LOG.debug("Call check for abandoned jobs - job loader");
+
+            JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, (Set<String>) message, LOG);
+            abandonedJobsChecked = true;
+
+            getSelf().tell(new LoadJobs(), getSelf());
+            return;
+        }
+        if (message instanceof Status.Failure) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_LOADER),
+                    "Could not get the jobs held by the accountant, asking again", ((Status.Failure) message).cause());
+
+            askForJobIdsInMemory();
+            return;
+        }
         if (message instanceof LoadJobs) {
 
 
-            if ( !haveLoader ) {
+            if ( !haveLoader && abandonedJobsChecked ) {
 
                 try {
 
                     ActorRef loaderActor = JobLoaderExecutorActor.createActor(getContext().system(),
                             clusterMasterConfig, accountantActor,limiterActor, processingJobDao, sourceDocumentProcessingStatisticsDao,
 
-                                                                              SourceDocumentReferenceDao, machineResourceReferenceDao, ipsWithJobs, ipExceptions, ipDistribution
+                                                                              SourceDocumentReferenceDao, machineResources, ipsWithJobs, ipExceptions, ipDistribution
                     );
                     context().watch(loaderActor);
                     loaderActor.tell(message, ActorRef.noSender());
@@ -150,13 +195,14 @@ public class JobLoaderMasterActor extends UntypedActor {
         if (message instanceof Clean) {
             LOG.debug("Message instance of clean");
 
-            JobLoaderMasterHelper.checkForAbandonedJobs(processingJobDao, clusterMasterConfig, LOG);
-
             LOG.debug("Call ip distribution from message instanceof clean");
 
-            this.ipDistribution = JobLoaderMasterHelper.getIPDistribution(machineResourceReferenceDao, LOG);
+            machineResources.invalidate();
+            this.ipDistribution = JobLoaderMasterHelper.getIPDistribution(machineResources, LOG);
 
-            getSelf().tell(new LoadJobs(), getSelf());
+            // The jobs are loaded again once the abandoned ones are back
+            abandonedJobsChecked = false;
+            askForJobIdsInMemory();
 
             LOG.debug("Called message clean");
 
@@ -173,5 +219,14 @@ public class JobLoaderMasterActor extends UntypedActor {
         }
     }
 
+    /**
+     * Asks the accountant which jobs it still holds, the reply comes back to this actor.
+     */
+    private void askForJobIdsInMemory() {
+        Patterns.pipe(Patterns.ask(accountantActor, new GetJobIdsOfTasks(),
+                        new Timeout(Duration.create(ACCOUNTANT_TIMEOUT_IN_SECONDS, TimeUnit.SECONDS))),
+                getContext().dispatcher()).to(getSelf());
+    }
+
 
 }
@@ -6,7 +6,6 @@ import eu.europeana.harvester.cluster.domain.TaskState;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.inner.AddTask;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
-import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
 import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
 import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
 import eu.europeana.harvester.domain.*;
@@ -15,18 +14,18 @@ import org.slf4j.Logger;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class JobLoaderMasterHelper  {
 
 
-    public static Map<String, Integer> getIPDistribution( MachineResourceReferenceDao machineResourceReferenceDao, Logger LOG ) {
+    public static Map<String, Integer> getIPDistribution( MachineResourceReferenceCache machineResources, Logger LOG ) {
 
-        Page pg = new Page(0, 100000);
-        List<MachineResourceReference> machines = machineResourceReferenceDao.getAllMachineResourceReferences(pg);
+        machineResources.refresh(System.currentTimeMillis());
         Map<String, Integer> ipDistribution = new HashMap<>();
 
-        for (MachineResourceReference machine : machines)
-            ipDistribution.put(machine.getIp(), 0);
+        for (String ip : machineResources.getIps())
+            ipDistribution.put(ip, 0);
 
         LOG.debug("IP distribution: ");
 //        for (Map.Entry<String, Integer> ip : ipDistribution.entrySet()) {
@@ -79,9 +78,13 @@ public class JobLoaderMasterHelper  {
 
         final String ipAddress = job.getIpAddress();
 
+        final SourceDocumentProcessingStatistics lastStatistics =
+                getLastStatistics(task.getTaskType(), sourceDocumentReference, sourceDocumentProcessingStatisticsDao);
+
         final RetrieveUrl retrieveUrl = new RetrieveUrl(sourceDocumentReference.getUrl(), job.getLimits(), task.getTaskType(),
                 job.getId(), task.getSourceDocumentReferenceID(),
-                getHeaders(task.getTaskType(), sourceDocumentReference, sourceDocumentProcessingStatisticsDao ), task, ipAddress,sourceDocumentReference.getReferenceOwner());
+                getHeaders(task.getTaskType(), lastStatistics), task, ipAddress,sourceDocumentReference.getReferenceOwner())
+                .withContentMd5((lastStatistics != null) ? lastStatistics.getContentMd5() : null);
 
         accountantActor.tell(new AddTask(job.getPriority(), retrieveUrl.getId(), new Pair<>(retrieveUrl, TaskState.READY)), ActorRef.noSender());
 
@@ -90,15 +93,35 @@ public class JobLoaderMasterHelper  {
 
 
     /**
-     * Returns the headers of a source document if we already retrieved that at least once.
+     * Returns the statistics of the last retrieval of a source document if it has to be downloaded conditionally.
      *
      * @param documentReferenceTaskType task type
      * @param newDoc                    source document object
+     * @return the statistics or null
+     */
+    private static SourceDocumentProcessingStatistics getLastStatistics(final DocumentReferenceTaskType documentReferenceTaskType,
+                                                                        final SourceDocumentReference newDoc,
+                                                                        final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao) {
+        if (!(DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD).equals(documentReferenceTaskType)) {
+            return null;
+        }
+
+        try {
+            return sourceDocumentProcessingStatisticsDao.read(newDoc.getLastStatsId());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the headers of a source document if we already retrieved that at least once.
+     *
+     * @param documentReferenceTaskType task type
+     * @param lastStatistics            the statistics of the last retrieval
      * @return list of headers
      */
     private static Map<String, String> getHeaders(final DocumentReferenceTaskType documentReferenceTaskType,
-                                           final SourceDocumentReference newDoc,
-                                           final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao ) {
+                                                  final SourceDocumentProcessingStatistics lastStatistics) {
         Map<String, String> headers = null;
 
         if (documentReferenceTaskType == null) {
@@ -106,11 +129,8 @@ public class JobLoaderMasterHelper  {
         }
 
         if ((DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD).equals(documentReferenceTaskType)) {
-            final String statisticsID = newDoc.getLastStatsId();
-            final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics =
-                    sourceDocumentProcessingStatisticsDao.read(statisticsID);
             try {
-                headers = sourceDocumentProcessingStatistics.getHttpResponseHeaders();
+                headers = lastStatistics.getHttpResponseHeaders();
             } catch (Exception e) {
                 headers = new HashMap<>();
             }
@@ -121,12 +141,14 @@ public class JobLoaderMasterHelper  {
 
     /**
      * Checks if any job was started but due to an issue of this node it has been abandoned.
+     *
+     * @param jobIdsInMemory the jobs which still have tasks in the accountant, recovered from its journal
      */
     public static void checkForAbandonedJobs(ProcessingJobDao processingJobDao, ClusterMasterConfig clusterMasterConfig,
-                                             Logger LOG ) {
+                                             Set<String> jobIdsInMemory, Logger LOG ) {
 
         LOG.debug("Entering checkForAbandonedJobs");
-        processingJobDao.modifyStateOfJobs(JobState.RUNNING,JobState.READY);
+        processingJobDao.modifyStateOfJobs(JobState.RUNNING, JobState.READY, jobIdsInMemory);
         LOG.debug("Done checkForAbandonedJobs");
 
     }
@@ -0,0 +1,111 @@
+package eu.europeana.harvester.cluster.master.loaders;
+
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.domain.MachineResourceReference;
+import eu.europeana.harvester.domain.Page;
+
+import java.util.*;
+
+/**
+ * Keeps the machine resource references in memory between the job loads. The collection is read again only when the
+ * number of references changed or when the cached copy is older than the maximum age. The loader is handed over only
+ * the references that were added or whose connection limit changed since it last asked.
+ */
+public class MachineResourceReferenceCache {
+
+    /**
+     * The number of references read with a single query.
+     */
+    public static final int READ_PAGE_SIZE = 10000;
+
+    private final MachineResourceReferenceDao machineResourceReferenceDao;
+
+    /**
+     * The time after which the references are read again even if their number did not change (ie. a changed limit).
+     */
+    private final long maxAgeInMillis;
+
+    /**
+     * The cached references by IP.
+     */
+    private final Map<String, MachineResourceReference> references = new HashMap<>();
+
+    /**
+     * The IPs of the references added or changed since the last call of {@link #takeChangedReferences()}.
+     */
+    private final Set<String> changedIps = new HashSet<>();
+
+    private long lastReloadInMillis = 0;
+
+    private boolean valid = false;
+
+    public MachineResourceReferenceCache(final MachineResourceReferenceDao machineResourceReferenceDao,
+                                         final long maxAgeInMillis) {
+        this.machineResourceReferenceDao = machineResourceReferenceDao;
+        this.maxAgeInMillis = maxAgeInMillis;
+    }
+
+    /**
+     * Reads the references again if they might be stale.
+     *
+     * @param nowInMillis the current time
+     */
+    public synchronized void refresh(final long nowInMillis) {
+        if (valid && nowInMillis - lastReloadInMillis < maxAgeInMillis &&
+                machineResourceReferenceDao.getCount() == references.size()) {
+            return;
+        }
+
+        final Map<String, MachineResourceReference> reloaded = new HashMap<>();
+        List<MachineResourceReference> page;
+        int from = 0;
+        do {
+            page = machineResourceReferenceDao.getAllMachineResourceReferences(new Page(from, READ_PAGE_SIZE));
+            for (final MachineResourceReference reference : page) {
+                reloaded.put(reference.getIp(), reference);
+            }
+            from += READ_PAGE_SIZE;
+        } while (page.size() == READ_PAGE_SIZE);
+
+        for (final MachineResourceReference reference : reloaded.values()) {
+            final MachineResourceReference previous = references.get(reference.getIp());
+            if (previous == null ||
+                    !Objects.equals(previous.getMaxConcurrentConnectionsLimit(), reference.getMaxConcurrentConnectionsLimit())) {
+                changedIps.add(reference.getIp());
+            }
+        }
+        changedIps.retainAll(reloaded.keySet());
+
+        references.clear();
+        references.putAll(reloaded);
+        lastReloadInMillis = nowInMillis;
+        valid = true;
+    }
+
+    /**
+     * Forces the next {@link #refresh(long)} to read the references & to report all of them as changed.
+     */
+    public synchronized void invalidate() {
+        valid = false;
+        references.clear();
+    }
+
+    /**
+     * @return the IPs of all the cached references
+     */
+    public synchronized Set<String> getIps() {
+        return new HashSet<>(references.keySet());
+    }
+
+    /**
+     * @return the references added or changed since the previous call
+     */
+    public synchronized List<MachineResourceReference> takeChangedReferences() {
+        final List<MachineResourceReference> changed = new ArrayList<>(changedIps.size());
+        for (final String ip : changedIps) {
+            changed.add(references.get(ip));
+        }
+        changedIps.clear();
+        return changed;
+    }
+}
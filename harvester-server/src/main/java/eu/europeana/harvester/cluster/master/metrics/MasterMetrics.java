@@ -47,6 +47,8 @@ public class MasterMetrics {
     public static final String IP_LIMIT_GRANTED_SLOT_REQUEST = "ipLimitGrantedSlotRequest";
     public static final String IP_LIMIT_NOT_GRANTED_SLOT_REQUEST = "ipLimitNotGrantedSlotRequest";
     public static final String IP_LIMIT_RETURNED_GRANTED_SLOT_REQUEST = "ipLimitReturnedGrantedSlotRequest";
+    public static final String IP_LIMIT_GRANTED_LEASE = "ipLimitGrantedLease";
+    public static final String IP_LIMIT_RETURNED_LEASE = "ipLimitReturnedLease";
 
     public static final String JOBS_FAST_LANE_WAITING = "jobsFastLaneWaiting";
     public static final String JOBS_NORMAL_LANE_WAITING = "jobsNormalLaneWaiting";
@@ -92,6 +94,8 @@ public class MasterMetrics {
         public static final Counter ipLimitGrantedSlotRequestCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_GRANTED_SLOT_REQUEST, COUNTER));
         public static final Counter ipLimitNotGrantedSlotRequestCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_NOT_GRANTED_SLOT_REQUEST, COUNTER));
         public static final Counter ipLimitReturnedGrantedSlotRequestCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_RETURNED_GRANTED_SLOT_REQUEST, COUNTER));
+        public static final Counter ipLimitGrantedLeaseCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_GRANTED_LEASE, COUNTER));
+        public static final Counter ipLimitReturnedLeaseCounter = METRIC_REGISTRY.counter(name(Master.NAME, IP_LIMIT_RETURNED_LEASE, COUNTER));
 
         public static final Map<RetrievingState, Counter> doneDownloadStateCounters = new HashMap();
 
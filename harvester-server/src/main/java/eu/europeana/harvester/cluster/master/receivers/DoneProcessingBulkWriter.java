@@ -0,0 +1,238 @@
+package eu.europeana.harvester.cluster.master.receivers;
+
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoTuple;
+import eu.europeana.harvester.db.interfaces.*;
+import eu.europeana.harvester.domain.*;
+import eu.europeana.harvester.logging.LoggingComponent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * Saves a batch of done tasks with a fixed number of round-trips, whatever the size of the batch : one read of the
+ * jobs, one read of the previous last statistics (only for the successful conditional downloads) & one unordered
+ * bulk write per collection. The jobs & the references are updated with partial $set updates.
+ * <p>
+ * All the writes are idempotent (the statistics have the ids of their reference & job), so a failed batch can be
+ * written again as a whole.
+ */
+public class DoneProcessingBulkWriter {
+
+    /**
+     * The number of times a batch is written before its tasks are written one at a time.
+     */
+    public static final int MAX_BATCH_ATTEMPTS = 3;
+
+    /**
+     * The wait before the second attempt, it doubles with each attempt.
+     */
+    public static final long INITIAL_BACKOFF_IN_MILLIS = 1000;
+
+    private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
+
+    private final ClusterMasterConfig clusterMasterConfig;
+
+    private final ProcessingJobDao processingJobDao;
+    private final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao;
+    private final LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao;
+    private final SourceDocumentReferenceDao sourceDocumentReferenceDao;
+    private final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao;
+
+    private final long initialBackoffInMillis;
+
+    public DoneProcessingBulkWriter(final ClusterMasterConfig clusterMasterConfig,
+                                    final ProcessingJobDao processingJobDao,
+                                    final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                    final LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao,
+                                    final SourceDocumentReferenceDao sourceDocumentReferenceDao,
+                                    final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao) {
+        this(clusterMasterConfig, processingJobDao, sourceDocumentProcessingStatisticsDao, lastSourceDocumentProcessingStatisticsDao,
+                sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao, INITIAL_BACKOFF_IN_MILLIS);
+    }
+
+    DoneProcessingBulkWriter(final ClusterMasterConfig clusterMasterConfig,
+                                    final ProcessingJobDao processingJobDao,
+                                    final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao,
+                                    final LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao,
+                                    final SourceDocumentReferenceDao sourceDocumentReferenceDao,
+                                    final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao,
+                                    final long initialBackoffInMillis) {
+        this.clusterMasterConfig = clusterMasterConfig;
+        this.processingJobDao = processingJobDao;
+        this.sourceDocumentProcessingStatisticsDao = sourceDocumentProcessingStatisticsDao;
+        this.lastSourceDocumentProcessingStatisticsDao = lastSourceDocumentProcessingStatisticsDao;
+        this.sourceDocumentReferenceDao = sourceDocumentReferenceDao;
+        this.sourceDocumentReferenceMetaInfoDao = sourceDocumentReferenceMetaInfoDao;
+        this.initialBackoffInMillis = initialBackoffInMillis;
+    }
+
+    /**
+     * Writes the batch like {@link #write(List)}, tries it again after a growing wait when it fails & in the end
+     * writes its tasks one at a time, so that a single bad task or a long outage does not lose the whole batch.
+     *
+     * @param batch the messages from the slaves, in the order they were received
+     * @return the number of tasks which could not be saved
+     */
+    public int writeWithRetries(final List<DoneProcessing> batch) throws InterruptedException {
+        long backoffInMillis = initialBackoffInMillis;
+        for (int attempt = 1; attempt <= MAX_BATCH_ATTEMPTS; attempt++) {
+            try {
+                write(batch);
+                return 0;
+            } catch (RuntimeException e) {
+                LOG.warn(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                        "Failed to save a batch of " + batch.size() + " done tasks, attempt " + attempt + ".", e);
+            }
+            if (attempt < MAX_BATCH_ATTEMPTS) {
+                Thread.sleep(backoffInMillis);
+                backoffInMillis *= 2;
+            }
+        }
+
+        // The order is kept, so the latest task of a document still wins
+        int failed = 0;
+        for (final DoneProcessing doneProcessing : batch) {
+            try {
+                write(Collections.singletonList(doneProcessing));
+            } catch (RuntimeException e) {
+                failed++;
+                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                        "Cannot save the done task " + doneProcessing.getTaskID() + " of the job " + doneProcessing.getJobId() + ".", e);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Marks the tasks as done and saves their statistics & meta info. When a document appears more than once in the
+     * batch the latest task wins, as if the tasks were saved one by one.
+     *
+     * @param batch the messages from the slaves, in the order they were received
+     */
+    public void write(final List<DoneProcessing> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        // (Step 1) Reading the jobs of the tasks
+        final Set<String> jobIds = new HashSet<>();
+        for (final DoneProcessing doneProcessing : batch) {
+            jobIds.add(doneProcessing.getJobId());
+        }
+        final Map<String, ProcessingJob> processingJobs = new HashMap<>();
+        for (final ProcessingJob processingJob : processingJobDao.read(new ArrayList<>(jobIds))) {
+            processingJobs.put(processingJob.getId(), processingJob);
+        }
+
+        final Map<String, JobState> newJobStates = new HashMap<>();
+        final List<SourceDocumentProcessingStatistics> statistics = new ArrayList<>();
+        final Map<String, LastSourceDocumentProcessingStatistics> lastStatistics = new LinkedHashMap<>();
+        final Set<String> lastStatisticsToKeepSubTaskStats = new HashSet<>();
+        final Map<String, SourceDocumentReference> references = new LinkedHashMap<>();
+        final Map<String, SourceDocumentReferenceMetaInfo> metaInfos = new LinkedHashMap<>();
+
+        for (final DoneProcessing doneProcessing : batch) {
+            final ProcessingJob processingJob = processingJobs.get(doneProcessing.getJobId());
+            if (processingJob == null) {
+                LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                        "Cannot save the done task {}, its job {} does not exist.", doneProcessing.getTaskID(), doneProcessing.getJobId());
+                continue;
+            }
+
+            // (Step 2) Updating processing jobs
+            newJobStates.put(processingJob.getId(), DoneProcessing.convertProcessingStateToJobState(doneProcessing.getProcessingState()));
+
+            // (Step 3) Updating statistics jobs
+            final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics = createStatistics(doneProcessing, processingJob);
+            statistics.add(sourceDocumentProcessingStatistics);
+
+            LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatistics = new LastSourceDocumentProcessingStatistics(sourceDocumentProcessingStatistics);
+            final String lastStatisticsId = lastSourceDocumentProcessingStatistics.getId();
+
+            /* We need to keep the previous last stats subtask states as a successful conditional download has them all se to never executed. See #CRF-509 */
+            if (lastSourceDocumentProcessingStatistics.getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD &&
+                    lastSourceDocumentProcessingStatistics.getState() == ProcessingState.SUCCESS) {
+                // The previous stats are the ones of the same batch, unless those also wait for the stored ones
+                final LastSourceDocumentProcessingStatistics previousInBatch = lastStatistics.get(lastStatisticsId);
+                if (previousInBatch == null) {
+                    lastStatisticsToKeepSubTaskStats.add(lastStatisticsId);
+                } else if (!lastStatisticsToKeepSubTaskStats.contains(lastStatisticsId)) {
+                    lastSourceDocumentProcessingStatistics = lastSourceDocumentProcessingStatistics.withProcessingJobSubTaskStats(previousInBatch.getProcessingJobSubTaskStats());
+                }
+            } else {
+                lastStatisticsToKeepSubTaskStats.remove(lastStatisticsId);
+            }
+            lastStatistics.remove(lastStatisticsId);
+            lastStatistics.put(lastStatisticsId, lastSourceDocumentProcessingStatistics);
+
+            references.remove(doneProcessing.getReferenceId());
+            references.put(doneProcessing.getReferenceId(),
+                    new SourceDocumentReference(doneProcessing.getReferenceId(), null, null, null, sourceDocumentProcessingStatistics.getId(), null, null, null)
+                            .withRedirectionPath(doneProcessing.getRedirectionPath()));
+
+            // (Step 4) Updating the stats jobs
+            if (new MediaMetaInfoTuple(doneProcessing.getImageMetaInfo(), doneProcessing.getAudioMetaInfo(), doneProcessing.getVideoMetaInfo(), doneProcessing.getTextMetaInfo()).isValid()) {
+                metaInfos.remove(doneProcessing.getReferenceId());
+                metaInfos.put(doneProcessing.getReferenceId(), new SourceDocumentReferenceMetaInfo(doneProcessing.getReferenceId(), doneProcessing.getImageMetaInfo(),
+                        doneProcessing.getAudioMetaInfo(), doneProcessing.getVideoMetaInfo(), doneProcessing.getTextMetaInfo()));
+            }
+        }
+
+        keepPreviousSubTaskStats(lastStatistics, lastStatisticsToKeepSubTaskStats);
+
+        final WriteConcern writeConcern = clusterMasterConfig.getWriteConcern();
+        processingJobDao.modifyStateOfJobs(newJobStates, WriteConcern.NORMAL);
+        sourceDocumentProcessingStatisticsDao.bulkCreateOrModify(statistics, writeConcern);
+        lastSourceDocumentProcessingStatisticsDao.bulkCreateOrModify(lastStatistics.values(), writeConcern);
+        sourceDocumentReferenceDao.modifyLastStatsIdAndRedirectionPath(references.values(), writeConcern);
+        sourceDocumentReferenceMetaInfoDao.bulkCreateOrModify(metaInfos.values(), writeConcern);
+
+        LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                "Saved {} done tasks of {} jobs.", batch.size(), processingJobs.size());
+    }
+
+    /**
+     * Copies the sub task stats of the stored last statistics into the given ones, with a single read.
+     */
+    private void keepPreviousSubTaskStats(final Map<String, LastSourceDocumentProcessingStatistics> lastStatistics,
+                                          final Set<String> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+
+        for (final LastSourceDocumentProcessingStatistics existing : lastSourceDocumentProcessingStatisticsDao.read(new ArrayList<>(ids))) {
+            final LastSourceDocumentProcessingStatistics newOne = lastStatistics.get(existing.getId());
+            if (newOne != null) {
+                lastStatistics.put(existing.getId(), newOne.withProcessingJobSubTaskStats(existing.getProcessingJobSubTaskStats()));
+            }
+        }
+    }
+
+    private SourceDocumentProcessingStatistics createStatistics(final DoneProcessing msg, final ProcessingJob processingJob) {
+        return new SourceDocumentProcessingStatistics(
+                new Date(),
+                new Date(),
+                true,
+                msg.getTaskType(),
+                msg.getProcessingState(),
+                processingJob.getReferenceOwner(),
+                processingJob.getUrlSourceType(),
+                msg.getReferenceId(),
+                msg.getJobId(),
+                msg.getHttpResponseCode(),
+                msg.getHttpResponseContentType(),
+                msg.getHttpResponseContentSizeInBytes(),
+                msg.getSocketConnectToDownloadStartDurationInMilliSecs(),
+                msg.getRetrievalDurationInMilliSecs(),
+                msg.getCheckingDurationInMilliSecs(),
+                msg.getSourceIp(),
+                msg.getHttpResponseHeaders(),
+                msg.getLog(),
+                msg.getStats()
+        ).withContentMd5(msg.getContentMd5());
+    }
+}
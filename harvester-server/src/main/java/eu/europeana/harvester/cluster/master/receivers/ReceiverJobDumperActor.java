@@ -1,20 +1,43 @@
 package eu.europeana.harvester.cluster.master.receivers;
 
+import akka.actor.Cancellable;
 import akka.actor.UntypedActor;
-import com.mongodb.WriteConcern;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
-import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoTuple;
+import eu.europeana.harvester.cluster.domain.messages.inner.FlushDoneProcessing;
 import eu.europeana.harvester.db.interfaces.*;
-import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.concurrent.duration.Duration;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * Saves the done tasks write-behind : they are buffered and written in batches, when the batch is full or at the
+ * latest after {@link #WRITE_INTERVAL_IN_MILLIS}. The batches are written in order by a single writer thread, so the
+ * completions are not held back by the latency of Mongo. When {@link #MAX_BATCHES_IN_FLIGHT} batches wait for the
+ * writer the actor blocks until one is written, which bounds the memory used by the buffered tasks. A batch which
+ * fails is tried again, then its tasks are written one at a time (see {@link DoneProcessingBulkWriter#writeWithRetries}).
+ */
+public class ReceiverJobDumperActor extends UntypedActor {
 
-import java.util.Collections;
-import java.util.Date;
+    /**
+     * The number of done tasks after which a batch is written.
+     */
+    public static final int WRITE_BATCH_SIZE = 500;
 
-public class ReceiverJobDumperActor extends UntypedActor {
+    /**
+     * The longest time a done task waits in the buffer.
+     */
+    public static final long WRITE_INTERVAL_IN_MILLIS = 1000;
+
+    /**
+     * The number of full batches which can wait for the writer.
+     */
+    public static final int MAX_BATCHES_IN_FLIGHT = 4;
 
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
@@ -36,6 +59,16 @@ public class ReceiverJobDumperActor extends UntypedActor {
     private final SourceDocumentReferenceDao sourceDocumentReferenceDao;
     private final SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao;
 
+    private final DoneProcessingBulkWriter bulkWriter;
+
+    /**
+     * The done tasks not yet handed to the writer.
+     */
+    private List<DoneProcessing> pendingDoneProcessing = new ArrayList<>();
+
+    private final ThreadPoolExecutor writer;
+
+    private Cancellable flushSchedule;
 
     public ReceiverJobDumperActor(final ClusterMasterConfig clusterMasterConfig,
                                   final ProcessingJobDao processingJobDao,
@@ -55,6 +88,45 @@ public class ReceiverJobDumperActor extends UntypedActor {
         this.lastSourceDocumentProcessingStatisticsDao = lastSourceDocumentProcessingStatisticsDao;
         this.sourceDocumentReferenceDao = sourceDocumentReferenceDao;
         this.sourceDocumentReferenceMetaInfoDao = sourceDocumentReferenceMetaInfoDao;
+        this.bulkWriter = new DoneProcessingBulkWriter(clusterMasterConfig, processingJobDao, sourceDocumentProcessingStatisticsDao,
+                lastSourceDocumentProcessingStatisticsDao, sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao);
+
+        // A rejected batch waits for a free place in the queue, which keeps the batches in order
+        this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(MAX_BATCHES_IN_FLIGHT),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(final Runnable batch, final ThreadPoolExecutor executor) {
+                        if (executor.isShutdown()) {
+                            throw new RejectedExecutionException("The done tasks writer is stopped.");
+                        }
+                        try {
+                            executor.getQueue().put(batch);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new RejectedExecutionException(e);
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void preStart() throws Exception {
+        flushSchedule = getContext().system().scheduler().schedule(Duration.create(WRITE_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS),
+                Duration.create(WRITE_INTERVAL_IN_MILLIS, TimeUnit.MILLISECONDS), getSelf(), new FlushDoneProcessing(),
+                getContext().dispatcher(), getSelf());
+    }
+
+    @Override
+    public void postStop() throws Exception {
+        if (null != flushSchedule) flushSchedule.cancel();
+
+        // Nothing buffered is lost on shutdown
+        flush();
+        writer.shutdown();
+        if (!writer.awaitTermination(1, TimeUnit.MINUTES)) {
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                    "The done tasks writer did not finish in time, {} batches are not saved.", writer.getQueue().size());
+        }
     }
 
     @Override
@@ -65,7 +137,11 @@ public class ReceiverJobDumperActor extends UntypedActor {
             LOG.debug("receiverjobdumperactor, message instance of doneprocessing, message url: {}", ((DoneProcessing) message).getUrl());
             DoneProcessing doneProcessing = (DoneProcessing) message;
             markDone(doneProcessing);
+            return;
+        }
 
+        if (message instanceof FlushDoneProcessing) {
+            flush();
         }
 
         return;
@@ -75,96 +151,47 @@ public class ReceiverJobDumperActor extends UntypedActor {
     /**
      * Marks task as done and save it's statistics in the DB.
      * If one job has finished all his tasks then the job also will be marked as done(FINISHED).
+     * The task is saved with the next batch.
      *
      * @param doneProcessing - the message from the slave actor with jobId
      */
     private void markDone(DoneProcessing doneProcessing) {
-        // (Step 1) Updating processing jobs
-
-        LOG.debug("receiverjobdumperactor, markdone");
-
-        final ProcessingJob processingJob = processingJobDao.read(doneProcessing.getJobId());
-        final ProcessingJob newProcessingJob = processingJob.withState(DoneProcessing.convertProcessingStateToJobState(doneProcessing.getProcessingState()));
-        processingJobDao.createOrModify(newProcessingJob, WriteConcern.NORMAL);
-
-        // (Step 2) Updating statistics jobs
-        final SourceDocumentReference sourceDocumentReference = saveStatistics(doneProcessing,processingJob);
-
-        // (Step 3) Updating the stats jobs
-        saveMetaInfo(doneProcessing);
+        pendingDoneProcessing.add(doneProcessing);
 
         LOG.debug("receiverjobdumperactor, doneProcessing - processing state: {}, url: {}, log: {}", doneProcessing.getProcessingState().name(),
                 doneProcessing.getUrl(), doneProcessing.getLog());
-    }
-
-    /**
-     * Marks task as done and save it's statistics in the DB.
-     * If one job has finished all his tasks then the job also will be marked as done(FINISHED).
-     *
-     * @param msg - the message from the slave actor with url, jobId and other statistics
-     */
-    private SourceDocumentReference saveStatistics(DoneProcessing msg, ProcessingJob processingJob) {
-        final ProcessingJobSubTaskStats subTaskStats = msg.getStats();
-
-        final SourceDocumentProcessingStatistics sourceDocumentProcessingStatistics =
-                new SourceDocumentProcessingStatistics(
-                        new Date(),
-                        new Date(),
-                        true,
-                        msg.getTaskType(),
-                        msg.getProcessingState(),
-                        processingJob.getReferenceOwner(),
-                        processingJob.getUrlSourceType(),
-                        msg.getReferenceId(),
-                        msg.getJobId(),
-                        msg.getHttpResponseCode(),
-                        msg.getHttpResponseContentType(),
-                        msg.getHttpResponseContentSizeInBytes(),
-                        msg.getSocketConnectToDownloadStartDurationInMilliSecs(),
-                        msg.getRetrievalDurationInMilliSecs(),
-                        msg.getCheckingDurationInMilliSecs(),
-                        msg.getSourceIp(),
-                        msg.getHttpResponseHeaders(),
-                        msg.getLog(),
-                        subTaskStats
-                );
-
-        LastSourceDocumentProcessingStatistics lastSourceDocumentProcessingStatistics = new LastSourceDocumentProcessingStatistics(sourceDocumentProcessingStatistics);
-
-        /* We need to keep the previous last stats subtask states as a successful conditional download has them all se to never executed. See #CRF-509 */
-        if (lastSourceDocumentProcessingStatistics.getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD &&
-                lastSourceDocumentProcessingStatistics.getState() == ProcessingState.SUCCESS) {
-            final LastSourceDocumentProcessingStatistics existingSourceDocumentProcessingStatistics = lastSourceDocumentProcessingStatisticsDao.read(lastSourceDocumentProcessingStatistics.getId());
-            if (existingSourceDocumentProcessingStatistics != null ) lastSourceDocumentProcessingStatistics = lastSourceDocumentProcessingStatistics.withProcessingJobSubTaskStats(existingSourceDocumentProcessingStatistics.getProcessingJobSubTaskStats());
-        }
 
-        SourceDocumentReference sourceDocumentReference = sourceDocumentReferenceDao.read(msg.getReferenceId());
-        if (sourceDocumentReference != null) {
-            sourceDocumentReference = sourceDocumentReference.withLastStatsId(sourceDocumentProcessingStatistics.getId()).withRedirectionPath(msg.getRedirectionPath());
+        if (pendingDoneProcessing.size() >= WRITE_BATCH_SIZE) {
+            flush();
         }
-
-        sourceDocumentProcessingStatisticsDao.createOrModify(sourceDocumentProcessingStatistics,
-                clusterMasterConfig.getWriteConcern());
-
-        lastSourceDocumentProcessingStatisticsDao.createOrModify(lastSourceDocumentProcessingStatistics, clusterMasterConfig.getWriteConcern());
-
-        sourceDocumentReferenceDao.createOrModify(sourceDocumentReference, clusterMasterConfig.getWriteConcern());
-        return sourceDocumentReference;
-
     }
 
     /**
-     * Saves the meta information of a document
-     *
-\     * @param msg   all the information retrieved while downloading
+     * Hands the buffered tasks to the writer as one batch.
      */
-    private void saveMetaInfo(final DoneProcessing msg) {
-        if (new MediaMetaInfoTuple(msg.getImageMetaInfo(), msg.getAudioMetaInfo(), msg.getVideoMetaInfo(), msg.getTextMetaInfo()).isValid()) {
-            final SourceDocumentReferenceMetaInfo newSourceDocumentReferenceMetaInfo = new SourceDocumentReferenceMetaInfo(msg.getReferenceId(), msg.getImageMetaInfo(),
-                    msg.getAudioMetaInfo(), msg.getVideoMetaInfo(), msg.getTextMetaInfo());
-            sourceDocumentReferenceMetaInfoDao.createOrModify(Collections.singleton(newSourceDocumentReferenceMetaInfo),
-                    clusterMasterConfig.getWriteConcern());
+    private void flush() {
+        if (pendingDoneProcessing.isEmpty()) {
+            return;
         }
+
+        final List<DoneProcessing> batch = pendingDoneProcessing;
+        pendingDoneProcessing = new ArrayList<>();
+        writer.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final int failed = bulkWriter.writeWithRetries(batch);
+                    if (failed > 0) {
+                        LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                                "Failed to save {} of a batch of {} done tasks.", failed, batch.size());
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Master.TASKS_RECEIVER),
+                            "Interrupted while saving a batch of " + batch.size() + " done tasks.", e);
+                }
+            }
+        });
     }
 
 
@@ -2,12 +2,18 @@ package eu.europeana.harvester.cluster.slave;
 
 import akka.actor.*;
 import com.codahale.metrics.Gauge;
+import com.ning.http.client.AsyncHttpClient;
 import eu.europeana.harvester.cluster.domain.NodeMasterConfig;
 import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.cluster.slave.caching.SlaveMediaCache;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
-import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
-import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
-import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotsLease;
+import eu.europeana.harvester.cluster.master.limiter.domain.RevokeConnectionSlotsLeases;
+import eu.europeana.harvester.cluster.slave.downloading.SlaveHttpClientFactory;
+import eu.europeana.harvester.cluster.slave.limiter.IpConnectionSlotLeases;
+import eu.europeana.harvester.cluster.slave.storing.SlaveUploader;
 import eu.europeana.harvester.db.MediaStorageClient;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponseFactory;
 import eu.europeana.harvester.logging.LoggingComponent;
@@ -22,16 +28,47 @@ import java.util.concurrent.TimeUnit;
 
 /**
  * This acts as a load balancer for the "retrieve and process" actor.
+ * It owns a fixed pool of long lived workers (its children) and hands a ready task to a worker as soon as it is idle.
+ * Crashed workers are restarted (the crashing task is reported as failed) and stopped workers are replaced.
+ *
+ * The work is done in two stages, each with its own pool of workers running on its own dispatcher :
+ * the (I/O bound) download workers retrieve the content & hand it back as a {@link ProcessDownloadedUrl}, which waits
+ * in a bounded queue for one of the (CPU bound) processing workers. Downloads are not started while the queue is full.
+ *
+ * A task takes a connection slot of its IP only when a download worker takes it, until then it waits in the
+ * {@link IpConnectionSlotLeases}, which holds at most the tasks asked for with {@link RequestTasks}.
  */
 public class NodeMasterActor extends UntypedActor {
 
+    /**
+     * The dispatcher of the download workers.
+     */
+    public static final String DOWNLOAD_DISPATCHER = "slave-download-dispatcher";
+
+    /**
+     * The dispatcher of the processing workers.
+     */
+    public static final String PROCESSING_DISPATCHER = "slave-processing-dispatcher";
+
+    /**
+     * The time after which a request for tasks without answer is considered lost & a new one can be sent.
+     */
+    public static final long TASK_REQUEST_TIMEOUT_IN_MILLIS = 5000;
+
+    /**
+     * The time after which a slave which got an empty bag asks again for tasks.
+     */
+    public static final long IDLE_TASK_REQUEST_INTERVAL_IN_SECONDS = 5;
+
         public static ActorRef createActor(final ActorContext context, final ActorRef masterSender,
                                            final ActorRef nodeSupervisor,
                                            final NodeMasterConfig nodeMasterConfig,
-                                           final MediaStorageClient mediaStorageClient){
+                                           final MediaStorageClient mediaStorageClient,
+                                           final SlaveMediaCache mediaCache,
+                                           final SlaveUploader uploader){
 
         return context.system().actorOf(Props.create(NodeMasterActor.class,
-                        masterSender,nodeSupervisor, nodeMasterConfig, mediaStorageClient),
+                        masterSender,nodeSupervisor, nodeMasterConfig, mediaStorageClient, mediaCache, uploader),
                 "nodeMaster");
     }
 
@@ -53,34 +90,89 @@ public class NodeMasterActor extends UntypedActor {
      */
     private ActorRef masterSender;
 
-    /**
-     * List of unprocessed jobsReadyToBeProcessed.
-     */
-    private final Queue<Object> jobsReadyToBeProcessed = new LinkedList<>();
-
     /**
      * List of jobs which was stopped by the clients.
      */
     private final Set<String> jobsToStop;
 
+    /**
+     * True while a request for tasks waits for its bag : a single request (credit) is outstanding at a time.
+     */
     private Boolean sentRequest;
 
-    final private List<ActorRef> actors = new ArrayList<>() ;
+    /**
+     * The demand advertised in the last request for tasks.
+     */
+    private int lastDemand = 0;
 
-    final private HashMap<String, Pair<RetrieveUrlWithProcessingConfig,ReserveConnectionSlotResponse>> taskIDToRetrieveURL = new HashMap<>();
+    /**
+     * The download workers waiting for a task.
+     */
+    final private Deque<ActorRef> idleWorkers = new ArrayDeque<>();
+
+    /**
+     * The download workers executing a task, with the task they execute.
+     */
+    final private Map<ActorRef, RetrieveUrlWithProcessingConfig> busyWorkers = new HashMap<>();
+
+    /**
+     * The downloaded tasks waiting for a processing worker. No download is started while it holds maxProcessingSlaves.
+     */
+    final private Queue<ProcessDownloadedUrl> jobsWaitingForProcessing = new LinkedList<>();
+
+    /**
+     * The processing workers waiting for a downloaded task.
+     */
+    final private Deque<ActorRef> idleProcessingWorkers = new ArrayDeque<>();
+
+    /**
+     * The processing workers executing a task, with the task they execute.
+     */
+    final private Map<ActorRef, ProcessDownloadedUrl> busyProcessingWorkers = new HashMap<>();
+
+    /**
+     * The tasks of this node with the lease of the connection slot they use (null while they wait for a worker & a
+     * slot or while they are uploaded).
+     */
+    final private HashMap<String, Pair<RetrieveUrlWithProcessingConfig, String>> taskIDToRetrieveURL = new HashMap<>();
+
+    /**
+     * The connection slots leased from the master, the tasks acquire & release them locally.
+     */
+    final private IpConnectionSlotLeases slotLeases = new IpConnectionSlotLeases();
 
 
     Long lastRequest;
     final int maxSlaves;
+    final int maxProcessingSlaves;
 
     private MediaStorageClient mediaStorageClient;
 
+    /**
+     * The local cache of the thumbnails shared by the workers, null if the slave has none.
+     */
+    private final SlaveMediaCache mediaCache;
+
+    /**
+     * The storage stage shared by the processing workers, null if they upload by themselves.
+     */
+    private final SlaveUploader uploader;
+
     final HttpRetrieveResponseFactory httpRetrieveResponseFactory = new HttpRetrieveResponseFactory();
     final ExecutorService service = Executors.newCachedThreadPool();
 
+    /**
+     * The http engine (event loop & keep-alive connection pool) shared by all the workers of this node.
+     */
+    private final AsyncHttpClient asyncHttpClient;
+
+    private final SupervisorStrategy strategy;
+
     public NodeMasterActor(final ActorRef masterSender,final  ActorRef nodeSupervisor,
                            final NodeMasterConfig nodeMasterConfig,
-                           final MediaStorageClient mediaStorageClient
+                           final MediaStorageClient mediaStorageClient,
+                           final SlaveMediaCache mediaCache,
+                           final SlaveUploader uploader
                            ) {
 
         this.masterSender = masterSender;
@@ -91,7 +183,14 @@ public class NodeMasterActor extends UntypedActor {
 
         this.sentRequest = false;
         this.mediaStorageClient = mediaStorageClient;
+        this.mediaCache = mediaCache;
+        this.uploader = uploader;
         this.maxSlaves = nodeMasterConfig.getNrOfDownloaderSlaves();
+        this.maxProcessingSlaves = Math.max(1, nodeMasterConfig.getNrOfExtractorSlaves());
+        this.asyncHttpClient = SlaveHttpClientFactory.create(nodeMasterConfig.getHttpClientConfig());
+        this.strategy = new OneForOneStrategy(nodeMasterConfig.getNrOfRetries(),
+                scala.concurrent.duration.Duration.create(1, TimeUnit.MINUTES),
+                Collections.<Class<? extends Throwable>>singletonList(Exception.class));
 
         LOG.debug("SLAVE - Node master actor constructor");
 
@@ -99,14 +198,28 @@ public class NodeMasterActor extends UntypedActor {
         SlaveMetrics.Worker.Master.activeWorkerSlavesCounter.registerHandler(new Gauge<Integer>() {
             @Override
             public Integer getValue() {
-                return actors.size();
+                return busyWorkers.size();
             }
         });
 
         SlaveMetrics.Worker.Master.jobsReadyToBeProcessedCounter.registerHandler(new Gauge<Integer>() {
             @Override
             public Integer getValue() {
-                return jobsReadyToBeProcessed.size();
+                return slotLeases.getNumberOfWaitingTasks();
+            }
+        });
+
+        SlaveMetrics.Worker.Master.jobsWaitingForProcessingCounter.registerHandler(new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return jobsWaitingForProcessing.size();
+            }
+        });
+
+        SlaveMetrics.Worker.Master.activeProcessingSlavesCounter.registerHandler(new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return busyProcessingWorkers.size();
             }
         });
 
@@ -118,15 +231,31 @@ public class NodeMasterActor extends UntypedActor {
         lastRequest = 0l;
         sentRequest = false;
 
-        LOG.debug("SLAVE - Node master actor, post restart");
+        LOG.debug("SLAVE - Node master actor, pre start");
+
+        for (int i = 0; i < maxSlaves; i++) {
+            startWorker();
+        }
+        for (int i = 0; i < maxProcessingSlaves; i++) {
+            startProcessingWorker();
+        }
+    }
 
-        final int maxNrOfRetries = nodeMasterConfig.getNrOfRetries();
-        final SupervisorStrategy strategy =
-                new OneForOneStrategy(maxNrOfRetries, scala.concurrent.duration.Duration.create(1, TimeUnit.MINUTES),
-                        Collections.<Class<? extends Throwable>>singletonList(Exception.class));
+    @Override
+    public SupervisorStrategy supervisorStrategy() {
+        return strategy;
     }
 
 
+    @Override
+    public void postStop() throws Exception {
+
+        LOG.debug("SLAVE - Node master actor, post stop");
+
+        asyncHttpClient.close();
+        super.postStop();
+    }
+
     @Override
     public void preRestart(Throwable reason, Option<Object> message) throws Exception {
 
@@ -156,8 +285,13 @@ public class NodeMasterActor extends UntypedActor {
             return;
         }
 
-        if(message instanceof ReserveConnectionSlotResponse ) {
-            onReserveConnectionSlotResponseReceived((ReserveConnectionSlotResponse) message);
+        if(message instanceof LeaseConnectionSlotsResponse ) {
+            onLeaseConnectionSlotsResponseReceived((LeaseConnectionSlotsResponse) message);
+            return;
+        }
+
+        if(message instanceof RevokeConnectionSlotsLeases) {
+            onRevokeConnectionSlotsLeasesReceived((RevokeConnectionSlotsLeases) message);
             return;
         }
 
@@ -166,6 +300,21 @@ public class NodeMasterActor extends UntypedActor {
             return;
         }
 
+        if(message instanceof BagOfTasks) {
+            onBagOfTasksReceived((BagOfTasks) message);
+            return;
+        }
+
+        if(message instanceof ProcessDownloadedUrl) {
+            onProcessDownloadedUrlReceived((ProcessDownloadedUrl) message);
+            return;
+        }
+
+        if(message instanceof UploadStarted) {
+            onUploadStartedReceived((UploadStarted) message);
+            return;
+        }
+
         if(message instanceof DoneProcessing) {
             onDoneProcessingReceived(message);
             return;
@@ -191,43 +340,40 @@ public class NodeMasterActor extends UntypedActor {
     }
 
     private void onTerminatedReceived(Terminated message) {
-        final Terminated t = message;
-        ActorRef which = t.getActor();
-        this.actors.remove(which);
+        final ActorRef which = message.getActor();
 
         LOG.debug("SLAVE - Node master actor - onTerminatedReceived");
 
-        if (actors.size()<maxSlaves){
-            Object msg = null;
-            if (!jobsReadyToBeProcessed.isEmpty())
-                msg = jobsReadyToBeProcessed.poll();
-
-            if(msg != null) {
-
-
-                ActorRef newActor = RetrieveAndProcessActor.createActor(getContext().system(),
-                        httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath()
-                        );
-                this.actors.add(newActor);
-                context().watch(newActor);
-
-                newActor.tell(msg, getSelf());
-            }
-            if ( taskIDToRetrieveURL.size() < nodeMasterConfig.getTaskNrLimit()) {
-                self().tell(new RequestTasks(), ActorRef.noSender());
-            }
-
-            LOG.debug("SLAVE - Node master actor - onTerminatedReceived, actors < max slaves, task id to retrieve is: {}", taskIDToRetrieveURL);
+        // The worker was stopped after too many crashes, it is replaced by a fresh one
+        // Workers of a previous incarnation of this actor are not replaced, they were recreated on restart
+        final Exception stopped = new IllegalStateException("The slave worker executing the task was stopped.");
+        final boolean wasIdle = idleWorkers.remove(which);
+        final RetrieveUrlWithProcessingConfig lostTask = busyWorkers.remove(which);
+        if (wasIdle || lostTask != null) {
+            startWorker();
+        }
+        if (lostTask != null) {
+            finishTask(RetrieveAndProcessActor.createFailedDoneProcessing(lostTask.getRetrieveUrl(), stopped));
+        }
 
+        final boolean wasIdleProcessing = idleProcessingWorkers.remove(which);
+        final ProcessDownloadedUrl lostProcessing = busyProcessingWorkers.remove(which);
+        if (wasIdleProcessing || lostProcessing != null) {
+            startProcessingWorker();
+        }
+        if (lostProcessing != null) {
+            finishTask(RetrieveAndProcessActor.createFailedProcessing(lostProcessing.getRetrieval(), stopped));
         }
 
+        dispatchWaitingForProcessing();
+        dispatchReadyJobs();
     }
 
     private void onRetrieveUrlWithProcessingConfigReceived ( RetrieveUrlWithProcessingConfig retrieveUrl ) {
 
         LOG.debug("SLAVE - Node master actor - onRetrieveUrlWithProcessingConfigReceived");
 
-        taskIDToRetrieveURL.put(retrieveUrl.getRetrieveUrl().getId(), new Pair(retrieveUrl,null));
+        taskIDToRetrieveURL.put(retrieveUrl.getRetrieveUrl().getId(), new Pair<RetrieveUrlWithProcessingConfig, String>(retrieveUrl, null));
 
         LOG.debug("SLAVE - Node master actor - onRetrieveUrlWithProcessingConfigReceived - taskIDToRetrieveURL has size {}",
                 taskIDToRetrieveURL.size());
@@ -236,103 +382,174 @@ public class NodeMasterActor extends UntypedActor {
 
         LOG.debug("SLAVE - Node master actor - onRetrieveUrlWithProcessingConfigReceived - jobsWaitingForSlotGrantCounter {}",
                 SlaveMetrics.Worker.Master.jobsWaitingForSlotGrantCounter.getCount());
-        masterSender.tell(new ReserveConnectionSlotRequest(retrieveUrl.getRetrieveUrl().getIpAddress(),
-                retrieveUrl.getRetrieveUrl().getId()),getSelf());
+
+        final String ip = retrieveUrl.getRetrieveUrl().getIpAddress();
+        slotLeases.addWaitingTask(ip, retrieveUrl.getRetrieveUrl().getId());
+        dispatchReadyJobs();
+        requestLeaseIfNeeded(ip);
     }
 
-    private void onReserveConnectionSlotResponseReceived ( ReserveConnectionSlotResponse reserveConnectionSlotResponse) {
+    private void onLeaseConnectionSlotsResponseReceived(final LeaseConnectionSlotsResponse lease) {
 
-        LOG.debug("SLAVE - Node master actor - onReserveConnectionSlotResponseReceived");
+        LOG.debug("SLAVE - Node master actor - onLeaseConnectionSlotsResponseReceived, ip {}, slots {}", lease.getIp(), lease.getSlots());
 
-        if (!taskIDToRetrieveURL.containsKey(reserveConnectionSlotResponse.getTaskID()))
-            return;
+        slotLeases.addLease(lease, System.currentTimeMillis());
+        dispatchReadyJobs();
+        returnUnusedLeases(lease.getIp());
+        requestLeaseIfNeeded(lease.getIp());
+    }
 
-        RetrieveUrlWithProcessingConfig retrieveUrl = taskIDToRetrieveURL.get(reserveConnectionSlotResponse.getTaskID()).getKey();
+    /**
+     * The IP asked for a pause : its leases start no other task, the free ones go back to the master right away.
+     */
+    private void onRevokeConnectionSlotsLeasesReceived(final RevokeConnectionSlotsLeases revoke) {
 
-        if ( !reserveConnectionSlotResponse.getGranted()) {
-            getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(30,
-                    TimeUnit.SECONDS), masterSender,
-                    new ReserveConnectionSlotRequest(reserveConnectionSlotResponse.getIp(),reserveConnectionSlotResponse.getTaskID()),
-                    getContext().system().dispatcher(), getSelf());
-            return;
-        }
+        LOG.debug("SLAVE - Node master actor - onRevokeConnectionSlotsLeasesReceived, ip {}", revoke.getIp());
 
-        taskIDToRetrieveURL.put(retrieveUrl.getRetrieveUrl().getId(), new Pair(retrieveUrl,reserveConnectionSlotResponse));
+        slotLeases.revokeLeases(revoke.getIp());
+        returnUnusedLeases(revoke.getIp());
+        requestLeaseIfNeeded(revoke.getIp());
+    }
 
-        LOG.debug("SLAVE - Node master actor - onReserveConnectionSlotResponseReceived - taskIDToRetrieveURL has size {}", taskIDToRetrieveURL.size());
+    /**
+     * Asks the master for enough slots for the tasks waiting for the IP, unless a request is already pending.
+     */
+    private void requestLeaseIfNeeded(final String ip) {
+        final int slots = slotLeases.slotsToRequest(ip, System.currentTimeMillis());
+        if (slots > 0) {
+            masterSender.tell(new LeaseConnectionSlotsRequest(ip, slots), getSelf());
+        }
+    }
 
+    private void returnUnusedLeases(final String ip) {
+        for (final String leaseId : slotLeases.removeUnusedLeases(ip, System.currentTimeMillis())) {
+            masterSender.tell(new ReturnConnectionSlotsLease(leaseId, ip), ActorRef.noSender());
+        }
+    }
 
-        SlaveMetrics.Worker.Master.jobsWaitingForSlotGrantCounter.dec();
+    /**
+     * Hands the waiting tasks to the idle download workers, each task takes a slot of its IP when a worker takes it.
+     */
+    private void dispatchReadyJobs() {
+        // Backpressure : the downloads wait while the processing stage is behind
+        while (!idleWorkers.isEmpty() && jobsWaitingForProcessing.size() < maxProcessingSlaves) {
+            final Pair<String, String> taskAndLease = slotLeases.acquireForNextWaitingTask(System.currentTimeMillis());
+            if (taskAndLease == null) {
+                return;
+            }
 
-        LOG.debug("SLAVE - Node master actor - onReserveConnectionSlotResponseReceived - jobsWaitingForSlotGrantCounter {}",
-                SlaveMetrics.Worker.Master.jobsWaitingForSlotGrantCounter.getCount());
+            final RetrieveUrlWithProcessingConfig task = taskIDToRetrieveURL.get(taskAndLease.getKey()).getKey();
+            final ActorRef worker = idleWorkers.poll();
+            taskIDToRetrieveURL.put(taskAndLease.getKey(), new Pair<>(task, taskAndLease.getValue()));
+            SlaveMetrics.Worker.Master.jobsWaitingForSlotGrantCounter.dec();
 
-        executeRetrieveURL(retrieveUrl);
-    }
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
+                    "Slave master hands url {} to worker {}", task.getRetrieveUrl().getUrl(), worker.path().name());
 
-    private void executeRetrieveURL(Object message) {
-        LOG.debug("NodeMasterActor executeretrieveurl actors size: {}, max slaves: {}, jobs ready to be processed: {}", actors.size(), maxSlaves,
-                jobsReadyToBeProcessed.size());
+            busyWorkers.put(worker, task);
+            worker.tell(task, getSelf());
+        }
+    }
 
-        jobsReadyToBeProcessed.add(message);
+    private void dispatchWaitingForProcessing() {
+        while (!idleProcessingWorkers.isEmpty() && !jobsWaitingForProcessing.isEmpty()) {
+            final ProcessDownloadedUrl task = jobsWaitingForProcessing.poll();
+            final ActorRef worker = idleProcessingWorkers.poll();
 
-        if ( actors.size()<maxSlaves & jobsReadyToBeProcessed.size()>maxSlaves ) {
+            busyProcessingWorkers.put(worker, task);
+            worker.tell(task, getSelf());
+        }
+    }
 
-            for ( int i=0;i<maxSlaves;i++){
-                Object msg = null;
+    private void startWorker() {
+        final ActorRef worker = RetrieveAndProcessActor.createActor(getContext(),
+                httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath(),
+                nodeMasterConfig.getImagingBackend(),
+                asyncHttpClient, false, mediaCache, uploader, getContext().system(), DOWNLOAD_DISPATCHER
+        );
+        getContext().watch(worker);
+        idleWorkers.add(worker);
+    }
 
-                if (!jobsReadyToBeProcessed.isEmpty())
-                    msg = jobsReadyToBeProcessed.poll();
+    private void startProcessingWorker() {
+        final ActorRef worker = RetrieveAndProcessActor.createActor(getContext(),
+                httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath(),
+                nodeMasterConfig.getImagingBackend(),
+                asyncHttpClient, true, mediaCache, uploader, getContext().system(), PROCESSING_DISPATCHER
+        );
+        getContext().watch(worker);
+        idleProcessingWorkers.add(worker);
+    }
 
-                if(msg != null) {
-                    RetrieveUrlWithProcessingConfig tst = (RetrieveUrlWithProcessingConfig) msg;
-                    LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.MASTER),
-                            "Slave master starting new Worker Actor for url {} ",tst.getRetrieveUrl().getUrl());
+    private void onProcessDownloadedUrlReceived(final ProcessDownloadedUrl processDownloadedUrl) {
+        if (busyWorkers.remove(getSender()) != null) {
+            idleWorkers.add(getSender());
+        }
 
-                    ActorRef newActor = RetrieveAndProcessActor.createActor(getContext().system(),
-                            httpRetrieveResponseFactory, mediaStorageClient, nodeMasterConfig.getColorMapPath()
-                            );
-                    this.actors.add(newActor);
+        jobsWaitingForProcessing.add(processDownloadedUrl);
+        dispatchWaitingForProcessing();
+        dispatchReadyJobs();
+    }
 
-                    context().watch(newActor);
+    private void onRequestTasksReceived() {
 
-                    newActor.tell(msg, getSelf());
-                }
+        LOG.debug("SLAVE - Node master actor - onRequestTasksReceived");
 
-            }
+        // Drops the expired leases & sends again the lease requests which got no answer
+        for (final String ip : slotLeases.getIpsWithLeases()) {
+            returnUnusedLeases(ip);
         }
+        dispatchReadyJobs();
+        for (final String ip : slotLeases.getIpsWithWaitingTasks()) {
+            requestLeaseIfNeeded(ip);
+        }
+
+        requestTasksIfNeeded();
     }
 
-    private void onRequestTasksReceived() {
-        //allways request tasks if the message is coming from the supervisor
+    /**
+     * The tasks of the bag were already handed over by the supervisor, the bag only closes the pending request.
+     */
+    private void onBagOfTasksReceived(final BagOfTasks bagOfTasks) {
 
-        LOG.debug("SLAVE - Node master actor - onRequestTasksReceived");
+        LOG.debug("SLAVE - Node master actor - onBagOfTasksReceived, size {}, demand {}", bagOfTasks.getTasks().size(), lastDemand);
 
-        if ( getSender().equals(nodeSupervisor)) {
-            if ( masterSender!= null && jobsReadyToBeProcessed.size() < nodeMasterConfig.getTaskNrLimit() ) {
-                masterSender.tell(new RequestTasks(), nodeSupervisor);
-                sentRequest = true;
-                lastRequest = System.currentTimeMillis();
-            }
+        sentRequest = false;
+        if (bagOfTasks.getTasks().isEmpty()) {
+            // The master has nothing for now
+            getContext().system().scheduler().scheduleOnce(scala.concurrent.duration.Duration.create(IDLE_TASK_REQUEST_INTERVAL_IN_SECONDS,
+                    TimeUnit.SECONDS), getSelf(), new RequestTasks(), getContext().system().dispatcher(), ActorRef.noSender());
+        } else if (bagOfTasks.getTasks().size() >= lastDemand) {
+            // A full bag, the master may have more
+            requestTasksIfNeeded();
         }
-        else if(!sentRequest && masterSender != null && jobsReadyToBeProcessed.size() < nodeMasterConfig.getTaskNrLimit()) {
+    }
 
-            masterSender.tell(new RequestTasks(), nodeSupervisor);
-            sentRequest = true;
-            lastRequest = System.currentTimeMillis();
+    /**
+     * Asks the master for as many tasks as this node can take, unless a request is already pending.
+     * The demand is the room left in the local queue ; the tasks waiting for a worker & a slot, in progress & being
+     * uploaded all count against it, so at most the task limit waits locally (plus a bag whose request timed out).
+     */
+    private void requestTasksIfNeeded() {
+        if (masterSender == null) {
+            return;
         }
-        else  {
-                final Long currentTime = System.currentTimeMillis();
-                final int diff = Math.round ( ((currentTime - lastRequest)/1000) );
-                if(diff > 5 && jobsReadyToBeProcessed.size() < nodeMasterConfig.getTaskNrLimit() ) {
-                    sentRequest = true;
-                    //self().tell(new RequestTasks(), ActorRef.noSender());
-                    masterSender.tell(new RequestTasks(), nodeSupervisor);
-                    lastRequest = System.currentTimeMillis();
 
-                }
+        final long now = System.currentTimeMillis();
+        if (sentRequest && now - lastRequest < TASK_REQUEST_TIMEOUT_IN_MILLIS) {
+            return;
+        }
 
+        final int demand = nodeMasterConfig.getTaskNrLimit() - taskIDToRetrieveURL.size();
+        if (demand <= 0) {
+            return;
         }
+
+        masterSender.tell(new RequestTasks(demand, idleWorkers.size(), idleProcessingWorkers.size(), taskIDToRetrieveURL.size()),
+                nodeSupervisor);
+        sentRequest = true;
+        lastRequest = now;
+        lastDemand = demand;
     }
 
     private void onDoneProcessingReceived(Object message) {
@@ -341,21 +558,67 @@ public class NodeMasterActor extends UntypedActor {
         LOG.debug("SLAVE - Node master actor - ondoneprocessingreceived, processing state: {}, url: {}, log: {}", doneProcessing.getProcessingState().name(),
                doneProcessing.getUrl(), doneProcessing.getLog());
 
-        this.actors.remove(getSender());
+        if (busyWorkers.remove(getSender()) != null) {
+            idleWorkers.add(getSender());
+        }
+        if (busyProcessingWorkers.remove(getSender()) != null) {
+            idleProcessingWorkers.add(getSender());
+        }
+
+        finishTask(doneProcessing);
+        dispatchWaitingForProcessing();
+        dispatchReadyJobs();
 
+        requestTasksIfNeeded();
+    }
+
+    /**
+     * The thumbnails of the task are being uploaded : its worker & its connection slot go to the next tasks, the task
+     * stays until its {@link DoneProcessing} comes from the storage stage.
+     */
+    private void onUploadStartedReceived(final UploadStarted uploadStarted) {
+        if (busyWorkers.remove(getSender()) != null) {
+            idleWorkers.add(getSender());
+        }
+        if (busyProcessingWorkers.remove(getSender()) != null) {
+            idleProcessingWorkers.add(getSender());
+        }
+
+        final Pair<RetrieveUrlWithProcessingConfig, String> pair = taskIDToRetrieveURL.get(uploadStarted.getTaskID());
+        if (pair != null && pair.getValue() != null) {
+            taskIDToRetrieveURL.put(uploadStarted.getTaskID(), new Pair<RetrieveUrlWithProcessingConfig, String>(pair.getKey(), null));
+            releaseSlot(pair);
+        }
+
+        dispatchWaitingForProcessing();
+        dispatchReadyJobs();
+    }
+
+    private void finishTask(final DoneProcessing doneProcessing) {
         if(taskIDToRetrieveURL.containsKey(doneProcessing.getTaskID())) {
 
-            Pair < RetrieveUrlWithProcessingConfig, ReserveConnectionSlotResponse> pair = taskIDToRetrieveURL.remove(doneProcessing.getTaskID());
-            masterSender.tell(new ReturnConnectionSlotRequest(pair.getValue().getSlotId(), pair.getValue().getIp()), ActorRef.noSender());
+            final Pair<RetrieveUrlWithProcessingConfig, String> pair = taskIDToRetrieveURL.remove(doneProcessing.getTaskID());
+            if (pair.getValue() != null) {
+                releaseSlot(pair);
+            }
         }
 
-        masterSender.tell(message, getSelf());
+        masterSender.tell(doneProcessing, getSelf());
 
 
         SlaveMetrics.Worker.Master.doneProcessingStateCounters.get(doneProcessing.getProcessingState()).inc();
         SlaveMetrics.Worker.Master.doneProcessingTotalCounter.inc();
     }
 
+    private void releaseSlot(final Pair<RetrieveUrlWithProcessingConfig, String> taskAndLease) {
+        // The freed slot & the worker go straight to the next waiting task
+        final String ip = taskAndLease.getKey().getRetrieveUrl().getIpAddress();
+        slotLeases.release(ip, taskAndLease.getValue());
+        dispatchReadyJobs();
+        returnUnusedLeases(ip);
+        requestLeaseIfNeeded(ip);
+    }
+
     private void onCleanReceived() {
 
         LOG.debug("SLAVE - Node master actor - oncleanReceived");
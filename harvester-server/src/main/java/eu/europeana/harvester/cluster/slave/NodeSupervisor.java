@@ -9,6 +9,8 @@ import com.codahale.metrics.MetricRegistry;
 import eu.europeana.harvester.cluster.Slave;
 import eu.europeana.harvester.cluster.domain.NodeMasterConfig;
 import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.cluster.slave.caching.SlaveMediaCache;
+import eu.europeana.harvester.cluster.slave.storing.SlaveUploader;
 import eu.europeana.harvester.db.MediaStorageClient;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
@@ -22,9 +24,11 @@ import java.util.concurrent.TimeUnit;
 public class NodeSupervisor extends UntypedActor {
 
     public static ActorRef createActor(final ActorSystem system, final Slave slave, final ActorRef masterSender,
-                                       final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient, MetricRegistry metrics) {
+                                       final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient,
+                                       final SlaveMediaCache mediaCache, final SlaveUploader uploader,
+                                       MetricRegistry metrics) {
         return system.actorOf(Props.create(NodeSupervisor.class, slave, masterSender, nodeMasterConfig,
-                mediaStorageClient, metrics), "nodeSupervisor");
+                mediaStorageClient, mediaCache, uploader, metrics), "nodeSupervisor");
 
     }
 
@@ -58,6 +62,16 @@ public class NodeSupervisor extends UntypedActor {
      */
     private final MediaStorageClient mediaStorageClient;
 
+    /**
+     * The local cache of the thumbnails, null if the slave has none.
+     */
+    private final SlaveMediaCache mediaCache;
+
+    /**
+     * The storage stage of the slave, null if the workers upload by themselves.
+     */
+    private final SlaveUploader uploader;
+
     /**
      * NodeSupervisor sends heartbeat messages to the slave which responds with the same message.
      * If 3 consecutive messages are missed than the slave is restarted.
@@ -68,13 +82,17 @@ public class NodeSupervisor extends UntypedActor {
     private final MetricRegistry metrics;
 
     public NodeSupervisor(final Slave slave, final ActorRef masterSender,
-                          final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient, MetricRegistry metrics) {
+                          final NodeMasterConfig nodeMasterConfig, final MediaStorageClient mediaStorageClient,
+                          final SlaveMediaCache mediaCache, final SlaveUploader uploader,
+                          MetricRegistry metrics) {
 
 
         this.slave = slave;
         this.masterSender = masterSender;
         this.nodeMasterConfig = nodeMasterConfig;
         this.mediaStorageClient = mediaStorageClient;
+        this.mediaCache = mediaCache;
+        this.uploader = uploader;
         this.missedHeartbeats = 0;
         this.metrics = metrics;
 
@@ -86,7 +104,7 @@ public class NodeSupervisor extends UntypedActor {
 
         LOG.debug("SLAVE - Node supervisor pre start");
 
-        nodeMaster = NodeMasterActor.createActor(context(), masterSender,getSelf(), nodeMasterConfig, mediaStorageClient);
+        nodeMaster = NodeMasterActor.createActor(context(), masterSender,getSelf(), nodeMasterConfig, mediaStorageClient, mediaCache, uploader);
         watchdog = WatchdogActor.createActor(context().system(),slave);
 
         context().watch(nodeMaster);
@@ -237,6 +255,9 @@ public class NodeSupervisor extends UntypedActor {
             getSender().tell(startedTask, getSelf());
             nodeMaster.tell(new RetrieveUrlWithProcessingConfig(request, nodeMasterConfig.getPathToSave() + "/" + request.getJobId()), getSender());
         }
+
+        // After its tasks, so that the node master sees them when it computes its next demand
+        nodeMaster.tell(bagOfTasks, getSender());
     }
 
     private void restartNodeMaster() {
@@ -245,7 +266,7 @@ public class NodeSupervisor extends UntypedActor {
 
         nodeMaster = NodeMasterActor.createActor(context(), masterSender, getSelf(),
                 nodeMasterConfig,
-                mediaStorageClient);
+                mediaStorageClient, mediaCache, uploader);
         context().watch(nodeMaster);
     }
 }
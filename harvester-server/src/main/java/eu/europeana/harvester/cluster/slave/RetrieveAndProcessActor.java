@@ -3,9 +3,17 @@ package eu.europeana.harvester.cluster.slave;
 import akka.actor.*;
 import akka.pattern.CircuitBreaker;
 import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.ning.http.client.AsyncHttpClient;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.ProcessDownloadedUrl;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrlWithProcessingConfig;
+import eu.europeana.harvester.cluster.domain.messages.UploadStarted;
+import eu.europeana.harvester.cluster.slave.caching.SlaveMediaCache;
 import eu.europeana.harvester.cluster.slave.downloading.SlaveDownloader;
 import eu.europeana.harvester.cluster.slave.downloading.SlaveLinkChecker;
 import eu.europeana.harvester.cluster.slave.processing.ProcessingResultTuple;
@@ -13,6 +21,7 @@ import eu.europeana.harvester.cluster.slave.processing.SlaveProcessor;
 import eu.europeana.harvester.cluster.slave.processing.color.ColorExtractor;
 import eu.europeana.harvester.cluster.slave.processing.exceptiions.LocaleException;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoExtractor;
+import eu.europeana.harvester.cluster.slave.storing.SlaveUploader;
 import eu.europeana.harvester.db.MediaStorageClient;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponse;
@@ -22,20 +31,38 @@ import eu.europeana.harvester.httpclient.response.RetrievingState;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import scala.Option;
 import scala.concurrent.duration.Duration;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 
 /**
  * This actor is the actual worker actor.
  * It does retrieval & processing, wrapping the dangerous activity of executing a job.
+ * A worker is long lived : it handles one task at a time and reuses its downloader, processor & circuit breakers
+ * for all the tasks it gets from the node master.
+ * A worker of a staged node master only retrieves : instead of processing the downloaded content it hands it back
+ * as a {@link ProcessDownloadedUrl} which the node master forwards to a worker of the processing stage.
+ * A worker of a slave with a storage stage does not wait for the uploads : it tells the node master with an
+ * {@link UploadStarted} & the {@link DoneProcessing} of the task follows from the storage stage.
  */
 public class RetrieveAndProcessActor extends UntypedActor {
 
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     public static final ProcessingJobRetrieveSubTaskState convertRetrieveStateToProcessingJobRetrieveSubTaskState(RetrievingState retrievingState) {
         switch (retrievingState) {
             case ERROR:
@@ -58,22 +85,93 @@ public class RetrieveAndProcessActor extends UntypedActor {
     }
 
 
-    public static final ActorRef createActor(final ActorSystem system,
+    public static final ActorRef createActor(final ActorRefFactory system,
+                                             final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                             final MediaStorageClient mediaStorageClient,
+                                             final String colorMapPath,
+                                             final AsyncHttpClient asyncHttpClient
+    ) {
+        return createActor(system, httpRetrieveResponseFactory, mediaStorageClient, colorMapPath,
+                ImagingBackend.IMAGEMAGICK, asyncHttpClient);
+    }
+
+    public static final ActorRef createActor(final ActorRefFactory system,
                                              final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
                                              final MediaStorageClient mediaStorageClient,
-                                             final String colorMapPath
+                                             final String colorMapPath,
+                                             final ImagingBackend imagingBackend,
+                                             final AsyncHttpClient asyncHttpClient
     ) {
         return system.actorOf(Props.create(RetrieveAndProcessActor.class,
-                httpRetrieveResponseFactory, colorMapPath, mediaStorageClient
+                httpRetrieveResponseFactory, colorMapPath, imagingBackend, mediaStorageClient, asyncHttpClient
         ));
     }
 
-    public static final ActorRef createActor(final ActorSystem system,
+    public static final ActorRef createActor(final ActorRefFactory system,
+                                             final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                             final MediaStorageClient mediaStorageClient,
+                                             final String colorMapPath,
+                                             final ImagingBackend imagingBackend,
+                                             final AsyncHttpClient asyncHttpClient,
+                                             final boolean processInline,
+                                             final ActorSystem actorSystem,
+                                             final String dispatcherId
+    ) {
+        return createActor(system, httpRetrieveResponseFactory, mediaStorageClient, colorMapPath, imagingBackend,
+                asyncHttpClient, processInline, null, actorSystem, dispatcherId);
+    }
+
+    public static final ActorRef createActor(final ActorRefFactory system,
                                              final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
-                                             final SlaveProcessor processor
+                                             final MediaStorageClient mediaStorageClient,
+                                             final String colorMapPath,
+                                             final ImagingBackend imagingBackend,
+                                             final AsyncHttpClient asyncHttpClient,
+                                             final boolean processInline,
+                                             final SlaveMediaCache mediaCache,
+                                             final ActorSystem actorSystem,
+                                             final String dispatcherId
+    ) {
+        return createActor(system, httpRetrieveResponseFactory, mediaStorageClient, colorMapPath, imagingBackend,
+                asyncHttpClient, processInline, mediaCache, null, actorSystem, dispatcherId);
+    }
+
+    /**
+     * Creates a worker of one stage of the node master.
+     *
+     * @param processInline false if the worker has to hand over the downloaded content instead of processing it
+     * @param mediaCache the local cache of the slave, null if it has none
+     * @param uploader the storage stage of the slave, null if the worker uploads by itself
+     * @param dispatcherId the dispatcher of the stage, the default dispatcher is used if it is not configured
+     */
+    public static final ActorRef createActor(final ActorRefFactory system,
+                                             final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                             final MediaStorageClient mediaStorageClient,
+                                             final String colorMapPath,
+                                             final ImagingBackend imagingBackend,
+                                             final AsyncHttpClient asyncHttpClient,
+                                             final boolean processInline,
+                                             final SlaveMediaCache mediaCache,
+                                             final SlaveUploader uploader,
+                                             final ActorSystem actorSystem,
+                                             final String dispatcherId
+    ) {
+        Props props = Props.create(RetrieveAndProcessActor.class,
+                httpRetrieveResponseFactory, colorMapPath, imagingBackend, mediaStorageClient, asyncHttpClient, processInline,
+                mediaCache, uploader);
+        if (actorSystem.dispatchers().hasDispatcher(dispatcherId)) {
+            props = props.withDispatcher(dispatcherId);
+        }
+        return system.actorOf(props);
+    }
+
+    public static final ActorRef createActor(final ActorRefFactory system,
+                                             final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                             final SlaveProcessor processor,
+                                             final AsyncHttpClient asyncHttpClient
     ) {
         return system.actorOf(Props.create(RetrieveAndProcessActor.class,
-                httpRetrieveResponseFactory, processor
+                httpRetrieveResponseFactory, processor, asyncHttpClient
         ));
     }
 
@@ -102,36 +200,101 @@ public class RetrieveAndProcessActor extends UntypedActor {
 
     private final SlaveLinkChecker slaveLinkChecker;
 
+    /**
+     * Whether the downloaded content is processed by this worker or handed over to the processing stage.
+     */
+    private final boolean processInline;
+
+    /**
+     * The circuit breakers of the worker, one for each maximum task duration (in minutes) seen so far.
+     */
+    private final Map<Long, CircuitBreaker> breakers = new HashMap<>();
+
+    public RetrieveAndProcessActor(final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
+                                   final String colorMapPath,
+                                   final ImagingBackend imagingBackend,
+                                   final MediaStorageClient mediaStorageClient,
+                                   final AsyncHttpClient asyncHttpClient
+    ) throws Exception {
+        this(httpRetrieveResponseFactory, colorMapPath, imagingBackend, mediaStorageClient, asyncHttpClient, true, null, null);
+    }
+
     public RetrieveAndProcessActor(final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
                                    final String colorMapPath,
-                                   final MediaStorageClient mediaStorageClient
+                                   final ImagingBackend imagingBackend,
+                                   final MediaStorageClient mediaStorageClient,
+                                   final AsyncHttpClient asyncHttpClient,
+                                   final Boolean processInline,
+                                   final SlaveMediaCache mediaCache,
+                                   final SlaveUploader uploader
     ) throws Exception {
 
         this.httpRetrieveResponseFactory = httpRetrieveResponseFactory;
         this.slaveProcessor = new SlaveProcessor(new MediaMetaInfoExtractor(colorMapPath),
-                new ColorExtractor(colorMapPath),
+                new ColorExtractor(colorMapPath, imagingBackend),
                 mediaStorageClient,
-                colorMapPath
+                colorMapPath,
+                imagingBackend,
+                mediaCache,
+                uploader
         );
-        this.slaveDownloader = new SlaveDownloader();
-        this.slaveLinkChecker = new SlaveLinkChecker();
+        this.slaveDownloader = new SlaveDownloader(asyncHttpClient);
+        this.slaveLinkChecker = new SlaveLinkChecker(asyncHttpClient);
+        this.processInline = processInline;
     }
 
     public RetrieveAndProcessActor(final HttpRetrieveResponseFactory httpRetrieveResponseFactory,
-                                   final SlaveProcessor slaveProcessor) {
+                                   final SlaveProcessor slaveProcessor,
+                                   final AsyncHttpClient asyncHttpClient) {
 
         this.httpRetrieveResponseFactory = httpRetrieveResponseFactory;
         this.slaveProcessor = slaveProcessor;
-        this.slaveDownloader = new SlaveDownloader();
-        this.slaveLinkChecker = new SlaveLinkChecker();
+        this.slaveDownloader = new SlaveDownloader(asyncHttpClient);
+        this.slaveLinkChecker = new SlaveLinkChecker(asyncHttpClient);
+        this.processInline = true;
     }
 
 
     public void notifyMeOnOpen() {
         LOG.warn(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
-                "The slave processing circuit breaker is now open, and will not close for one minute. Slave worker suicides now with poison pill.");
+                "The slave processing circuit breaker is now open. Slave worker is killed now and restarted by the node master.");
         SlaveMetrics.Worker.Slave.forcedSelfDestructCounter.inc();
-        getSelf().tell(PoisonPill.getInstance(), ActorRef.noSender());
+        getSelf().tell(Kill.getInstance(), ActorRef.noSender());
+    }
+
+    /**
+     * Reports the task that crashed the worker as failed, so that the node master can give the worker a new one.
+     */
+    @Override
+    public void preRestart(Throwable reason, Option<Object> message) throws Exception {
+        if (message.isDefined() && message.get() instanceof RetrieveUrlWithProcessingConfig && sender != null) {
+            final RetrieveUrl failedTask = ((RetrieveUrlWithProcessingConfig) message.get()).getRetrieveUrl();
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, failedTask.getJobId(), failedTask.getUrl(), failedTask.getReferenceOwner()),
+                    "Slave worker crashed while executing the task. The worker is restarted.", reason);
+            sender.tell(createFailedDoneProcessing(failedTask, reason), getSelf());
+        }
+        if (message.isDefined() && message.get() instanceof ProcessDownloadedUrl && sender != null) {
+            final ProcessDownloadedUrl failedProcessing = (ProcessDownloadedUrl) message.get();
+            final RetrieveUrl failedTask = failedProcessing.getTaskWithProcessingConfig().getRetrieveUrl();
+            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, failedTask.getJobId(), failedTask.getUrl(), failedTask.getReferenceOwner()),
+                    "Slave worker crashed while processing the task. The worker is restarted.", reason);
+            sender.tell(createFailedProcessing(failedProcessing.getRetrieval(), reason), getSelf());
+        }
+        super.preRestart(reason, message);
+    }
+
+    /**
+     * Creates the result of a task that failed before (or while) retrieving.
+     */
+    public static DoneProcessing createFailedDoneProcessing(final RetrieveUrl task, final Throwable e) {
+        return new DoneProcessing(
+                task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(),
+                task.getTaskType(),
+                null,
+                new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.ERROR, e),
+                null /* image meta info */,
+                null /* audio meta info */, null /* video meta info */,
+                null /* text meta info */, e.getMessage());
     }
 
     @Override
@@ -141,16 +304,8 @@ public class RetrieveAndProcessActor extends UntypedActor {
         if (message instanceof RetrieveUrlWithProcessingConfig) {
             taskWithProcessingConfig = (RetrieveUrlWithProcessingConfig) message;
             task = taskWithProcessingConfig.getRetrieveUrl();
-            final CircuitBreaker breaker = new CircuitBreaker(
-                    getContext().dispatcher(), getContext().system().scheduler(),
-                    5, Duration.create(computeMaximumRetrievalAndProcessingDurationInMinutes(task), TimeUnit.MINUTES), Duration.create(1, TimeUnit.MINUTES))
-                    .onOpen(new Runnable() {
-                        public void run() {
-                            notifyMeOnOpen();
-                        }
-                    });
 
-            breaker.callWithSyncCircuitBreaker(
+            breakerFor(task).callWithSyncCircuitBreaker(
                     new Callable() {
                         @Override
                         public Object call() throws Exception {
@@ -162,12 +317,66 @@ public class RetrieveAndProcessActor extends UntypedActor {
 
             return;
         }
+
+        if (message instanceof ProcessDownloadedUrl) {
+            final ProcessDownloadedUrl processDownloadedUrl = (ProcessDownloadedUrl) message;
+            taskWithProcessingConfig = processDownloadedUrl.getTaskWithProcessingConfig();
+            task = taskWithProcessingConfig.getRetrieveUrl();
+
+            breakerFor(task).callWithSyncCircuitBreaker(
+                    new Callable() {
+                        @Override
+                        public Object call() throws Exception {
+                            finishProcess(processDownloaded(processDownloadedUrl.getRetrieval(),
+                                    processDownloadedUrl.getOriginalFileUrl(), task));
+                            return null;
+                        }
+                    }
+            );
+
+            return;
+        }
     }
 
     private void finishProcess(final DoneProcessing doneProcessing) {
         sender.tell(doneProcessing, getSelf());
-        // Gentle suicide!
-        getSelf().tell(PoisonPill.getInstance(), ActorRef.noSender());
+    }
+
+    /**
+     * Frees the worker as soon as the processing is done : while the thumbnails are uploaded the node master can
+     * give it the next task, the result is sent without a sender once they are stored.
+     */
+    private void finishProcess(final ListenableFuture<DoneProcessing> doneProcessing) {
+        if (doneProcessing.isDone()) {
+            finishProcess(Futures.getUnchecked(doneProcessing));
+            return;
+        }
+
+        final ActorRef nodeMaster = sender;
+        nodeMaster.tell(new UploadStarted(task.getId()), getSelf());
+        doneProcessing.addListener(new Runnable() {
+            @Override
+            public void run() {
+                nodeMaster.tell(Futures.getUnchecked(doneProcessing), ActorRef.noSender());
+            }
+        }, SAME_THREAD);
+    }
+
+    private CircuitBreaker breakerFor(final RetrieveUrl task) {
+        final long maximumDurationInMinutes = computeMaximumRetrievalAndProcessingDurationInMinutes(task);
+        CircuitBreaker breaker = breakers.get(maximumDurationInMinutes);
+        if (breaker == null) {
+            breaker = new CircuitBreaker(
+                    getContext().dispatcher(), getContext().system().scheduler(),
+                    5, Duration.create(maximumDurationInMinutes, TimeUnit.MINUTES), Duration.create(1, TimeUnit.MINUTES))
+                    .onOpen(new Runnable() {
+                        public void run() {
+                            notifyMeOnOpen();
+                        }
+                    });
+            breakers.put(maximumDurationInMinutes, breaker);
+        }
+        return breaker;
     }
 
     private void process(final RetrieveUrl task) {
@@ -196,14 +405,7 @@ public class RetrieveAndProcessActor extends UntypedActor {
                     "Retrieval url finished with success and the temporary file is stored on disk at {}", taskWithProcessingConfig.getDownloadPath());
 
         } catch (Exception e) {
-            doneProcessing = new DoneProcessing(
-                    task.getId(), task.getUrl(), task.getReferenceId(), task.getJobId(),
-                    task.getTaskType(),
-                    null,
-                    new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.ERROR, e),
-                    null /* image meta info */,
-                    null /* audio meta info */, null /* video meta info */,
-                    null /* text meta info */, e.getMessage());
+            doneProcessing = createFailedDoneProcessing(task, e);
 
             LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_RETRIEVAL, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
                     "Exception during retrieval. The http retrieve response could not be created for url {} and job {} . Probable cause : wrong configuration argument in the slave.", task.getUrl(), task.getJobId(), e);
@@ -230,24 +432,80 @@ public class RetrieveAndProcessActor extends UntypedActor {
 
         // (Stop case 3) Stop when this is conditional download that skipped retrieval (ie. response content size of ZERO bytes)
         if (doneProcessing.getStats().getRetrieveState() == ProcessingJobRetrieveSubTaskState.SUCCESS && doneProcessing.getHttpResponseContentSizeInBytes() == 0l && task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD) {
-            // We can skip processing altogether as the download failed.
+            // We can skip processing altogether as the content did not change. The digest of the previous content still holds.
             LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
                     "Processing stage skipped because retrieval was a conditional download that was skipped : " + doneProcessing.getStats().getRetrieveState());
+            finishProcess(doneProcessing.withContentMd5(task.getContentMd5()));
+            return;
+        }
+
+        // (Stop case 4) Stop when this is conditional download that retrieved exactly the same content as the last time
+        if (task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD &&
+                doneProcessing.getContentMd5() != null && doneProcessing.getContentMd5().equals(task.getContentMd5())) {
+            // We can skip processing altogether as the meta info, color palette & thumbnails would be the same.
+            LOG.debug(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
+                    "Processing stage skipped because the retrieved content has the same MD5 as the last time : " + doneProcessing.getContentMd5());
+            SlaveMetrics.Worker.Slave.Processing.unchangedContentCounter.inc();
             finishProcess(doneProcessing);
             return;
         }
 
+        final String originalFileUrl;
+        try {
+            originalFileUrl = response.getUrl().toURI().toASCIIString();
+        } catch (URISyntaxException e) {
+            finishProcess(createFailedProcessing(doneProcessing, e));
+            return;
+        }
+
+        // A download worker hands the content over to the processing stage
+        if (!processInline) {
+            sender.tell(new ProcessDownloadedUrl(taskWithProcessingConfig, doneProcessing, originalFileUrl), getSelf());
+            return;
+        }
+
         // STEP 2 : Execute processing
+        finishProcess(processDownloaded(doneProcessing, originalFileUrl, task));
+    }
+
+    /**
+     * Executes the processing phase on the retrieved content & completes the result of the retrieval with it.
+     *
+     * @return done once the thumbnails are stored
+     */
+    private ListenableFuture<DoneProcessing> processDownloaded(final DoneProcessing retrieval, final String originalFileUrl, final RetrieveUrl task) {
+        final SettableFuture<DoneProcessing> doneProcessing = SettableFuture.create();
         final Timer.Context processingTimerContext = SlaveMetrics.Worker.Slave.Processing.totalDuration.time();
-        ProcessingResultTuple processingResultTuple;
         try {
-            processingResultTuple = executeProcessing(response, task);
+            final ListenableFuture<ProcessingResultTuple> processing = executeProcessing(originalFileUrl, retrieval.getContentMd5(), task);
+            processing.addListener(new Runnable() {
+                @Override
+                public void run() {
+                    doneProcessing.set(withProcessingResult(retrieval, processing, task));
+                }
+            }, SAME_THREAD);
+
+        } catch (Exception e) {
+            doneProcessing.set(failedProcessing(retrieval, e, task));
+
+        } finally {
+            processingTimerContext.stop();
+        }
+
+        return doneProcessing;
+    }
+
+    private DoneProcessing withProcessingResult(final DoneProcessing retrieval,
+                                                final ListenableFuture<ProcessingResultTuple> processing,
+                                                final RetrieveUrl task) {
+        try {
+            final ProcessingResultTuple processingResultTuple = processing.get();
 
             if (processingResultTuple == null)
                 throw new IllegalStateException("Unexpected processingResultTuple with value null. Probable cause : bug in slave code.");
 
-            doneProcessing = doneProcessing.withProcessingInfo(
-                    doneProcessing.getStats().withColorExtractionState(processingResultTuple.getProcessingJobSubTaskStats().getColorExtractionState())
+            return retrieval.withProcessingInfo(
+                    retrieval.getStats().withColorExtractionState(processingResultTuple.getProcessingJobSubTaskStats().getColorExtractionState())
                             .withMetaExtractionState(processingResultTuple.getProcessingJobSubTaskStats().getMetaExtractionState())
                             .withThumbnailGenerationState(processingResultTuple.getProcessingJobSubTaskStats().getThumbnailGenerationState())
                             .withThumbnailStorageState(processingResultTuple.getProcessingJobSubTaskStats().getThumbnailStorageState()),
@@ -256,27 +514,32 @@ public class RetrieveAndProcessActor extends UntypedActor {
                     (processingResultTuple.getMediaMetaInfoTuple() != null) ? processingResultTuple.getMediaMetaInfoTuple().getVideoMetaInfo() : null,
                     (processingResultTuple.getMediaMetaInfoTuple() != null) ? processingResultTuple.getMediaMetaInfoTuple().getTextMetaInfo() : null);
 
+        } catch (ExecutionException e) {
+            return failedProcessing(retrieval, e.getCause(), task);
         } catch (Exception e) {
-            doneProcessing = doneProcessing.withProcessingInfo(doneProcessing.getStats()
-                            .withColorExtractionState(ProcessingJobSubTaskState.ERROR, e)
-                            .withMetaExtractionState(ProcessingJobSubTaskState.ERROR, e)
-                            .withThumbnailGenerationState(ProcessingJobSubTaskState.ERROR, e)
-                            .withThumbnailStorageState(ProcessingJobSubTaskState.ERROR, e),
-                    null,
-                    null,
-                    null,
-                    null);
-
-            LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
-                    "This should never happen in this way -> Exception during processing. :  " + e.getLocalizedMessage(), e);
-
-        } finally {
-            processingTimerContext.stop();
+            return failedProcessing(retrieval, e, task);
         }
+    }
 
-        finishProcess(doneProcessing);
-        return;
+    private DoneProcessing failedProcessing(final DoneProcessing retrieval, final Throwable e, final RetrieveUrl task) {
+        LOG.error(LoggingComponent.appendAppFields(LoggingComponent.Slave.SLAVE_PROCESSING, task.getJobId(), task.getUrl(), task.getReferenceOwner()),
+                "This should never happen in this way -> Exception during processing. :  " + e.getLocalizedMessage(), e);
+        return createFailedProcessing(retrieval, e);
+    }
 
+    /**
+     * Marks all the processing sub tasks of a successful retrieval as failed.
+     */
+    public static DoneProcessing createFailedProcessing(final DoneProcessing retrieval, final Throwable e) {
+        return retrieval.withProcessingInfo(retrieval.getStats()
+                        .withColorExtractionState(ProcessingJobSubTaskState.ERROR, e)
+                        .withMetaExtractionState(ProcessingJobSubTaskState.ERROR, e)
+                        .withThumbnailGenerationState(ProcessingJobSubTaskState.ERROR, e)
+                        .withThumbnailStorageState(ProcessingJobSubTaskState.ERROR, e),
+                null,
+                null,
+                null,
+                null);
     }
 
 
@@ -349,19 +612,19 @@ public class RetrieveAndProcessActor extends UntypedActor {
     /**
      * Executes the processing phase.
      *
-     * @param response
+     * @param originalFileUrl
+     * @param contentMd5 the MD5 computed during the download, the content is not read again for it
      * @param task
      * @return
      * @throws Exception
      */
-    private final ProcessingResultTuple executeProcessing(final HttpRetrieveResponse response, final RetrieveUrl task) throws
+    private final ListenableFuture<ProcessingResultTuple> executeProcessing(final String originalFileUrl, final String contentMd5, final RetrieveUrl task) throws
             LocaleException,
-            URISyntaxException,
             IOException {
-        return slaveProcessor.process(task.getDocumentReferenceTask(),
+        return slaveProcessor.processAsync(task.getDocumentReferenceTask(),
                 taskWithProcessingConfig.getDownloadPath(),
-                response.getUrl().toURI().toASCIIString(),
-                response.getContent(),
+                originalFileUrl,
+                contentMd5,
                 responseTypeFromTaskType(task.getDocumentReferenceTask().getTaskType()),
                 task.getReferenceOwner()
         );
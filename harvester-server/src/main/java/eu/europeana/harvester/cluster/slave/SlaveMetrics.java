@@ -32,12 +32,24 @@ public class SlaveMetrics {
     public static final String THUMBNAIL_GENERATION = "thumbnailGeneration";
     public static final String THUMBNAIL_STORAGE = "thumbnailStorage";
     public static final String ORIGINAL_CACHING = "originalCaching";
+    public static final String UNCHANGED_CONTENT = "unchangedContent";
+
+    public static final String HIT = "hit";
+    public static final String MISS = "miss";
+    public static final String EVICTION = "eviction";
+
+    public static final String UPLOAD = "upload";
+    public static final String QUEUE = "queue";
+    public static final String RETRY = "retry";
+    public static final String FAILURE = "failure";
+    public static final String CALLER_RUNS = "callerRuns";
 
     public static final String DONE_PROCESSING = "doneProcessing";
 
     public static final String JOBS_RECEIVED = "jobsReceived";
     public static final String JOBS_WAITING_FOR_SLOT_GRANT = "jobsWaitingForSlotGrant";
     public static final String JOBS_READY_TO_BE_PROCESSED = "jobsReadyToBeProcessed";
+    public static final String JOBS_WAITING_FOR_PROCESSING = "jobsWaitingForProcessing";
 
 
     public static final MetricRegistry METRIC_REGISTRY = new MetricRegistry();
@@ -57,6 +69,10 @@ public class SlaveMetrics {
 
             public static final LazyGauge activeWorkerSlavesCounter = new LazyGauge(METRIC_REGISTRY, name(Master.NAME,"actors","size"));
 
+            public static final LazyGauge jobsWaitingForProcessingCounter = new LazyGauge(METRIC_REGISTRY, name(Master.NAME,JOBS_WAITING_FOR_PROCESSING,COUNTER));
+
+            public static final LazyGauge activeProcessingSlavesCounter = new LazyGauge(METRIC_REGISTRY, name(Master.NAME,"processingActors","size"));
+
             public static final Map<ProcessingState, Counter> doneProcessingStateCounters = new HashMap();
 
             static {
@@ -121,6 +137,57 @@ public class SlaveMetrics {
                 public static final Timer originalCachingDuration = METRIC_REGISTRY.timer(name(Processing.NAME, ORIGINAL_CACHING, DURATION));
                 public static final Counter originalCachingCounter = METRIC_REGISTRY.counter(name(Processing.NAME, ORIGINAL_CACHING, COUNTER));
 
+                public static final Counter unchangedContentCounter = METRIC_REGISTRY.counter(name(Processing.NAME, UNCHANGED_CONTENT, COUNTER));
+
+            }
+
+            /**
+             * The local cache of the thumbnails.
+             */
+            public static class Cache {
+
+                public static String NAME = Slave.NAME + "." + "Cache";
+
+                public static final Counter hitCounter = METRIC_REGISTRY.counter(name(Cache.NAME, HIT, COUNTER));
+                public static final Counter missCounter = METRIC_REGISTRY.counter(name(Cache.NAME, MISS, COUNTER));
+                public static final Counter evictionCounter = METRIC_REGISTRY.counter(name(Cache.NAME, EVICTION, COUNTER));
+
+                public static final LazyGauge sizeInBytes = new LazyGauge(METRIC_REGISTRY, name(Cache.NAME, "bytes", "size"));
+                public static final LazyGauge entries = new LazyGauge(METRIC_REGISTRY, name(Cache.NAME, "entries", "size"));
+
+            }
+
+            /**
+             * The storage stage : the uploads of the thumbnails & originals.
+             */
+            public static class Upload {
+
+                public static String NAME = Slave.NAME + "." + "Upload";
+
+                /**
+                 * From the hand over to the storage stage until the upload succeeds or fails for good, retries included.
+                 */
+                public static final Timer totalDuration = METRIC_REGISTRY.timer(name(Upload.NAME, TOTAL, DURATION));
+                /**
+                 * The time an upload waits for a thread.
+                 */
+                public static final Timer queueDuration = METRIC_REGISTRY.timer(name(Upload.NAME, QUEUE, DURATION));
+                /**
+                 * A single attempt of an upload.
+                 */
+                public static final Timer uploadDuration = METRIC_REGISTRY.timer(name(Upload.NAME, UPLOAD, DURATION));
+
+                public static final Counter uploadCounter = METRIC_REGISTRY.counter(name(Upload.NAME, UPLOAD, COUNTER));
+                public static final Counter retryCounter = METRIC_REGISTRY.counter(name(Upload.NAME, RETRY, COUNTER));
+                public static final Counter failureCounter = METRIC_REGISTRY.counter(name(Upload.NAME, FAILURE, COUNTER));
+                /**
+                 * How many times the queue was full & a worker uploaded by itself.
+                 */
+                public static final Counter callerRunsCounter = METRIC_REGISTRY.counter(name(Upload.NAME, CALLER_RUNS, COUNTER));
+
+                public static final LazyGauge queueDepth = new LazyGauge(METRIC_REGISTRY, name(Upload.NAME, QUEUE, "size"));
+                public static final LazyGauge activeUploads = new LazyGauge(METRIC_REGISTRY, name(Upload.NAME, "active", "size"));
+
             }
         }
     }
@@ -0,0 +1,287 @@
+package eu.europeana.harvester.cluster.slave.caching;
+
+import eu.europeana.harvester.cluster.domain.SlaveCacheConfig;
+import eu.europeana.harvester.cluster.slave.SlaveMetrics;
+import eu.europeana.harvester.db.filesystem.MediaFileProperties;
+import eu.europeana.harvester.domain.MediaFile;
+import eu.europeana.harvester.domain.ThumbnailType;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+/**
+ * The local cache of a slave for the thumbnails it generated, so that a re-harvest of the same content or a retry
+ * after a failed upload does not generate them again. The originals are not cached : the MD5 of the content is known
+ * only once it is downloaded, so a cached original could never spare the download.
+ * <p>
+ * An entry is keyed by the url, the MD5 of the content & the thumbnail type. Its content
+ * & its meta infos are two files, written to a temporary file & renamed : the meta infos are written last, an entry
+ * exists only once they are. The index is rebuilt from the files when the slave starts, what a crash left behind is
+ * removed then.
+ * <p>
+ * The cache is bounded : the least recently used entries are evicted above the maximum size, the entries older than
+ * the maximum age are evicted when they are looked up.
+ */
+public class SlaveMediaCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlaveMediaCache.class.getName());
+
+    private static final String DATA = ".data";
+    private static final String META = ".meta";
+    private static final String TMP = ".tmp";
+
+    private static final String ID = "cache.id";
+
+    private static class Entry {
+        private final long sizeInBytes;
+        private final long createdAt;
+
+        private Entry(final long sizeInBytes, final long createdAt) {
+            this.sizeInBytes = sizeInBytes;
+            this.createdAt = createdAt;
+        }
+    }
+
+    private final Path folder;
+    private final long maxSizeInBytes;
+    private final long maxAgeInMillis;
+
+    /**
+     * The entries from the least to the most recently used.
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long sizeInBytes;
+
+    public SlaveMediaCache(final SlaveCacheConfig config) throws IOException {
+        this(Paths.get(config.getFolder()), config.getMaxSizeInBytes(), config.getMaxAgeInMillis());
+    }
+
+    public SlaveMediaCache(final Path folder, final long maxSizeInBytes, final long maxAgeInMillis) throws IOException {
+        this.folder = folder;
+        this.maxSizeInBytes = maxSizeInBytes;
+        this.maxAgeInMillis = maxAgeInMillis;
+        Files.createDirectories(folder);
+        load();
+    }
+
+    /**
+     * @return the cached thumbnail, null if it is not cached
+     */
+    public MediaFile getThumbnail(final String url, final String digest, final ThumbnailType thumbnailType) throws IOException {
+        final String key = keyOf(url, digest, thumbnailType.name());
+        if (!lookup(key)) {
+            return null;
+        }
+        try {
+            final Properties meta = new Properties();
+            try (final Reader reader = Files.newBufferedReader(metaOf(key), StandardCharsets.UTF_8)) {
+                meta.load(reader);
+            }
+            return MediaFileProperties.toMediaFile(meta.getProperty(ID), meta, Files.readAllBytes(dataOf(key)));
+        } catch (NoSuchFileException e) {
+            return missing(key);
+        }
+    }
+
+    public void putThumbnail(final String url, final String digest, final ThumbnailType thumbnailType, final MediaFile thumbnail) throws IOException {
+        final String key = keyOf(url, digest, thumbnailType.name());
+        if (!isCached(key) && thumbnail.getContent().length <= maxSizeInBytes) {
+            final Properties meta = MediaFileProperties.toProperties(thumbnail);
+            meta.setProperty(ID, thumbnail.getId());
+            put(key, new ByteArrayInputStream(thumbnail.getContent()), meta);
+        }
+    }
+
+    public synchronized long getSizeInBytes() {
+        return sizeInBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    private static String keyOf(final String url, final String digest, final String variant) {
+        return DigestUtils.sha256Hex(url + "\n" + digest + "\n" + variant);
+    }
+
+    private Path dataOf(final String key) {
+        return folder.resolve(key.substring(0, 2)).resolve(key + DATA);
+    }
+
+    private Path metaOf(final String key) {
+        return folder.resolve(key.substring(0, 2)).resolve(key + META);
+    }
+
+    /**
+     * Looks up an entry, evicts it if it is too old & counts the hit or the miss.
+     */
+    private boolean lookup(final String key) throws IOException {
+        synchronized (this) {
+            final Entry entry = entries.get(key);
+            if (null == entry) {
+                SlaveMetrics.Worker.Slave.Cache.missCounter.inc();
+                return false;
+            }
+            if (System.currentTimeMillis() - entry.createdAt > maxAgeInMillis) {
+                evict(key);
+                SlaveMetrics.Worker.Slave.Cache.missCounter.inc();
+                return false;
+            }
+        }
+        SlaveMetrics.Worker.Slave.Cache.hitCounter.inc();
+
+        // The last access is kept on the disk for the index of the next start
+        try {
+            Files.setLastModifiedTime(metaOf(key), FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            LOG.debug("Could not record the access to the cache entry {}", key, e);
+        }
+        return true;
+    }
+
+    private synchronized boolean isCached(final String key) {
+        final Entry entry = entries.get(key);
+        return null != entry && System.currentTimeMillis() - entry.createdAt <= maxAgeInMillis;
+    }
+
+    /**
+     * Drops an entry whose files were evicted while it was read.
+     */
+    private <T> T missing(final String key) throws IOException {
+        synchronized (this) {
+            final Entry entry = entries.remove(key);
+            if (null != entry) {
+                sizeInBytes -= entry.sizeInBytes;
+            }
+        }
+        return null;
+    }
+
+    private void put(final String key, final InputStream content, final Properties meta) throws IOException {
+        final Path data = dataOf(key);
+        final Path metaFile = metaOf(key);
+        Files.createDirectories(data.getParent());
+
+        final Path temporaryData = Files.createTempFile(data.getParent(), key, TMP);
+        final Path temporaryMeta = Files.createTempFile(data.getParent(), key, TMP);
+        final long size;
+        try {
+            size = Files.copy(content, temporaryData, StandardCopyOption.REPLACE_EXISTING);
+            try (final Writer writer = Files.newBufferedWriter(temporaryMeta, StandardCharsets.UTF_8)) {
+                meta.store(writer, null);
+            }
+            Files.move(temporaryData, data, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(temporaryMeta, metaFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryData);
+            Files.deleteIfExists(temporaryMeta);
+        }
+
+        synchronized (this) {
+            add(key, new Entry(size, System.currentTimeMillis()));
+            evictAboveMaxSize();
+        }
+    }
+
+    private void add(final String key, final Entry entry) {
+        final Entry previous = entries.put(key, entry);
+        if (null != previous) {
+            sizeInBytes -= previous.sizeInBytes;
+        }
+        sizeInBytes += entry.sizeInBytes;
+    }
+
+    private void evictAboveMaxSize() throws IOException {
+        // Without lookups while iterating : a lookup is an access which reorders the entries
+        final Iterator<Map.Entry<String, Entry>> leastRecentlyUsed = entries.entrySet().iterator();
+        while (sizeInBytes > maxSizeInBytes && leastRecentlyUsed.hasNext()) {
+            final Map.Entry<String, Entry> entry = leastRecentlyUsed.next();
+            sizeInBytes -= entry.getValue().sizeInBytes;
+            leastRecentlyUsed.remove();
+            deleteFiles(entry.getKey());
+        }
+    }
+
+    private void evict(final String key) throws IOException {
+        final Entry entry = entries.remove(key);
+        if (null != entry) {
+            sizeInBytes -= entry.sizeInBytes;
+            deleteFiles(key);
+        }
+    }
+
+    private void deleteFiles(final String key) throws IOException {
+        // The meta infos first : without them the content is not an entry anymore
+        Files.deleteIfExists(metaOf(key));
+        Files.deleteIfExists(dataOf(key));
+        SlaveMetrics.Worker.Slave.Cache.evictionCounter.inc();
+    }
+
+    /**
+     * Rebuilds the index from the files : the entries are ordered by their last access, the files of the entries
+     * which were not complete are removed.
+     */
+    private void load() throws IOException {
+        final Map<String, BasicFileAttributes> datas = new HashMap<>();
+        final Map<String, BasicFileAttributes> metas = new HashMap<>();
+        final List<Path> leftovers = new ArrayList<>();
+
+        Files.walkFileTree(folder, EnumSet.noneOf(FileVisitOption.class), 2, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                final String fileName = file.getFileName().toString();
+                if (fileName.endsWith(DATA)) {
+                    datas.put(fileName.substring(0, fileName.length() - DATA.length()), attrs);
+                } else if (fileName.endsWith(META)) {
+                    metas.put(fileName.substring(0, fileName.length() - META.length()), attrs);
+                } else if (fileName.endsWith(TMP)) {
+                    leftovers.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        final List<String> keys = new ArrayList<>();
+        for (final String key : metas.keySet()) {
+            if (datas.containsKey(key)) {
+                keys.add(key);
+            } else {
+                leftovers.add(metaOf(key));
+            }
+        }
+        for (final String key : datas.keySet()) {
+            if (!metas.containsKey(key)) {
+                leftovers.add(dataOf(key));
+            }
+        }
+        for (final Path leftover : leftovers) {
+            Files.deleteIfExists(leftover);
+        }
+
+        Collections.sort(keys, new Comparator<String>() {
+            @Override
+            public int compare(String key1, String key2) {
+                return metas.get(key1).lastModifiedTime().compareTo(metas.get(key2).lastModifiedTime());
+            }
+        });
+        synchronized (this) {
+            for (final String key : keys) {
+                // The content is never modified after it is written : its time is the creation time of the entry
+                final BasicFileAttributes data = datas.get(key);
+                add(key, new Entry(data.size(), data.lastModifiedTime().toMillis()));
+            }
+            evictAboveMaxSize();
+        }
+
+        LOG.info("The slave cache in {} has {} entries of {} bytes, {} leftovers removed", folder, entries.size(),
+                sizeInBytes, leftovers.size());
+    }
+}
@@ -6,6 +6,7 @@ import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.domain.DocumentReferenceTaskType;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponse;
 import eu.europeana.harvester.httpclient.response.RetrievingState;
+import eu.europeana.harvester.util.CachingUrlResolver;
 import eu.europeana.harvester.logging.LoggingComponent;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,12 +18,22 @@ import java.net.URL;
 import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 public class SlaveDownloader {
 
     private Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
+    /**
+     * The http engine shared by all the workers of the slave. It is owned (and closed) by the node master.
+     */
+    private final AsyncHttpClient asyncHttpClient;
+
+    public SlaveDownloader(final AsyncHttpClient asyncHttpClient) {
+        this.asyncHttpClient = asyncHttpClient;
+    }
+
     public HttpRetrieveResponse downloadAndStoreInHttpRetrieveResponse(final HttpRetrieveResponse httpRetrieveResponse, final RetrieveUrl task) {
 
         if ((task.getDocumentReferenceTask().getTaskType() != DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD) &&
@@ -48,18 +59,27 @@ public class SlaveDownloader {
             return httpRetrieveResponse;
         }
 
-        final AsyncHttpClient asyncHttpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
-                .setMaxRedirects(task.getLimits().getRetrievalMaxNrOfRedirects())
-                .setFollowRedirect(true)
-                .setConnectTimeout(100000)
-                .setAcceptAnyCertificate(true)
-                .setMaxRequestRetry(3)
-                .build());
         httpRetrieveResponse.setState(RetrievingState.PROCESSING);
 
+        // Resolved while the connection is set up, it must not block the I/O thread of the http client
+        final Future<String> sourceIpLookup = Slave.URL_RESOLVER.resolveIpOfUrlAsync(task.getUrl());
         final long connectionSetupStartTimestamp = System.currentTimeMillis();
 
-        final ListenableFuture<Integer> downloadListener = asyncHttpClient.prepareGet(task.getUrl()).execute(new AsyncHandler<Integer>() {
+        final BoundRequestBuilder requestBuilder = SlaveHttpClientFactory.prepareGet(asyncHttpClient, task.getUrl(), task.getLimits());
+
+        /* Let the server tell whether the resource changed since the last retrieval (ie. answer with 304 Not Modified) */
+        if (task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD) {
+            final String existingETag = fetchHeader(task.getHeaders(), "ETag");
+            final String existingLastModified = fetchHeader(task.getHeaders(), "Last-Modified");
+            if (existingETag != null) {
+                requestBuilder.addHeader("If-None-Match", existingETag);
+            }
+            if (existingLastModified != null) {
+                requestBuilder.addHeader("If-Modified-Since", existingLastModified);
+            }
+        }
+
+        final ListenableFuture<Integer> downloadListener = requestBuilder.execute(new AsyncHandler<Integer>() {
             final TimeWindowCounter timeWindowCounter = new TimeWindowCounter();
 
             @Override
@@ -70,7 +90,7 @@ public class SlaveDownloader {
                 httpRetrieveResponse.setCheckingDurationInMilliSecs(connectionSetupDurationInMillis);
 
                 httpRetrieveResponse.setUrl(new URL(task.getUrl()));
-                httpRetrieveResponse.setSourceIp(Slave.URL_RESOLVER.resolveIpOfUrl(task.getUrl()));
+                httpRetrieveResponse.setSourceIp(CachingUrlResolver.getIpIfResolved(sourceIpLookup, task.getIpAddress()));
 
                 if (connectionSetupDurationInMillis > task.getLimits().getRetrievalConnectionTimeoutInMillis()) {
                     /* Initial connection setup time longer than threshold. */
@@ -110,9 +130,25 @@ public class SlaveDownloader {
                     return STATE.ABORT;
                 }
 
+                /** Abort when conditional download and the server says that the resource did not change */
+                if (task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD &&
+                        httpRetrieveResponse.getHttpResponseCode() == 304) {
+                    // A 304 carries only some of the headers, the others are kept from the previous retrieval
+                    if (task.getHeaders() != null) {
+                        for (final Map.Entry<String, String> entry : task.getHeaders().entrySet()) {
+                            if (fetchHeader(httpRetrieveResponse.getResponseHeaders(), entry.getKey()) == null) {
+                                httpRetrieveResponse.addHeader(entry.getKey(), entry.getValue());
+                            }
+                        }
+                    }
+                    httpRetrieveResponse.setState(RetrievingState.COMPLETED);
+                    httpRetrieveResponse.setLog("Same file already downloaded before, skipping download (the server answered 304 Not Modified)");
+                    return STATE.ABORT;
+                }
+
                 /** Abort when conditional download and headers match */
                 if (task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD) {
-                    final String existingContentLength = fetchContentLengthHeader(task.getHeaders());
+                    final String existingContentLength = fetchHeader(task.getHeaders(), "Content-Length");
                     final String downloadContentLength = downloadResponseHeaders.getHeaders().getFirstValue("Content-Length"); //case insensitive map
 
                     if (existingContentLength != null && downloadContentLength != null &&
@@ -151,7 +187,7 @@ public class SlaveDownloader {
                 }
 
                 timeWindowCounter.incrementCount(bodyPart.length());
-                httpRetrieveResponse.addContent(bodyPart.getBodyPartBytes());
+                httpRetrieveResponse.addContent(bodyPart.getBodyByteBuffer());
                 return STATE.CONTINUE;
 
             }
@@ -199,10 +235,10 @@ public class SlaveDownloader {
                 // Check if it was aborted because of conditional download with with same headers.
                 if (httpRetrieveResponse.getState() == RetrievingState.COMPLETED && task.getDocumentReferenceTask().getTaskType() == DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD) {
                     // We don't set any exception as the download was aborted for a legitimate reason.
-                    cleanup(httpRetrieveResponse, task, asyncHttpClient, httpRetrieveResponse.getException());
+                    cleanup(httpRetrieveResponse, task, httpRetrieveResponse.getException());
                 } else {
                     // We set the exception as the download was aborted because of a problem.
-                    cleanup(httpRetrieveResponse, task, asyncHttpClient, e);
+                    cleanup(httpRetrieveResponse, task, e);
                 }
             }
         });
@@ -213,25 +249,27 @@ public class SlaveDownloader {
                     "Download finished with status {}", r);
 
         } catch (Exception e) {
-            cleanup(httpRetrieveResponse, task, asyncHttpClient, e);
+            cleanup(httpRetrieveResponse, task, e);
 
         } finally {
-            cleanup(httpRetrieveResponse, task, asyncHttpClient, httpRetrieveResponse.getException());
-            asyncHttpClient.close();
+            cleanup(httpRetrieveResponse, task, httpRetrieveResponse.getException());
             return httpRetrieveResponse;
         }
     }
 
-    private String fetchContentLengthHeader(Map<String, String> headers) {
+    private String fetchHeader(final Map<String, String> headers, final String name) {
+        if (headers == null) {
+            return null;
+        }
         for (final Map.Entry<String, String> entry : headers.entrySet()) {
-            if ("Content-Length".equalsIgnoreCase(entry.getKey())) {
+            if (name.equalsIgnoreCase(entry.getKey())) {
                 return entry.getValue();
             }
         }
         return null;
     }
 
-    private void cleanup(final HttpRetrieveResponse httpRetrieveResponse, final RetrieveUrl task, final AsyncHttpClient asyncHttpClient, final Throwable e) {
+    private void cleanup(final HttpRetrieveResponse httpRetrieveResponse, final RetrieveUrl task, final Throwable e) {
         try {
             if (httpRetrieveResponse != null) {
                 httpRetrieveResponse.setException(e);
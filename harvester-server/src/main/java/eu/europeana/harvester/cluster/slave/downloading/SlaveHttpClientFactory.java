@@ -0,0 +1,42 @@
+package eu.europeana.harvester.cluster.slave.downloading;
+
+import com.ning.http.client.AsyncHttpClient;
+import com.ning.http.client.AsyncHttpClientConfig;
+import com.ning.http.client.BoundRequestBuilder;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
+import eu.europeana.harvester.domain.ProcessingJobLimits;
+
+/**
+ * Builds the long lived http engine shared by the downloader and the link checker of a slave.
+ */
+public class SlaveHttpClientFactory {
+
+    /**
+     * Creates a pooled client with keep-alive connections. The caller owns it and must close it.
+     */
+    public static AsyncHttpClient create(final SlaveHttpClientConfig config) {
+        return new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
+                .setAllowPoolingConnections(true)
+                .setAllowPoolingSslConnections(true)
+                .setMaxConnections(config.getMaxConnections())
+                .setMaxConnectionsPerHost(config.getMaxConnectionsPerHost())
+                .setPooledConnectionIdleTimeout(config.getPooledConnectionIdleTimeoutInMillis())
+                .setMaxRedirects(config.getMaxRedirects())
+                .setFollowRedirect(true)
+                .setConnectTimeout(config.getConnectTimeoutInMillis())
+                .setAcceptAnyCertificate(true)
+                .setMaxRequestRetry(config.getMaxRequestRetry())
+                .build());
+    }
+
+    /**
+     * Prepares a GET request carrying the limits of a single task.
+     * The number of redirects can only be bounded per client, so a task that allows no redirect disables following them.
+     */
+    public static BoundRequestBuilder prepareGet(final AsyncHttpClient asyncHttpClient, final String url,
+                                                 final ProcessingJobLimits limits) {
+        return asyncHttpClient.prepareGet(url)
+                .setFollowRedirects(limits.getRetrievalMaxNrOfRedirects() > 0)
+                .setRequestTimeout((int) Math.min(Integer.MAX_VALUE, limits.getRetrievalTerminationThresholdTimeLimitInMillis()));
+    }
+}
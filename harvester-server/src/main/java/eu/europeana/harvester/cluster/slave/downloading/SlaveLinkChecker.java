@@ -7,12 +7,14 @@ import eu.europeana.harvester.domain.DocumentReferenceTaskType;
 import eu.europeana.harvester.logging.LogMarker;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponse;
 import eu.europeana.harvester.httpclient.response.RetrievingState;
+import eu.europeana.harvester.util.CachingUrlResolver;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.net.URL;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
 
 import static net.logstash.logback.marker.Markers.append;
@@ -21,7 +23,14 @@ public class SlaveLinkChecker {
 
     private org.slf4j.Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
+    /**
+     * The http engine shared by all the workers of the slave. It is owned (and closed) by the node master.
+     */
+    private final AsyncHttpClient asyncHttpClient;
 
+    public SlaveLinkChecker(final AsyncHttpClient asyncHttpClient) {
+        this.asyncHttpClient = asyncHttpClient;
+    }
 
     public void downloadAndStoreInHttpRetrievResponse(final HttpRetrieveResponse httpRetrieveResponse, final RetrieveUrl task) {
 
@@ -31,20 +40,13 @@ public class SlaveLinkChecker {
 
         httpRetrieveResponse.setState(RetrievingState.ERROR);
 
-        final AsyncHttpClient asyncHttpClient = new AsyncHttpClient(new AsyncHttpClientConfig.Builder()
-                .setMaxRedirects(task.getLimits().getRetrievalMaxNrOfRedirects())
-                .setFollowRedirect(true)
-                .setConnectTimeout(100000)
-                .setAcceptAnyCertificate(true)
-                .setMaxRequestRetry(3)
-                .build());
-
-
         httpRetrieveResponse.setState(RetrievingState.PROCESSING);
         httpRetrieveResponse.setRetrievalDurationInMilliSecs(0l);
+        // Resolved while the connection is set up, it must not block the I/O thread of the http client
+        final Future<String> sourceIpLookup = Slave.URL_RESOLVER.resolveIpOfUrlAsync(task.getUrl());
         final long connectionSetupStartTimestamp = System.currentTimeMillis();
 
-        final ListenableFuture<Integer> downloadListener = asyncHttpClient.prepareGet(task.getUrl()).execute(new AsyncHandler<Integer>() {
+        final ListenableFuture<Integer> downloadListener = SlaveHttpClientFactory.prepareGet(asyncHttpClient, task.getUrl(), task.getLimits()).execute(new AsyncHandler<Integer>() {
 
             @Override
             public STATE onStatusReceived(HttpResponseStatus status) throws Exception {
@@ -54,7 +56,7 @@ public class SlaveLinkChecker {
                 httpRetrieveResponse.setCheckingDurationInMilliSecs(connectionSetupDurationInMillis);
 
                 httpRetrieveResponse.setUrl(new URL(task.getUrl()));
-                httpRetrieveResponse.setSourceIp(Slave.URL_RESOLVER.resolveIpOfUrl(task.getUrl()));
+                httpRetrieveResponse.setSourceIp(CachingUrlResolver.getIpIfResolved(sourceIpLookup, task.getIpAddress()));
 
                 if (connectionSetupDurationInMillis > task.getLimits().getRetrievalConnectionTimeoutInMillis()) {
                     /* Initial connection setup time longer than threshold. */
@@ -104,7 +106,7 @@ public class SlaveLinkChecker {
 
             @Override
             public Integer onCompleted() throws Exception {
-                cleanup(httpRetrieveResponse, asyncHttpClient, httpRetrieveResponse.getException());
+                cleanup(httpRetrieveResponse, httpRetrieveResponse.getException());
                 return 0;
             }
 
@@ -123,11 +125,11 @@ public class SlaveLinkChecker {
                 // Check if it was aborted because of conditional download with with same headers.
                 if (httpRetrieveResponse.getState() == RetrievingState.COMPLETED) {
                     // We don't set any exception as the download was aborted for a legitimate reason.
-                    cleanup(httpRetrieveResponse, asyncHttpClient, httpRetrieveResponse.getException());
+                    cleanup(httpRetrieveResponse, httpRetrieveResponse.getException());
                 }
                 else {
                     // We set the exception as the download was aborted because of a problem.
-                    cleanup(httpRetrieveResponse, asyncHttpClient, e);
+                    cleanup(httpRetrieveResponse, e);
                 }
             }
 
@@ -142,22 +144,19 @@ public class SlaveLinkChecker {
             LOG.debug(append(LogMarker.EUROPEANA_PROCESSING_JOB_ID, task.getJobId()),"Download finished with status: {}", r);
 
         } catch (Exception e) {
-            cleanup(httpRetrieveResponse, asyncHttpClient, e);
+            cleanup(httpRetrieveResponse, e);
         } finally {
-            cleanup(httpRetrieveResponse, asyncHttpClient, httpRetrieveResponse.getException());
-            asyncHttpClient.close();
+            cleanup(httpRetrieveResponse, httpRetrieveResponse.getException());
         }
     }
 
-    private void cleanup(final HttpRetrieveResponse httpRetrieveResponse, final AsyncHttpClient asyncHttpClient, final Throwable e) {
+    private void cleanup(final HttpRetrieveResponse httpRetrieveResponse, final Throwable e) {
         if (httpRetrieveResponse != null) httpRetrieveResponse.setException(e);
         try {
             if (httpRetrieveResponse != null) httpRetrieveResponse.close();
         } catch (IOException e1) {
             LOG.error("Failed to close the response, caused by : " + e1.getMessage());
         }
-
-        //if (asyncHttpClient != null && !asyncHttpClient.isClosed()) asyncHttpClient.close();
     }
 
 }
@@ -0,0 +1,282 @@
+package eu.europeana.harvester.cluster.slave.limiter;
+
+import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
+
+import java.util.*;
+
+/**
+ * The connection slots leased by the master to a slave, per IP. The slave acquires & releases the slots of its
+ * leases locally, the tasks wait here until a worker is idle & a slot of their IP is free. The IPs take turns, so the
+ * tasks of an IP with many free slots don't hold back those of the other IPs. A lease of a rate limited IP starts only
+ * the number of tasks it was granted for & a revoked lease (ie. the IP asked for a pause) starts none.
+ * It is not thread safe, it is owned by the node master actor (only the number of waiting tasks may be read from
+ * another thread).
+ */
+public class IpConnectionSlotLeases {
+
+    /**
+     * The part of the lease duration after which the slave stops using a lease, so that a slot is never used while
+     * the master might reclaim it.
+     */
+    public static final double LEASE_USAGE_RATIO = 0.9;
+
+    /**
+     * The time after which a lease request which got no answer is sent again (ie. the master was restarted).
+     */
+    public static final long LEASE_REQUEST_TIMEOUT_IN_MILLIS = 30 * 1000;
+
+    private static class Lease {
+        private final String leaseId;
+        private final int slots;
+        private final long expiresAt;
+        private int slotsInUse = 0;
+
+        /**
+         * The number of tasks the lease may still start, null if not limited.
+         */
+        private Integer tasksLeft;
+
+        private boolean revoked = false;
+
+        private Lease(final String leaseId, final int slots, final long expiresAt, final Integer tasksLeft) {
+            this.leaseId = leaseId;
+            this.slots = slots;
+            this.expiresAt = expiresAt;
+            this.tasksLeft = tasksLeft;
+        }
+
+        private boolean isExpired(final long now) {
+            return now >= expiresAt;
+        }
+
+        /**
+         * @return true if the lease can't start any other task
+         */
+        private boolean isUsedUp(final long now) {
+            return revoked || isExpired(now) || (tasksLeft != null && tasksLeft <= 0);
+        }
+
+        private boolean hasFreeSlot(final long now) {
+            return !isUsedUp(now) && slotsInUse < slots;
+        }
+    }
+
+    private final Map<String /* IP */, List<Lease>> leases = new HashMap<>();
+
+    /**
+     * In the order in which the IPs get their next slot.
+     */
+    private final Map<String /* IP */, Queue<String /* Task id */>> waitingTasks = new LinkedHashMap<>();
+
+    private volatile int numberOfWaitingTasks = 0;
+
+    private final Map<String /* IP */, Long /* The time when it was sent */> pendingLeaseRequests = new HashMap<>();
+
+    /**
+     * Queues a task until a slot of its IP is free.
+     */
+    public void addWaitingTask(final String ip, final String taskId) {
+        Queue<String> tasks = waitingTasks.get(ip);
+        if (tasks == null) {
+            tasks = new LinkedList<>();
+            waitingTasks.put(ip, tasks);
+        }
+        tasks.add(taskId);
+        numberOfWaitingTasks++;
+    }
+
+    /**
+     * Takes a free slot for the next waiting task of the first IP which has one. The IP then goes after the others.
+     *
+     * @return the task id & the lease id of the slot or null if no waiting task can get a slot
+     */
+    public Pair<String, String> acquireForNextWaitingTask(final long now) {
+        for (final String ip : waitingTasks.keySet()) {
+            final Lease lease = findFreeSlot(ip, now);
+            if (lease != null) {
+                return acquire(ip, lease);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Takes a free slot for the next waiting task of the IP.
+     *
+     * @return the task id & the lease id of the slot or null if no task is waiting or no slot is free
+     */
+    public Pair<String, String> acquireForNextWaitingTask(final String ip, final long now) {
+        final Queue<String> tasks = waitingTasks.get(ip);
+        if (tasks == null || tasks.isEmpty()) {
+            return null;
+        }
+
+        final Lease lease = findFreeSlot(ip, now);
+        return lease == null ? null : acquire(ip, lease);
+    }
+
+    private Lease findFreeSlot(final String ip, final long now) {
+        final List<Lease> ipLeases = leases.get(ip);
+        if (ipLeases == null) {
+            return null;
+        }
+        for (final Lease lease : ipLeases) {
+            if (lease.hasFreeSlot(now)) {
+                return lease;
+            }
+        }
+        return null;
+    }
+
+    private Pair<String, String> acquire(final String ip, final Lease lease) {
+        final Queue<String> tasks = waitingTasks.remove(ip);
+        final String taskId = tasks.poll();
+        if (!tasks.isEmpty()) {
+            waitingTasks.put(ip, tasks);
+        }
+        numberOfWaitingTasks--;
+        lease.slotsInUse++;
+        if (lease.tasksLeft != null) {
+            lease.tasksLeft--;
+        }
+        return new Pair<>(taskId, lease.leaseId);
+    }
+
+    /**
+     * Gives back the slot taken by a finished task.
+     */
+    public void release(final String ip, final String leaseId) {
+        final List<Lease> ipLeases = leases.get(ip);
+        if (ipLeases == null) {
+            return;
+        }
+        for (final Lease lease : ipLeases) {
+            if (lease.leaseId.equals(leaseId)) {
+                lease.slotsInUse = Math.max(0, lease.slotsInUse - 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * The number of slots to ask from the master for the tasks waiting for the IP, less the tasks the leases of the IP
+     * may still start. The request is marked as pending, so no other request is sent for the IP until it is answered
+     * or times out.
+     *
+     * @return the number of slots or 0 if no request should be sent
+     */
+    public int slotsToRequest(final String ip, final long now) {
+        final Queue<String> tasks = waitingTasks.get(ip);
+        if (tasks == null || tasks.isEmpty()) {
+            return 0;
+        }
+
+        final Long pendingSince = pendingLeaseRequests.get(ip);
+        if (pendingSince != null && now - pendingSince < LEASE_REQUEST_TIMEOUT_IN_MILLIS) {
+            return 0;
+        }
+
+        final int slots = tasks.size() - tasksLeft(ip, now);
+        if (slots <= 0) {
+            return 0;
+        }
+        pendingLeaseRequests.put(ip, now);
+        return slots;
+    }
+
+    /**
+     * @return the number of tasks the leases of the IP which are limited may still start
+     */
+    private int tasksLeft(final String ip, final long now) {
+        final List<Lease> ipLeases = leases.get(ip);
+        if (ipLeases == null) {
+            return 0;
+        }
+        int tasksLeft = 0;
+        for (final Lease lease : ipLeases) {
+            if (lease.tasksLeft != null && !lease.isUsedUp(now)) {
+                tasksLeft += lease.tasksLeft;
+            }
+        }
+        return tasksLeft;
+    }
+
+    /**
+     * Adds a lease granted by the master.
+     */
+    public void addLease(final LeaseConnectionSlotsResponse response, final long now) {
+        pendingLeaseRequests.remove(response.getIp());
+        if (!response.getGranted()) {
+            return;
+        }
+
+        List<Lease> ipLeases = leases.get(response.getIp());
+        if (ipLeases == null) {
+            ipLeases = new ArrayList<>();
+            leases.put(response.getIp(), ipLeases);
+        }
+        ipLeases.add(new Lease(response.getLeaseId(), response.getSlots(),
+                now + (long) (response.getLeaseDurationInMillis() * LEASE_USAGE_RATIO), response.getTasks()));
+    }
+
+    /**
+     * Stops the leases of the IP from starting other tasks, they are removed once their slots are free.
+     */
+    public void revokeLeases(final String ip) {
+        final List<Lease> ipLeases = leases.get(ip);
+        if (ipLeases == null) {
+            return;
+        }
+        for (final Lease lease : ipLeases) {
+            lease.revoked = true;
+        }
+    }
+
+    /**
+     * Removes the leases of the IP which are not used anymore : those without a slot in use, when no task waits for
+     * the IP or when they can't start any other task.
+     *
+     * @return the ids of the removed leases, to be returned to the master
+     */
+    public List<String> removeUnusedLeases(final String ip, final long now) {
+        final List<String> removed = new ArrayList<>();
+        final List<Lease> ipLeases = leases.get(ip);
+        if (ipLeases == null) {
+            return removed;
+        }
+
+        final boolean tasksAreWaiting = waitingTasks.containsKey(ip);
+        final Iterator<Lease> iterator = ipLeases.iterator();
+        while (iterator.hasNext()) {
+            final Lease lease = iterator.next();
+            if (lease.slotsInUse == 0 && (!tasksAreWaiting || lease.isUsedUp(now))) {
+                removed.add(lease.leaseId);
+                iterator.remove();
+            }
+        }
+
+        if (ipLeases.isEmpty()) {
+            leases.remove(ip);
+        }
+        return removed;
+    }
+
+    /**
+     * @return the IPs with tasks waiting for a slot
+     */
+    public Set<String> getIpsWithWaitingTasks() {
+        return new HashSet<>(waitingTasks.keySet());
+    }
+
+    /**
+     * @return the IPs which hold at least one lease
+     */
+    public Set<String> getIpsWithLeases() {
+        return new HashSet<>(leases.keySet());
+    }
+
+    public int getNumberOfWaitingTasks() {
+        return numberOfWaitingTasks;
+    }
+}
@@ -1,16 +1,23 @@
 package eu.europeana.harvester.cluster.slave.processing;
 
 import com.codahale.metrics.Timer;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
 import eu.europeana.harvester.cluster.domain.ContentType;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
 import eu.europeana.harvester.cluster.slave.SlaveMetrics;
+import eu.europeana.harvester.cluster.slave.caching.SlaveMediaCache;
 import eu.europeana.harvester.cluster.slave.processing.color.ColorExtractor;
 import eu.europeana.harvester.cluster.slave.processing.exceptiions.ColorExtractionException;
 import eu.europeana.harvester.cluster.slave.processing.exceptiions.MetaInfoExtractionException;
 import eu.europeana.harvester.cluster.slave.processing.exceptiions.ThumbnailGenerationException;
-import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaDataUtils;
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaAnalysisContext;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoExtractor;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoTuple;
+import eu.europeana.harvester.cluster.slave.processing.thumbnail.ThumbnailGenerator;
 import eu.europeana.harvester.cluster.slave.processing.thumbnail.ThumbnailGeneratorFactory;
+import eu.europeana.harvester.cluster.slave.storing.SlaveUploader;
 import eu.europeana.harvester.db.MediaStorageClient;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.httpclient.response.ResponseType;
@@ -21,33 +28,82 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
-import java.security.NoSuchAlgorithmException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 
 public class SlaveProcessor {
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
     private final MediaMetaInfoExtractor metaInfoExtractor;
     private final ColorExtractor colorExtractor;
     private final MediaStorageClient mediaStorageClient;
     private final String colorMapPath;
+    private final ImagingBackend imagingBackend;
+
+    /**
+     * The local cache of the thumbnails, null if the slave has none.
+     */
+    private final SlaveMediaCache mediaCache;
+
+    /**
+     * The storage stage of the slave, null if the thumbnails are uploaded by the processing thread.
+     */
+    private final SlaveUploader uploader;
 
     public SlaveProcessor(MediaMetaInfoExtractor metaInfoExtractor, ColorExtractor colorExtractor, MediaStorageClient mediaStorageClient, String colorMapPath) {
+        this(metaInfoExtractor, colorExtractor, mediaStorageClient, colorMapPath, ImagingBackend.IMAGEMAGICK);
+    }
+
+    public SlaveProcessor(MediaMetaInfoExtractor metaInfoExtractor, ColorExtractor colorExtractor, MediaStorageClient mediaStorageClient, String colorMapPath, ImagingBackend imagingBackend) {
+        this(metaInfoExtractor, colorExtractor, mediaStorageClient, colorMapPath, imagingBackend, null);
+    }
+
+    public SlaveProcessor(MediaMetaInfoExtractor metaInfoExtractor, ColorExtractor colorExtractor, MediaStorageClient mediaStorageClient, String colorMapPath, ImagingBackend imagingBackend, SlaveMediaCache mediaCache) {
+        this(metaInfoExtractor, colorExtractor, mediaStorageClient, colorMapPath, imagingBackend, mediaCache, null);
+    }
+
+    public SlaveProcessor(MediaMetaInfoExtractor metaInfoExtractor, ColorExtractor colorExtractor, MediaStorageClient mediaStorageClient, String colorMapPath, ImagingBackend imagingBackend, SlaveMediaCache mediaCache, SlaveUploader uploader) {
         this.metaInfoExtractor = metaInfoExtractor;
         this.colorExtractor = colorExtractor;
         this.mediaStorageClient = mediaStorageClient;
         this.colorMapPath = colorMapPath;
+        this.imagingBackend = imagingBackend;
+        this.mediaCache = mediaCache;
+        this.uploader = uploader;
     }
 
+    /**
+     * Processes a downloaded file. Every sub task reads the file from disk, its content is never held in memory
+     * as a whole unless a storage backend needs it.
+     */
     public ProcessingResultTuple process(final ProcessingJobTaskDocumentReference task,
                                          String originalFilePath,
                                          String originalFileUrl,
-                                         byte[] originalFileContent,
                                          ResponseType responseType,
                                          ReferenceOwner referenceOwner) {
+        return Futures.getUnchecked(processAsync(task, originalFilePath, originalFileUrl, null, responseType, referenceOwner));
+    }
+
+    /**
+     * Processes a downloaded file & hands the thumbnails over to the storage stage.
+     *
+     * @param contentMd5 the MD5 the download computed, null if unknown : the cache is skipped then
+     * @return done once the thumbnails are stored, right away if the slave has no storage stage
+     */
+    public ListenableFuture<ProcessingResultTuple> processAsync(final ProcessingJobTaskDocumentReference task,
+                                                                String originalFilePath,
+                                                                String originalFileUrl,
+                                                                String contentMd5,
+                                                                ResponseType responseType,
+                                                                ReferenceOwner referenceOwner) {
 
         // (1) Locate tasks
         final ProcessingJobSubTask colorExtractionProcessingTask = locateColorExtractionProcessingTask(task);
@@ -56,6 +112,15 @@ public class SlaveProcessor {
 
         ProcessingJobSubTaskStats stats = new ProcessingJobSubTaskStats();
 
+        // The file is sniffed & identified at most once and the result is shared by all the sub tasks below.
+        // The Java backend computes the palette of the color extraction, so the identify skips the ImageMagick one.
+        final MediaAnalysisContext mediaAnalysisContext = new MediaAnalysisContext(originalFilePath, colorMapPath,
+                ImagingBackend.JAVA != imagingBackend || null == colorExtractionProcessingTask);
+        final ContentType contentType = mediaAnalysisContext.getContentType();
+
+        // The thumbnails of a content the slave already processed are taken from its cache
+        final String contentDigest = digestForCache(originalFilePath, contentMd5);
+
         // (2) Execute tasks
         MediaMetaInfoTuple mediaMetaInfoTuple = null;
         ImageMetaInfo imageColorMetaInfo = null;
@@ -64,7 +129,7 @@ public class SlaveProcessor {
         // Meta data extraction : This always happens if there is a task for it.
         if (null != metaExtractionProcessingTask) {
             try {
-                mediaMetaInfoTuple = extractMetaInfo(originalFilePath, originalFileUrl, responseType,
+                mediaMetaInfoTuple = extractMetaInfo(mediaAnalysisContext, originalFileUrl, responseType,
                         metaExtractionProcessingTask);
 
                 if (null != mediaMetaInfoTuple && mediaMetaInfoTuple.isValid()) {
@@ -78,12 +143,12 @@ public class SlaveProcessor {
         }
 
         // Color extraction : This happens only for images.
-        if (!MediaMetaDataUtils.classifyUrl(originalFilePath).equals(ContentType.IMAGE)) {
+        if (!contentType.equals(ContentType.IMAGE)) {
             stats = stats.withColorExtractionState(ProcessingJobSubTaskState.NEVER_EXECUTED);
 
         } else if ((null != colorExtractionProcessingTask)) {
             try {
-                imageColorMetaInfo = extractColor(originalFilePath);
+                imageColorMetaInfo = extractColor(mediaAnalysisContext);
 
                 if (null != imageColorMetaInfo && null != imageColorMetaInfo.getColorPalette() &&
                         imageColorMetaInfo.getColorPalette().length > 0) {
@@ -106,9 +171,9 @@ public class SlaveProcessor {
 
         // Thumbnail generation : This happens JUST for images (ONLY where color extraction was successful) and PDF files.
         if ((null != thumbnailGenerationProcessingTasks) && !thumbnailGenerationProcessingTasks.isEmpty()) {
-            if ((MediaMetaDataUtils.classifyUrl(originalFilePath).equals(ContentType.IMAGE) && (imageColorMetaInfo != null)) || MediaMetaDataUtils.classifyUrl(originalFilePath).equals(ContentType.PDF)) {
+            if ((contentType.equals(ContentType.IMAGE) && (imageColorMetaInfo != null)) || contentType.equals(ContentType.PDF)) {
                 try {
-                    generatedThumbnails = generateThumbnails(originalFilePath, originalFileUrl, originalFileContent,
+                    generatedThumbnails = generateThumbnails(mediaAnalysisContext, originalFileUrl, contentDigest,
                             referenceOwner, thumbnailGenerationProcessingTasks);
 
                     if (null != generatedThumbnails && generatedThumbnails.size() == thumbnailGenerationProcessingTasks.size()) {
@@ -134,61 +199,61 @@ public class SlaveProcessor {
             }
         }
 
-        // (3.2) Persist thumbnails & cleanup
+        // (3.2) Keep the thumbnails in the local cache, before the upload which may fail
+        if (null != contentDigest && !generatedThumbnails.isEmpty()) {
+            cache(originalFileUrl, contentDigest, generatedThumbnails);
+        }
+
+        // (3.3) Persist thumbnails & cleanup
         SlaveMetrics.Worker.Slave.Processing.thumbnailStorageCounter.inc();
         final Timer.Context thumbnailStorageDurationContext = SlaveMetrics.Worker.Slave.Processing.thumbnailStorageDuration.time();
 
-        try
+        final ProcessingJobSubTaskStats processingStats = stats;
+        final MediaMetaInfoTuple processedMediaMetaInfoTuple = mediaMetaInfoTuple;
+        final Collection<MediaFile> thumbnails = generatedThumbnails.values();
 
-        {
-            for (final Map.Entry<ProcessingJobSubTask, MediaFile> thumbnailEntry : generatedThumbnails.entrySet()) {
-                mediaStorageClient.createOrModify(thumbnailEntry.getValue());
-            }
-            if (null == generatedThumbnails || generatedThumbnails.isEmpty()) {
-                stats = stats.withThumbnailStorageState(ProcessingJobSubTaskState.NEVER_EXECUTED);
-            } else {
-                stats = stats.withThumbnailStorageState(ProcessingJobSubTaskState.SUCCESS);
-            }
-        } catch (Exception e) {
-            stats = stats.withThumbnailStorageState(ProcessingJobSubTaskState.ERROR, e);
-        } finally {
-            thumbnailStorageDurationContext.stop();
-            try {
-//  TODO : Re-enable when harvesting finished!
-//                cacheOriginalImage(originalFilePath, originalFileUrl, originalFileContent, referenceOwner,
-//                        mediaMetaInfoTuple);
+        final ListenableFuture<Void> storage = store(thumbnails);
+        final SettableFuture<ProcessingResultTuple> result = SettableFuture.create();
+        storage.addListener(new Runnable() {
+            @Override
+            public void run() {
+                ProcessingJobSubTaskStats storageStats = processingStats;
+                try {
+                    storage.get();
+                    if (thumbnails.isEmpty()) {
+                        storageStats = storageStats.withThumbnailStorageState(ProcessingJobSubTaskState.NEVER_EXECUTED);
+                    } else {
+                        storageStats = storageStats.withThumbnailStorageState(ProcessingJobSubTaskState.SUCCESS);
+                    }
+                } catch (ExecutionException e) {
+                    storageStats = storageStats.withThumbnailStorageState(ProcessingJobSubTaskState.ERROR, e.getCause());
+                } catch (Exception e) {
+                    storageStats = storageStats.withThumbnailStorageState(ProcessingJobSubTaskState.ERROR, e);
+                } finally {
+                    thumbnailStorageDurationContext.stop();
+                }
 
-            } catch (Exception e) {
-                stats = stats.withThumbnailStorageState(ProcessingJobSubTaskState.ERROR, e);
+                result.set(new ProcessingResultTuple(storageStats,
+                        processedMediaMetaInfoTuple,
+                        thumbnails
+                ));
             }
-        }
-
-        return new ProcessingResultTuple(stats,
-                mediaMetaInfoTuple,
-                generatedThumbnails.values()
-
-        );
+        }, SAME_THREAD);
+        return result;
     }
 
-    private void cacheOriginalImage(String originalFilePath, String originalFileUrl, byte[] originalFileContent,
-                                    ReferenceOwner referenceOwner, MediaMetaInfoTuple mediaMetaInfoTuple) throws
-            NoSuchAlgorithmException,
-            IOException {// (3.3) Cache original if it is an image
-        if (mediaMetaInfoTuple != null && MediaMetaDataUtils.classifyUrl(originalFilePath).equals(ContentType.IMAGE)) {
-            SlaveMetrics.Worker.Slave.Processing.originalCachingCounter.inc();
-            final Timer.Context originalCachingDurationContext = SlaveMetrics.Worker.Slave.Processing.originalCachingDuration
-                    .time();
-            try {
-                final MediaFile mediaFile = generateOriginal(originalFilePath, originalFileUrl,
-                        originalFileContent, referenceOwner,
-                        mediaMetaInfoTuple.getImageMetaInfo());
-                mediaStorageClient.createOrModify(mediaFile);
-            } finally {
-                originalCachingDurationContext.stop();
-                Files.deleteIfExists(Paths.get(originalFilePath));
-            }
-        } else {
-            Files.deleteIfExists(Paths.get(originalFilePath));
+    /**
+     * Stores the thumbnails of a task in parallel, on the storage stage if the slave has one.
+     */
+    private ListenableFuture<Void> store(final Collection<MediaFile> thumbnails) {
+        if (null != uploader) {
+            return uploader.uploadAll(thumbnails);
+        }
+        try {
+            mediaStorageClient.createOrModifyAll(thumbnails);
+            return Futures.immediateFuture(null);
+        } catch (Exception e) {
+            return Futures.immediateFailedFuture(e);
         }
     }
 
@@ -232,12 +297,12 @@ public class SlaveProcessor {
         return result;
     }
 
-    private final ImageMetaInfo extractColor(String originalFilePath) throws ColorExtractionException {
-        if (MediaMetaDataUtils.classifyUrl(originalFilePath).equals(ContentType.IMAGE)) {
+    private final ImageMetaInfo extractColor(final MediaAnalysisContext mediaAnalysisContext) throws ColorExtractionException {
+        if (mediaAnalysisContext.getContentType().equals(ContentType.IMAGE)) {
             SlaveMetrics.Worker.Slave.Processing.colorExtractionCounter.inc();
             final Timer.Context colorExtractionDurationContext = SlaveMetrics.Worker.Slave.Processing.colorExtractionDuration.time();
             try {
-                return colorExtractor.colorExtraction(originalFilePath);
+                return colorExtractor.colorExtraction(mediaAnalysisContext);
             } catch (Exception e) {
                 throw new ColorExtractionException(e);
             } finally {
@@ -247,7 +312,7 @@ public class SlaveProcessor {
         return null;
     }
 
-    private final MediaMetaInfoTuple extractMetaInfo(final String originalFilePath,
+    private final MediaMetaInfoTuple extractMetaInfo(final MediaAnalysisContext mediaAnalysisContext,
                                                      final String originalFileUrl,
                                                      final ResponseType responseType,
                                                      final ProcessingJobSubTask metaExtractionProcessingTask) throws MetaInfoExtractionException {
@@ -257,7 +322,7 @@ public class SlaveProcessor {
         SlaveMetrics.Worker.Slave.Processing.metaInfoExtractionCounter.inc();
         final Timer.Context metaInfoExtractionDurationContext = SlaveMetrics.Worker.Slave.Processing.metaInfoExtractionDuration.time();
         try {
-            return metaInfoExtractor.extract(originalFilePath);
+            return metaInfoExtractor.extract(mediaAnalysisContext);
         } catch (Exception e) {
             e.printStackTrace();
             throw new MetaInfoExtractionException(e);
@@ -266,45 +331,105 @@ public class SlaveProcessor {
         }
     }
 
-    private final MediaFile generateOriginal(final String originalFilePath, final String originalFileUrl, final byte[] originalFileContent, final ReferenceOwner referenceOwner, final ImageMetaInfo imageMetaInfo) throws NoSuchAlgorithmException {
-
-        if (originalFilePath == null || originalFileUrl == null || originalFileContent == null)
-            throw new IllegalArgumentException("Cannot generate media file as all must be non-null : file path, url & content");
-        if (imageMetaInfo == null)
-            throw new IllegalArgumentException("Cannot generate media file from null image meta info");
-
-        return MediaFile.createMinimalMediaFileWithSizeType("ORIGINAL", referenceOwner.getExecutionId(), originalFilePath,
-                originalFileUrl, DateTime.now(), originalFileContent, imageMetaInfo.getMimeType(),
-                originalFileContent.length);
-
-    }
-
-    private final Map<ProcessingJobSubTask, MediaFile> generateThumbnails(final String originalFilePath,
+    private final Map<ProcessingJobSubTask, MediaFile> generateThumbnails(final MediaAnalysisContext mediaAnalysisContext,
                                                                           final String originalFileUrl,
-                                                                          final byte[] originalFileContent,
+                                                                          final String contentDigest,
                                                                           final ReferenceOwner referenceOwner,
                                                                           final List<ProcessingJobSubTask> thumbnailGenerationProcessingTasks) throws ThumbnailGenerationException {
         final Map<ProcessingJobSubTask, MediaFile> results = new HashMap<ProcessingJobSubTask, MediaFile>();
-        for (final ProcessingJobSubTask thumbnailGenerationTask : thumbnailGenerationProcessingTasks) {
-                SlaveMetrics.Worker.Slave.Processing.thumbnailGenerationCounter.inc();
-                final Timer.Context thumbnailGenerationDurationContext = SlaveMetrics.Worker.Slave.Processing.thumbnailGenerationDuration.time();
-                try {
-                    final GenericSubTaskConfiguration config = thumbnailGenerationTask.getConfig();
-
-                    final MediaFile thumbnailMediaFile = ThumbnailGeneratorFactory.getThumbnailGenerator(MediaMetaDataUtils.classifyUrl(originalFilePath), colorMapPath)
-                            .createMediaFileWithThumbnail(config.getThumbnailConfig().getWidth(),
-                                    config.getThumbnailConfig().getHeight(),
-                                    referenceOwner.getExecutionId(),
-                                    originalFileUrl,
-                                    originalFileContent,
-                                    originalFilePath);
-                    results.put(thumbnailGenerationTask, thumbnailMediaFile);
-                } catch (Exception e) {
-                    throw new ThumbnailGenerationException(e);
-                } finally {
-                    thumbnailGenerationDurationContext.stop();
+        final Timer.Context thumbnailGenerationDurationContext = SlaveMetrics.Worker.Slave.Processing.thumbnailGenerationDuration.time();
+        try {
+            // All the sizes which are not cached are generated with a single decode of the original
+            final Map<ProcessingJobSubTask, ThumbnailType> thumbnailTypes = new HashMap<ProcessingJobSubTask, ThumbnailType>();
+            for (final ProcessingJobSubTask thumbnailGenerationTask : thumbnailGenerationProcessingTasks) {
+                final ThumbnailType thumbnailType = thumbnailTypeOf(thumbnailGenerationTask);
+                final MediaFile cachedThumbnail = cachedThumbnail(originalFileUrl, contentDigest, thumbnailType);
+                if (null != cachedThumbnail) {
+                    results.put(thumbnailGenerationTask, restamp(cachedThumbnail, referenceOwner));
+                } else {
+                    thumbnailTypes.put(thumbnailGenerationTask, thumbnailType);
                 }
+            }
+            if (thumbnailTypes.isEmpty()) {
+                return results;
+            }
+            SlaveMetrics.Worker.Slave.Processing.thumbnailGenerationCounter.inc(thumbnailTypes.size());
+
+            final Map<ThumbnailType, MediaFile> thumbnails = ThumbnailGeneratorFactory.getThumbnailGenerator(mediaAnalysisContext.getContentType(), colorMapPath, imagingBackend)
+                    .createMediaFilesWithThumbnails(thumbnailTypes.values(),
+                            referenceOwner.getExecutionId(),
+                            originalFileUrl,
+                            mediaAnalysisContext);
+
+            for (final Map.Entry<ProcessingJobSubTask, ThumbnailType> thumbnailType : thumbnailTypes.entrySet()) {
+                results.put(thumbnailType.getKey(), thumbnails.get(thumbnailType.getValue()));
+            }
+        } catch (Exception e) {
+            throw new ThumbnailGenerationException(e);
+        } finally {
+            thumbnailGenerationDurationContext.stop();
         }
         return results;
     }
+
+    private static ThumbnailType thumbnailTypeOf(final ProcessingJobSubTask thumbnailGenerationTask) {
+        final GenericSubTaskConfiguration config = thumbnailGenerationTask.getConfig();
+        final ThumbnailType thumbnailType = ThumbnailGenerator.thumbnailTypeFromExpectedSize(config.getThumbnailConfig().getHeight(),
+                config.getThumbnailConfig().getWidth());
+        if (thumbnailType == null) {
+            throw new IllegalArgumentException("The expected thumbnail height " + config.getThumbnailConfig().getHeight() +
+                    " or width " + config.getThumbnailConfig().getWidth() + " do not match any of the hardcoded presets");
+        }
+        return thumbnailType;
+    }
+
+    /**
+     * @return the digest of the content in the cache, the MD5 of the download, null if the slave has no cache or the
+     * content is not on disk
+     */
+    private String digestForCache(final String originalFilePath, final String contentMd5) {
+        if (null == mediaCache || null == originalFilePath || !Files.exists(Paths.get(originalFilePath))) {
+            return null;
+        }
+        return contentMd5;
+    }
+
+    /**
+     * @return the cached thumbnail, null if it is not cached or the cache can't be read
+     */
+    private MediaFile cachedThumbnail(final String originalFileUrl, final String contentDigest, final ThumbnailType thumbnailType) {
+        if (null == contentDigest) {
+            return null;
+        }
+        try {
+            return mediaCache.getThumbnail(originalFileUrl, contentDigest, thumbnailType);
+        } catch (IOException e) {
+            LOG.warn("Could not read the cached {} thumbnail of {}", thumbnailType, originalFileUrl, e);
+            return null;
+        }
+    }
+
+    /**
+     * Caches the thumbnails, a failure of the cache does not fail the task.
+     */
+    private void cache(final String originalFileUrl, final String contentDigest,
+                       final Map<ProcessingJobSubTask, MediaFile> thumbnails) {
+        try {
+            for (final Map.Entry<ProcessingJobSubTask, MediaFile> thumbnail : thumbnails.entrySet()) {
+                mediaCache.putThumbnail(originalFileUrl, contentDigest, thumbnailTypeOf(thumbnail.getKey()), thumbnail.getValue());
+            }
+        } catch (Exception e) {
+            LOG.warn("Could not cache the thumbnails of {}", originalFileUrl, e);
+        }
+    }
+
+    /**
+     * @return a cached thumbnail as one of the current harvest
+     */
+    private static MediaFile restamp(final MediaFile cachedThumbnail, final ReferenceOwner referenceOwner) {
+        return new MediaFile(cachedThumbnail.getId(), referenceOwner.getExecutionId(), cachedThumbnail.getName(),
+                cachedThumbnail.getAliases(), cachedThumbnail.getContentMd5(), cachedThumbnail.getOriginalUrl(),
+                DateTime.now(), cachedThumbnail.getContent(), cachedThumbnail.getVersionNumber(),
+                cachedThumbnail.getContentType(), cachedThumbnail.getMetaData(), cachedThumbnail.getSize());
+    }
 }
\ No newline at end of file
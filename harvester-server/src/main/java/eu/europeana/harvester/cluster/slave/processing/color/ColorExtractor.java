@@ -1,16 +1,30 @@
 package eu.europeana.harvester.cluster.slave.processing.color;
 
+import eu.europeana.harvester.cluster.domain.ContentType;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
+import eu.europeana.harvester.cluster.slave.processing.imaging.JavaImagingUtils;
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaAnalysisContext;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaDataUtils;
 import eu.europeana.harvester.domain.ImageMetaInfo;
-import gr.ntua.image.mediachecker.MediaChecker;
 
+import java.io.File;
 import java.io.IOException;
 
 public class ColorExtractor {
     private final String colorMapPath;
 
+    /**
+     * The engine which computes the palette.
+     */
+    private final ImagingBackend imagingBackend;
+
     public ColorExtractor(String colorMapPath) {
+        this(colorMapPath, ImagingBackend.IMAGEMAGICK);
+    }
+
+    public ColorExtractor(String colorMapPath, ImagingBackend imagingBackend) {
         this.colorMapPath = colorMapPath;
+        this.imagingBackend = imagingBackend;
     }
 
     /**
@@ -21,12 +35,31 @@ public class ColorExtractor {
      * @throws InterruptedException
      */
     public ImageMetaInfo colorExtraction(final String path) throws IOException, InterruptedException {
+        return colorExtraction(new MediaAnalysisContext(path, colorMapPath, ImagingBackend.JAVA != imagingBackend));
+    }
+
+    /**
+     * Extracts the colormap from an image, reusing the identification already done for the processing task.
+     * With the Java backend the palette is computed in the JVM, the identification without a palette is followed by
+     * an ImageMagick one with the palette only if ImageIO cannot decode the image.
+     *
+     * @return partial metainfo, contains only the colormap
+     */
+    public ImageMetaInfo colorExtraction(final MediaAnalysisContext context) throws IOException, InterruptedException {
         boolean success = true;
         int retry = 3;
         do {
             try {
-                if (MediaChecker.getMimeType(path).startsWith("image")) {
-                    final ImageMetaInfo imageMetaInfo = MediaMetaDataUtils.extractImageMetadata(path, colorMapPath);
+                if (context.getContentType() == ContentType.IMAGE) {
+                    if (ImagingBackend.JAVA == imagingBackend) {
+                        final String[] colorPalette = javaColorExtraction(context);
+                        if (colorPalette != null) {
+                            return new ImageMetaInfo(null, null, null, null, null, null, colorPalette, null);
+                        }
+                    }
+                    final MediaAnalysisContext paletteContext = context.isWithColorPalette() ? context :
+                            new MediaAnalysisContext(context.getPath(), colorMapPath);
+                    final ImageMetaInfo imageMetaInfo = MediaMetaDataUtils.extractImageMetadata(paletteContext);
                     return new ImageMetaInfo(null, null, null, null, null, null, imageMetaInfo.getColorPalette(), null);
                 }
             } catch (Exception e) {
@@ -44,4 +77,20 @@ public class ColorExtractor {
         return null;
     }
 
+    /**
+     * Computes the palette in the JVM.
+     *
+     * @return the palette or null if ImageIO cannot decode the image, in which case ImageMagick is used
+     */
+    private String[] javaColorExtraction(final MediaAnalysisContext context) {
+        try {
+            final JavaImagingUtils.DecodedImage decodedImage = JavaImagingUtils.decode(new File(context.getPath()), JavaImagingUtils.COLOR_PALETTE_SAMPLE_WIDTH);
+            if (decodedImage == null) {
+                return null;
+            }
+            return JavaImagingUtils.extractColorPalette(decodedImage.getImage(), context.getColorMapPath());
+        } catch (IOException e) {
+            return null;
+        }
+    }
 }
@@ -0,0 +1,280 @@
+package eu.europeana.harvester.cluster.slave.processing.imaging;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-JVM image operations (decode, downscale, JPEG encoding, palette quantisation) used by the
+ * {@link eu.europeana.harvester.cluster.domain.ImagingBackend#JAVA} backend.
+ */
+public class JavaImagingUtils {
+
+    /**
+     * The quality of the generated JPEGs, the same as the ImageMagick default.
+     */
+    public static final float JPEG_QUALITY = 0.92f;
+
+    /**
+     * The number of colors kept in a color palette.
+     */
+    public static final int COLOR_PALETTE_SIZE = 6;
+
+    /**
+     * The width to which an image is reduced before its colors are counted.
+     */
+    public static final int COLOR_PALETTE_SAMPLE_WIDTH = 100;
+
+    /**
+     * The colors of each colormap, loaded once per path.
+     */
+    private static final Map<String, int[]> COLOR_MAPS = new ConcurrentHashMap<>();
+
+    /**
+     * A decoded image together with the size of the original.
+     */
+    public static class DecodedImage {
+        private final BufferedImage image;
+
+        private final int originalWidth;
+
+        private final int originalHeight;
+
+        public DecodedImage(final BufferedImage image, final int originalWidth, final int originalHeight) {
+            this.image = image;
+            this.originalWidth = originalWidth;
+            this.originalHeight = originalHeight;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public int getOriginalWidth() {
+            return originalWidth;
+        }
+
+        public int getOriginalHeight() {
+            return originalHeight;
+        }
+    }
+
+    /**
+     * Decodes an image, skipping source pixels so that the decoded raster is no wider than twice the smallest width
+     * needed. This bounds the memory of the decode regardless of the size of the original.
+     *
+     * @param file the image on disk
+     * @param neededWidth the largest width that will be derived from the image or null to decode the full raster
+     * @return the decoded image or null if ImageIO has no reader for the format
+     * @throws IOException if the image cannot be decoded (ie. CMYK JPEGs)
+     */
+    public static DecodedImage decode(final File file, final Integer neededWidth) throws IOException {
+        try (final ImageInputStream in = ImageIO.createImageInputStream(file)) {
+            if (in == null) {
+                return null;
+            }
+
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                return null;
+            }
+
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(in, true, true);
+                final int originalWidth = reader.getWidth(0);
+                final int originalHeight = reader.getHeight(0);
+
+                final ImageReadParam param = reader.getDefaultReadParam();
+                if (neededWidth != null && neededWidth > 0) {
+                    final int subsampling = Math.max(1, originalWidth / (neededWidth * 2));
+                    if (subsampling > 1) {
+                        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                    }
+                }
+
+                return new DecodedImage(reader.read(0, param), originalWidth, originalHeight);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Resizes the image to the given width keeping the aspect ratio. The image is halved progressively with
+     * bilinear interpolation, which gives a quality close to the ImageMagick thumbnail at a fraction of the cost.
+     * The result is always an opaque RGB image on a white background.
+     */
+    public static BufferedImage resizeToWidth(final BufferedImage image, final int width) {
+        final int height = Math.max(1, (int) Math.round((double) image.getHeight() * width / image.getWidth()));
+
+        BufferedImage current = toRgb(image);
+        int currentWidth = current.getWidth();
+        int currentHeight = current.getHeight();
+
+        do {
+            currentWidth = Math.max(width, currentWidth / 2);
+            currentHeight = Math.max(height, currentHeight / 2);
+            if (current.getWidth() <= width) {
+                currentWidth = width;
+                currentHeight = height;
+            }
+
+            final BufferedImage step = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_RGB);
+            final Graphics2D graphics = step.createGraphics();
+            try {
+                graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+                graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+                graphics.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            } finally {
+                graphics.dispose();
+            }
+            current = step;
+        } while (currentWidth != width || currentHeight != height);
+
+        return current;
+    }
+
+    /**
+     * Converts any decoded image to an opaque RGB image, flattening the transparency on white.
+     */
+    public static BufferedImage toRgb(final BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_RGB) {
+            return image;
+        }
+
+        final BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = rgb.createGraphics();
+        try {
+            graphics.setColor(Color.WHITE);
+            graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+            graphics.drawImage(image, 0, 0, null);
+        } finally {
+            graphics.dispose();
+        }
+        return rgb;
+    }
+
+    /**
+     * Encodes the image as JPEG.
+     */
+    public static byte[] encodeJpeg(final BufferedImage image) throws IOException {
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (final ImageOutputStream imageOut = ImageIO.createImageOutputStream(out)) {
+            final ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+
+            writer.setOutput(imageOut);
+            writer.write(null, new IIOImage(toRgb(image), null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Maps every pixel of the image to the closest color of the colormap and returns the most frequent ones.
+     *
+     * @return the palette as "#RRGGBB" values, the most frequent color first
+     */
+    public static String[] extractColorPalette(final BufferedImage image, final String colorMapPath) throws IOException {
+        final int[] colorMap = loadColorMap(colorMapPath);
+        final BufferedImage sample = image.getWidth() > COLOR_PALETTE_SAMPLE_WIDTH ?
+                resizeToWidth(image, COLOR_PALETTE_SAMPLE_WIDTH) : toRgb(image);
+
+        final int[] counts = new int[colorMap.length];
+        final Map<Integer, Integer> closestColors = new HashMap<>();
+        for (int y = 0; y < sample.getHeight(); y++) {
+            for (int x = 0; x < sample.getWidth(); x++) {
+                final int rgb = sample.getRGB(x, y) & 0xFFFFFF;
+                Integer closest = closestColors.get(rgb);
+                if (closest == null) {
+                    closest = closestColor(rgb, colorMap);
+                    closestColors.put(rgb, closest);
+                }
+                counts[closest]++;
+            }
+        }
+
+        final List<Integer> indexes = new ArrayList<>();
+        for (int index = 0; index < colorMap.length; index++) {
+            if (counts[index] > 0) {
+                indexes.add(index);
+            }
+        }
+        Collections.sort(indexes, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer first, final Integer second) {
+                return Integer.compare(counts[second], counts[first]);
+            }
+        });
+
+        final String[] palette = new String[Math.min(COLOR_PALETTE_SIZE, indexes.size())];
+        for (int i = 0; i < palette.length; i++) {
+            palette[i] = String.format("#%06X", colorMap[indexes.get(i)]);
+        }
+        return palette;
+    }
+
+    private static int closestColor(final int rgb, final int[] colorMap) {
+        final int red = (rgb >> 16) & 0xFF;
+        final int green = (rgb >> 8) & 0xFF;
+        final int blue = rgb & 0xFF;
+
+        int closest = 0;
+        int closestDistance = Integer.MAX_VALUE;
+        for (int index = 0; index < colorMap.length; index++) {
+            final int dr = red - ((colorMap[index] >> 16) & 0xFF);
+            final int dg = green - ((colorMap[index] >> 8) & 0xFF);
+            final int db = blue - (colorMap[index] & 0xFF);
+            final int distance = dr * dr + dg * dg + db * db;
+            if (distance < closestDistance) {
+                closest = index;
+                closestDistance = distance;
+            }
+        }
+        return closest;
+    }
+
+    private static int[] loadColorMap(final String colorMapPath) throws IOException {
+        int[] colorMap = COLOR_MAPS.get(colorMapPath);
+        if (colorMap != null) {
+            return colorMap;
+        }
+
+        final BufferedImage image = ImageIO.read(new File(colorMapPath));
+        if (image == null) {
+            throw new IOException("Cannot decode the colormap " + colorMapPath);
+        }
+
+        final Set<Integer> colors = new LinkedHashSet<>();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                colors.add(image.getRGB(x, y) & 0xFFFFFF);
+            }
+        }
+
+        colorMap = new int[colors.size()];
+        int index = 0;
+        for (final Integer color : colors) {
+            colorMap[index++] = color;
+        }
+        COLOR_MAPS.put(colorMapPath, colorMap);
+        return colorMap;
+    }
+}
@@ -0,0 +1,113 @@
+package eu.europeana.harvester.cluster.slave.processing.metainfo;
+
+import eu.europeana.harvester.cluster.domain.ContentType;
+import gr.ntua.image.mediachecker.ImageInfo;
+import gr.ntua.image.mediachecker.MediaChecker;
+import org.im4java.core.IM4JavaException;
+
+import java.io.IOException;
+
+/**
+ * Holds the analysis of a single downloaded media file for the lifetime of one processing task.
+ * The MIME sniff and the ImageMagick identify (dimensions, colour space, palette) are executed at most once and
+ * shared by the meta info extraction, the color extraction and the generation of all the thumbnail sizes.
+ * The identify remaps the image to the colormap for the palette, unless the palette is computed by another backend.
+ * It is not thread safe, as a task is processed by a single worker.
+ */
+public class MediaAnalysisContext {
+
+    /**
+     * The absolute path on disk of the downloaded file.
+     */
+    private final String path;
+
+    /**
+     * The colormap used to compute the color palette of images.
+     */
+    private final String colorMapPath;
+
+    /**
+     * False if the identify skips the palette, as it is computed by another backend.
+     */
+    private final boolean withColorPalette;
+
+    private String mimeType;
+
+    private ContentType contentType;
+
+    private ImageInfo imageInfo;
+
+    private Long fileSize;
+
+    public MediaAnalysisContext(final String path, final String colorMapPath) {
+        this(path, colorMapPath, true);
+    }
+
+    public MediaAnalysisContext(final String path, final String colorMapPath, final boolean withColorPalette) {
+        this.path = path;
+        this.colorMapPath = colorMapPath;
+        this.withColorPalette = withColorPalette;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public String getColorMapPath() {
+        return colorMapPath;
+    }
+
+    /**
+     * @return the sniffed MIME type of the file or null if it cannot be determined
+     */
+    public String getMimeType() {
+        if (contentType == null) {
+            sniff();
+        }
+        return mimeType;
+    }
+
+    /**
+     * @return the category of the file, computed from a single MIME sniff
+     */
+    public ContentType getContentType() {
+        if (contentType == null) {
+            sniff();
+        }
+        return contentType;
+    }
+
+    public boolean isWithColorPalette() {
+        return withColorPalette;
+    }
+
+    /**
+     * Identifies the file with ImageMagick on the first call. A failed identification is not remembered,
+     * so callers that retry will run it again. Without the colormap (no palette wanted) the remap is skipped &
+     * the info has no palette.
+     */
+    public ImageInfo getImageInfo() throws InterruptedException, IOException, IM4JavaException {
+        if (imageInfo == null) {
+            imageInfo = MediaChecker.getImageInfo(path, withColorPalette ? colorMapPath : null);
+        }
+        return imageInfo;
+    }
+
+    public Long getFileSize() throws IOException {
+        if (fileSize == null) {
+            fileSize = MediaChecker.getFileSize(path);
+        }
+        return fileSize;
+    }
+
+    private void sniff() {
+        try {
+            mimeType = MediaChecker.getMimeType(path);
+            contentType = MediaMetaDataUtils.classifyMimeType(mimeType);
+        } catch (IOException e) {
+            // IT's OK to eat the exception here.
+            mimeType = null;
+            contentType = ContentType.UNKNOWN;
+        }
+    }
+}
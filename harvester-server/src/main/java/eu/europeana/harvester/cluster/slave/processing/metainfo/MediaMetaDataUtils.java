@@ -20,31 +20,41 @@ public class MediaMetaDataUtils {
      */
     public static final ContentType classifyUrl(final String path) {
         try {
-            final String type = MediaChecker.getMimeType(path);
-
-            if (type.startsWith("image")) {
-                return ContentType.IMAGE;
-            }
-            if (type.startsWith("audio")) {
-                return ContentType.AUDIO;
-            }
-            if (type.startsWith("video")) {
-                return ContentType.VIDEO;
-            }
-            if (type.equals("application/pdf")) {
-                return ContentType.PDF;
-            }
-            if ((type.startsWith("text") || type.equals("application/xml") || type.equals("application/rtf") || type.equals("application/epub"))
-                    && !type.contains("html")) {
-                return ContentType.NON_PDF_TEXT;
-            }
-            return ContentType.UNKNOWN;
+            return classifyMimeType(MediaChecker.getMimeType(path));
         } catch (IOException e) {
             return ContentType.UNKNOWN;
             // IT's OK to eat the exception here.
         }
     }
 
+    /**
+     * Classifies an already sniffed MIME type in one of the existent categories.
+     *
+     * @return - the matching category
+     */
+    public static final ContentType classifyMimeType(final String type) {
+        if (type == null) {
+            return ContentType.UNKNOWN;
+        }
+        if (type.startsWith("image")) {
+            return ContentType.IMAGE;
+        }
+        if (type.startsWith("audio")) {
+            return ContentType.AUDIO;
+        }
+        if (type.startsWith("video")) {
+            return ContentType.VIDEO;
+        }
+        if (type.equals("application/pdf")) {
+            return ContentType.PDF;
+        }
+        if ((type.startsWith("text") || type.equals("application/xml") || type.equals("application/rtf") || type.equals("application/epub"))
+                && !type.contains("html")) {
+            return ContentType.NON_PDF_TEXT;
+        }
+        return ContentType.UNKNOWN;
+    }
+
 
 
     /**
@@ -52,10 +62,18 @@ public class MediaMetaDataUtils {
      * @return - an object with all the meta info
      */
     public final static ImageMetaInfo extractImageMetadata(final String path, final String colorMapPath) throws InterruptedException, IOException, IM4JavaException {
+        return extractImageMetadata(new MediaAnalysisContext(path, colorMapPath));
+    }
+
+    /**
+     * Extracts image meta data reusing the identification already done for the processing task
+     * @return - an object with all the meta info
+     */
+    public final static ImageMetaInfo extractImageMetadata(final MediaAnalysisContext context) throws InterruptedException, IOException, IM4JavaException {
         ImageMetaInfo imageMetaInfo = null;
 
-            final ImageInfo imageInfo = MediaChecker.getImageInfo(path, colorMapPath);
-            final Long fileSize = MediaChecker.getFileSize(path);
+            final ImageInfo imageInfo = context.getImageInfo();
+            final Long fileSize = context.getFileSize();
 
             ImageOrientation imageOrientation;
             if(imageInfo.getWidth() > imageInfo.getHeight()) {
@@ -14,7 +14,15 @@ public class MediaMetaInfoExtractor {
     }
 
     public MediaMetaInfoTuple extract(final String path) throws Exception {
-        final ContentType contentType = MediaMetaDataUtils.classifyUrl(path);
+        return extract(new MediaAnalysisContext(path, colorMapPath));
+    }
+
+    /**
+     * Extracts the meta info reusing the MIME sniff & image identification of the processing task.
+     */
+    public MediaMetaInfoTuple extract(final MediaAnalysisContext context) throws Exception {
+        final String path = context.getPath();
+        final ContentType contentType = context.getContentType();
 
         ImageMetaInfo imageMetaInfo = null;
         AudioMetaInfo audioMetaInfo = null;
@@ -28,7 +36,7 @@ public class MediaMetaInfoExtractor {
                 textMetaInfo = MediaMetaDataUtils.extractTextMetaData(path);
                 break;
             case IMAGE:
-                imageMetaInfo = MediaMetaDataUtils.extractImageMetadata(path, colorMapPath);
+                imageMetaInfo = MediaMetaDataUtils.extractImageMetadata(context);
                 break;
             case VIDEO:
                 videoMetaInfo = MediaMetaDataUtils.extractVideoMetaData(path);
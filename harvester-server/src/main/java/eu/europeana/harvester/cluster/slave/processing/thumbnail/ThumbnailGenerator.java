@@ -1,13 +1,20 @@
 package eu.europeana.harvester.cluster.slave.processing.thumbnail;
 
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaAnalysisContext;
 import eu.europeana.harvester.domain.MediaFile;
 import eu.europeana.harvester.domain.ThumbnailType;
 import gr.ntua.image.mediachecker.ImageInfo;
-import gr.ntua.image.mediachecker.MediaChecker;
 import org.joda.time.DateTime;
 
+import org.im4java.core.ConvertCmd;
+import org.im4java.core.IMOperation;
+
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
 
 /**
  * Abstract class for generating thumbnails
@@ -23,9 +30,19 @@ public abstract class ThumbnailGenerator {
      */
     private String colorMapPath;
 
+    /**
+     * Where the thumbnails are written before they are read back, null for the default temporary folder
+     */
+    private final Path tempFolder;
+
 
     public ThumbnailGenerator(String colorMapPath) {
+        this(colorMapPath, null);
+    }
+
+    public ThumbnailGenerator(String colorMapPath, Path tempFolder) {
         this.colorMapPath = colorMapPath;
+        this.tempFolder = tempFolder;
     }
 
 
@@ -33,7 +50,15 @@ public abstract class ThumbnailGenerator {
      * Creates a thumbnail of a downloaded media file (image or PDF)
      */
     public MediaFile createMediaFileWithThumbnail (final Integer expectedWidth, final Integer expectedHeight, final String currentProcessId, final String originalFileUrl, final byte[] originalFileContent, final String originalFilePath) throws Exception {
-        final ImageInfo originalFileInfo = MediaChecker.getImageInfo(originalFilePath, getColorMapPath());
+        return createMediaFileWithThumbnail(expectedWidth, expectedHeight, currentProcessId, originalFileUrl, originalFileContent,
+                new MediaAnalysisContext(originalFilePath, getColorMapPath()));
+    }
+
+    /**
+     * Creates a thumbnail of a downloaded media file (image or PDF), reusing the identification already done for the processing task.
+     */
+    public MediaFile createMediaFileWithThumbnail (final Integer expectedWidth, final Integer expectedHeight, final String currentProcessId, final String originalFileUrl, final byte[] originalFileContent, final MediaAnalysisContext context) throws Exception {
+        final ImageInfo originalFileInfo = context.getImageInfo();
         Integer thumbnailResizedToWidth = null;
         Integer thumbnailResizedToHeight = null;
 
@@ -68,6 +93,76 @@ public abstract class ThumbnailGenerator {
             }
         }
 
+        final byte[] newData = createThumbnail(new ByteArrayInputStream(originalFileContent), thumbnailResizedToWidth, thumbnailResizedToHeight, originalFileContent);
+
+        final ThumbnailType expectedThumbnailType = thumbnailTypeFromExpectedSize(expectedHeight, expectedWidth);
+
+        if (expectedThumbnailType == null) throw new IllegalArgumentException("The expected thumbnail height "+expectedHeight+" or width "+expectedWidth+" do not match any of the hardcoded presets");
+
+        return createMediaFile(expectedThumbnailType, currentProcessId, originalFileUrl, newData, context);
+    }
+
+    /**
+     * Creates the thumbnails of all the requested sizes with a single ImageMagick invocation. The original is read from
+     * disk & decoded once and the sizes are produced largest-first, each one derived from the previous one (ie. the 200px from the 400px).
+     *
+     * @return the generated thumbnail for each requested type
+     */
+    public Map<ThumbnailType, MediaFile> createMediaFilesWithThumbnails (final Collection<ThumbnailType> thumbnailTypes, final String currentProcessId, final String originalFileUrl, final MediaAnalysisContext context) throws Exception {
+        final List<ThumbnailType> largestFirst = new ArrayList<>(new HashSet<>(thumbnailTypes));
+        Collections.sort(largestFirst, new Comparator<ThumbnailType>() {
+            @Override
+            public int compare(final ThumbnailType first, final ThumbnailType second) {
+                return Integer.compare(second.getWidth(), first.getWidth());
+            }
+        });
+
+        final Map<ThumbnailType, MediaFile> results = new HashMap<>();
+        if (largestFirst.isEmpty()) {
+            return results;
+        }
+
+        final ImageInfo originalFileInfo = context.getImageInfo();
+        final Map<ThumbnailType, Path> outputs = new LinkedHashMap<>();
+        try {
+            final IMOperation op = new IMOperation();
+            addSourceImage(op, context.getPath());
+
+            for (int i = 0; i < largestFirst.size(); i++) {
+                final ThumbnailType type = largestFirst.get(i);
+                final String suffix = "-" + type.name().toLowerCase() + ".jpg";
+                final Path output = null == tempFolder ? Files.createTempFile("thumbnail-", suffix) : Files.createTempFile(tempFolder, "thumbnail-", suffix);
+                outputs.put(type, output);
+
+                // Smaller originals keep their size, exactly as when a single thumbnail is created.
+                if (originalFileInfo.getWidth() >= type.getWidth()) {
+                    op.thumbnail(type.getWidth(), null);
+                }
+
+                if (i < largestFirst.size() - 1) {
+                    // Intermediate size : write it & continue the cascade from the resized image
+                    op.write(IMAGE_OUTPUT_FORMAT + output.toAbsolutePath().toString());
+                } else {
+                    op.addImage(IMAGE_OUTPUT_FORMAT + output.toAbsolutePath().toString());
+                }
+            }
+
+            new ConvertCmd().run(op);
+
+            for (final Map.Entry<ThumbnailType, Path> output : outputs.entrySet()) {
+                final byte[] newData = Files.readAllBytes(output.getValue());
+                results.put(output.getKey(), createMediaFile(output.getKey(), currentProcessId, originalFileUrl, newData, context));
+            }
+        } finally {
+            for (final Path output : outputs.values()) {
+                Files.deleteIfExists(output);
+            }
+        }
+
+        return results;
+    }
+
+    protected final MediaFile createMediaFile(final ThumbnailType thumbnailType, final String currentProcessId, final String originalFileUrl, final byte[] newData, final MediaAnalysisContext context) throws NoSuchAlgorithmException {
         final String url = originalFileUrl;
         final String[] temp = url.split("/");
         String name = url;
@@ -75,18 +170,17 @@ public abstract class ThumbnailGenerator {
             name = temp[temp.length - 1];
         }
 
-        final byte[] newData = createThumbnail(new ByteArrayInputStream(originalFileContent), thumbnailResizedToWidth, thumbnailResizedToHeight, originalFileContent);
-
-        final ThumbnailType expectedThumbnailType = thumbnailTypeFromExpectedSize(expectedHeight, expectedWidth);
-
-        if (expectedThumbnailType == null) throw new IllegalArgumentException("The expected thumbnail height "+expectedHeight+" or width "+expectedWidth+" do not match any of the hardcoded presets");
-
         return new MediaFile(currentProcessId, name, null, null, url,
-                new DateTime(System.currentTimeMillis()), newData, 1, MediaChecker.getMimeType(originalFilePath), null, newData.length)
-                .withId(MediaFile.generateIdFromUrlAndSizeType(originalFileUrl, expectedThumbnailType.name()));
+                new DateTime(System.currentTimeMillis()), newData, 1, context.getMimeType(), null, newData.length)
+                .withId(MediaFile.generateIdFromUrlAndSizeType(originalFileUrl, thumbnailType.name()));
     }
 
-    private final ThumbnailType thumbnailTypeFromExpectedSize(final Integer expectedHeight, final Integer expectedWidth) {
+    /**
+     * Matches the configured size of a thumbnail generation task with one of the hardcoded presets.
+     *
+     * @return the matching preset or null if there is none
+     */
+    public static ThumbnailType thumbnailTypeFromExpectedSize(final Integer expectedHeight, final Integer expectedWidth) {
         for (final ThumbnailType type: ThumbnailType.values()) {
             if (type.getHeight() == expectedHeight && type.getWidth() == expectedWidth) {
                 return type;
@@ -109,4 +203,9 @@ public abstract class ThumbnailGenerator {
      * Manages im4java thumbnail converting call
      */
     protected abstract byte[] createThumbnail(final InputStream in, final Integer width, final Integer height, final byte[] originalFileInfo) throws Exception;
+
+    /**
+     * Adds the original read from disk (and the options needed to read it) to a multi-size thumbnail operation
+     */
+    protected abstract void addSourceImage(final IMOperation op, final String originalFilePath);
 }
\ No newline at end of file
@@ -1,6 +1,7 @@
 package eu.europeana.harvester.cluster.slave.processing.thumbnail;
 
 import eu.europeana.harvester.cluster.domain.ContentType;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
 
 /**
  * Created by andra on 14.06.2016.
@@ -15,8 +16,19 @@ public class ThumbnailGeneratorFactory {
      * @throws Exception
      */
     public static ThumbnailGenerator getThumbnailGenerator(final ContentType contentType, final String colorMapPath) throws Exception {
+        return getThumbnailGenerator(contentType, colorMapPath, ImagingBackend.IMAGEMAGICK);
+    }
+
+    /**
+     * @param contentType the MIME type of the file you are generating thumbnail for
+     * @param colorMapPath set in config
+     * @param imagingBackend the engine used for images, PDFs are always rendered by ImageMagick
+     * @return a new ThumbnailGenerator instance
+     * @throws Exception
+     */
+    public static ThumbnailGenerator getThumbnailGenerator(final ContentType contentType, final String colorMapPath, final ImagingBackend imagingBackend) throws Exception {
         switch(contentType) {
-            case IMAGE: return new ThumbnailImageGenerator(colorMapPath);
+            case IMAGE: return ImagingBackend.JAVA == imagingBackend ? new ThumbnailJavaImageGenerator(colorMapPath) : new ThumbnailImageGenerator(colorMapPath);
 
             case PDF: return new ThumbnailTextGenerator(colorMapPath);
 
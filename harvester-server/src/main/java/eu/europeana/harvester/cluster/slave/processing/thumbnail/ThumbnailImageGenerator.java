@@ -6,16 +6,26 @@ import org.im4java.process.Pipe;
 
 import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
+import java.nio.file.Path;
 
 /**
  * Created by andra on 14.06.2016.
  */
 public class ThumbnailImageGenerator extends ThumbnailGenerator {
 
+    /**
+     * Animated GIFs & multi-page TIFFs have several frames, convert would write one output per frame
+     */
+    private static final String FIRST_FRAME = "[0]";
+
     public ThumbnailImageGenerator(String colorMathPath) {
         super(colorMathPath);
     }
 
+    public ThumbnailImageGenerator(String colorMathPath, Path tempFolder) {
+        super(colorMathPath, tempFolder);
+    }
+
     protected byte[] createThumbnail(final InputStream in, final Integer width, final Integer height, final byte[] originalFileInfo) throws Exception {
         final IMOperation op = new IMOperation();
 
@@ -30,8 +40,8 @@ public class ThumbnailImageGenerator extends ThumbnailGenerator {
             op.thumbnail(null, height);
         } else {} // Scenario 4 : use original values for both width and height
 
-        // File source path
-        op.addImage("-");
+        // File source path, FIRST_FRAME applies conversion only on the first frame
+        op.addImage("-" + FIRST_FRAME);
         // New file path, generating a jpg format thumbnail
         op.addImage(IMAGE_OUTPUT_FORMAT + "-");
 
@@ -46,4 +56,9 @@ public class ThumbnailImageGenerator extends ThumbnailGenerator {
 
         return out.toByteArray();
     }
+
+    protected void addSourceImage(final IMOperation op, final String originalFilePath) {
+        // File source path, FIRST_FRAME applies conversion only on the first frame
+        op.addImage(originalFilePath + FIRST_FRAME);
+    }
 }
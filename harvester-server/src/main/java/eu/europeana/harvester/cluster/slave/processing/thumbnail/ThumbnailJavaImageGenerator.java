@@ -0,0 +1,91 @@
+package eu.europeana.harvester.cluster.slave.processing.thumbnail;
+
+import eu.europeana.harvester.cluster.slave.processing.imaging.JavaImagingUtils;
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaAnalysisContext;
+import eu.europeana.harvester.domain.MediaFile;
+import eu.europeana.harvester.domain.ThumbnailType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Generates the thumbnails of images in the JVM, without forking ImageMagick.
+ * The images ImageIO cannot decode (ie. TIFF, JPEG 2000, CMYK JPEG) are handed over to ImageMagick.
+ */
+public class ThumbnailJavaImageGenerator extends ThumbnailImageGenerator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailJavaImageGenerator.class.getName());
+
+    public ThumbnailJavaImageGenerator(String colorMapPath) {
+        super(colorMapPath);
+    }
+
+    @Override
+    public Map<ThumbnailType, MediaFile> createMediaFilesWithThumbnails (final Collection<ThumbnailType> thumbnailTypes, final String currentProcessId, final String originalFileUrl, final MediaAnalysisContext context) throws Exception {
+        final List<ThumbnailType> largestFirst = new ArrayList<>(new HashSet<>(thumbnailTypes));
+        Collections.sort(largestFirst, new Comparator<ThumbnailType>() {
+            @Override
+            public int compare(final ThumbnailType first, final ThumbnailType second) {
+                return Integer.compare(second.getWidth(), first.getWidth());
+            }
+        });
+
+        final Map<ThumbnailType, MediaFile> results = new HashMap<>();
+        if (largestFirst.isEmpty()) {
+            return results;
+        }
+
+        final JavaImagingUtils.DecodedImage decodedImage = decodeOrNull(new File(context.getPath()), largestFirst.get(0).getWidth());
+        if (decodedImage == null) {
+            return super.createMediaFilesWithThumbnails(thumbnailTypes, currentProcessId, originalFileUrl, context);
+        }
+
+        // Each size is derived from the previous (larger) one, as with the ImageMagick cascade
+        BufferedImage current = decodedImage.getImage();
+        for (final ThumbnailType type : largestFirst) {
+            // Smaller originals keep their size
+            if (decodedImage.getOriginalWidth() >= type.getWidth() && current.getWidth() > type.getWidth()) {
+                current = JavaImagingUtils.resizeToWidth(current, type.getWidth());
+            }
+            results.put(type, createMediaFile(type, currentProcessId, originalFileUrl, JavaImagingUtils.encodeJpeg(current), context));
+        }
+
+        return results;
+    }
+
+    @Override
+    protected byte[] createThumbnail(final InputStream in, final Integer width, final Integer height, final byte[] originalFileInfo) throws Exception {
+        final BufferedImage image;
+        try {
+            image = ImageIO.read(in);
+        } catch (IOException e) {
+            LOG.debug("ImageIO cannot decode the image, falling back to ImageMagick", e);
+            return super.createThumbnail(new ByteArrayInputStream(originalFileInfo), width, height, originalFileInfo);
+        }
+
+        if (image == null) {
+            return super.createThumbnail(new ByteArrayInputStream(originalFileInfo), width, height, originalFileInfo);
+        }
+
+        if (width != null && image.getWidth() > width) {
+            return JavaImagingUtils.encodeJpeg(JavaImagingUtils.resizeToWidth(image, width));
+        }
+        return JavaImagingUtils.encodeJpeg(image);
+    }
+
+    private JavaImagingUtils.DecodedImage decodeOrNull(final File file, final int neededWidth) {
+        try {
+            return JavaImagingUtils.decode(file, neededWidth);
+        } catch (IOException e) {
+            LOG.debug("ImageIO cannot decode " + file + ", falling back to ImageMagick", e);
+            return null;
+        }
+    }
+}
@@ -52,4 +52,13 @@ public class ThumbnailTextGenerator extends ThumbnailGenerator {
 
         return out.toByteArray();
     }
-}
\ No newline at end of file
+
+    protected void addSourceImage(final IMOperation op, final String originalFilePath) {
+        // Set white background
+        op.background("white");
+        // Apply alpha remove
+        op.alpha("remove");
+        // Source file path, PDF_PAGE_NO_TO_SHOW applies conversion only on the first page
+        op.addImage(originalFilePath + PDF_PAGE_NO_TO_SHOW);
+    }
+}
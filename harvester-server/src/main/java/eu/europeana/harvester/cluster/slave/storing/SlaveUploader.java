@@ -0,0 +1,235 @@
+package eu.europeana.harvester.cluster.slave.storing;
+
+import com.codahale.metrics.Timer;
+import com.google.common.base.Function;
+import com.google.common.util.concurrent.*;
+import eu.europeana.harvester.cluster.domain.SlaveUploadConfig;
+import eu.europeana.harvester.cluster.slave.SlaveMetrics;
+import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.domain.MediaFile;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.*;
+
+/**
+ * The storage stage of a slave : uploads the thumbnails & originals on its own threads, so that a worker is free for
+ * the next task as soon as it has processed the current one.
+ * <ul>
+ * <li>the number of uploads running at once is bounded for the storage backend ;</li>
+ * <li>the queue of the uploads waiting for a thread is bounded too, a worker which finds it full uploads by itself
+ * & slows down with the storage ;</li>
+ * <li>a failed upload is tried again after a random wait, bounded by a limit which doubles with each retry (full
+ * jitter), so the uploads which failed together don't hit the storage together again.</li>
+ * </ul>
+ */
+public class SlaveUploader {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SlaveUploader.class.getName());
+
+    private static final Executor SAME_THREAD = new Executor() {
+        @Override
+        public void execute(Runnable command) {
+            command.run();
+        }
+    };
+
+    private static final Function<List<Void>, Void> TO_VOID = new Function<List<Void>, Void>() {
+        @Override
+        public Void apply(List<Void> input) {
+            return null;
+        }
+    };
+
+    /**
+     * An upload with its retries.
+     */
+    private final class Upload implements Runnable {
+        private final MediaFile mediaFile;
+
+        /**
+         * The file of the content, null if the content is in the media file.
+         */
+        private final Path content;
+
+        private final SettableFuture<Void> result = SettableFuture.create();
+        private final Timer.Context totalDurationContext = SlaveMetrics.Worker.Slave.Upload.totalDuration.time();
+
+        private int attempt = 0;
+        private long queuedAt;
+
+        private Upload(final MediaFile mediaFile, final Path content) {
+            this.mediaFile = mediaFile;
+            this.content = content;
+        }
+
+        @Override
+        public void run() {
+            SlaveMetrics.Worker.Slave.Upload.queueDuration.update(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+            SlaveMetrics.Worker.Slave.Upload.uploadCounter.inc();
+            attempt++;
+
+            final Timer.Context uploadDurationContext = SlaveMetrics.Worker.Slave.Upload.uploadDuration.time();
+            try {
+                if (null == content) {
+                    mediaStorageClient.createOrModify(mediaFile);
+                } else {
+                    mediaStorageClient.createOrModify(mediaFile, content);
+                }
+            } catch (Exception e) {
+                uploadDurationContext.stop();
+                retryOrFail(e);
+                return;
+            }
+            uploadDurationContext.stop();
+            totalDurationContext.stop();
+            result.set(null);
+        }
+
+        private void retryOrFail(final Exception e) {
+            if (attempt > config.getMaxRetries() || retryScheduler.isShutdown()) {
+                LOG.warn("Could not upload {} after {} attempts", mediaFile.getId(), attempt, e);
+                SlaveMetrics.Worker.Slave.Upload.failureCounter.inc();
+                totalDurationContext.stop();
+                result.setException(e);
+                return;
+            }
+
+            final long backoffInMillis = backoffInMillis(attempt);
+            LOG.debug("Upload of {} failed, attempt {} , retrying in {} ms", mediaFile.getId(), attempt, backoffInMillis, e);
+            SlaveMetrics.Worker.Slave.Upload.retryCounter.inc();
+            retryLater(this, backoffInMillis);
+        }
+    }
+
+    private final MediaStorageClient mediaStorageClient;
+    private final SlaveUploadConfig config;
+
+    private final ThreadPoolExecutor uploadExecutor;
+
+    /**
+     * Only waits for the retries, they are uploaded on the upload threads.
+     */
+    private final ScheduledExecutorService retryScheduler;
+
+    public SlaveUploader(final MediaStorageClient mediaStorageClient, final SlaveUploadConfig config) {
+        this.mediaStorageClient = mediaStorageClient;
+        this.config = config;
+        this.uploadExecutor = new ThreadPoolExecutor(config.getConcurrency(), config.getConcurrency(),
+                0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(config.getQueueSize()),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("slave-upload-%d").build());
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("slave-upload-retry-%d").build());
+    }
+
+    /**
+     * Uploads a media file with its content.
+     */
+    public ListenableFuture<Void> upload(final MediaFile mediaFile) {
+        return submit(new Upload(mediaFile, null));
+    }
+
+    /**
+     * Uploads a media file with its content read from the disk, the file must stay until the upload is done.
+     */
+    public ListenableFuture<Void> upload(final MediaFile mediaFile, final Path content) {
+        return submit(new Upload(mediaFile, content));
+    }
+
+    /**
+     * Uploads media files in parallel, with their contents.
+     *
+     * @return done when all of them are uploaded, failed as soon as one of them failed for good
+     */
+    public ListenableFuture<Void> uploadAll(final Collection<MediaFile> mediaFiles) {
+        final List<ListenableFuture<Void>> uploads = new ArrayList<>();
+        for (final MediaFile mediaFile : mediaFiles) {
+            uploads.add(upload(mediaFile));
+        }
+        return Futures.transform(Futures.allAsList(uploads), TO_VOID, SAME_THREAD);
+    }
+
+    /**
+     * @return the number of uploads waiting for a thread
+     */
+    public int getQueueDepth() {
+        return uploadExecutor.getQueue().size();
+    }
+
+    /**
+     * @return the number of uploads running
+     */
+    public int getActiveUploads() {
+        return uploadExecutor.getActiveCount();
+    }
+
+    /**
+     * Stops taking uploads, the ones already taken are done (without more retries).
+     */
+    public void shutdown() {
+        retryScheduler.shutdown();
+        uploadExecutor.shutdown();
+    }
+
+    /**
+     * Waits for the uploads taken before the {@link #shutdown()}.
+     *
+     * @return true if they are all done, false if the timeout elapsed first
+     */
+    public boolean awaitTermination(final long timeout, final TimeUnit unit) throws InterruptedException {
+        return uploadExecutor.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * @return a random wait up to the initial backoff doubled for each previous attempt, capped by the maximum backoff
+     */
+    long backoffInMillis(final int attempt) {
+        final long ceiling = Math.min(config.getMaxBackoffInMillis(),
+                config.getInitialBackoffInMillis() << Math.min(attempt - 1, 30));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    }
+
+    private ListenableFuture<Void> submit(final Upload upload) {
+        upload.queuedAt = System.nanoTime();
+        try {
+            uploadExecutor.execute(upload);
+        } catch (RejectedExecutionException e) {
+            if (uploadExecutor.isShutdown()) {
+                upload.result.setException(e);
+            } else {
+                // The queue is full : the worker waits for the storage
+                SlaveMetrics.Worker.Slave.Upload.callerRunsCounter.inc();
+                upload.run();
+            }
+        }
+        return upload.result;
+    }
+
+    private void retryLater(final Upload upload, final long backoffInMillis) {
+        try {
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    upload.queuedAt = System.nanoTime();
+                    try {
+                        uploadExecutor.execute(upload);
+                    } catch (RejectedExecutionException e) {
+                        if (uploadExecutor.isShutdown()) {
+                            upload.result.setException(e);
+                        } else {
+                            // The retries never run on the scheduler, they wait for room in the queue
+                            retryLater(upload, backoffInMillis);
+                        }
+                    }
+                }
+            }, backoffInMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            upload.result.setException(e);
+        }
+    }
+}
@@ -6,6 +6,7 @@ import net.logstash.logback.marker.MapEntriesAppendingMarker;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,16 @@ import java.util.Map;
 
      void addContent(byte[] content) throws Exception;
 
+    /**
+     * Stores a body part, without copying it into an intermediate array when the storage allows it.
+     */
+     void addContent(ByteBuffer content) throws Exception;
+
+    /**
+     * @return the MD5 (hex) of the content computed while it was stored or null if the storage does not compute it
+     */
+     String getContentMd5();
+
      Long getContentSizeInBytes();
 
      Throwable getException();
@@ -5,6 +5,7 @@ import net.logstash.logback.marker.MapEntriesAppendingMarker;
 
 import java.io.IOException;
 import java.net.URL;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -126,6 +127,21 @@ abstract class HttpRetrieveResponseBase implements HttpRetrieveResponse {
         return contentSizeInBytes;
     }
 
+    /**
+     * Copies the body part into an array. The storages that can write buffers directly override this.
+     */
+    @Override
+    public void addContent(ByteBuffer content) throws Exception {
+        final byte[] bytes = new byte[content.remaining()];
+        content.get(bytes);
+        addContent(bytes);
+    }
+
+    @Override
+    public String getContentMd5() {
+        return null;
+    }
+
     @Override
     synchronized public Throwable getException() {
         return exception;
@@ -1,26 +1,58 @@
 package eu.europeana.harvester.httpclient.response;
 
-import com.google.common.io.Files;
 import org.apache.commons.lang3.StringUtils;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Stores the retrieved content on disk thus minimizing the memory usage to hold only meta info (ie. headers, url, etc.)
+ * The body parts are written to a file channel in batches (gathering writes) and the MD5 of the content is computed
+ * while it is stored, so the file never has to be read again for it.
  */
 public class HttpRetrieveResponseDiskStorage extends HttpRetrieveResponseBase implements HttpRetrieveResponse {
 
+    /**
+     * The amount of body parts bytes kept before they are written with a single gathering write.
+     */
+    public static final int WRITE_BATCH_SIZE_IN_BYTES = 64 * 1024;
+
     private final Logger LOG = LoggerFactory.getLogger(this.getClass().getName());
 
     /**
      * The file where to store the content.
      */
-    private FileOutputStream fo;
+    private FileChannel channel;
+
+    /**
+     * The body parts received but not yet written. The http client hands over a new buffer for every part.
+     */
+    private final List<ByteBuffer> pendingWrites = new ArrayList<>();
+
+    private long pendingWritesSizeInBytes = 0l;
+
+    /**
+     * The MD5 of the content stored so far.
+     */
+    private MessageDigest contentDigest;
+
+    /**
+     * The MD5 (hex) of the whole content, available after close.
+     */
+    private String contentMd5;
 
     /**
      * The absolute path on disk where the content of the download will be saved.
@@ -37,26 +69,22 @@ public class HttpRetrieveResponseDiskStorage extends HttpRetrieveResponseBase im
     @Override
     synchronized public void init() throws IOException {
         contentSizeInBytes = 0l;
+        contentMd5 = null;
+        pendingWrites.clear();
+        pendingWritesSizeInBytes = 0l;
         try {
-            final File file = new File(absolutePath);
-
-
-            if(file.exists()) {
-                if (!file.delete()) {
-                    throw new RuntimeException("couldn't delete file " + absolutePath + " for unknown reason");
-                }
-            }
-
-            if (!file.createNewFile()) {
-                throw new RuntimeException("createNewFile: " + absolutePath + " has failed for unknown reason");
-            }
-
-            fo = new FileOutputStream(file.getAbsoluteFile());
-        } catch (IOException | RuntimeException  e) {
+            contentDigest = MessageDigest.getInstance("MD5");
+            channel = FileChannel.open(Paths.get(absolutePath), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException | RuntimeException e) {
             setState(RetrievingState.ERROR);
             setException(e);
             LOG.error(e.getMessage());
             throw e;
+        } catch (NoSuchAlgorithmException e) {
+            setState(RetrievingState.ERROR);
+            setException(e);
+            throw new IllegalStateException(e);
         }
     }
 
@@ -67,19 +95,27 @@ public class HttpRetrieveResponseDiskStorage extends HttpRetrieveResponseBase im
 
     @Override
     synchronized public byte[] getContent() throws IOException {
-        final File file = new File(absolutePath);
-        final byte[] data = Files.toByteArray(file);
-        return data;
+        return Files.readAllBytes(new File(absolutePath).toPath());
     }
 
     @Override
     synchronized public void addContent(byte[] content) throws Exception {
+        addContent(ByteBuffer.wrap(content));
+    }
+
+    @Override
+    synchronized public void addContent(ByteBuffer content) throws Exception {
         //lazy load
-        if (null == fo) init();
+        if (null == channel) init();
         try {
-            contentSizeInBytes += content.length;
-            fo.write(content);
-            fo.flush();
+            contentSizeInBytes += content.remaining();
+            contentDigest.update(content.duplicate());
+
+            pendingWrites.add(content);
+            pendingWritesSizeInBytes += content.remaining();
+            if (pendingWritesSizeInBytes >= WRITE_BATCH_SIZE_IN_BYTES) {
+                writePending();
+            }
         } catch (IOException e) {
             setState(RetrievingState.ERROR);
             setException(e);
@@ -95,17 +131,45 @@ public class HttpRetrieveResponseDiskStorage extends HttpRetrieveResponseBase im
         return contentSizeInBytes;
     }
 
+    @Override
+    synchronized public String getContentMd5() {
+        return contentMd5;
+    }
+
+    /**
+     * Writes the pending body parts & closes the file. The content is read back by the same node (through the page
+     * cache) so there is no fsync. Closing more than once has no effect.
+     */
     @Override
     synchronized public void close() throws IOException {
-       if (null != fo) {
-           fo.getChannel().close();
-           fo.close();
-       }
+        if (null != channel && channel.isOpen()) {
+            try {
+                writePending();
+            } finally {
+                channel.close();
+                contentMd5 = String.format("%032x", new BigInteger(1, contentDigest.digest()));
+            }
+        }
+    }
+
+    private void writePending() throws IOException {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+
+        final ByteBuffer[] buffers = pendingWrites.toArray(new ByteBuffer[pendingWrites.size()]);
+        long remaining = pendingWritesSizeInBytes;
+        while (remaining > 0) {
+            remaining -= channel.write(buffers);
+        }
+
+        pendingWrites.clear();
+        pendingWritesSizeInBytes = 0l;
     }
 
     @Override
     protected void finalize() throws Throwable {
-        if (null != fo && fo.getFD().valid()) {
+        if (null != channel && channel.isOpen()) {
             if (null != loggingMarker) {
                 LOG.error (loggingMarker, "File: " + absolutePath + " has valid fd");
             }
@@ -114,7 +178,7 @@ public class HttpRetrieveResponseDiskStorage extends HttpRetrieveResponseBase im
             }
 
             try {
-                fo.close();
+                channel.close();
             }
             catch (Exception e) {
 
@@ -0,0 +1,136 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import eu.europeana.harvester.cluster.domain.messages.*;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
+import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotsLease;
+import eu.europeana.harvester.cluster.master.limiter.domain.RevokeConnectionSlotsLeases;
+import eu.europeana.harvester.domain.*;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.*;
+
+import static org.junit.Assert.*;
+import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
+
+public class KryoSerializerTests {
+
+    private final KryoSerializer serializer = new KryoSerializer();
+
+    public static RetrieveUrl retrieveUrl(final int i) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("If-Modified-Since", "Thu, 01 Jan 2015 00:00:00 GMT");
+        final List<ProcessingJobSubTask> subTasks = new ArrayList<>();
+        subTasks.add(new ProcessingJobSubTask(ProcessingJobSubTaskType.META_EXTRACTION, null));
+        subTasks.add(new ProcessingJobSubTask(ProcessingJobSubTaskType.GENERATE_THUMBNAIL,
+                new GenericSubTaskConfiguration(new ThumbnailConfig(180, 180))));
+
+        return new RetrieveUrl("task" + i, "http://www.example.com/images/" + i + ".jpg", DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD,
+                new ProcessingJobLimits(), "job" + i, "reference" + i, headers,
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD, "reference" + i, subTasks),
+                "192.168.1." + (i % 255), new ReferenceOwner("provider", "collection", "record" + i, "execution"),
+                "d41d8cd98f00b204e9800998ecf8427e");
+    }
+
+    public static DoneProcessing doneProcessing(final int i) {
+        final Map<String, String> headers = new HashMap<>();
+        headers.put("Content-Type", "image/jpeg");
+        headers.put("Content-Length", "123456");
+        headers.put("Last-Modified", "Thu, 01 Jan 2015 00:00:00 GMT");
+        final String[] palette = {"#FFFFFF", "#F0F8FF", "#000000", "#00008B", "#8B0000", "#2F4F4F"};
+
+        return new DoneProcessing("task" + i, "http://www.example.com/images/" + i + ".jpg", "reference" + i, "job" + i,
+                DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD, 200, "image/jpeg", 123456l, 120l, 800l, 0l,
+                "192.168.1." + (i % 255), headers, Arrays.asList("http://example.com/" + i, "http://www.example.com/images/" + i + ".jpg"),
+                new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.SUCCESS),
+                "log of task " + i,
+                new ImageMetaInfo(800, 600, "image/jpeg", "JPEG", "sRGB", 123456l, palette, ImageOrientation.LANDSCAPE),
+                null, null, null, "d41d8cd98f00b204e9800998ecf8427e");
+    }
+
+    private Object roundTrip(final Object message) {
+        return serializer.fromBinary(serializer.toBinary(message));
+    }
+
+    @Test
+    public void canRoundTripABagOfTasks() {
+        final List<RetrieveUrl> tasks = new ArrayList<>();
+        for (int i = 0; i < 10; i++) tasks.add(retrieveUrl(i));
+        final BagOfTasks bagOfTasks = new BagOfTasks(tasks);
+
+        final BagOfTasks read = (BagOfTasks) roundTrip(bagOfTasks);
+        assertEquals(bagOfTasks.getTasks(), read.getTasks());
+        assertReflectionEquals(bagOfTasks, read);
+    }
+
+    @Test
+    public void canRoundTripADoneProcessing() {
+        final DoneProcessing doneProcessing = doneProcessing(1);
+
+        final DoneProcessing read = (DoneProcessing) roundTrip(doneProcessing);
+        assertReflectionEquals(doneProcessing, read);
+        assertArrayEquals(doneProcessing.getImageMetaInfo().getColorPalette(), read.getImageMetaInfo().getColorPalette());
+    }
+
+    @Test
+    public void canRoundTripTheOtherMessages() {
+        final List<Object> messages = Arrays.<Object>asList(
+                new RequestTasks(), new RequestTasks(10, 2, 1, 5), new StartedTask("task"),
+                new RetrieveUrlWithProcessingConfig(retrieveUrl(1), "/tmp/job1"),
+                new ChangeJobState(JobState.PAUSED, "job"), new SendHearbeat(), new SlaveHeartbeat(),
+                new LeaseConnectionSlotsRequest("192.168.1.1", 4),
+                new LeaseConnectionSlotsResponse("192.168.1.1", 4, 10000l),
+                new LeaseConnectionSlotsResponse("192.168.1.1", 4, 10000l, 2),
+                new ReturnConnectionSlotsLease("lease", "192.168.1.1"), new RevokeConnectionSlotsLeases("192.168.1.1"));
+
+        for (final Object message : messages) {
+            assertReflectionEquals(message, roundTrip(message));
+        }
+    }
+
+    @Test
+    public void canReadTheCollectionsWhichCantBeFilled() {
+        final Map<String, String> headers = Collections.unmodifiableMap(Collections.singletonMap("Content-Type", "image/png"));
+        final DoneProcessing doneProcessing = new DoneProcessing("task", "http://www.example.com/", "reference", "job",
+                DocumentReferenceTaskType.CHECK_LINK, 200, "image/png", 1l, 1l, 1l, 1l, "192.168.1.1", headers,
+                Collections.singletonList("http://www.example.com/"), new ProcessingJobSubTaskStats(), null,
+                null, null, null, null, null);
+
+        final DoneProcessing read = (DoneProcessing) roundTrip(doneProcessing);
+        assertEquals(headers, read.getHttpResponseHeaders());
+        assertEquals(doneProcessing.getRedirectionPath(), read.getRedirectionPath());
+    }
+
+    @Test
+    public void writesSmallerMessagesThanTheJavaSerialization() throws IOException {
+        final List<RetrieveUrl> tasks = new ArrayList<>();
+        for (int i = 0; i < 100; i++) tasks.add(retrieveUrl(i));
+        final BagOfTasks bagOfTasks = new BagOfTasks(tasks);
+
+        // The Java serialization writes the description of each class once per message, it weighs most on single messages
+        assertTrue(serializer.toBinary(bagOfTasks).length < javaSerialized(bagOfTasks).length);
+        assertTrue(serializer.toBinary(doneProcessing(1)).length * 5 < javaSerialized(doneProcessing(1)).length);
+        assertTrue(serializer.toBinary(new StartedTask("task")).length * 5 < javaSerialized(new StartedTask("task")).length);
+    }
+
+    @Test
+    public void registersEveryClassOnce() {
+        assertEquals(new HashSet<>(KryoSerializer.REGISTERED_CLASSES).size(), KryoSerializer.REGISTERED_CLASSES.size());
+        for (final Class<?> registeredClass : KryoSerializer.REGISTERED_CLASSES) {
+            assertTrue(registeredClass.getName(), registeredClass.isArray() || registeredClass.isEnum() ||
+                    Serializable.class.isAssignableFrom(registeredClass));
+        }
+    }
+
+    public static byte[] javaSerialized(final Object message) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ObjectOutputStream output = new ObjectOutputStream(bytes);
+        output.writeObject(message);
+        output.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,81 @@
+package eu.europeana.harvester.cluster.domain.serialization;
+
+import eu.europeana.harvester.cluster.domain.messages.BagOfTasks;
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link KryoSerializer} with the Java serialization on the biggest messages between the master & the
+ * slaves : a bag of tasks & a done processing with its image meta info. Every operation writes & reads back a message.
+ * The sizes of the messages are printed at the start of the trial.
+ *
+ * Run it with the main method (from the IDE or with exec:java on the test classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageSerializationBenchmark {
+
+    public enum Message {
+        BAG_OF_TASKS,
+        DONE_PROCESSING
+    }
+
+    @Param({"BAG_OF_TASKS", "DONE_PROCESSING"})
+    public Message message;
+
+    @Param({"100"})
+    public int taskBatchSize;
+
+    private Object value;
+
+    private final KryoSerializer kryoSerializer = new KryoSerializer();
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (message == Message.BAG_OF_TASKS) {
+            final List<RetrieveUrl> tasks = new ArrayList<>(taskBatchSize);
+            for (int i = 0; i < taskBatchSize; i++) {
+                tasks.add(KryoSerializerTests.retrieveUrl(i));
+            }
+            value = new BagOfTasks(tasks);
+        } else {
+            value = KryoSerializerTests.doneProcessing(1);
+        }
+
+        System.out.println(message + " : kryo " + kryoSerializer.toBinary(value).length + " bytes, java " +
+                KryoSerializerTests.javaSerialized(value).length + " bytes");
+    }
+
+    @Benchmark
+    public Object kryo() {
+        return kryoSerializer.fromBinary(kryoSerializer.toBinary(value));
+    }
+
+    @Benchmark
+    public Object java() throws IOException, ClassNotFoundException {
+        final ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(KryoSerializerTests.javaSerialized(value)));
+        try {
+            return input.readObject();
+        } finally {
+            input.close();
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(MessageSerializationBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -8,6 +8,7 @@ import com.google.code.morphia.Datastore;
 import com.google.code.morphia.Morphia;
 import com.mongodb.MongoClient;
 import com.mongodb.WriteConcern;
+import com.ning.http.client.AsyncHttpClient;
 import com.typesafe.config.Config;
 import com.typesafe.config.ConfigFactory;
 import com.typesafe.config.ConfigValueFactory;
@@ -18,10 +19,12 @@ import eu.europeana.harvester.client.HarvesterClientImpl;
 import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
 import eu.europeana.harvester.cluster.domain.DefaultLimits;
 import eu.europeana.harvester.cluster.domain.IPExceptions;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
 import eu.europeana.harvester.cluster.domain.messages.*;
 import eu.europeana.harvester.cluster.domain.utils.Pair;
 import eu.europeana.harvester.cluster.master.jobrestarter.JobRestarterConfig;
 import eu.europeana.harvester.cluster.slave.RetrieveAndProcessActor;
+import eu.europeana.harvester.cluster.slave.downloading.SlaveHttpClientFactory;
 import eu.europeana.harvester.cluster.slave.processing.SlaveProcessor;
 import eu.europeana.harvester.cluster.slave.processing.color.ColorExtractor;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoExtractor;
@@ -72,6 +75,7 @@ public class MasterTests {
     private HarvesterClient harvesterClient;
     private MediaStorageClient mediaStorageClient;
     private SlaveProcessor slaveProcessor;
+    private AsyncHttpClient asyncHttpClient;
 
 
     @Before
@@ -99,6 +103,7 @@ public class MasterTests {
         FileUtils.forceMkdir(new File(PATH_DOWNLOADED));
         mediaStorageClient = new FileSystemMediaStorageClientImpl(PATH_DOWNLOADED);
         slaveProcessor = new SlaveProcessor(new MediaMetaInfoExtractor(PATH_COLORMAP), new ColorExtractor(PATH_COLORMAP), mediaStorageClient, PATH_COLORMAP);
+        asyncHttpClient = SlaveHttpClientFactory.create(SlaveHttpClientConfig.defaults());
     }
 
     @After
@@ -112,6 +117,7 @@ public class MasterTests {
         datastore.delete(datastore.createQuery(SourceDocumentReferenceMetaInfo.class));
         datastore.delete(datastore.createQuery(SourceDocumentReferenceProcessingProfile.class));
 
+        asyncHttpClient.close();
     }
 
     private void createSomeJobs(final List<String> urls, final Integer priority) throws ExecutionException, UnknownHostException, MalformedURLException, TimeoutException, InterruptedException {
@@ -224,7 +230,7 @@ public class MasterTests {
 
         new JavaTestKit(systemAndMasterActor.getKey()) {
             {
-                final ActorRef downloadAndProcess1 = RetrieveAndProcessActor.createActor(systemAndMasterActor.getKey(), httpRetrieveResponseFactory, mediaStorageClient, PATH_COLORMAP);
+                final ActorRef downloadAndProcess1 = RetrieveAndProcessActor.createActor(systemAndMasterActor.getKey(), httpRetrieveResponseFactory, mediaStorageClient, PATH_COLORMAP, asyncHttpClient);
                 Thread.sleep(500);
 
                 // (Step 1) Request tasks from master
@@ -282,7 +288,7 @@ public class MasterTests {
         final ActorRef clusterMaster = systemAndMasterActor.getValue();
 
         new JavaTestKit(systemAndMasterActor.getKey()) {{
-            final ActorRef downloadAndProcess1 = RetrieveAndProcessActor.createActor(systemAndMasterActor.getKey(), httpRetrieveResponseFactory, mediaStorageClient, PATH_COLORMAP);
+            final ActorRef downloadAndProcess1 = RetrieveAndProcessActor.createActor(systemAndMasterActor.getKey(), httpRetrieveResponseFactory, mediaStorageClient, PATH_COLORMAP, asyncHttpClient);
             Thread.sleep(500);
             // JOB 1
             // (Step 1) Request tasks from master
@@ -333,7 +339,7 @@ public class MasterTests {
             final RetrieveUrl retrieveUrl2 = msg2.getTasks().get(0);
             assertEquals("1399538",retrieveUrl2.getHeaders().get("Content-Length"));
 
-            final ActorRef downloadAndProcess2 = RetrieveAndProcessActor.createActor(systemAndMasterActor.getKey(), httpRetrieveResponseFactory, mediaStorageClient, PATH_COLORMAP);
+            final ActorRef downloadAndProcess2 = RetrieveAndProcessActor.createActor(systemAndMasterActor.getKey(), httpRetrieveResponseFactory, mediaStorageClient, PATH_COLORMAP, asyncHttpClient);
 
             // (Step 7) Hand over the first task to the slave
             downloadAndProcess2.tell(new RetrieveUrlWithProcessingConfig(retrieveUrl2, PATH_DOWNLOADED + Image1), getRef());
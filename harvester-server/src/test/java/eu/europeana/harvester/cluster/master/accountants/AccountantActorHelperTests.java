@@ -0,0 +1,78 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import eu.europeana.harvester.cluster.domain.DefaultLimits;
+import eu.europeana.harvester.cluster.domain.messages.RequestTasks;
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.JobPriority;
+import eu.europeana.harvester.domain.ProcessingJobLimits;
+import org.joda.time.Duration;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AccountantActorHelperTests {
+    private final String ip1 = "192.168.1.1";
+    private final String ip2 = "192.168.1.2";
+
+    private final DefaultLimits defaultLimits = new DefaultLimits(20 /*taskBatchSize*/, 100000l, 1 /*defaultMaxConcurrentConnectionsLimit*/,
+            100, 10000, 10, 0.5, Duration.standardHours(1));
+
+    private List<RetrieveUrl> tasks(final String ip, final int count) {
+        final List<RetrieveUrl> tasks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tasks.add(new RetrieveUrl("http://" + ip + "/resource" + i, new ProcessingJobLimits(), DocumentReferenceTaskType.CHECK_LINK,
+                    "job", "reference" + i, null, null, ip, null));
+        }
+        return tasks;
+    }
+
+    private AccountantActorHelper helperWithTasks() {
+        final AccountantActorHelper helper = new AccountantActorHelper(defaultLimits);
+        helper.addTasks(new AddTasks(JobPriority.NORMAL.getPriority(), tasks(ip1, 30)));
+        helper.addTasks(new AddTasks(JobPriority.NORMAL.getPriority(), tasks(ip2, 2)));
+        return helper;
+    }
+
+    @Test
+    public void sendsTheBatchSizeToARequestWithoutDemand() {
+        final AccountantActorHelper helper = helperWithTasks();
+
+        assertEquals(20, helper.getBagOfTasks(new RequestTasks()).getTasks().size());
+        assertEquals(20, helper.allStartedTaskSize());
+    }
+
+    @Test
+    public void sizesTheBagToTheDemand() {
+        final AccountantActorHelper helper = helperWithTasks();
+
+        assertEquals(3, helper.getBagOfTasks(new RequestTasks(3, 2, 1, 7)).getTasks().size());
+        assertTrue(helper.getBagOfTasks(new RequestTasks(0, 0, 0, 10)).getTasks().isEmpty());
+        assertEquals(3, helper.allStartedTaskSize());
+    }
+
+    @Test
+    public void neverSendsMoreThanTheBatchSize() {
+        final AccountantActorHelper helper = helperWithTasks();
+
+        assertEquals(20, helper.getBagOfTasks(new RequestTasks(1000, 100, 10, 0)).getTasks().size());
+    }
+
+    @Test
+    public void limitsTheTasksOfAnIPInABagToWhatItCanRun() {
+        final AccountantActorHelper helper = helperWithTasks();
+
+        int tasksOfIp1 = 0;
+        for (final RetrieveUrl task : helper.getBagOfTasks(new RequestTasks(20, 20, 4, 0)).getTasks()) {
+            if (ip1.equals(task.getIpAddress())) tasksOfIp1++;
+        }
+        // 1 connection per IP
+        assertEquals(AccountantActorHelper.TASKS_PER_CONNECTION_IN_BAG, tasksOfIp1);
+        assertEquals(30 - AccountantActorHelper.TASKS_PER_CONNECTION_IN_BAG, helper.getNumberOfTasks().intValue());
+    }
+}
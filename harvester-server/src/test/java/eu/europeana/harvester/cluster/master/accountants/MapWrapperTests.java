@@ -0,0 +1,81 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.ProcessingJobLimits;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class MapWrapperTests {
+    private final String ip1 = "192.168.1.1";
+    private final String ip2 = "192.168.1.2";
+
+    private RetrieveUrl task(final String ip) {
+        return new RetrieveUrl("http://" + ip + "/resource", new ProcessingJobLimits(), DocumentReferenceTaskType.CHECK_LINK,
+                "job", "reference", null, null, ip, null);
+    }
+
+    private List<String> ipsOf(final List<RetrieveUrl> tasks) {
+        final List<String> ips = new ArrayList<>();
+        for (final RetrieveUrl task : tasks) ips.add(task.getIpAddress());
+        return ips;
+    }
+
+    @Test
+    public void canHandOutTasksRoundRobinAcrossBatches() {
+        final AccountantActorHelper.MapWrapper lane = new AccountantActorHelper.MapWrapper();
+        for (int i = 0; i < 3; i++) lane.addTask(task(ip1));
+        lane.addTask(task(ip2));
+
+        final List<RetrieveUrl> first = lane.getListOfTasksWithRoundRobinStrategy(3);
+        assertEquals(3, first.size());
+        assertEquals(2, ipsOf(first).lastIndexOf(ip1));
+        assertTrue(ipsOf(first).contains(ip2));
+        assertEquals(1, lane.getSize());
+        assertEquals(1, lane.uniqueIPs().size());
+
+        final List<RetrieveUrl> second = lane.getListOfTasksWithRoundRobinStrategy(3);
+        assertEquals(1, second.size());
+        assertEquals(ip1, second.get(0).getIpAddress());
+        assertEquals(0, lane.getSize());
+        assertTrue(lane.uniqueIPs().isEmpty());
+        assertTrue(lane.getListOfTasksWithRoundRobinStrategy(3).isEmpty());
+    }
+
+    @Test
+    public void keepsTheTurnOfTheIPsWhichReachedTheirLimit() {
+        final AccountantActorHelper.MapWrapper lane = new AccountantActorHelper.MapWrapper();
+        for (int i = 0; i < 3; i++) lane.addTask(task(ip1));
+        for (int i = 0; i < 3; i++) lane.addTask(task(ip2));
+
+        final Map<String, Integer> sent = new HashMap<>();
+        sent.put(ip1, 1);
+        final List<RetrieveUrl> first = lane.getListOfTasksWithRoundRobinStrategy(10, 2, sent);
+        assertEquals(Arrays.asList(ip1, ip2, ip2), ipsOf(first));
+        assertEquals(Integer.valueOf(2), sent.get(ip1));
+        assertEquals(Integer.valueOf(2), sent.get(ip2));
+
+        // The full IPs missed their turn, they get it in the next call
+        final List<RetrieveUrl> second = lane.getListOfTasksWithRoundRobinStrategy(2);
+        assertEquals(Arrays.asList(ip1, ip2), ipsOf(second));
+    }
+
+    @Test
+    public void handsOutTasksAddedTwiceOnlyOnce() {
+        final AccountantActorHelper.MapWrapper lane = new AccountantActorHelper.MapWrapper();
+        final RetrieveUrl task = task(ip1);
+        lane.addTask(task);
+        lane.addTask(task);
+
+        assertEquals(1, lane.getListOfTasksWithRoundRobinStrategy(10).size());
+        assertTrue(lane.getListOfTasksWithRoundRobinStrategy(10).isEmpty());
+        assertTrue(lane.uniqueIPs().isEmpty());
+    }
+}
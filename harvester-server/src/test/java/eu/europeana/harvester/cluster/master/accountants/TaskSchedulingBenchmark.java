@@ -0,0 +1,148 @@
+package eu.europeana.harvester.cluster.master.accountants;
+
+import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
+import eu.europeana.harvester.domain.ProcessingJobLimits;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the round robin task scheduling of {@link AccountantActorHelper.MapWrapper} with the previous one (a list
+ * of task ids per IP), at 10k IPs x 1M waiting tasks. Every operation hands out a batch of tasks and adds them back,
+ * so the number of waiting tasks stays the same.
+ *
+ * Run it with the main method (from the IDE or with exec:java on the test classpath).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@State(Scope.Benchmark)
+public class TaskSchedulingBenchmark {
+
+    public enum Distribution {
+        /**
+         * Every IP has the same number of tasks.
+         */
+        UNIFORM,
+
+        /**
+         * Half of the tasks belong to a single IP.
+         */
+        SKEWED
+    }
+
+    @Param({"10000"})
+    public int numberOfIps;
+
+    @Param({"1000000"})
+    public int numberOfTasks;
+
+    @Param({"100"})
+    public int taskBatchSize;
+
+    @Param({"UNIFORM", "SKEWED"})
+    public Distribution distribution;
+
+    private AccountantActorHelper.MapWrapper scheduler;
+
+    private ListPerIpMapWrapper listPerIpScheduler;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        scheduler = new AccountantActorHelper.MapWrapper();
+        listPerIpScheduler = new ListPerIpMapWrapper();
+
+        for (int i = 0; i < numberOfTasks; i++) {
+            final int ip = (distribution == Distribution.SKEWED && i % 2 == 0) ? 0 : i % numberOfIps;
+            final RetrieveUrl task = new RetrieveUrl("http://host" + ip + "/resource/" + i, new ProcessingJobLimits(),
+                    DocumentReferenceTaskType.CHECK_LINK, "job", "reference-" + i, null, null, "10.0." + ip / 256 + "." + ip % 256, null);
+            scheduler.addTask(task);
+            listPerIpScheduler.addTask(task);
+        }
+    }
+
+    @Benchmark
+    public List<RetrieveUrl> dequePerIpWithActiveIpRing() {
+        final List<RetrieveUrl> tasks = scheduler.getListOfTasksWithRoundRobinStrategy(taskBatchSize);
+        for (final RetrieveUrl task : tasks) {
+            scheduler.addTask(task);
+        }
+        return tasks;
+    }
+
+    @Benchmark
+    public List<RetrieveUrl> listPerIp() {
+        final List<RetrieveUrl> tasks = listPerIpScheduler.getListOfTasksWithRoundRobinStrategy(taskBatchSize);
+        for (final RetrieveUrl task : tasks) {
+            listPerIpScheduler.addTask(task);
+        }
+        return tasks;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(TaskSchedulingBenchmark.class.getSimpleName()).build()).run();
+    }
+
+    /**
+     * The scheduling used before the per-IP queues : every task is taken with remove(0) from the list of its IP and
+     * every round starts by copying the IPs.
+     */
+    static class ListPerIpMapWrapper {
+
+        private final Map<String, RetrieveUrl> waitingTasks = new HashMap<>();
+        private final Map<String, List<String>> tasksPerIP = new HashMap<>();
+
+        public void addTask(RetrieveUrl retrieveUrl) {
+            waitingTasks.put(retrieveUrl.getId(), retrieveUrl);
+            final String IP = retrieveUrl.getIpAddress();
+            List<String> tasks = tasksPerIP.get(IP);
+            if (tasks == null)
+                tasks = new ArrayList<>();
+            tasks.add(retrieveUrl.getId());
+            tasksPerIP.put(IP, tasks);
+        }
+
+        public List<RetrieveUrl> getListOfTasksWithRoundRobinStrategy(int maxToSend) {
+
+            ArrayList<RetrieveUrl> tasksToSend = new ArrayList<>();
+
+            boolean foundTasks = true;
+
+            while (foundTasks && tasksToSend.size() < maxToSend) {
+
+                List<String> ips = new ArrayList<>(tasksPerIP.keySet());
+                foundTasks = false;
+                for (String ip : ips) {
+
+                    List<String> tasks = tasksPerIP.get(ip);
+
+                    String task = tasks.remove(0);
+
+                    if (tasks.size() == 0)
+                        tasksPerIP.remove(ip);
+                    else
+                        tasksPerIP.put(ip, tasks);
+
+                    RetrieveUrl retrieveUrl = waitingTasks.remove(task);
+
+                    if (retrieveUrl != null)
+                        tasksToSend.add(retrieveUrl);
+
+                    foundTasks = true;
+
+                    if (tasksToSend.size() == maxToSend)
+                        break;
+                }
+            }
+
+            return tasksToSend;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package eu.europeana.harvester.cluster.master.journal;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class FileJournalTests {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static class RecordingRecovery implements FileJournal.Recovery {
+        private Object snapshot = null;
+
+        private final List<Object> events = new ArrayList<>();
+
+        @Override
+        public void onSnapshot(Object snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public void onEvent(Object event) {
+            events.add(event);
+        }
+    }
+
+    private RecordingRecovery reopen(final File directory) throws IOException {
+        final RecordingRecovery recovery = new RecordingRecovery();
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(recovery);
+        }
+        return recovery;
+    }
+
+    @Test
+    public void canRecoverTheJournaledEvents() throws IOException {
+        final File directory = folder.newFolder();
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            assertFalse(journal.recover(new RecordingRecovery()));
+            journal.append("a");
+            journal.append("b");
+        }
+
+        final RecordingRecovery recovery = reopen(directory);
+        assertNull(recovery.snapshot);
+        assertEquals(Arrays.<Object>asList("a", "b"), recovery.events);
+    }
+
+    @Test
+    public void dropsATornRecordAndKeepsAppending() throws IOException {
+        final File directory = folder.newFolder();
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(new RecordingRecovery());
+            journal.append("a");
+            journal.append("b");
+        }
+
+        // A crash in the middle of the last record
+        final File journalFile = new File(directory, "test.journal");
+        try (final RandomAccessFile file = new RandomAccessFile(journalFile, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            final RecordingRecovery recovery = new RecordingRecovery();
+            assertTrue(journal.recover(recovery));
+            assertEquals(Arrays.<Object>asList("a"), recovery.events);
+            journal.append("c");
+        }
+
+        assertEquals(Arrays.<Object>asList("a", "c"), reopen(directory).events);
+    }
+
+    @Test
+    public void recoversTheSnapshotAndOnlyTheLaterEvents() throws IOException {
+        final File directory = folder.newFolder();
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(new RecordingRecovery());
+            journal.append("a");
+            journal.saveSnapshot("state after a");
+            assertEquals(0, journal.getEventsSinceSnapshot());
+            journal.append("b");
+        }
+
+        final RecordingRecovery recovery = reopen(directory);
+        assertEquals("state after a", recovery.snapshot);
+        assertEquals(Arrays.<Object>asList("b"), recovery.events);
+    }
+
+    @Test
+    public void skipsTheEventsAlreadyInTheSnapshot() throws IOException {
+        final File directory = folder.newFolder();
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(new RecordingRecovery());
+            journal.append("a");
+            journal.append("b");
+        }
+        final byte[] journalBeforeSnapshot = Files.readAllBytes(new File(directory, "test.journal").toPath());
+
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(new RecordingRecovery());
+            journal.saveSnapshot("state after b");
+        }
+
+        // A crash between writing the snapshot & truncating the journal
+        Files.write(new File(directory, "test.journal").toPath(), journalBeforeSnapshot);
+
+        final RecordingRecovery recovery = reopen(directory);
+        assertEquals("state after b", recovery.snapshot);
+        assertTrue(recovery.events.isEmpty());
+    }
+
+    @Test
+    public void keepsJournalingWhileASnapshotIsWrittenInTheBackground() throws IOException {
+        final File directory = folder.newFolder();
+        final List<Runnable> pendingSnapshots = new ArrayList<>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pendingSnapshots.add(command);
+            }
+        };
+
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(new RecordingRecovery());
+            journal.append("a");
+            journal.append("b");
+            journal.saveSnapshotInBackground("state after b", executor);
+            assertTrue(journal.isSavingSnapshot());
+            assertEquals(0, journal.getEventsSinceSnapshot());
+            journal.append("c");
+        }
+
+        // A crash before the snapshot is written : the events set aside are recovered
+        final RecordingRecovery beforeSnapshot = reopen(directory);
+        assertNull(beforeSnapshot.snapshot);
+        assertEquals(Arrays.<Object>asList("a", "b", "c"), beforeSnapshot.events);
+
+        assertEquals(1, pendingSnapshots.size());
+        pendingSnapshots.get(0).run();
+
+        final RecordingRecovery afterSnapshot = reopen(directory);
+        assertEquals("state after b", afterSnapshot.snapshot);
+        assertEquals(Arrays.<Object>asList("c"), afterSnapshot.events);
+        assertFalse(new File(directory, "test.journal.previous").exists());
+    }
+
+    @Test
+    public void doesNotReplaceASnapshotByAnOlderOneWrittenInTheBackground() throws IOException {
+        final File directory = folder.newFolder();
+        final List<Runnable> pendingSnapshots = new ArrayList<>();
+        final Executor executor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                pendingSnapshots.add(command);
+            }
+        };
+
+        try (final FileJournal journal = new FileJournal(directory, "test")) {
+            journal.recover(new RecordingRecovery());
+            journal.append("a");
+            journal.saveSnapshotInBackground("state after a", executor);
+            journal.append("b");
+            journal.saveSnapshot("state after b");
+            pendingSnapshots.get(0).run();
+            assertFalse(journal.isSavingSnapshot());
+        }
+
+        final RecordingRecovery recovery = reopen(directory);
+        assertEquals("state after b", recovery.snapshot);
+        assertTrue(recovery.events.isEmpty());
+    }
+}
@@ -10,6 +10,7 @@ import org.junit.Test;
 
 import java.util.*;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
@@ -139,6 +140,99 @@ public class IPLimiterAccountantActorTests {
 
 
 
+    @Test
+    public void canGrantWaitingLeaseRequestsAsSoonAsSlotsAreFreed() throws InterruptedException {
+        ActorSystem system = ActorSystem.create();
+
+        new JavaTestKit(system) {{
+
+            final Map<String, Integer> specificLimitsPerIp = new HashMap<>();
+            specificLimitsPerIp.put(ip2, 2);
+
+            final ActorRef subject = IPLimiterAccountantActor.createActor(getSystem(), new IPLimiterConfig(1,specificLimitsPerIp,Duration.standardMinutes(10)));
+
+            subject.tell(new LeaseConnectionSlotsRequest(ip2, 5), getRef());
+            while (!msgAvailable()) Thread.sleep(100);
+            final LeaseConnectionSlotsResponse lease1 = expectMsgAnyClassOf(LeaseConnectionSlotsResponse.class);
+            assertEquals(2, lease1.getSlots().intValue());
+
+            // No slot is left so the request waits
+            subject.tell(new LeaseConnectionSlotsRequest(ip2, 1), getRef());
+            expectNoMsg(duration("500 millis"));
+
+            subject.tell(new ReturnConnectionSlotsLease(lease1.getLeaseId(), ip2), getRef());
+            while (!msgAvailable()) Thread.sleep(100);
+            final LeaseConnectionSlotsResponse lease2 = expectMsgAnyClassOf(LeaseConnectionSlotsResponse.class);
+            assertEquals(1, lease2.getSlots().intValue());
+
+        }};
+    }
+
+    @Test
+    public void canDropTheWaitingLeaseRequestsOfADeadSlave() throws InterruptedException {
+        ActorSystem system = ActorSystem.create();
+
+        new JavaTestKit(system) {{
+
+            final Map<String, Integer> specificLimitsPerIp = new HashMap<>();
+            specificLimitsPerIp.put(ip2, 2);
+
+            final ActorRef subject = IPLimiterAccountantActor.createActor(getSystem(), new IPLimiterConfig(1,specificLimitsPerIp,Duration.standardMinutes(10)));
+
+            subject.tell(new LeaseConnectionSlotsRequest(ip2, 2), getRef());
+            while (!msgAvailable()) Thread.sleep(100);
+            final LeaseConnectionSlotsResponse lease1 = expectMsgAnyClassOf(LeaseConnectionSlotsResponse.class);
+            assertEquals(2, lease1.getSlots().intValue());
+
+            // The slave dies while its request waits
+            final JavaTestKit deadSlave = new JavaTestKit(getSystem());
+            subject.tell(new LeaseConnectionSlotsRequest(ip2, 2), deadSlave.getRef());
+            getSystem().stop(deadSlave.getRef());
+
+            subject.tell(new LeaseConnectionSlotsRequest(ip2, 2), getRef());
+            expectNoMsg(duration("500 millis"));
+
+            // The freed slots go to the live slave behind it
+            subject.tell(new ReturnConnectionSlotsLease(lease1.getLeaseId(), ip2), getRef());
+            while (!msgAvailable()) Thread.sleep(100);
+            final LeaseConnectionSlotsResponse lease2 = expectMsgAnyClassOf(LeaseConnectionSlotsResponse.class);
+            assertEquals(2, lease2.getSlots().intValue());
+
+        }};
+    }
+
+    @Test
+    public void revokesTheLeasesOfAnIpWhichAsksForAPause() throws InterruptedException {
+        ActorSystem system = ActorSystem.create();
+
+        new JavaTestKit(system) {{
+
+            final TokenBucketConfig tokenBucketConfig = new TokenBucketConfig(1.0, 0.5, 10.0, 4, 1.0, 0.5, 1000l, 60000l);
+            final ActorRef subject = IPLimiterAccountantActor.createActor(getSystem(), new IPLimiterConfig(2,
+                    new HashMap<String, Integer>(), Duration.standardMinutes(10), null, tokenBucketConfig));
+
+            subject.tell(new LeaseConnectionSlotsRequest(ip1, 3), getRef());
+            while (!msgAvailable()) Thread.sleep(100);
+            final LeaseConnectionSlotsResponse lease = expectMsgAnyClassOf(LeaseConnectionSlotsResponse.class);
+            assertEquals(2, lease.getSlots().intValue());
+            assertEquals(3, lease.getTasks().intValue());
+
+            // A slow response only lowers the rate of the next leases
+            subject.tell(new HostResponseReport(ip1, 200, 5000l, 0l), getRef());
+            expectNoMsg(duration("500 millis"));
+
+            subject.tell(new HostResponseReport(ip1, 429, 100l, 30000l), getRef());
+            while (!msgAvailable()) Thread.sleep(100);
+            assertEquals(ip1, expectMsgAnyClassOf(RevokeConnectionSlotsLeases.class).getIp());
+
+            // A returned lease is not revoked again
+            subject.tell(new ReturnConnectionSlotsLease(lease.getLeaseId(), ip1), getRef());
+            subject.tell(new HostResponseReport(ip1, 503, 100l, 30000l), getRef());
+            expectNoMsg(duration("500 millis"));
+
+        }};
+    }
+
     @Test(timeout = 10000)
     public void canHandle500kRequestsInUnder10Seconds() throws InterruptedException {
 
@@ -1,5 +1,6 @@
 package eu.europeana.harvester.cluster.master.limiter;
 
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
 import org.joda.time.DateTime;
 import org.junit.Test;
@@ -72,4 +73,30 @@ public class IpConnectionSlotsTests {
 
     }
 
+    @Test
+    public void canLeaseAndReturnBlocksOfConnectionSlots() {
+        final IpConnectionSlots ipConnectionSlots = new IpConnectionSlots(3, ip1);
+        final LeaseConnectionSlotsResponse lease1 = ipConnectionSlots.requestConnectionSlotsLease(2, 1000);
+        assertEquals(2, lease1.getSlots().intValue());
+        final LeaseConnectionSlotsResponse lease2 = ipConnectionSlots.requestConnectionSlotsLease(5, 1000);
+        assertEquals(1, lease2.getSlots().intValue());
+        assertFalse(ipConnectionSlots.requestConnectionSlotsLease(1, 1000).getGranted());
+        assertFalse(ipConnectionSlots.requestConnectionSlotReservation(taskId).getGranted());
+
+        assertTrue(ipConnectionSlots.returnConnectionSlotsLease(lease1.getLeaseId()));
+        assertFalse(ipConnectionSlots.returnConnectionSlotsLease(lease1.getLeaseId()));
+        assertEquals(2, ipConnectionSlots.getNumberOfAvailableSlots());
+    }
+
+    @Test
+    public void canCleanExpiredConnectionSlotsLeases() throws InterruptedException {
+        final IpConnectionSlots ipConnectionSlots = new IpConnectionSlots(2, ip1);
+        final LeaseConnectionSlotsResponse lease = ipConnectionSlots.requestConnectionSlotsLease(2, 1000);
+        assertEquals(0, ipConnectionSlots.getNumberOfAvailableSlots());
+        Thread.sleep(2 * 1000);
+        ipConnectionSlots.reclaimOccupiedSlotsOlderThan(DateTime.now().minusSeconds(1));
+        assertEquals(2, ipConnectionSlots.getNumberOfAvailableSlots());
+        assertFalse(ipConnectionSlots.returnConnectionSlotsLease(lease.getLeaseId()));
+    }
+
 }
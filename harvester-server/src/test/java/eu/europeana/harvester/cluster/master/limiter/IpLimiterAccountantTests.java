@@ -1,8 +1,11 @@
 package eu.europeana.harvester.cluster.master.limiter;
 
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotRequest;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReserveConnectionSlotResponse;
 import eu.europeana.harvester.cluster.master.limiter.domain.ReturnConnectionSlotRequest;
+import eu.europeana.harvester.cluster.master.limiter.domain.TokenBucketConfig;
 import org.joda.time.DateTime;
 import org.joda.time.Duration;
 import org.junit.Test;
@@ -59,6 +62,52 @@ public class IpLimiterAccountantTests {
     }
 
 
+    @Test
+    public void canLeaseOnlyTheSlotsAllowedByTheRateOfTheIp() {
+        // A burst of 3 slots, then 1 slot per 100 seconds
+        final TokenBucketConfig tokenBucketConfig = new TokenBucketConfig(0.01, 0.01, 1.0, 3, 0.01, 0.5, 1000l, 60000l);
+        final IpLimiterAccountant ipLimiterAccountant = new IpLimiterAccountant(10, new HashMap<String, Integer>(),
+                60000l, tokenBucketConfig);
+
+        final LeaseConnectionSlotsResponse lease = ipLimiterAccountant.leaseConnectionSlotsRequest(new LeaseConnectionSlotsRequest(ip1, 5), 60000);
+        assertEquals(Integer.valueOf(3), lease.getSlots());
+        // The lease starts only the tasks paid with the tokens
+        assertEquals(Integer.valueOf(3), lease.getTasks());
+        assertFalse(ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip1, taskId)).getGranted());
+
+        // Another IP has its own bucket
+        assertTrue(ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip2, taskId)).getGranted());
+    }
+
+    @Test
+    public void leasesForTheTasksWhichCanBePaidWhenTheSlotsAreFewer() {
+        final TokenBucketConfig tokenBucketConfig = new TokenBucketConfig(0.01, 0.01, 1.0, 5, 0.01, 0.5, 1000l, 60000l);
+        final IpLimiterAccountant ipLimiterAccountant = new IpLimiterAccountant(2, new HashMap<String, Integer>(),
+                60000l, tokenBucketConfig);
+
+        final LeaseConnectionSlotsResponse lease = ipLimiterAccountant.leaseConnectionSlotsRequest(new LeaseConnectionSlotsRequest(ip1, 4), 60000);
+        assertEquals(Integer.valueOf(2), lease.getSlots());
+        assertEquals(Integer.valueOf(4), lease.getTasks());
+        assertTrue(ipLimiterAccountant.isLeased(ip1, lease.getLeaseId()));
+
+        // A single token is left
+        ipLimiterAccountant.setSpecificLimitPerIp(ip1, 10);
+        assertEquals(Integer.valueOf(1), ipLimiterAccountant.leaseConnectionSlotsRequest(new LeaseConnectionSlotsRequest(ip1, 4), 60000).getTasks());
+    }
+
+    @Test
+    public void canReclaimTheExpiredSlotsAndLeases() {
+        final IpLimiterAccountant ipLimiterAccountant = new IpLimiterAccountant(3, new HashMap<String, Integer>(), 1000l, null);
+
+        assertTrue(ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip1, taskId)).getGranted());
+        assertEquals(Integer.valueOf(2), ipLimiterAccountant.leaseConnectionSlotsRequest(new LeaseConnectionSlotsRequest(ip1, 2), 1000).getSlots());
+        assertFalse(ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip1, taskId)).getGranted());
+
+        assertEquals(0, ipLimiterAccountant.reclaimExpiredSlots(System.currentTimeMillis()));
+        assertEquals(3, ipLimiterAccountant.reclaimExpiredSlots(System.currentTimeMillis() + 1000 + IpLimiterAccountant.EXPIRY_TICK_IN_MILLIS));
+        assertTrue(ipLimiterAccountant.reserveConnectionSlotRequest(new ReserveConnectionSlotRequest(ip1, taskId)).getGranted());
+    }
+
     @Test(timeout=10000)
     public void canHandle1MillionRequestsInUnder5Seconds() {
         final DateTime start = DateTime.now();
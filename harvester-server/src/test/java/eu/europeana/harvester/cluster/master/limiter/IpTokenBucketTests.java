@@ -0,0 +1,98 @@
+package eu.europeana.harvester.cluster.master.limiter;
+
+import eu.europeana.harvester.cluster.master.limiter.domain.HostResponseReport;
+import eu.europeana.harvester.cluster.master.limiter.domain.TokenBucketConfig;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IpTokenBucketTests {
+    private final String ip = "192.168.1.1";
+
+    private final TokenBucketConfig config = new TokenBucketConfig(2.0, 0.5, 10.0, 4, 1.0, 0.5, 1000l, 60000l);
+
+    private HostResponseReport response(final int code, final long latency, final long retryAfter) {
+        return new HostResponseReport(ip, code, latency, retryAfter);
+    }
+
+    @Test
+    public void canGrantTheBurstThenTheRate() {
+        final IpTokenBucket bucket = new IpTokenBucket(config, 0);
+
+        assertEquals(4, bucket.getAvailableTokens(0));
+        bucket.take(4, 0);
+        assertEquals(0, bucket.getAvailableTokens(0));
+
+        // 2 tokens per second
+        assertEquals(1, bucket.getAvailableTokens(500));
+        assertEquals(2, bucket.getAvailableTokens(1000));
+        // Never more than the burst
+        assertEquals(4, bucket.getAvailableTokens(60000));
+    }
+
+    @Test
+    public void increasesTheRateAdditivelyWhileTheResponsesAreGood() {
+        final IpTokenBucket bucket = new IpTokenBucket(config, 0);
+
+        // About one step per second at the current rate
+        bucket.onResponse(response(200, 100, 0), 0);
+        bucket.onResponse(response(200, 100, 0), 0);
+        assertTrue(bucket.getRatePerSecond() > 2.8 && bucket.getRatePerSecond() < 3.0);
+
+        for (int i = 0; i < 1000; i++) bucket.onResponse(response(200, 100, 0), 0);
+        assertEquals(10.0, bucket.getRatePerSecond(), 0.0001);
+    }
+
+    @Test
+    public void decreasesTheRateOncePerIntervalOnBadResponses() {
+        final IpTokenBucket bucket = new IpTokenBucket(config, 0);
+
+        bucket.onResponse(response(503, 100, 0), 0);
+        assertEquals(1.0, bucket.getRatePerSecond(), 0.0001);
+
+        // The responses to the requests sent at the previous rate
+        bucket.onResponse(response(200, 5000, 0), 10);
+        assertEquals(1.0, bucket.getRatePerSecond(), 0.0001);
+
+        bucket.onResponse(response(200, 5000, 0), IpTokenBucket.DECREASE_INTERVAL_IN_MILLIS);
+        assertEquals(0.5, bucket.getRatePerSecond(), 0.0001);
+
+        // Never under the minimum
+        bucket.onResponse(response(429, 100, 0), 10 * IpTokenBucket.DECREASE_INTERVAL_IN_MILLIS);
+        assertEquals(0.5, bucket.getRatePerSecond(), 0.0001);
+    }
+
+    @Test
+    public void pausesOnRetryAfter() {
+        final IpTokenBucket bucket = new IpTokenBucket(config, 0);
+
+        assertFalse(bucket.onResponse(response(429, 100, 0), 0));
+        assertTrue(bucket.onResponse(response(429, 100, 30000), 0));
+        assertEquals(0, bucket.getAvailableTokens(29999));
+        assertTrue(bucket.getAvailableTokens(30000) > 0);
+
+        // The pause is bounded
+        bucket.onResponse(response(503, 100, 24 * 3600 * 1000l), 40000);
+        assertTrue(bucket.getAvailableTokens(40000 + 60000) > 0);
+    }
+
+    @Test
+    public void ignoresTheTasksWithoutResponse() {
+        final IpTokenBucket bucket = new IpTokenBucket(config, 0);
+
+        bucket.onResponse(response(-1, -1, 0), 0);
+        assertEquals(2.0, bucket.getRatePerSecond(), 0.0001);
+    }
+
+    @Test
+    public void canParseRetryAfterInSecondsAndAsADate() {
+        assertEquals(120000, HostResponseReport.parseRetryAfter(Collections.singletonMap("retry-after", "120"), 0));
+        assertEquals(10000, HostResponseReport.parseRetryAfter(Collections.singletonMap("Retry-After", "Thu, 01 Jan 1970 00:00:20 GMT"), 10000));
+        assertEquals(0, HostResponseReport.parseRetryAfter(Collections.singletonMap("Retry-After", "soon"), 0));
+        assertEquals(0, HostResponseReport.parseRetryAfter(null, 0));
+    }
+}
@@ -0,0 +1,73 @@
+package eu.europeana.harvester.cluster.master.limiter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SlotExpiryWheelTests {
+    private final String ip = "192.168.1.1";
+
+    private static class RecordingExpiry implements SlotExpiryWheel.Expiry {
+        private final List<String> expired = new ArrayList<>();
+
+        @Override
+        public void onExpired(String ip, String id, boolean lease) {
+            expired.add(id);
+        }
+    }
+
+    @Test
+    public void canExpireTheSlotsInTheirTick() {
+        final SlotExpiryWheel wheel = new SlotExpiryWheel(100, 8, 0);
+        wheel.schedule(ip, "a", false, 150);
+        wheel.schedule(ip, "b", true, 250);
+
+        final RecordingExpiry expiry = new RecordingExpiry();
+        assertEquals(0, wheel.advance(199, expiry));
+        assertEquals(1, wheel.advance(200, expiry));
+        assertEquals(Arrays.asList("a"), expiry.expired);
+
+        assertEquals(1, wheel.advance(300, expiry));
+        assertEquals(Arrays.asList("a", "b"), expiry.expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void keepsTheSlotsFurtherThanATurnUntilTheirTurn() {
+        final SlotExpiryWheel wheel = new SlotExpiryWheel(100, 4, 0);
+        // Shares the bucket of the tick 2 but expires two turns later
+        wheel.schedule(ip, "far", false, 1000);
+
+        final RecordingExpiry expiry = new RecordingExpiry();
+        assertEquals(0, wheel.advance(900, expiry));
+        assertEquals(1, wheel.size());
+        assertEquals(1, wheel.advance(1000, expiry));
+    }
+
+    @Test
+    public void canCatchUpAfterALongPause() {
+        final SlotExpiryWheel wheel = new SlotExpiryWheel(100, 4, 0);
+        for (int i = 1; i <= 20; i++) {
+            wheel.schedule(ip, "slot" + i, false, i * 100);
+        }
+
+        final RecordingExpiry expiry = new RecordingExpiry();
+        assertEquals(20, wheel.advance(10000, expiry));
+        assertTrue(expiry.expired.contains("slot20"));
+    }
+
+    @Test
+    public void neverExpiresASlotInAPassedTick() {
+        final SlotExpiryWheel wheel = new SlotExpiryWheel(100, 4, 0);
+        final RecordingExpiry expiry = new RecordingExpiry();
+        wheel.advance(500, expiry);
+
+        wheel.schedule(ip, "late", false, 100);
+        assertEquals(1, wheel.advance(600, expiry));
+    }
+}
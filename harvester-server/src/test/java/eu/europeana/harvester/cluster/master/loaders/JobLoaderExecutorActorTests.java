@@ -0,0 +1,179 @@
+package eu.europeana.harvester.cluster.master.loaders;
+
+import akka.actor.ActorRef;
+import akka.actor.ActorSystem;
+import akka.actor.Terminated;
+import akka.testkit.JavaTestKit;
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.IPExceptions;
+import eu.europeana.harvester.cluster.domain.messages.LoadJobs;
+import eu.europeana.harvester.cluster.domain.messages.inner.AddTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetNumberOfTasks;
+import eu.europeana.harvester.cluster.domain.messages.inner.GetOverLoadedIPs;
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.db.interfaces.ProcessingJobDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentProcessingStatisticsDao;
+import eu.europeana.harvester.db.interfaces.SourceDocumentReferenceDao;
+import eu.europeana.harvester.domain.*;
+import org.junit.Test;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.*;
+import static org.mockito.Mockito.*;
+
+public class JobLoaderExecutorActorTests {
+
+    private static final String IP = "127.0.0.1";
+
+    @Test
+    public void canLoadTheJobsOfEachPriorityInBatches() throws InterruptedException {
+        final int numberOfJobs = JobLoaderExecutorHelper.ADD_TASKS_BATCH_SIZE + 10;
+
+        final List<ProcessingJob> jobs = new ArrayList<>();
+        final List<SourceDocumentReference> references = new ArrayList<>();
+        for (int i = 0; i < numberOfJobs; i++) {
+            final SourceDocumentReference reference = new SourceDocumentReference(new ReferenceOwner("1", "1", "1"),
+                    "http://" + IP + "/" + i, IP, null, 0l, null, true);
+            references.add(reference);
+            jobs.add(new ProcessingJob(JobPriority.NORMAL.getPriority(), new Date(), new ReferenceOwner("1", "1", "1"),
+                    Collections.singletonList(new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                            reference.getId(), Collections.<ProcessingJobSubTask>emptyList())),
+                    JobState.READY, URLSourceType.ISSHOWNBY, IP, true));
+        }
+
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        when(processingJobDao.getDiffusedJobsWithState(eq(JobPriority.FASTLANE), eq(JobState.READY), any(Page.class), anyMap()))
+                .thenReturn(Collections.<ProcessingJob>emptyList());
+        when(processingJobDao.getDiffusedJobsWithState(eq(JobPriority.NORMAL), eq(JobState.READY), any(Page.class), anyMap()))
+                .thenReturn(jobs);
+        final SourceDocumentReferenceDao sourceDocumentReferenceDao = mock(SourceDocumentReferenceDao.class);
+        when(sourceDocumentReferenceDao.read(anyList())).thenReturn(references);
+        final SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao = mock(SourceDocumentProcessingStatisticsDao.class);
+        when(sourceDocumentProcessingStatisticsDao.read(anyList())).thenReturn(Collections.<SourceDocumentProcessingStatistics>emptyList());
+        final MachineResourceReferenceDao machineResourceReferenceDao = mock(MachineResourceReferenceDao.class);
+        when(machineResourceReferenceDao.getCount()).thenReturn(1l);
+        when(machineResourceReferenceDao.getAllMachineResourceReferences(any(Page.class)))
+                .thenReturn(Collections.singletonList(new MachineResourceReference(IP)));
+
+        final ActorSystem system = ActorSystem.create();
+
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit limiter = new JavaTestKit(system);
+
+            final ActorRef subject = JobLoaderExecutorActor.createActor(getSystem(),
+                    new ClusterMasterConfig(100, 100000l, null, null, null, WriteConcern.ACKNOWLEDGED),
+                    accountant.getRef(), limiter.getRef(), processingJobDao, sourceDocumentProcessingStatisticsDao,
+                    sourceDocumentReferenceDao, new MachineResourceReferenceCache(machineResourceReferenceDao, 60000),
+                    new HashMap<String, Boolean>(), new IPExceptions(0, Collections.<String>emptyList(), Collections.<String>emptyList()),
+                    new HashMap<String, Integer>());
+            watch(subject);
+
+            subject.tell(new LoadJobs(), getRef());
+
+            // The fast lane : no jobs
+            accountant.expectMsgClass(GetNumberOfTasks.class);
+            accountant.reply(0);
+            accountant.expectMsgClass(GetOverLoadedIPs.class);
+            accountant.reply(new ArrayList<String>());
+
+            // The normal lane : two batches
+            accountant.expectMsgClass(GetNumberOfTasks.class);
+            accountant.reply(0);
+            accountant.expectMsgClass(GetOverLoadedIPs.class);
+            accountant.reply(new ArrayList<String>());
+
+            final AddTasks firstBatch = accountant.expectMsgClass(AddTasks.class);
+            final AddTasks secondBatch = accountant.expectMsgClass(AddTasks.class);
+            assertEquals(Integer.valueOf(JobPriority.NORMAL.getPriority()), firstBatch.getJobPriority());
+            assertEquals(JobLoaderExecutorHelper.ADD_TASKS_BATCH_SIZE, firstBatch.getTasks().size());
+            assertEquals(10, secondBatch.getTasks().size());
+
+            expectMsgClass(Terminated.class);
+            verify(processingJobDao).modifyStateOfJobsWithIds(eq(JobState.RUNNING), anyList());
+        }};
+
+        JavaTestKit.shutdownActorSystem(system);
+    }
+
+    @Test
+    public void doesNotLoadWhenTheAccountantIsFull() throws InterruptedException {
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        final MachineResourceReferenceDao machineResourceReferenceDao = mock(MachineResourceReferenceDao.class);
+        when(machineResourceReferenceDao.getCount()).thenReturn(0l);
+        when(machineResourceReferenceDao.getAllMachineResourceReferences(any(Page.class)))
+                .thenReturn(Collections.<MachineResourceReference>emptyList());
+
+        final ActorSystem system = ActorSystem.create();
+
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit limiter = new JavaTestKit(system);
+
+            final ActorRef subject = JobLoaderExecutorActor.createActor(getSystem(),
+                    new ClusterMasterConfig(100, 10l, null, null, null, WriteConcern.ACKNOWLEDGED),
+                    accountant.getRef(), limiter.getRef(), processingJobDao, mock(SourceDocumentProcessingStatisticsDao.class),
+                    mock(SourceDocumentReferenceDao.class), new MachineResourceReferenceCache(machineResourceReferenceDao, 60000),
+                    new HashMap<String, Boolean>(), new IPExceptions(0, Collections.<String>emptyList(), Collections.<String>emptyList()),
+                    new HashMap<String, Integer>());
+            watch(subject);
+
+            subject.tell(new LoadJobs(), getRef());
+
+            accountant.expectMsgClass(GetNumberOfTasks.class);
+            accountant.reply(10);
+            accountant.expectMsgClass(GetNumberOfTasks.class);
+            accountant.reply(10);
+
+            expectMsgClass(Terminated.class);
+            accountant.expectNoMsg();
+            verify(processingJobDao, never()).getDiffusedJobsWithState(any(JobPriority.class), any(JobState.class), any(Page.class), anyMap());
+        }};
+
+        JavaTestKit.shutdownActorSystem(system);
+    }
+
+    @Test
+    public void ignoresTheAnswersItDidNotAskFor() throws InterruptedException {
+        final ProcessingJobDao processingJobDao = mock(ProcessingJobDao.class);
+        final MachineResourceReferenceDao machineResourceReferenceDao = mock(MachineResourceReferenceDao.class);
+        when(machineResourceReferenceDao.getCount()).thenReturn(0l);
+        when(machineResourceReferenceDao.getAllMachineResourceReferences(any(Page.class)))
+                .thenReturn(Collections.<MachineResourceReference>emptyList());
+
+        final ActorSystem system = ActorSystem.create();
+
+        new JavaTestKit(system) {{
+            final JavaTestKit accountant = new JavaTestKit(system);
+            final JavaTestKit limiter = new JavaTestKit(system);
+
+            final ActorRef subject = JobLoaderExecutorActor.createActor(getSystem(),
+                    new ClusterMasterConfig(100, 10l, null, null, null, WriteConcern.ACKNOWLEDGED),
+                    accountant.getRef(), limiter.getRef(), processingJobDao, mock(SourceDocumentProcessingStatisticsDao.class),
+                    mock(SourceDocumentReferenceDao.class), new MachineResourceReferenceCache(machineResourceReferenceDao, 60000),
+                    new HashMap<String, Boolean>(), new IPExceptions(0, Collections.<String>emptyList(), Collections.<String>emptyList()),
+                    new HashMap<String, Integer>());
+            watch(subject);
+
+            subject.tell(new LoadJobs(), getRef());
+            accountant.expectMsgClass(GetNumberOfTasks.class);
+
+            // An answer that is not piped from the question is not taken for the number of tasks
+            subject.tell(0, accountant.getRef());
+            subject.tell(new ArrayList<String>(), accountant.getRef());
+            accountant.expectNoMsg(duration("500 millis"));
+
+            accountant.reply(10);
+            accountant.expectMsgClass(GetNumberOfTasks.class);
+            accountant.reply(10);
+
+            expectMsgClass(Terminated.class);
+            verify(processingJobDao, never()).getDiffusedJobsWithState(any(JobPriority.class), any(JobState.class), any(Page.class), anyMap());
+        }};
+
+        JavaTestKit.shutdownActorSystem(system);
+    }
+}
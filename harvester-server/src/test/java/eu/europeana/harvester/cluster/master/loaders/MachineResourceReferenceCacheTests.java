@@ -0,0 +1,108 @@
+package eu.europeana.harvester.cluster.master.loaders;
+
+import eu.europeana.harvester.db.interfaces.MachineResourceReferenceDao;
+import eu.europeana.harvester.domain.MachineResourceReference;
+import eu.europeana.harvester.domain.Page;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.*;
+
+public class MachineResourceReferenceCacheTests {
+
+    private static final long MAX_AGE = 1000;
+
+    private MachineResourceReferenceDao machineResourceReferenceDao;
+
+    private MachineResourceReferenceCache cache;
+
+    private final List<MachineResourceReference> stored = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        machineResourceReferenceDao = mock(MachineResourceReferenceDao.class);
+        when(machineResourceReferenceDao.getAllMachineResourceReferences(any(Page.class))).thenAnswer(new Answer<List<MachineResourceReference>>() {
+            @Override
+            public List<MachineResourceReference> answer(final InvocationOnMock invocation) {
+                final Page page = (Page) invocation.getArguments()[0];
+                final int from = Math.min(page.getFrom(), stored.size());
+                return new ArrayList<>(stored.subList(from, Math.min(stored.size(), from + page.getLimit())));
+            }
+        });
+        when(machineResourceReferenceDao.getCount()).thenAnswer(new Answer<Long>() {
+            @Override
+            public Long answer(final InvocationOnMock invocation) {
+                return (long) stored.size();
+            }
+        });
+
+        cache = new MachineResourceReferenceCache(machineResourceReferenceDao, MAX_AGE);
+    }
+
+    @Test
+    public void canReadAllThePages() {
+        for (int i = 0; i < MachineResourceReferenceCache.READ_PAGE_SIZE + 5; i++) {
+            stored.add(new MachineResourceReference("10.0." + (i / 256) + "." + (i % 256)));
+        }
+
+        cache.refresh(0);
+
+        assertEquals(MachineResourceReferenceCache.READ_PAGE_SIZE + 5, cache.getIps().size());
+        assertEquals(MachineResourceReferenceCache.READ_PAGE_SIZE + 5, cache.takeChangedReferences().size());
+        verify(machineResourceReferenceDao, times(2)).getAllMachineResourceReferences(any(Page.class));
+    }
+
+    @Test
+    public void readsAgainOnlyWhenTheReferencesMightBeStale() {
+        stored.add(new MachineResourceReference("1.1.1.1", 10));
+        cache.refresh(0);
+        cache.takeChangedReferences();
+
+        cache.refresh(10);
+        verify(machineResourceReferenceDao, times(1)).getAllMachineResourceReferences(any(Page.class));
+        assertTrue(cache.takeChangedReferences().isEmpty());
+
+        // A new IP changes the count
+        stored.add(new MachineResourceReference("2.2.2.2"));
+        cache.refresh(20);
+        verify(machineResourceReferenceDao, times(2)).getAllMachineResourceReferences(any(Page.class));
+        assertEquals(Collections.singleton("2.2.2.2"), ipsOf(cache.takeChangedReferences()));
+
+        // A changed limit is seen once the cached copy expired
+        stored.set(0, new MachineResourceReference("1.1.1.1", 20));
+        cache.refresh(30);
+        assertTrue(cache.takeChangedReferences().isEmpty());
+        cache.refresh(30 + MAX_AGE);
+        final List<MachineResourceReference> changed = cache.takeChangedReferences();
+        assertEquals(Collections.singleton("1.1.1.1"), ipsOf(changed));
+        assertEquals(Integer.valueOf(20), changed.get(0).getMaxConcurrentConnectionsLimit());
+    }
+
+    @Test
+    public void reportsEverythingAfterAnInvalidation() {
+        stored.add(new MachineResourceReference("1.1.1.1", 10));
+        stored.add(new MachineResourceReference("2.2.2.2"));
+        cache.refresh(0);
+        cache.takeChangedReferences();
+
+        cache.invalidate();
+        cache.refresh(10);
+
+        assertEquals(new HashSet<>(Arrays.asList("1.1.1.1", "2.2.2.2")), ipsOf(cache.takeChangedReferences()));
+    }
+
+    private static Set<String> ipsOf(final List<MachineResourceReference> references) {
+        final Set<String> ips = new HashSet<>();
+        for (final MachineResourceReference reference : references) {
+            ips.add(reference.getIp());
+        }
+        return ips;
+    }
+}
@@ -0,0 +1,126 @@
+package eu.europeana.harvester.cluster.master.receivers;
+
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import eu.europeana.harvester.cluster.domain.ClusterMasterConfig;
+import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.db.interfaces.*;
+import eu.europeana.harvester.domain.*;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollection;
+import static org.mockito.Matchers.anyList;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Mockito.*;
+
+public class DoneProcessingBulkWriterTests {
+
+    private ProcessingJobDao processingJobDao;
+    private SourceDocumentProcessingStatisticsDao sourceDocumentProcessingStatisticsDao;
+    private LastSourceDocumentProcessingStatisticsDao lastSourceDocumentProcessingStatisticsDao;
+    private SourceDocumentReferenceDao sourceDocumentReferenceDao;
+    private SourceDocumentReferenceMetaInfoDao sourceDocumentReferenceMetaInfoDao;
+
+    private DoneProcessingBulkWriter writer;
+
+    private final ProcessingJob job = new ProcessingJob(1, new Date(), new ReferenceOwner("provider", "collection", "record"),
+            Collections.<ProcessingJobTaskDocumentReference>emptyList(), JobState.RUNNING, URLSourceType.ISSHOWNBY, "127.0.0.1", true);
+
+    @Before
+    public void setUp() {
+        processingJobDao = mock(ProcessingJobDao.class);
+        sourceDocumentProcessingStatisticsDao = mock(SourceDocumentProcessingStatisticsDao.class);
+        lastSourceDocumentProcessingStatisticsDao = mock(LastSourceDocumentProcessingStatisticsDao.class);
+        sourceDocumentReferenceDao = mock(SourceDocumentReferenceDao.class);
+        sourceDocumentReferenceMetaInfoDao = mock(SourceDocumentReferenceMetaInfoDao.class);
+
+        when(processingJobDao.read(anyList())).thenReturn(Collections.singletonList(job));
+
+        writer = new DoneProcessingBulkWriter(new ClusterMasterConfig(null, null, null, null, null, WriteConcern.ACKNOWLEDGED),
+                processingJobDao, sourceDocumentProcessingStatisticsDao, lastSourceDocumentProcessingStatisticsDao,
+                sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao);
+    }
+
+    private DoneProcessing done(final String taskId, final String referenceId) {
+        return new DoneProcessing(taskId, "http://www.example.com/" + referenceId, referenceId, job.getId(),
+                DocumentReferenceTaskType.CHECK_LINK, null,
+                new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.SUCCESS),
+                null, null, null, null, null);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void savesABatchWithOneWritePerCollection() {
+        writer.write(Arrays.asList(done("task-1", "reference-1"), done("task-2", "reference-2"), done("task-3", "reference-1")));
+
+        verify(processingJobDao, times(1)).read(anyList());
+        verify(processingJobDao, never()).createOrModify(any(ProcessingJob.class), any(WriteConcern.class));
+
+        final ArgumentCaptor<Map> jobStates = ArgumentCaptor.forClass(Map.class);
+        verify(processingJobDao, times(1)).modifyStateOfJobs(jobStates.capture(), any(WriteConcern.class));
+        assertEquals(Collections.singleton(job.getId()), jobStates.getValue().keySet());
+
+        final ArgumentCaptor<Collection> statistics = ArgumentCaptor.forClass(Collection.class);
+        verify(sourceDocumentProcessingStatisticsDao, times(1)).bulkCreateOrModify(statistics.capture(), any(WriteConcern.class));
+        assertEquals(3, statistics.getValue().size());
+
+        // The latest task of a document wins
+        final ArgumentCaptor<Collection> lastStatistics = ArgumentCaptor.forClass(Collection.class);
+        verify(lastSourceDocumentProcessingStatisticsDao, times(1)).bulkCreateOrModify(lastStatistics.capture(), any(WriteConcern.class));
+        assertEquals(2, lastStatistics.getValue().size());
+
+        final ArgumentCaptor<Collection> references = ArgumentCaptor.forClass(Collection.class);
+        verify(sourceDocumentReferenceDao, times(1)).modifyLastStatsIdAndRedirectionPath(references.capture(), any(WriteConcern.class));
+        assertEquals(2, references.getValue().size());
+        verify(sourceDocumentReferenceDao, never()).read(any(String.class));
+    }
+
+    @Test
+    public void skipsTheTasksOfUnknownJobs() {
+        when(processingJobDao.read(anyList())).thenReturn(Collections.<ProcessingJob>emptyList());
+
+        writer.write(Collections.singletonList(done("task-1", "reference-1")));
+
+        verify(sourceDocumentProcessingStatisticsDao, times(1)).bulkCreateOrModify(eq(Collections.<SourceDocumentProcessingStatistics>emptyList()), any(WriteConcern.class));
+    }
+
+    private DoneProcessingBulkWriter retryingWriter() {
+        return new DoneProcessingBulkWriter(new ClusterMasterConfig(null, null, null, null, null, WriteConcern.ACKNOWLEDGED),
+                processingJobDao, sourceDocumentProcessingStatisticsDao, lastSourceDocumentProcessingStatisticsDao,
+                sourceDocumentReferenceDao, sourceDocumentReferenceMetaInfoDao, 1L);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void retriesAFailedBatch() throws Exception {
+        doThrow(new MongoException("down")).doThrow(new MongoException("down")).doNothing()
+                .when(processingJobDao).modifyStateOfJobs(anyMap(), any(WriteConcern.class));
+
+        assertEquals(0, retryingWriter().writeWithRetries(Arrays.asList(done("task-1", "reference-1"), done("task-2", "reference-2"))));
+
+        verify(processingJobDao, times(3)).modifyStateOfJobs(anyMap(), any(WriteConcern.class));
+        verify(sourceDocumentProcessingStatisticsDao, times(1)).bulkCreateOrModify(anyCollection(), any(WriteConcern.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void writesTheTasksOneAtATimeAfterTheLastAttempt() throws Exception {
+        doThrow(new MongoException("down")).doThrow(new MongoException("down")).doThrow(new MongoException("down"))
+                .doNothing().doThrow(new MongoException("bad task"))
+                .when(processingJobDao).modifyStateOfJobs(anyMap(), any(WriteConcern.class));
+
+        assertEquals(1, retryingWriter().writeWithRetries(Arrays.asList(done("task-1", "reference-1"), done("task-2", "reference-2"))));
+
+        verify(processingJobDao, times(DoneProcessingBulkWriter.MAX_BATCH_ATTEMPTS + 2)).modifyStateOfJobs(anyMap(), any(WriteConcern.class));
+        // Only the task written on its own got its statistics
+        final ArgumentCaptor<Collection> statistics = ArgumentCaptor.forClass(Collection.class);
+        verify(sourceDocumentProcessingStatisticsDao, times(1)).bulkCreateOrModify(statistics.capture(), any(WriteConcern.class));
+        assertEquals(1, statistics.getValue().size());
+    }
+}
@@ -1,6 +1,7 @@
 package eu.europeana.harvester.cluster.slave;
 
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.domain.DocumentReferenceTaskType;
 import eu.europeana.harvester.domain.ProcessingJobRetrieveSubTaskState;
 import eu.europeana.harvester.domain.ProcessingJobSubTaskState;
 import eu.europeana.harvester.domain.ProcessingJobSubTaskStats;
@@ -155,4 +156,19 @@ public class DoneProcessingTests {
 
     }
 
-}
\ No newline at end of file
+    @Test
+    public void keepsTheContentMd5WhenTheProcessingInfoIsAdded() throws Exception {
+        final DoneProcessing retrieved = new DoneProcessing("task-1", "http://www.example.com/image.jpg", "reference-1", "job-1",
+                DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD, null,
+                new ProcessingJobSubTaskStats().withRetrieveState(ProcessingJobRetrieveSubTaskState.SUCCESS),
+                null, null, null, null, null).withContentMd5("d41d8cd98f00b204e9800998ecf8427e");
+
+        final DoneProcessing processed = retrieved.withProcessingInfo(
+                retrieved.getStats().withColorExtractionState(ProcessingJobSubTaskState.SUCCESS),
+                null, null, null, null);
+
+        assertEquals("d41d8cd98f00b204e9800998ecf8427e", processed.getContentMd5());
+        assertEquals(ProcessingJobSubTaskState.SUCCESS, processed.getStats().getColorExtractionState());
+    }
+
+}
@@ -4,9 +4,14 @@ import akka.actor.ActorRef;
 import akka.actor.ActorSystem;
 import akka.testkit.JavaTestKit;
 import com.google.common.collect.Lists;
+import com.ning.http.client.AsyncHttpClient;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
 import eu.europeana.harvester.cluster.domain.messages.DoneProcessing;
+import eu.europeana.harvester.cluster.domain.messages.ProcessDownloadedUrl;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrlWithProcessingConfig;
+import eu.europeana.harvester.cluster.slave.downloading.SlaveHttpClientFactory;
 import eu.europeana.harvester.cluster.slave.processing.SlaveProcessor;
 import eu.europeana.harvester.cluster.slave.processing.color.ColorExtractor;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoExtractor;
@@ -62,11 +67,14 @@ public class RetrieveAndProcessActorTest {
 
     static ActorSystem system ;
 
+    static AsyncHttpClient asyncHttpClient;
+
     @BeforeClass
     public static void setup() throws Exception {
         FileUtils.forceMkdir(new File(FILESYSTEM_PATH_PREFIX));
         FileUtils.forceMkdir(new File(PROCESSING_PATH_PREFIX));
         system = ActorSystem.create();
+        asyncHttpClient = SlaveHttpClientFactory.create(SlaveHttpClientConfig.defaults());
     }
 
     @AfterClass
@@ -74,6 +82,9 @@ public class RetrieveAndProcessActorTest {
         if (null != system) {
             system.shutdown();
         }
+        if (null != asyncHttpClient) {
+            asyncHttpClient.close();
+        }
         FileUtils.deleteDirectory(new File(FILESYSTEM_PATH_PREFIX));
         FileUtils.deleteDirectory(new File(PROCESSING_PATH_PREFIX));
     }
@@ -106,7 +117,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -145,7 +156,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -176,7 +187,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -217,7 +228,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -275,7 +286,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -340,7 +351,8 @@ public class RetrieveAndProcessActorTest {
 
             final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),
                     httpRetrieveResponseFactory,
-                    slaveProcessorFail);
+                    slaveProcessorFail,
+                    asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -407,7 +419,8 @@ public class RetrieveAndProcessActorTest {
 
             final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),
                     httpRetrieveResponseFactory,
-                    slaveProcessorFail);
+                    slaveProcessorFail,
+                    asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -450,7 +463,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -507,7 +520,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -567,7 +580,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -632,7 +645,8 @@ public class RetrieveAndProcessActorTest {
 
             final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),
                     httpRetrieveResponseFactory,
-                    slaveProcessorFail);
+                    slaveProcessorFail,
+                    asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -698,7 +712,8 @@ public class RetrieveAndProcessActorTest {
 
             final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),
                     httpRetrieveResponseFactory,
-                    slaveProcessorFail);
+                    slaveProcessorFail,
+                    asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -743,7 +758,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -788,7 +803,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -845,7 +860,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -889,7 +904,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -932,7 +947,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -991,7 +1006,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -1037,7 +1052,7 @@ public class RetrieveAndProcessActorTest {
      */
         new JavaTestKit(system) {{
 
-            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP);
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
 
             subject.tell(taskWithConfig, getRef());
 
@@ -1052,4 +1067,65 @@ public class RetrieveAndProcessActorTest {
             assertEquals (ProcessingJobSubTaskState.NEVER_EXECUTED, msg2.getStats().getThumbnailStorageState());
         }};
     }
-}
\ No newline at end of file
+
+    @Test
+    public void test_WorkerHandlesConsecutiveTasks() throws InterruptedException {
+        final RetrieveUrl task = new RetrieveUrl(jpegImage1GitHubUrl, new ProcessingJobLimits(), DocumentReferenceTaskType.CHECK_LINK,"a",
+                "referenceid-1", Collections.<String, String>emptyMap(),
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.CHECK_LINK,
+                        "source-reference-1", Collections.EMPTY_LIST), null,new ReferenceOwner("unknown","unknwon","unknown"));
+
+        new JavaTestKit(system) {{
+
+            final ActorRef subject = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,asyncHttpClient);
+
+            // The worker is not stopped after a task, the same instance executes the next one
+            for (int i = 0; i < 2; i++) {
+                subject.tell(new RetrieveUrlWithProcessingConfig(task,PROCESSING_PATH_PREFIX+task.getId()+i), getRef());
+
+                while (!msgAvailable()) Thread.sleep(100);
+                DoneProcessing msg = expectMsgAnyClassOf(DoneProcessing.class);
+
+                assertEquals (200, msg.getHttpResponseCode().intValue());
+                assertEquals (ProcessingJobRetrieveSubTaskState.SUCCESS, msg.getStats().getRetrieveState());
+            }
+        }};
+    }
+
+    @Test
+    public void test_DownloadWorkerHandsOverToProcessingWorker() throws InterruptedException {
+        final List<ProcessingJobSubTask> subTasks = Lists.newArrayList(
+                new ProcessingJobSubTask(ProcessingJobSubTaskType.META_EXTRACTION,null));
+
+        final RetrieveUrl task = new RetrieveUrl(jpegImage1GitHubUrl, new ProcessingJobLimits(), DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,"a",
+                "referenceid-1", Collections.<String, String>emptyMap(),
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                        "source-reference-1", subTasks), null,new ReferenceOwner("unknown","unknwon","unknown"));
+
+        final RetrieveUrlWithProcessingConfig taskWithConfig = new RetrieveUrlWithProcessingConfig(task,PROCESSING_PATH_PREFIX+task.getId());
+
+        new JavaTestKit(system) {{
+
+            final ActorRef downloadWorker = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,
+                    ImagingBackend.IMAGEMAGICK,asyncHttpClient,false,getSystem(),NodeMasterActor.DOWNLOAD_DISPATCHER);
+            final ActorRef processingWorker = RetrieveAndProcessActor.createActor(getSystem(),httpRetrieveResponseFactory,client,PATH_COLORMAP,
+                    ImagingBackend.IMAGEMAGICK,asyncHttpClient,true,getSystem(),NodeMasterActor.PROCESSING_DISPATCHER);
+
+            downloadWorker.tell(taskWithConfig, getRef());
+
+            while (!msgAvailable()) Thread.sleep(100);
+            final ProcessDownloadedUrl downloaded = expectMsgAnyClassOf(ProcessDownloadedUrl.class);
+
+            assertEquals (ProcessingJobRetrieveSubTaskState.SUCCESS, downloaded.getRetrieval().getStats().getRetrieveState());
+            assertEquals (ProcessingJobSubTaskState.NEVER_EXECUTED, downloaded.getRetrieval().getStats().getMetaExtractionState());
+
+            processingWorker.tell(downloaded, getRef());
+
+            while (!msgAvailable()) Thread.sleep(100);
+            final DoneProcessing msg = expectMsgAnyClassOf(DoneProcessing.class);
+
+            assertEquals (ProcessingJobSubTaskState.SUCCESS, msg.getStats().getMetaExtractionState());
+            assertEquals (2500, msg.getImageMetaInfo().getWidth().intValue());
+        }};
+    }
+}
@@ -0,0 +1,145 @@
+package eu.europeana.harvester.cluster.slave.caching;
+
+import eu.europeana.harvester.cluster.slave.SlaveMetrics;
+import eu.europeana.harvester.domain.MediaFile;
+import eu.europeana.harvester.domain.ThumbnailType;
+import org.joda.time.DateTime;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class SlaveMediaCacheTests {
+
+    private static final String URL = "http://www.example.com/image.jpg";
+
+    private static final long ONE_HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private static MediaFile thumbnail(final String content) throws Exception {
+        final byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return new MediaFile(MediaFile.generateIdFromUrlAndSizeType(URL, ThumbnailType.MEDIUM.name()), "execution1",
+                URL, Collections.<String>emptyList(), "md5", URL, new DateTime(1000L), bytes, 1, "image/jpeg",
+                Collections.singletonMap("color0", "#FFFFFF"), bytes.length);
+    }
+
+    private static String read(final MediaFile thumbnail) {
+        return null == thumbnail ? null : new String(thumbnail.getContent(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void canCacheAThumbnail() throws Exception {
+        final SlaveMediaCache cache = new SlaveMediaCache(folder.newFolder().toPath(), 1000, ONE_HOUR);
+        final MediaFile thumbnail = thumbnail("thumbnail");
+
+        assertNull(cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM));
+        cache.putThumbnail(URL, "digest1", ThumbnailType.MEDIUM, thumbnail);
+
+        final MediaFile cached = cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM);
+        assertEquals(thumbnail.getId(), cached.getId());
+        assertArrayEquals(thumbnail.getContent(), cached.getContent());
+        assertEquals("image/jpeg", cached.getContentType());
+        assertEquals("#FFFFFF", cached.getMetaData().get("color0"));
+        assertEquals(thumbnail.getSize(), cached.getSize());
+        assertEquals(1, cache.getEntryCount());
+        assertEquals("thumbnail".length(), cache.getSizeInBytes());
+
+        // Another content or size of the same url is another entry
+        assertNull(cache.getThumbnail(URL, "digest2", ThumbnailType.MEDIUM));
+        assertNull(cache.getThumbnail(URL, "digest1", ThumbnailType.LARGE));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyUsedEntriesAboveTheMaxSize() throws Exception {
+        final SlaveMediaCache cache = new SlaveMediaCache(folder.newFolder().toPath(), 25, ONE_HOUR);
+        final long evictions = SlaveMetrics.Worker.Slave.Cache.evictionCounter.getCount();
+
+        cache.putThumbnail(URL, "digest1", ThumbnailType.MEDIUM, thumbnail("0123456789"));
+        cache.putThumbnail(URL, "digest2", ThumbnailType.MEDIUM, thumbnail("0123456789"));
+        assertNotNull(cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM));
+        cache.putThumbnail(URL, "digest3", ThumbnailType.MEDIUM, thumbnail("0123456789"));
+
+        assertEquals("0123456789", read(cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM)));
+        assertNull(cache.getThumbnail(URL, "digest2", ThumbnailType.MEDIUM));
+        assertEquals("0123456789", read(cache.getThumbnail(URL, "digest3", ThumbnailType.MEDIUM)));
+        assertEquals(20, cache.getSizeInBytes());
+        assertEquals(evictions + 1, SlaveMetrics.Worker.Slave.Cache.evictionCounter.getCount());
+    }
+
+    @Test
+    public void evictsTheEntriesOlderThanTheMaxAge() throws Exception {
+        final SlaveMediaCache cache = new SlaveMediaCache(folder.newFolder().toPath(), 1000, 1);
+
+        cache.putThumbnail(URL, "digest1", ThumbnailType.MEDIUM, thumbnail("thumbnail"));
+        Thread.sleep(10);
+
+        assertNull(cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM));
+        assertEquals(0, cache.getEntryCount());
+        assertEquals(0, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void countsTheHitsAndTheMisses() throws Exception {
+        final SlaveMediaCache cache = new SlaveMediaCache(folder.newFolder().toPath(), 1000, ONE_HOUR);
+        final long hits = SlaveMetrics.Worker.Slave.Cache.hitCounter.getCount();
+        final long misses = SlaveMetrics.Worker.Slave.Cache.missCounter.getCount();
+
+        cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM);
+        cache.putThumbnail(URL, "digest1", ThumbnailType.MEDIUM, thumbnail("thumbnail"));
+        cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM);
+        cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM);
+
+        assertEquals(hits + 2, SlaveMetrics.Worker.Slave.Cache.hitCounter.getCount());
+        assertEquals(misses + 1, SlaveMetrics.Worker.Slave.Cache.missCounter.getCount());
+    }
+
+    @Test
+    public void rebuildsTheIndexWhenItStarts() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        final SlaveMediaCache cache = new SlaveMediaCache(directory, 1000, ONE_HOUR);
+        cache.putThumbnail(URL, "digest1", ThumbnailType.LARGE, thumbnail("large thumbnail"));
+        cache.putThumbnail(URL, "digest1", ThumbnailType.MEDIUM, thumbnail("thumbnail"));
+
+        // What a crash in the middle of writes leaves behind
+        final Path shard = Files.createDirectories(directory.resolve("ab"));
+        Files.write(shard.resolve("ab01.data"), "no meta infos".getBytes(StandardCharsets.UTF_8));
+        Files.write(shard.resolve("ab02.meta"), "no content".getBytes(StandardCharsets.UTF_8));
+        Files.write(shard.resolve("ab03123.tmp"), "partial".getBytes(StandardCharsets.UTF_8));
+
+        final SlaveMediaCache restarted = new SlaveMediaCache(directory, 1000, ONE_HOUR);
+
+        assertEquals(2, restarted.getEntryCount());
+        assertEquals("large thumbnail".length() + "thumbnail".length(), restarted.getSizeInBytes());
+        assertEquals("large thumbnail", read(restarted.getThumbnail(URL, "digest1", ThumbnailType.LARGE)));
+        assertEquals("thumbnail", read(restarted.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM)));
+        assertFalse(Files.exists(shard.resolve("ab01.data")));
+        assertFalse(Files.exists(shard.resolve("ab02.meta")));
+        assertFalse(Files.exists(shard.resolve("ab03123.tmp")));
+    }
+
+    @Test
+    public void keepsTheLeastRecentlyUsedOrderAfterARestart() throws Exception {
+        final Path directory = folder.newFolder().toPath();
+        final SlaveMediaCache cache = new SlaveMediaCache(directory, 25, ONE_HOUR);
+        cache.putThumbnail(URL, "digest1", ThumbnailType.MEDIUM, thumbnail("0123456789"));
+        Thread.sleep(1100);
+        cache.putThumbnail(URL, "digest2", ThumbnailType.MEDIUM, thumbnail("0123456789"));
+        Thread.sleep(1100);
+        assertNotNull(cache.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM));
+
+        final SlaveMediaCache restarted = new SlaveMediaCache(directory, 25, ONE_HOUR);
+        restarted.putThumbnail(URL, "digest3", ThumbnailType.MEDIUM, thumbnail("0123456789"));
+
+        assertNotNull(restarted.getThumbnail(URL, "digest1", ThumbnailType.MEDIUM));
+        assertNull(restarted.getThumbnail(URL, "digest2", ThumbnailType.MEDIUM));
+    }
+}
@@ -1,5 +1,7 @@
 package eu.europeana.harvester.cluster.slave.downloading;
 
+import com.ning.http.client.AsyncHttpClient;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponse;
@@ -9,6 +11,8 @@ import eu.europeana.harvester.httpclient.response.ResponseType;
 import org.apache.logging.log4j.LogManager;
 import org.junit.After;
 import org.junit.Before;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestRule;
@@ -20,6 +24,8 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import static eu.europeana.harvester.TestUtils.*;
 import static org.junit.Assert.*;
@@ -32,6 +38,18 @@ public class SlaveDownloaderTest {
 
     final HttpRetrieveResponseFactory httpRetrieveResponseFactory = new HttpRetrieveResponseFactory();
 
+    private static AsyncHttpClient asyncHttpClient;
+
+    @BeforeClass
+    public static void setUpClient() {
+        asyncHttpClient = SlaveHttpClientFactory.create(SlaveHttpClientConfig.defaults());
+    }
+
+    @AfterClass
+    public static void tearDownClient() {
+        asyncHttpClient.close();
+    }
+
     @Before
     public void setUp() throws IOException {
         Files.createDirectories(Paths.get(PATH_DOWNLOADED));
@@ -51,7 +69,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void canAbortUnconditionalDownloadWhenSocketConnectionTimeExceeded() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
 
         final ProcessingJobLimits limits = new ProcessingJobLimits(
@@ -87,7 +105,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void canAbortUnconditionalDownloadWhenTerminationThresholdTimeLimitExceeded() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
 
         final ProcessingJobLimits limits = new ProcessingJobLimits(
@@ -114,7 +132,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void canDownloadUnconditionallyWithDefaultLimits() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
 
         final ProcessingJobLimits limits = new ProcessingJobLimits();
@@ -141,7 +159,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void canDownloadNonExistentUrlUnconditionallyWithDefaultLimits() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
 
         final ProcessingJobLimits limits = new ProcessingJobLimits();
@@ -167,7 +185,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void cannotDownloadNullUrlUnconditionallyWithDefaultLimits() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
 
         final ProcessingJobLimits limits = new ProcessingJobLimits();
@@ -187,7 +205,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void canDownloadConditionallyAndSkipDownloadWhenSameContentLengthResponseHeaderEntry() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
         final ProcessingJobLimits limits = new ProcessingJobLimits();
 
@@ -215,7 +233,7 @@ public class SlaveDownloaderTest {
 
     @Test
     public void canDownloadConditionallyAndDownloadWhenDifferentContentLengthResponseHeaderEntry() throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
         final ProcessingJobLimits limits = new ProcessingJobLimits();
 
@@ -239,4 +257,41 @@ public class SlaveDownloaderTest {
 
     }
 
+    @Test
+    public void canDownloadConditionallyAndSkipDownloadWhenNotModified() throws Exception {
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
+        final ProcessingJobLimits limits = new ProcessingJobLimits();
+
+        final HttpRetrieveResponse firstResponse = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
+        slaveDownloader.downloadAndStoreInHttpRetrieveResponse(firstResponse, new RetrieveUrl(image1GitHubUrl, limits,
+                DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD, "jobid-1", "referenceid-1", Collections.<String, String>emptyMap(),
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.UNCONDITIONAL_DOWNLOAD,
+                        "source-reference-1", Collections.<ProcessingJobSubTask>emptyList()), null, new ReferenceOwner("unknown", "unknwon", "unknown")));
+        assertNotNull(firstResponse.getContentMd5());
+        new File(pathOnDisk).delete();
+
+        // Without the content length only the validators (ETag, Last-Modified) can skip the download
+        final Map<String, String> previousHeaders = new HashMap<>();
+        for (final Map.Entry<String, String> entry : firstResponse.getResponseHeaders().entrySet()) {
+            if (!"Content-Length".equalsIgnoreCase(entry.getKey())) {
+                previousHeaders.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathOnDisk);
+        final RetrieveUrl task = new RetrieveUrl(image1GitHubUrl, limits, DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD, "jobid-1",
+                "referenceid-1", previousHeaders,
+                new ProcessingJobTaskDocumentReference(DocumentReferenceTaskType.CONDITIONAL_DOWNLOAD,
+                        "source-reference-1", Collections.<ProcessingJobSubTask>emptyList()), null, new ReferenceOwner("unknown", "unknwon", "unknown"))
+                .withContentMd5(firstResponse.getContentMd5());
+
+        slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task);
+
+        assertEquals(RetrievingState.COMPLETED, response.getState());
+        assertEquals(304, response.getHttpResponseCode().intValue());
+        assertTrue(response.getContentSizeInBytes().longValue() == 0);
+        assertFalse(response.getResponseHeaders().isEmpty());
+        assertFalse(new File(pathOnDisk).exists());
+    }
+
 }
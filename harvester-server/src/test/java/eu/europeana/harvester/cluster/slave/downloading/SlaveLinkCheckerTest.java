@@ -1,5 +1,7 @@
 package eu.europeana.harvester.cluster.slave.downloading;
 
+import com.ning.http.client.AsyncHttpClient;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.domain.*;
 import eu.europeana.harvester.httpclient.response.HttpRetrieveResponse;
@@ -7,6 +9,8 @@ import eu.europeana.harvester.httpclient.response.HttpRetrieveResponseFactory;
 import eu.europeana.harvester.httpclient.response.RetrievingState;
 import eu.europeana.harvester.httpclient.response.ResponseType;
 import org.apache.logging.log4j.LogManager;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
 import org.junit.Rule;
 import org.junit.Test;
 
@@ -28,6 +32,18 @@ public class SlaveLinkCheckerTest {
 
     final HttpRetrieveResponseFactory httpRetrieveResponseFactory = new HttpRetrieveResponseFactory();
 
+    private static AsyncHttpClient asyncHttpClient;
+
+    @BeforeClass
+    public static void setUpClient() {
+        asyncHttpClient = SlaveHttpClientFactory.create(SlaveHttpClientConfig.defaults());
+    }
+
+    @AfterClass
+    public static void tearDownClient() {
+        asyncHttpClient.close();
+    }
+
     @Rule
     public TestRule watcher = new TestWatcher() {
         protected void starting(Description description) {
@@ -37,7 +53,7 @@ public class SlaveLinkCheckerTest {
 
     @Test
     public void canLinkCheckWithDefaultLimits() throws Exception {
-        final SlaveLinkChecker slaveLinkChecker = new SlaveLinkChecker();
+        final SlaveLinkChecker slaveLinkChecker = new SlaveLinkChecker(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.NO_STORAGE,null);
         final RetrieveUrl task = new RetrieveUrl(text1GitHubUrl, new ProcessingJobLimits(), DocumentReferenceTaskType.CHECK_LINK,
                 "referenceid-1","a", Collections.<String, String>emptyMap(),
@@ -56,7 +72,7 @@ public class SlaveLinkCheckerTest {
 
     @Test
     public void canLinkCheckWithDefaultLimits1() throws Exception {
-        final SlaveLinkChecker slaveLinkChecker = new SlaveLinkChecker();
+        final SlaveLinkChecker slaveLinkChecker = new SlaveLinkChecker(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.NO_STORAGE,null);
         final ProcessingJobLimits limits = new ProcessingJobLimits(
                 100*1000l /* retrievalTerminationThresholdTimeLimitInMillis  */,
@@ -82,7 +98,7 @@ public class SlaveLinkCheckerTest {
 
     @Test
     public void canFailLinkCheckWhenUrlIsNonExistentWithDefaultLimits() throws Exception {
-        final SlaveLinkChecker slaveLinkChecker = new SlaveLinkChecker();
+        final SlaveLinkChecker slaveLinkChecker = new SlaveLinkChecker(asyncHttpClient);
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.NO_STORAGE,null);
         final RetrieveUrl task = new RetrieveUrl(text1GitHubUrl+"-some-extra-nonsense", new ProcessingJobLimits(), DocumentReferenceTaskType.CHECK_LINK, "jobid-1",
                 "referenceid-1", Collections.<String, String>emptyMap(),
@@ -0,0 +1,137 @@
+package eu.europeana.harvester.cluster.slave.limiter;
+
+import eu.europeana.harvester.cluster.domain.utils.Pair;
+import eu.europeana.harvester.cluster.master.limiter.domain.LeaseConnectionSlotsResponse;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class IpConnectionSlotLeasesTests {
+    private final String ip1 = "127.0.0.1";
+    private final String ip2 = "127.0.0.2";
+
+    @Test
+    public void canAcquireAndReleaseLeasedSlotsLocally() {
+        final IpConnectionSlotLeases leases = new IpConnectionSlotLeases();
+        leases.addWaitingTask(ip1, "task1");
+        leases.addWaitingTask(ip1, "task2");
+        leases.addWaitingTask(ip1, "task3");
+
+        assertEquals(3, leases.slotsToRequest(ip1, 0));
+        // A request is already pending
+        assertEquals(0, leases.slotsToRequest(ip1, 1000));
+
+        final LeaseConnectionSlotsResponse lease = new LeaseConnectionSlotsResponse(ip1, 2, 60 * 1000l);
+        leases.addLease(lease, 0);
+
+        final Pair<String, String> first = leases.acquireForNextWaitingTask(ip1, 1000);
+        assertEquals("task1", first.getKey());
+        assertEquals(lease.getLeaseId(), first.getValue());
+        assertEquals("task2", leases.acquireForNextWaitingTask(ip1, 1000).getKey());
+        assertNull(leases.acquireForNextWaitingTask(ip1, 1000));
+
+        // The released slot goes to the waiting task
+        leases.release(ip1, first.getValue());
+        assertEquals("task3", leases.acquireForNextWaitingTask(ip1, 1000).getKey());
+        assertEquals(0, leases.getNumberOfWaitingTasks());
+
+        leases.release(ip1, lease.getLeaseId());
+        assertTrue(leases.removeUnusedLeases(ip1, 1000).isEmpty());
+        leases.release(ip1, lease.getLeaseId());
+        assertEquals(Collections.singletonList(lease.getLeaseId()), leases.removeUnusedLeases(ip1, 1000));
+    }
+
+    @Test
+    public void doesNotUseExpiredLeases() {
+        final IpConnectionSlotLeases leases = new IpConnectionSlotLeases();
+        leases.addWaitingTask(ip1, "task1");
+        leases.slotsToRequest(ip1, 0);
+
+        final LeaseConnectionSlotsResponse lease = new LeaseConnectionSlotsResponse(ip1, 1, 10 * 1000l);
+        leases.addLease(lease, 0);
+
+        assertNull(leases.acquireForNextWaitingTask(ip1, 9500));
+        assertEquals(Collections.singletonList(lease.getLeaseId()), leases.removeUnusedLeases(ip1, 9500));
+        assertEquals(1, leases.slotsToRequest(ip1, 9500));
+    }
+
+    @Test
+    public void sendsAgainTheLeaseRequestsWithoutAnswer() {
+        final IpConnectionSlotLeases leases = new IpConnectionSlotLeases();
+        leases.addWaitingTask(ip1, "task1");
+
+        assertEquals(1, leases.slotsToRequest(ip1, 0));
+        assertEquals(0, leases.slotsToRequest(ip1, IpConnectionSlotLeases.LEASE_REQUEST_TIMEOUT_IN_MILLIS - 1));
+        assertEquals(1, leases.slotsToRequest(ip1, IpConnectionSlotLeases.LEASE_REQUEST_TIMEOUT_IN_MILLIS));
+    }
+
+    @Test
+    public void startsOnlyTheTasksTheLeaseWasGrantedFor() {
+        final IpConnectionSlotLeases leases = new IpConnectionSlotLeases();
+        leases.addWaitingTask(ip1, "task1");
+        leases.addWaitingTask(ip1, "task2");
+        leases.addWaitingTask(ip1, "task3");
+        assertEquals(3, leases.slotsToRequest(ip1, 0));
+
+        final LeaseConnectionSlotsResponse lease = new LeaseConnectionSlotsResponse(ip1, 1, 60 * 1000l, 2);
+        leases.addLease(lease, 0);
+        // The lease covers two of the waiting tasks
+        assertEquals(1, leases.slotsToRequest(ip1, 0));
+
+        final Pair<String, String> first = leases.acquireForNextWaitingTask(ip1, 1000);
+        assertEquals("task1", first.getKey());
+        leases.release(ip1, first.getValue());
+        assertEquals("task2", leases.acquireForNextWaitingTask(ip1, 1000).getKey());
+        leases.release(ip1, lease.getLeaseId());
+
+        // The slot is free but the lease started all its tasks
+        assertNull(leases.acquireForNextWaitingTask(ip1, 1000));
+        assertEquals(Collections.singletonList(lease.getLeaseId()), leases.removeUnusedLeases(ip1, 1000));
+    }
+
+    @Test
+    public void revokedLeasesStartNoTaskAndAreReturnedOnceFree() {
+        final IpConnectionSlotLeases leases = new IpConnectionSlotLeases();
+        leases.addWaitingTask(ip1, "task1");
+        leases.addWaitingTask(ip1, "task2");
+        leases.addWaitingTask(ip1, "task3");
+        leases.slotsToRequest(ip1, 0);
+
+        final LeaseConnectionSlotsResponse lease = new LeaseConnectionSlotsResponse(ip1, 2, 60 * 1000l, 3);
+        leases.addLease(lease, 0);
+        final Pair<String, String> first = leases.acquireForNextWaitingTask(ip1, 1000);
+
+        leases.revokeLeases(ip1);
+        assertNull(leases.acquireForNextWaitingTask(ip1, 1000));
+        // The task started before the pause still holds its slot
+        assertTrue(leases.removeUnusedLeases(ip1, 1000).isEmpty());
+
+        leases.release(ip1, first.getValue());
+        assertEquals(Collections.singletonList(lease.getLeaseId()), leases.removeUnusedLeases(ip1, 1000));
+        assertEquals(2, leases.slotsToRequest(ip1, 1000));
+    }
+
+    @Test
+    public void takesTurnsBetweenTheIpsWithFreeSlots() {
+        final IpConnectionSlotLeases leases = new IpConnectionSlotLeases();
+        leases.addWaitingTask(ip1, "task1");
+        leases.addWaitingTask(ip1, "task2");
+        leases.addWaitingTask(ip2, "task3");
+        leases.addWaitingTask(ip2, "task4");
+
+        // No slot is taken before a lease comes
+        assertNull(leases.acquireForNextWaitingTask(1000));
+
+        leases.addLease(new LeaseConnectionSlotsResponse(ip1, 2, 60 * 1000l), 0);
+        leases.addLease(new LeaseConnectionSlotsResponse(ip2, 1, 60 * 1000l), 0);
+
+        assertEquals("task1", leases.acquireForNextWaitingTask(1000).getKey());
+        assertEquals("task3", leases.acquireForNextWaitingTask(1000).getKey());
+        assertEquals("task2", leases.acquireForNextWaitingTask(1000).getKey());
+        // The only slot of the second IP is taken
+        assertNull(leases.acquireForNextWaitingTask(1000));
+        assertEquals(1, leases.getNumberOfWaitingTasks());
+    }
+}
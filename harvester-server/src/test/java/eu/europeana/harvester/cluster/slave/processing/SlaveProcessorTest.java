@@ -1,10 +1,13 @@
 package eu.europeana.harvester.cluster.slave.processing;
 
 import akka.event.LoggingAdapter;
-import com.google.common.io.Files;
+import com.ning.http.client.AsyncHttpClient;
+import eu.europeana.harvester.cluster.domain.SlaveHttpClientConfig;
 import eu.europeana.harvester.cluster.domain.messages.RetrieveUrl;
 import eu.europeana.harvester.cluster.slave.downloading.SlaveDownloader;
+import eu.europeana.harvester.cluster.slave.downloading.SlaveHttpClientFactory;
 import eu.europeana.harvester.cluster.slave.processing.color.ColorExtractor;
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaAnalysisContext;
 import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaMetaInfoExtractor;
 import eu.europeana.harvester.cluster.slave.processing.thumbnail.ThumbnailImageGenerator;
 import eu.europeana.harvester.db.MediaStorageClient;
@@ -100,7 +103,8 @@ public class SlaveProcessorTest {
     }
 
     private void downloadFile (final String url, final String pathToStore) throws Exception {
-        final SlaveDownloader slaveDownloader = new SlaveDownloader();
+        final AsyncHttpClient asyncHttpClient = SlaveHttpClientFactory.create(SlaveHttpClientConfig.defaults());
+        final SlaveDownloader slaveDownloader = new SlaveDownloader(asyncHttpClient);
 
         final HttpRetrieveResponse response = httpRetrieveResponseFactory.create(ResponseType.DISK_STORAGE, pathToStore);
 
@@ -114,7 +118,11 @@ public class SlaveProcessorTest {
                 taskDocumentReference,
                 null,new ReferenceOwner("unknown","unknwon","unknown"));
 
-        slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task);
+        try {
+            slaveDownloader.downloadAndStoreInHttpRetrieveResponse(response, task);
+        } finally {
+            asyncHttpClient.close();
+        }
 
         assertEquals(RetrievingState.COMPLETED, response.getState());
     }
@@ -175,7 +183,6 @@ public class SlaveProcessorTest {
         final ProcessingResultTuple results = slaveProcessor.process(taskDocumentReference,
                 PATH_DOWNLOADED + Image1,
                 fileUrl,
-                filesInBytes.get(Image1),
                 ResponseType.DISK_STORAGE,
                 owner);
 
@@ -206,7 +213,6 @@ public class SlaveProcessorTest {
         final ProcessingResultTuple results = slaveProcessor.process(taskDocumentReference,
                 PATH_DOWNLOADED + Image1,
                 fileUrl,
-                filesInBytes.get(Image1),
                 ResponseType.DISK_STORAGE,
                 owner);
 
@@ -230,7 +236,6 @@ public class SlaveProcessorTest {
 
         final ProcessingResultTuple results = slaveProcessor.process(taskDocumentReference, PATH_DOWNLOADED + Audio1,
                 fileUrl,
-                Files.toByteArray(new File(PATH_DOWNLOADED + Audio1)),
                 ResponseType.DISK_STORAGE,
                 owner);
 
@@ -258,8 +263,6 @@ public class SlaveProcessorTest {
 
         final ProcessingResultTuple results = slaveProcessor.process(taskDocumentReference, PATH_DOWNLOADED + Video1,
                 fileUrl,
-                Files.toByteArray(new File(PATH_DOWNLOADED +
-                        Video1)),
                 ResponseType.DISK_STORAGE, owner);
 
         assertNotNull(results.getMediaMetaInfoTuple());
@@ -285,8 +288,6 @@ public class SlaveProcessorTest {
 
         final ProcessingResultTuple results = slaveProcessor.process(taskDocumentReference, PATH_DOWNLOADED + PDF1,
                 fileUrl,
-                Files.toByteArray(new File(PATH_DOWNLOADED +
-                        PDF1)),
                 ResponseType.DISK_STORAGE,
                 new ReferenceOwner("unknown", "unknwon",
                         "unknown"));
@@ -315,8 +316,8 @@ public class SlaveProcessorTest {
         MediaStorageClient mediaStorageClientFail = mock(FileSystemMediaStorageClientImpl.class);
         ThumbnailImageGenerator thumbnailImageGeneratorFail = mock(ThumbnailImageGenerator.class);
 
-        doThrow(exception).when(mediaMetaInfoExtractorFail).extract(anyString());
-        doReturn(null).when(colorExtractorFail).colorExtraction(anyString());
+        doThrow(exception).when(mediaMetaInfoExtractorFail).extract(any(MediaAnalysisContext.class));
+        doReturn(null).when(colorExtractorFail).colorExtraction(any(MediaAnalysisContext.class));
         doReturn(PATH_COLORMAP).when(thumbnailImageGeneratorFail).getColorMapPath();
         doReturn(null).when(thumbnailImageGeneratorFail).createMediaFileWithThumbnail(anyInt(), anyInt(), anyString(),
                 anyString(),
@@ -326,7 +327,7 @@ public class SlaveProcessorTest {
         SlaveProcessor slaveProcessorAlwaysFail = new SlaveProcessor(mediaMetaInfoExtractorFail, colorExtractorFail, mediaStorageClientFail, PATH_COLORMAP);
 
         ProcessingResultTuple e = slaveProcessorAlwaysFail.process(taskDocumentReference, PATH_DOWNLOADED + Image1, fileUrl,
-                new byte[]{0}, ResponseType.DISK_STORAGE,
+                ResponseType.DISK_STORAGE,
                 new ReferenceOwner("", "", "", "")) ;
 
         assertEquals (ProcessingJobSubTaskState.ERROR, e.getProcessingJobSubTaskStats().getMetaExtractionState());
@@ -347,8 +348,8 @@ public class SlaveProcessorTest {
         MediaStorageClient mediaStorageClientFail = mock(FileSystemMediaStorageClientImpl.class);
         ThumbnailImageGenerator thumbnailImageGeneratorFail = mock(ThumbnailImageGenerator.class);
 
-        doThrow(exception).when(mediaMetaInfoExtractorFail).extract(anyString());
-        doReturn(null).when(colorExtractorFail).colorExtraction(anyString());
+        doThrow(exception).when(mediaMetaInfoExtractorFail).extract(any(MediaAnalysisContext.class));
+        doReturn(null).when(colorExtractorFail).colorExtraction(any(MediaAnalysisContext.class));
         doReturn(PATH_COLORMAP).when(thumbnailImageGeneratorFail).getColorMapPath();
         doReturn(null).when(thumbnailImageGeneratorFail).createMediaFileWithThumbnail(anyInt(), anyInt(), anyString(),
                 anyString(),
@@ -358,7 +359,7 @@ public class SlaveProcessorTest {
         SlaveProcessor slaveProcessorAlwaysFail = new SlaveProcessor(mediaMetaInfoExtractorFail, colorExtractorFail, mediaStorageClientFail, PATH_COLORMAP);
 
         ProcessingResultTuple e = slaveProcessorAlwaysFail.process(taskDocumentReference, PATH_DOWNLOADED + Image1, fileUrl,
-                new byte[]{0}, ResponseType.DISK_STORAGE,
+                ResponseType.DISK_STORAGE,
                 new ReferenceOwner("", "", "", "")) ;
 
         assertEquals (ProcessingJobSubTaskState.ERROR, e.getProcessingJobSubTaskStats().getMetaExtractionState());
@@ -380,8 +381,8 @@ public class SlaveProcessorTest {
         MediaStorageClient mediaStorageClientFail = mock(FileSystemMediaStorageClientImpl.class);
         ThumbnailImageGenerator thumbnailImageGeneratorFail = mock(ThumbnailImageGenerator.class);
 
-        doReturn(null).when(mediaMetaInfoExtractorFail).extract(anyString());
-        doThrow(new IOException(exception)).when(colorExtractorFail).colorExtraction(anyString());
+        doReturn(null).when(mediaMetaInfoExtractorFail).extract(any(MediaAnalysisContext.class));
+        doThrow(new IOException(exception)).when(colorExtractorFail).colorExtraction(any(MediaAnalysisContext.class));
         doReturn(PATH_COLORMAP).when(thumbnailImageGeneratorFail).getColorMapPath();
         doReturn(null).when(thumbnailImageGeneratorFail).createMediaFileWithThumbnail(anyInt(), anyInt(), anyString(),
                 anyString(),
@@ -393,7 +394,7 @@ public class SlaveProcessorTest {
         downloadFile(fileUrl, PATH_DOWNLOADED + Image1);
         ProcessingResultTuple e =            slaveProcessorAlwaysFail.process(taskDocumentReference,
                 PATH_DOWNLOADED + Image1, fileUrl,
-                new byte[]{0}, ResponseType.DISK_STORAGE,
+                ResponseType.DISK_STORAGE,
                 new ReferenceOwner("", "", "", "")) ;
         assertEquals (ProcessingJobSubTaskState.ERROR, e.getProcessingJobSubTaskStats().getColorExtractionState());
         assertNotNull(e.getProcessingJobSubTaskStats().getColorExtractionLog());
@@ -413,8 +414,8 @@ public class SlaveProcessorTest {
         MediaStorageClient mediaStorageClientFail = mock(FileSystemMediaStorageClientImpl.class);
         ThumbnailImageGenerator thumbnailImageGeneratorFail = mock(ThumbnailImageGenerator.class);
 
-        doReturn(null).when(mediaMetaInfoExtractorFail).extract(anyString());
-        doReturn(null).when(colorExtractorFail).colorExtraction(anyString());
+        doReturn(null).when(mediaMetaInfoExtractorFail).extract(any(MediaAnalysisContext.class));
+        doReturn(null).when(colorExtractorFail).colorExtraction(any(MediaAnalysisContext.class));
         doReturn(PATH_COLORMAP).when(thumbnailImageGeneratorFail).getColorMapPath();
         doThrow(exception).when(thumbnailImageGeneratorFail).createMediaFileWithThumbnail(anyInt(), anyInt(), anyString(),
                 anyString(),
@@ -426,7 +427,7 @@ public class SlaveProcessorTest {
         downloadFile(fileUrl, PATH_DOWNLOADED + Image1);
         ProcessingResultTuple e = slaveProcessorAlwaysFail.process(taskDocumentReference,
                 PATH_DOWNLOADED + Image1, fileUrl,
-                new byte[]{0}, ResponseType.DISK_STORAGE,
+                ResponseType.DISK_STORAGE,
                 new ReferenceOwner("", "", "", "")) ;
         assertEquals(ProcessingJobSubTaskState.NEVER_EXECUTED, e.getProcessingJobSubTaskStats().getThumbnailGenerationState());
         assertEquals (null, e.getProcessingJobSubTaskStats().getThumbnailGenerationLog());
@@ -445,8 +446,8 @@ public class SlaveProcessorTest {
         ColorExtractor colorExtractorFail = mock(ColorExtractor.class);
         MediaStorageClient mediaStorageClientFail = mock(FileSystemMediaStorageClientImpl.class);
 
-        doReturn(null).when(mediaMetaInfoExtractorFail).extract(anyString());
-        doReturn(null).when(colorExtractorFail).colorExtraction(anyString());
+        doReturn(null).when(mediaMetaInfoExtractorFail).extract(any(MediaAnalysisContext.class));
+        doReturn(null).when(colorExtractorFail).colorExtraction(any(MediaAnalysisContext.class));
 
         doThrow(new RuntimeException(exception)).when(mediaStorageClientFail).createOrModify(any(MediaFile.class));
 
@@ -455,7 +456,6 @@ public class SlaveProcessorTest {
         downloadFile(fileUrl, PATH_DOWNLOADED + Image1);
         ProcessingResultTuple e = slaveProcessorAlwaysFail.process(taskDocumentReference, PATH_DOWNLOADED + Image1,
                 fileUrl,
-                Files.toByteArray(new File(PATH_DOWNLOADED + Image1)),
                 ResponseType.DISK_STORAGE,
                 new ReferenceOwner("", "", "", "")) ;
 
@@ -479,8 +479,8 @@ public class SlaveProcessorTest {
         MediaStorageClient mediaStorageClientFail = mock(FileSystemMediaStorageClientImpl.class);
         ThumbnailImageGenerator thumbnailImageGeneratorFail = mock(ThumbnailImageGenerator.class);
 
-        doReturn(null).when(mediaMetaInfoExtractorFail).extract(anyString());
-        doReturn(null).when(colorExtractorFail).colorExtraction(anyString());
+        doReturn(null).when(mediaMetaInfoExtractorFail).extract(any(MediaAnalysisContext.class));
+        doReturn(null).when(colorExtractorFail).colorExtraction(any(MediaAnalysisContext.class));
         doReturn(PATH_COLORMAP).when(thumbnailImageGeneratorFail).getColorMapPath();
         doReturn(null).when(thumbnailImageGeneratorFail).createMediaFileWithThumbnail(anyInt(), anyInt(), anyString(),
                 anyString(),
@@ -490,7 +490,7 @@ public class SlaveProcessorTest {
         SlaveProcessor slaveProcessorAlwaysFail = new SlaveProcessor(mediaMetaInfoExtractorFail, colorExtractorFail, mediaStorageClientFail, PATH_COLORMAP);
 
         ProcessingResultTuple tuple =    slaveProcessorAlwaysFail.process(taskDocumentReference, PATH_DOWNLOADED + Image1,
-                fileUrl, new byte[]{0}, ResponseType.DISK_STORAGE,
+                fileUrl, ResponseType.DISK_STORAGE,
                 new ReferenceOwner("", "", "", "")) ;
 
         assertEquals(ProcessingJobSubTaskState.FAILED, tuple.getProcessingJobSubTaskStats().getMetaExtractionState());
@@ -1,5 +1,7 @@
 package eu.europeana.harvester.cluster.slave.processing.color;
 
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
+import eu.europeana.harvester.cluster.slave.processing.imaging.JavaImagingUtils;
 import eu.europeana.harvester.domain.ImageMetaInfo;
 import gr.ntua.image.mediachecker.MediaChecker;
 import org.junit.Rule;
@@ -57,6 +59,26 @@ public class ColorExtractorTest {
         assertNull(metaInfo.getFileFormat());
     }
 
+    @Test
+    public void test_ColorPaletteExtraction_Image1_JavaBackend() throws Exception {
+        final ImageMetaInfo metaInfo = new ColorExtractor(PATH_COLORMAP, ImagingBackend.JAVA).colorExtraction(getPath(Image1));
+
+        assertNotNull("Image meta info must not be null!", metaInfo);
+        assertNull(metaInfo.getWidth());
+        assertNull(metaInfo.getHeight());
+        assertEquals(JavaImagingUtils.COLOR_PALETTE_SIZE, metaInfo.getColorPalette().length);
+        for (final String color : metaInfo.getColorPalette()) {
+            assertTrue(color.matches("#[0-9A-F]{6}"));
+        }
+    }
+
+    @Test
+    public void test_ColorPaletteExtraction_FailForPDF_JavaBackend() throws Exception {
+        final ImageMetaInfo metaInfo = new ColorExtractor(PATH_COLORMAP, ImagingBackend.JAVA).colorExtraction(getPath(PDF1));
+
+        assertNull(metaInfo);
+    }
+
     @Test
     public void test_ColorPaletteExtraction_FailForVideo() throws Exception {
         final ImageMetaInfo metaInfo = new ColorExtractor(PATH_COLORMAP).colorExtraction(getPath(Video1));
@@ -0,0 +1,68 @@
+package eu.europeana.harvester.cluster.slave.processing.metainfo;
+
+import eu.europeana.harvester.cluster.domain.ContentType;
+import gr.ntua.image.mediachecker.ImageInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+import static eu.europeana.harvester.TestUtils.*;
+import static org.junit.Assert.*;
+
+public class MediaAnalysisContextTest {
+    @Rule
+    public TestRule watcher = new TestWatcher() {
+        protected void starting(Description description) {
+            System.out.println("Starting test: " + description.getMethodName());
+        }
+    };
+
+    @Test
+    public void test_ContentTypeAndMimeType_Image() {
+        final MediaAnalysisContext context = new MediaAnalysisContext(getPath(Image1), PATH_COLORMAP);
+
+        assertEquals(ContentType.IMAGE, context.getContentType());
+        assertEquals(IMAGE_MIMETYPE, context.getMimeType());
+    }
+
+    @Test
+    public void test_ContentType_Unknown() {
+        final MediaAnalysisContext context = new MediaAnalysisContext("http://www.google.com", PATH_COLORMAP);
+
+        assertEquals(ContentType.UNKNOWN, context.getContentType());
+    }
+
+    @Test
+    public void test_ImageInfoIsIdentifiedOnlyOnce() throws Exception {
+        final MediaAnalysisContext context = new MediaAnalysisContext(getPath(Image1), PATH_COLORMAP);
+
+        final ImageInfo first = context.getImageInfo();
+        assertSame(first, context.getImageInfo());
+        assertEquals(2500, (int) first.getWidth());
+        assertEquals(1737, (int) first.getHeight());
+    }
+
+    @Test
+    public void test_ImageInfoWithoutColorPaletteSkipsThePalette() throws Exception {
+        final MediaAnalysisContext context = new MediaAnalysisContext(getPath(Image1), PATH_COLORMAP, false);
+
+        final ImageInfo imageInfo = context.getImageInfo();
+        assertEquals(2500, (int) imageInfo.getWidth());
+        assertEquals(1737, (int) imageInfo.getHeight());
+        assertTrue(null == imageInfo.getPalette() || 0 == imageInfo.getPalette().length);
+    }
+
+    @Test
+    public void test_SharedContextGivesSameResultAsStandaloneExtraction() throws Exception {
+        final MediaAnalysisContext context = new MediaAnalysisContext(getPath(Image1), PATH_COLORMAP);
+
+        final MediaMetaInfoTuple shared = new MediaMetaInfoExtractor(PATH_COLORMAP).extract(context);
+        final MediaMetaInfoTuple standalone = new MediaMetaInfoExtractor(PATH_COLORMAP).extract(getPath(Image1));
+
+        assertEquals(standalone.getImageMetaInfo().getWidth(), shared.getImageMetaInfo().getWidth());
+        assertEquals(standalone.getImageMetaInfo().getHeight(), shared.getImageMetaInfo().getHeight());
+        assertArrayEquals(standalone.getImageMetaInfo().getColorPalette(), shared.getImageMetaInfo().getColorPalette());
+    }
+}
@@ -1,14 +1,31 @@
 package eu.europeana.harvester.cluster.slave.processing.thumbnail;
 
 import eu.europeana.harvester.cluster.domain.ContentType;
+import eu.europeana.harvester.cluster.domain.ImagingBackend;
+import eu.europeana.harvester.cluster.slave.processing.metainfo.MediaAnalysisContext;
 import eu.europeana.harvester.domain.MediaFile;
 import eu.europeana.harvester.domain.ThumbnailType;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.TestRule;
 import org.junit.rules.TestWatcher;
 import org.junit.runner.Description;
 
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+
 import static eu.europeana.harvester.TestUtils.*;
 import static org.junit.Assert.*;
 
@@ -24,6 +41,9 @@ public class ThumbnailGeneratorTest {
         }
     };
 
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
     private boolean almostSameSize(final byte[] first,final byte[] second) {
         return (((first.length / second.length) > 0.95) || ((second.length / first.length) > 0.95));
     }
@@ -91,6 +111,112 @@ public class ThumbnailGeneratorTest {
         assertTrue(almostSameSize(filesInBytes.get(Image2ThumbnailLarge), thumbnail.getContent()));
     }
 
+    @Test
+    public void test_ThumbnailGeneration_Image1_AllSizesInOneInvocation() throws Exception {
+        final Map<ThumbnailType, MediaFile> thumbnails = ThumbnailGeneratorFactory.getThumbnailGenerator(ContentType.IMAGE, PATH_COLORMAP)
+                .createMediaFilesWithThumbnails(Arrays.asList(ThumbnailType.MEDIUM, ThumbnailType.LARGE), "", getPath(Image1),
+                        new MediaAnalysisContext(getPath(Image1), PATH_COLORMAP));
+
+        assertEquals(2, thumbnails.size());
+
+        final MediaFile medium = thumbnails.get(ThumbnailType.MEDIUM);
+        assertTrue(IMAGE_MIMETYPE.equalsIgnoreCase(medium.getContentType()));
+        assertEquals(Image1, medium.getName());
+        assertEquals(MediaFile.generateIdFromUrlAndSizeType(getPath(Image1), ThumbnailType.MEDIUM.name()), medium.getId());
+        assertTrue(almostSameSize(filesInBytes.get(Image1ThumbnailMedium), medium.getContent()));
+
+        final MediaFile large = thumbnails.get(ThumbnailType.LARGE);
+        assertTrue(IMAGE_MIMETYPE.equalsIgnoreCase(large.getContentType()));
+        assertEquals(Image1, large.getName());
+        assertEquals(MediaFile.generateIdFromUrlAndSizeType(getPath(Image1), ThumbnailType.LARGE.name()), large.getId());
+        assertTrue(almostSameSize(filesInBytes.get(Image1ThumbnailLarge), large.getContent()));
+    }
+
+    @Test
+    public void test_ThumbnailGeneration_Image1_JavaBackend() throws Exception {
+        final ThumbnailGenerator generator = ThumbnailGeneratorFactory.getThumbnailGenerator(ContentType.IMAGE, PATH_COLORMAP, ImagingBackend.JAVA);
+        assertTrue(generator instanceof ThumbnailJavaImageGenerator);
+
+        final Map<ThumbnailType, MediaFile> thumbnails = generator.createMediaFilesWithThumbnails(Arrays.asList(ThumbnailType.MEDIUM, ThumbnailType.LARGE),
+                "", getPath(Image1), new MediaAnalysisContext(getPath(Image1), PATH_COLORMAP));
+
+        assertEquals(2, thumbnails.size());
+        for (final Map.Entry<ThumbnailType, MediaFile> thumbnail : thumbnails.entrySet()) {
+            assertTrue(IMAGE_MIMETYPE.equalsIgnoreCase(thumbnail.getValue().getContentType()));
+            assertEquals(Image1, thumbnail.getValue().getName());
+
+            final BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail.getValue().getContent()));
+            assertEquals(thumbnail.getKey().getWidth(), image.getWidth());
+        }
+    }
+
+    /**
+     * Writes an animated GIF with a differently colored frame for each color.
+     */
+    private Path animatedGif(final int width, final int height, final Color... colors) throws Exception {
+        final Path path = folder.newFile("animated.gif").toPath();
+        final ImageWriter writer = ImageIO.getImageWritersByFormatName("gif").next();
+        final ImageOutputStream out = ImageIO.createImageOutputStream(path.toFile());
+        try {
+            writer.setOutput(out);
+            writer.prepareWriteSequence(null);
+            for (final Color color : colors) {
+                final BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+                final Graphics2D graphics = frame.createGraphics();
+                graphics.setColor(color);
+                graphics.fillRect(0, 0, width, height);
+                graphics.dispose();
+                writer.writeToSequence(new IIOImage(frame, null, null), null);
+            }
+            writer.endWriteSequence();
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+        return path;
+    }
+
+    private static int countThumbnailTempFiles(final Path tempFolder) throws Exception {
+        int count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(tempFolder, "thumbnail-*")) {
+            for (final Path ignored : files) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void test_ThumbnailGeneration_AnimatedGif_FirstFrameOnly() throws Exception {
+        final Path gif = animatedGif(600, 300, Color.RED, Color.BLUE, Color.GREEN);
+        final String url = "http://www.example.com/" + gif.getFileName();
+        final Path tempFolder = folder.newFolder("thumbnails").toPath();
+        try {
+            final ThumbnailGenerator generator = new ThumbnailImageGenerator(PATH_COLORMAP, tempFolder);
+            final Map<ThumbnailType, MediaFile> thumbnails = generator.createMediaFilesWithThumbnails(
+                    Arrays.asList(ThumbnailType.MEDIUM, ThumbnailType.LARGE), "", url,
+                    new MediaAnalysisContext(gif.toString(), PATH_COLORMAP));
+
+            assertEquals(2, thumbnails.size());
+            for (final Map.Entry<ThumbnailType, MediaFile> thumbnail : thumbnails.entrySet()) {
+                final BufferedImage image = ImageIO.read(new ByteArrayInputStream(thumbnail.getValue().getContent()));
+                assertEquals(thumbnail.getKey().getWidth(), image.getWidth());
+                // The first frame is the red one
+                final Color pixel = new Color(image.getRGB(image.getWidth() / 2, image.getHeight() / 2));
+                assertTrue(pixel.getRed() > 200 && pixel.getBlue() < 50);
+            }
+
+            final MediaFile single = generator.createMediaFileWithThumbnail(ThumbnailType.MEDIUM.getWidth(), ThumbnailType.MEDIUM.getHeight(),
+                    "", url, Files.readAllBytes(gif), gif.toString());
+            assertEquals(ThumbnailType.MEDIUM.getWidth(), ImageIO.read(new ByteArrayInputStream(single.getContent())).getWidth());
+
+            // No output was left behind for the other frames
+            assertEquals(0, countThumbnailTempFiles(tempFolder));
+        } finally {
+            Files.delete(gif);
+        }
+    }
+
     @Test(expected=Exception.class)
     public void test_ThumbnailGeneration_Fail_Audio() throws Exception {
         final Integer width = ThumbnailType.LARGE.getWidth();
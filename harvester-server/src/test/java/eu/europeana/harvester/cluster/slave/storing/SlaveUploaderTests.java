@@ -0,0 +1,171 @@
+package eu.europeana.harvester.cluster.slave.storing;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import eu.europeana.harvester.cluster.domain.SlaveUploadConfig;
+import eu.europeana.harvester.cluster.slave.SlaveMetrics;
+import eu.europeana.harvester.db.dummy.DummyMediaStorageClientImpl;
+import eu.europeana.harvester.domain.MediaFile;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SlaveUploaderTests {
+
+    /**
+     * A storage which fails the first uploads & keeps track of the uploads running at once.
+     */
+    private static class FlakyStorage extends DummyMediaStorageClientImpl {
+        private final AtomicInteger failuresLeft;
+        private final long durationInMillis;
+
+        private final AtomicInteger running = new AtomicInteger();
+        private final AtomicInteger maxRunning = new AtomicInteger();
+        private final ConcurrentMap<String, String> stored = new ConcurrentHashMap<>();
+        private final CountDownLatch release;
+
+        private FlakyStorage(final int failures, final long durationInMillis, final CountDownLatch release) {
+            this.failuresLeft = new AtomicInteger(failures);
+            this.durationInMillis = durationInMillis;
+            this.release = release;
+        }
+
+        @Override
+        public void createOrModify(MediaFile mediaFile) {
+            final int now = running.incrementAndGet();
+            try {
+                int max = maxRunning.get();
+                while (now > max && !maxRunning.compareAndSet(max, now)) {
+                    max = maxRunning.get();
+                }
+                if (null != release) {
+                    release.await();
+                }
+                Thread.sleep(durationInMillis);
+                if (failuresLeft.getAndDecrement() > 0) {
+                    throw new IllegalStateException("The storage is down");
+                }
+                stored.put(mediaFile.getId(), Thread.currentThread().getName());
+            } catch (InterruptedException e) {
+                throw new IllegalStateException(e);
+            } finally {
+                running.decrementAndGet();
+            }
+        }
+    }
+
+    private SlaveUploader uploader;
+
+    @After
+    public void tearDown() {
+        if (null != uploader) {
+            uploader.shutdown();
+        }
+    }
+
+    private static MediaFile thumbnail(final String id) throws Exception {
+        final byte[] bytes = id.getBytes(StandardCharsets.UTF_8);
+        return new MediaFile(id, "execution1", id, Collections.<String>emptyList(), "md5", "http://www.example.com/" + id,
+                new DateTime(1000L), bytes, 1, "image/jpeg", Collections.<String, String>emptyMap(), bytes.length);
+    }
+
+    private static List<MediaFile> thumbnails(final int count) throws Exception {
+        final List<MediaFile> thumbnails = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            thumbnails.add(thumbnail("thumbnail" + i));
+        }
+        return thumbnails;
+    }
+
+    @Test
+    public void canUploadAllTheFiles() throws Exception {
+        final FlakyStorage storage = new FlakyStorage(0, 0, null);
+        uploader = new SlaveUploader(storage, new SlaveUploadConfig(4, 100, 3, 1L, 10L));
+
+        uploader.uploadAll(thumbnails(10)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(10, storage.stored.size());
+    }
+
+    @Test
+    public void retriesAFailedUpload() throws Exception {
+        final FlakyStorage storage = new FlakyStorage(2, 0, null);
+        uploader = new SlaveUploader(storage, new SlaveUploadConfig(1, 100, 3, 1L, 10L));
+        final long retries = SlaveMetrics.Worker.Slave.Upload.retryCounter.getCount();
+
+        uploader.upload(thumbnail("thumbnail")).get(10, TimeUnit.SECONDS);
+
+        assertTrue(storage.stored.containsKey("thumbnail"));
+        assertEquals(retries + 2, SlaveMetrics.Worker.Slave.Upload.retryCounter.getCount());
+    }
+
+    @Test
+    public void failsAfterTheLastRetry() throws Exception {
+        final FlakyStorage storage = new FlakyStorage(Integer.MAX_VALUE, 0, null);
+        uploader = new SlaveUploader(storage, new SlaveUploadConfig(1, 100, 2, 1L, 10L));
+        final long failures = SlaveMetrics.Worker.Slave.Upload.failureCounter.getCount();
+
+        try {
+            uploader.upload(thumbnail("thumbnail")).get(10, TimeUnit.SECONDS);
+            fail("The upload should have failed");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalStateException);
+        }
+        assertEquals(Integer.MAX_VALUE - 3, storage.failuresLeft.get());
+        assertEquals(failures + 1, SlaveMetrics.Worker.Slave.Upload.failureCounter.getCount());
+    }
+
+    @Test
+    public void neverRunsMoreUploadsThanTheConcurrency() throws Exception {
+        final FlakyStorage storage = new FlakyStorage(0, 20, null);
+        uploader = new SlaveUploader(storage, new SlaveUploadConfig(3, 100, 3, 1L, 10L));
+
+        uploader.uploadAll(thumbnails(12)).get(10, TimeUnit.SECONDS);
+
+        assertEquals(12, storage.stored.size());
+        assertEquals(3, storage.maxRunning.get());
+    }
+
+    @Test
+    public void uploadsOnTheCallerWhenTheQueueIsFull() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final FlakyStorage storage = new FlakyStorage(0, 0, release);
+        uploader = new SlaveUploader(storage, new SlaveUploadConfig(1, 1, 3, 1L, 10L));
+
+        // The first one runs & waits, the second one waits in the queue
+        final ListenableFuture<Void> running = uploader.upload(thumbnail("running"));
+        final ListenableFuture<Void> queued = uploader.upload(thumbnail("queued"));
+        while (storage.running.get() == 0) {
+            Thread.sleep(1);
+        }
+        assertEquals(1, uploader.getQueueDepth());
+
+        release.countDown();
+        uploader.upload(thumbnail("overflow")).get(10, TimeUnit.SECONDS);
+        running.get(10, TimeUnit.SECONDS);
+        queued.get(10, TimeUnit.SECONDS);
+
+        assertEquals(Thread.currentThread().getName(), storage.stored.get("overflow"));
+        assertTrue(storage.stored.get("running").startsWith("slave-upload-"));
+    }
+
+    @Test
+    public void backsOffRandomlyUpToADoublingCeiling() {
+        uploader = new SlaveUploader(new FlakyStorage(0, 0, null), new SlaveUploadConfig(1, 1, 10, 100L, 1000L));
+
+        for (int i = 0; i < 100; i++) {
+            assertTrue(uploader.backoffInMillis(1) <= 100);
+            assertTrue(uploader.backoffInMillis(3) <= 400);
+            assertTrue(uploader.backoffInMillis(10) <= 1000);
+            assertTrue(uploader.backoffInMillis(100) >= 0);
+        }
+    }
+}
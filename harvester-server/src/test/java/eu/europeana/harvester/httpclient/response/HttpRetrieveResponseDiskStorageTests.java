@@ -1,12 +1,17 @@
 package eu.europeana.harvester.httpclient.response;
 
+import org.apache.commons.codec.digest.DigestUtils;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Random;
+
 import static org.junit.Assert.*;
 
 public class HttpRetrieveResponseDiskStorageTests {
@@ -36,6 +41,38 @@ public class HttpRetrieveResponseDiskStorageTests {
     }
 
 
+    @Test
+    public void computesTheMd5WhileStoring() throws Exception {
+        final HttpRetrieveResponseDiskStorage storage = new HttpRetrieveResponseDiskStorage(filePath);
+        storage.addContent(ByteBuffer.wrap("123".getBytes()));
+        storage.addContent("456".getBytes());
+        assertNull(storage.getContentMd5());
+        storage.close();
+
+        assertEquals(DigestUtils.md5Hex("123456"), storage.getContentMd5());
+        assertArrayEquals("123456".getBytes(), storage.getContent());
+    }
+
+    @Test
+    public void canStoreContentLargerThanAWriteBatch() throws Exception {
+        final byte[] part = new byte[8 * 1024];
+        new Random(42).nextBytes(part);
+
+        final HttpRetrieveResponseDiskStorage storage = new HttpRetrieveResponseDiskStorage(filePath);
+        final ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        for (int i = 0; i < 20; i++) {
+            storage.addContent(ByteBuffer.wrap(part));
+            expected.write(part);
+        }
+        storage.close();
+        storage.close();
+
+        assertEquals(expected.size(), storage.getContentSizeInBytes().intValue());
+        assertEquals(expected.size(), Files.size(Paths.get(filePath)));
+        assertArrayEquals(expected.toByteArray(), storage.getContent());
+        assertEquals(DigestUtils.md5Hex(expected.toByteArray()), storage.getContentMd5());
+    }
+
     @After
     public void tearDown() throws IOException {
         Files.delete(Paths.get(filePath));
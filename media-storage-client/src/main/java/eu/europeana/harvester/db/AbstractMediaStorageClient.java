@@ -0,0 +1,195 @@
+package eu.europeana.harvester.db;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.*;
+import eu.europeana.harvester.domain.MediaFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+
+/**
+ * The streaming, asynchronous & batch operations of a {@link MediaStorageClient} built on its basic operations.
+ * The asynchronous & batch operations run on a pool of threads of the client. The streaming operations load the
+ * content in memory, the storages which can stream override them.
+ */
+public abstract class AbstractMediaStorageClient implements MediaStorageClient {
+
+    public static final int DEFAULT_PARALLELISM = 4;
+
+    private final ListeningExecutorService executorService;
+
+    protected AbstractMediaStorageClient() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * @param parallelism the maximum number of operations running at once on the storage
+     */
+    protected AbstractMediaStorageClient(final int parallelism) {
+        this.executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(parallelism,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat(getClass().getSimpleName() + "-%d").build()));
+    }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile, InputStream content, long contentLength) throws IOException {
+        final byte[] bytes = ByteStreams.toByteArray(ByteStreams.limit(content, contentLength));
+        if (bytes.length != contentLength) {
+            throw new IOException("Expected " + contentLength + " bytes for " + mediaFile.getId() + " but read " + bytes.length);
+        }
+        createOrModify(mediaFile.withContent(bytes));
+    }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile, Path content) throws IOException {
+        final InputStream inputStream = Files.newInputStream(content);
+        try {
+            createOrModify(mediaFile, inputStream, Files.size(content));
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Override
+    public InputStream retrieveContent(String id) throws IOException {
+        final MediaFile mediaFile;
+        try {
+            mediaFile = retrieve(id, true);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        if (null == mediaFile || null == mediaFile.getContent()) {
+            return null;
+        }
+        return new ByteArrayInputStream(mediaFile.getContent());
+    }
+
+    @Override
+    public InputStream retrieveContent(String id, long offset, long length) throws IOException {
+        final InputStream content = retrieveContent(id);
+        if (null == content) {
+            return null;
+        }
+        return skipAndLimit(content, offset, length);
+    }
+
+    @Override
+    public ListenableFuture<Void> createOrModifyAsync(final MediaFile mediaFile) {
+        return executorService.submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                createOrModify(mediaFile);
+                return null;
+            }
+        });
+    }
+
+    @Override
+    public void createOrModifyAll(Collection<MediaFile> mediaFiles) throws IOException {
+        final List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (final MediaFile mediaFile : mediaFiles) {
+            futures.add(createOrModifyAsync(mediaFile));
+        }
+        waitForAll(futures);
+    }
+
+    @Override
+    public Map<String, Boolean> checkIfExistsAll(Collection<String> ids) {
+        final Map<String, ListenableFuture<Boolean>> futures = new LinkedHashMap<>();
+        for (final String id : ids) {
+            futures.put(id, executorService.submit(new Callable<Boolean>() {
+                @Override
+                public Boolean call() {
+                    return checkIfExists(id);
+                }
+            }));
+        }
+
+        final Map<String, Boolean> results = new LinkedHashMap<>();
+        for (final Map.Entry<String, ListenableFuture<Boolean>> future : futures.entrySet()) {
+            results.put(future.getKey(), Futures.getUnchecked(future.getValue()));
+        }
+        return results;
+    }
+
+    /**
+     * Deletes the files in parallel, one by one. Not every storage accepts to delete a missing file, so each file is
+     * checked first : the storages which can delete in bulk override it.
+     */
+    @Override
+    public void deleteAll(Collection<String> ids) throws IOException {
+        final List<ListenableFuture<Void>> futures = new ArrayList<>();
+        for (final String id : ids) {
+            futures.add(executorService.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    if (checkIfExists(id)) {
+                        delete(id);
+                    }
+                    return null;
+                }
+            }));
+        }
+        waitForAll(futures);
+    }
+
+    /**
+     * Stops the pool of threads of the asynchronous operations. The storages which hold more resources override it.
+     */
+    @Override
+    public void close() {
+        executorService.shutdown();
+    }
+
+    /**
+     * @return the pool of threads of the asynchronous operations
+     */
+    protected final ListeningExecutorService getExecutorService() {
+        return executorService;
+    }
+
+    /**
+     * Waits for all the futures, even when one of them fails.
+     * @throws IOException with the first failure as cause, the other ones as suppressed
+     */
+    protected static void waitForAll(final List<? extends ListenableFuture<?>> futures) throws IOException {
+        IOException failure = null;
+        for (final ListenableFuture<?> future : futures) {
+            try {
+                future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                if (null == failure) {
+                    failure = new IOException("The operation failed for some of the files", e.getCause());
+                } else {
+                    failure.addSuppressed(e.getCause());
+                }
+            }
+        }
+        if (null != failure) {
+            throw failure;
+        }
+    }
+
+    /**
+     * @return the range of the stream which starts at the offset & has at most length bytes
+     */
+    protected static InputStream skipAndLimit(final InputStream content, final long offset, final long length) throws IOException {
+        try {
+            ByteStreams.skipFully(content, offset);
+        } catch (IOException e) {
+            content.close();
+            throw e;
+        }
+        return ByteStreams.limit(content, length);
+    }
+}
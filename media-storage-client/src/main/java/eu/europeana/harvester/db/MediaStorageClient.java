@@ -1,9 +1,14 @@
 package eu.europeana.harvester.db;
 
+import com.google.common.util.concurrent.ListenableFuture;
 import eu.europeana.harvester.domain.MediaFile;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Map;
 
 public interface MediaStorageClient {
 
@@ -34,4 +39,69 @@ public interface MediaStorageClient {
      * @param id the if of the file, it's the MD5 of the URL
      */
     public void delete(String id) throws IOException;
+
+    /**
+     * Creates or updates a file with a content read from a stream, without loading it in memory when the storage allows it.
+     * @param mediaFile the metainfos of the file, its content is ignored
+     * @param content the content, it is not closed
+     * @param contentLength the number of bytes of the content
+     */
+    public void createOrModify(MediaFile mediaFile, InputStream content, long contentLength) throws IOException;
+
+    /**
+     * Creates or updates a file with the content of a local file.
+     * @param mediaFile the metainfos of the file, its content is ignored
+     * @param content the path of the local file
+     */
+    public void createOrModify(MediaFile mediaFile, Path content) throws IOException;
+
+    /**
+     * Streams the content of a file.
+     * @param id the if of the file, it's the MD5 of the URL
+     * @return the content, to be closed by the caller, or null if the file does not exist
+     */
+    public InputStream retrieveContent(String id) throws IOException;
+
+    /**
+     * Streams a range of the content of a file.
+     * @param id the if of the file, it's the MD5 of the URL
+     * @param offset the position of the first byte
+     * @param length the maximum number of bytes
+     * @return the range of the content, to be closed by the caller, or null if the file does not exist
+     */
+    public InputStream retrieveContent(String id, long offset, long length) throws IOException;
+
+    /**
+     * Creates or updates a file without waiting for the storage.
+     * @param mediaFile the new/modified MediaFile
+     * @return a future which fails with the error of the storage
+     */
+    public ListenableFuture<Void> createOrModifyAsync(MediaFile mediaFile);
+
+    /**
+     * Creates or updates several files in parallel and waits for all of them.
+     * @param mediaFiles the new/modified MediaFiles
+     * @throws IOException if any of the files could not be stored, the other ones are stored anyway
+     */
+    public void createOrModifyAll(Collection<MediaFile> mediaFiles) throws IOException;
+
+    /**
+     * Checks in parallel if several files already exist in the database.
+     * @param ids the ids of the files
+     * @return the presence of each file
+     */
+    public Map<String, Boolean> checkIfExistsAll(Collection<String> ids);
+
+    /**
+     * Deletes several files, with as few requests as the storage allows.
+     * @param ids the ids of the files, the missing ones are ignored
+     * @throws IOException if any of the files could not be deleted, the other ones are deleted anyway
+     */
+    public void deleteAll(Collection<String> ids) throws IOException;
+
+    /**
+     * Releases the threads & the connections of the client, the operations still running are not waited for.
+     * The client cannot be used afterwards.
+     */
+    public void close();
 }
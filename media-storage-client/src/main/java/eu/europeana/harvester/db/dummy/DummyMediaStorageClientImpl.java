@@ -1,9 +1,10 @@
 package eu.europeana.harvester.db.dummy;
 
-import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.db.AbstractMediaStorageClient;
 import eu.europeana.harvester.domain.MediaFile;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.security.NoSuchAlgorithmException;
 
 /**
@@ -11,7 +12,7 @@ import java.security.NoSuchAlgorithmException;
  *
  * a basic do nothing implementation. In case you want to ignore
  */
-public class DummyMediaStorageClientImpl implements MediaStorageClient {
+public class DummyMediaStorageClientImpl extends AbstractMediaStorageClient {
     @Override
     public Boolean checkIfExists (String id) {
         return false;
@@ -25,6 +26,9 @@ public class DummyMediaStorageClientImpl implements MediaStorageClient {
     @Override
     public void createOrModify (MediaFile mediaFile) {}
 
+    @Override
+    public void createOrModify (MediaFile mediaFile, InputStream content, long contentLength) {}
+
     @Override
     public void delete (String id) throws IOException {}
 }
@@ -0,0 +1,38 @@
+package eu.europeana.harvester.db.filesystem;
+
+import com.typesafe.config.Config;
+
+/**
+ * The configuration of {@link ShardedFileSystemMediaStorageClientImpl}.
+ */
+public class FileSystemConfiguration {
+    private final String folder;
+    private final int shardLevels;
+
+    public FileSystemConfiguration(String folder, int shardLevels) {
+        this.folder = folder;
+        this.shardLevels = shardLevels;
+    }
+
+    public static FileSystemConfiguration valueOf(final Config config) {
+
+        final String FOLDER = "folder";
+        final String SHARD_LEVELS = "shardLevels";
+
+        if (!config.hasPath(FOLDER)) throw new IllegalArgumentException("The file system configuration needs a " + FOLDER);
+        final String folder = config.getString(FOLDER);
+
+        final int shardLevels = config.hasPath(SHARD_LEVELS) ? config.getInt(SHARD_LEVELS) :
+                ShardedFileSystemMediaStorageClientImpl.DEFAULT_SHARD_LEVELS;
+
+        return new FileSystemConfiguration(folder, shardLevels);
+    }
+
+    public String getFolder() {
+        return folder;
+    }
+
+    public int getShardLevels() {
+        return shardLevels;
+    }
+}
@@ -1,18 +1,20 @@
 package eu.europeana.harvester.db.filesystem;
 
-import eu.europeana.harvester.db.MediaStorageClient;
+import com.google.common.io.ByteStreams;
+import eu.europeana.harvester.db.AbstractMediaStorageClient;
 import eu.europeana.harvester.domain.MediaFile;
 import org.joda.time.DateTime;
 
+import java.io.EOFException;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
-import java.nio.file.StandardOpenOption;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.*;
 import java.security.NoSuchAlgorithmException;
 import java.util.Collections;
 
-public class FileSystemMediaStorageClientImpl implements MediaStorageClient {
+public class FileSystemMediaStorageClientImpl extends AbstractMediaStorageClient {
 
     private final String folderPath;
 
@@ -58,4 +60,44 @@ public class FileSystemMediaStorageClientImpl implements MediaStorageClient {
     public void delete(String id) throws IOException {
         Files.delete(pathOfId(id));
     }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile, InputStream content, long contentLength) throws IOException {
+        // Written next to the file & moved over it, so readers never see a partial content
+        final Path temporaryFile = Files.createTempFile(Paths.get(folderPath), mediaFile.getId(), ".tmp");
+        try {
+            final long copied = Files.copy(ByteStreams.limit(content, contentLength), temporaryFile, StandardCopyOption.REPLACE_EXISTING);
+            if (copied != contentLength) {
+                throw new IOException("Expected " + contentLength + " bytes for " + mediaFile.getId() + " but read " + copied);
+            }
+            Files.move(temporaryFile, pathOfId(mediaFile.getId()), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    @Override
+    public InputStream retrieveContent(String id) throws IOException {
+        try {
+            return Files.newInputStream(pathOfId(id));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public InputStream retrieveContent(String id, long offset, long length) throws IOException {
+        final SeekableByteChannel channel;
+        try {
+            channel = Files.newByteChannel(pathOfId(id));
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        if (offset > channel.size()) {
+            channel.close();
+            throw new EOFException("The offset " + offset + " is after the end of " + id);
+        }
+        channel.position(offset);
+        return ByteStreams.limit(Channels.newInputStream(channel), length);
+    }
 }
@@ -0,0 +1,78 @@
+package eu.europeana.harvester.db.filesystem;
+
+import eu.europeana.harvester.domain.MediaFile;
+import org.joda.time.DateTime;
+
+import java.util.*;
+
+/**
+ * Maps the meta infos of a {@link MediaFile} to properties & back, for the storages which keep them in a sidecar file
+ * next to the content.
+ */
+public class MediaFileProperties {
+
+    public static final String MD5 = "md5";
+    public static final String SIZE = "size";
+    public static final String NAME = "name";
+    public static final String SOURCE = "source";
+    public static final String ORIGINAL_URL = "originalUrl";
+    public static final String CREATED_AT = "createdAt";
+    public static final String VERSION_NUMBER = "versionNumber";
+    public static final String CONTENT_TYPE = "contentType";
+    public static final String ALIAS_PREFIX = "alias.";
+    public static final String META_DATA_PREFIX = "metaData.";
+
+    /**
+     * @return the meta infos of the file, without its id & content
+     */
+    public static Properties toProperties(final MediaFile mediaFile) {
+        final Properties properties = new Properties();
+        setIfNotNull(properties, MD5, mediaFile.getContentMd5());
+        setIfNotNull(properties, SIZE, mediaFile.getSize());
+        setIfNotNull(properties, NAME, mediaFile.getName());
+        setIfNotNull(properties, SOURCE, mediaFile.getSource());
+        setIfNotNull(properties, ORIGINAL_URL, mediaFile.getOriginalUrl());
+        setIfNotNull(properties, CREATED_AT, null == mediaFile.getCreatedAt() ? null : mediaFile.getCreatedAt().getMillis());
+        setIfNotNull(properties, VERSION_NUMBER, mediaFile.getVersionNumber());
+        setIfNotNull(properties, CONTENT_TYPE, mediaFile.getContentType());
+        if (null != mediaFile.getAliases()) {
+            for (int i = 0; i < mediaFile.getAliases().size(); i++) {
+                properties.setProperty(ALIAS_PREFIX + i, mediaFile.getAliases().get(i));
+            }
+        }
+        if (null != mediaFile.getMetaData()) {
+            for (final Map.Entry<String, String> metaData : mediaFile.getMetaData().entrySet()) {
+                setIfNotNull(properties, META_DATA_PREFIX + metaData.getKey(), metaData.getValue());
+            }
+        }
+        return properties;
+    }
+
+    public static MediaFile toMediaFile(final String id, final Properties properties, final byte[] content) {
+        final List<String> aliases = new ArrayList<>();
+        for (int i = 0; properties.containsKey(ALIAS_PREFIX + i); i++) {
+            aliases.add(properties.getProperty(ALIAS_PREFIX + i));
+        }
+        final Map<String, String> metaData = new HashMap<>();
+        for (final String key : properties.stringPropertyNames()) {
+            if (key.startsWith(META_DATA_PREFIX)) {
+                metaData.put(key.substring(META_DATA_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        final String createdAt = properties.getProperty(CREATED_AT);
+        final String versionNumber = properties.getProperty(VERSION_NUMBER);
+        final String size = properties.getProperty(SIZE);
+
+        return new MediaFile(id, properties.getProperty(SOURCE), properties.getProperty(NAME), aliases,
+                properties.getProperty(MD5), properties.getProperty(ORIGINAL_URL),
+                null == createdAt ? null : new DateTime(Long.parseLong(createdAt)), content,
+                null == versionNumber ? null : Integer.valueOf(versionNumber), properties.getProperty(CONTENT_TYPE),
+                metaData, null == size ? null : Integer.valueOf(size));
+    }
+
+    private static void setIfNotNull(final Properties properties, final String key, final Object value) {
+        if (null != value) {
+            properties.setProperty(key, value.toString());
+        }
+    }
+}
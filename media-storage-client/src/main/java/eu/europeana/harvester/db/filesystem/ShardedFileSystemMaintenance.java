@@ -0,0 +1,164 @@
+package eu.europeana.harvester.db.filesystem;
+
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+
+import static eu.europeana.harvester.db.filesystem.ShardedFileSystemMediaStorageClientImpl.*;
+
+/**
+ * The offline maintenance of a {@link ShardedFileSystemMediaStorageClientImpl} : it must run while nothing writes to
+ * the storage.
+ * <ul>
+ * <li>verify : checks that every file points to a content which exists & still has its digest ;</li>
+ * <li>compact : verifies, then removes the contents which no file points to & the leftovers of interrupted writes.</li>
+ * </ul>
+ * Usage : ShardedFileSystemMaintenance verify|compact folder [shardLevels]
+ */
+public class ShardedFileSystemMaintenance {
+
+    /**
+     * What a run found & did.
+     */
+    public static class Report {
+        private long refs;
+        private long blobs;
+        private long missingBlobs;
+        private long corruptedBlobs;
+        private long removedBlobs;
+        private long removedTemporaryFiles;
+
+        public long getRefs() {
+            return refs;
+        }
+
+        public long getBlobs() {
+            return blobs;
+        }
+
+        public long getMissingBlobs() {
+            return missingBlobs;
+        }
+
+        public long getCorruptedBlobs() {
+            return corruptedBlobs;
+        }
+
+        public long getRemovedBlobs() {
+            return removedBlobs;
+        }
+
+        public long getRemovedTemporaryFiles() {
+            return removedTemporaryFiles;
+        }
+
+        public boolean isConsistent() {
+            return 0 == missingBlobs && 0 == corruptedBlobs;
+        }
+
+        @Override
+        public String toString() {
+            return "Report{refs=" + refs + ", blobs=" + blobs + ", missingBlobs=" + missingBlobs +
+                    ", corruptedBlobs=" + corruptedBlobs + ", removedBlobs=" + removedBlobs +
+                    ", removedTemporaryFiles=" + removedTemporaryFiles + "}";
+        }
+    }
+
+    private final Path root;
+    private final int shardLevels;
+
+    public ShardedFileSystemMaintenance(final String folderPath, final int shardLevels) {
+        this.root = Paths.get(folderPath);
+        this.shardLevels = shardLevels;
+    }
+
+    public Report verify() throws IOException {
+        return run(false);
+    }
+
+    public Report compact() throws IOException {
+        return run(true);
+    }
+
+    private Report run(final boolean compact) throws IOException {
+        final Report report = new Report();
+        final Set<String> referencedDigests = new HashSet<>();
+
+        // (1) The files & the contents they point to
+        Files.walkFileTree(root.resolve(REFS), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                report.refs++;
+                final String digest = digestOf(file);
+                if (referencedDigests.add(digest) && !Files.exists(shardedPath(root.resolve(BLOBS), digest, digest, shardLevels))) {
+                    report.missingBlobs++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // (2) The contents, checked against their digest
+        Files.walkFileTree(root.resolve(BLOBS), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                report.blobs++;
+                final String digest = file.getFileName().toString();
+                if (!referencedDigests.contains(digest)) {
+                    if (compact) {
+                        Files.delete(file);
+                        report.removedBlobs++;
+                    }
+                } else if (!digest.equals(sha256Of(file))) {
+                    report.corruptedBlobs++;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        // (3) The leftovers of the writes which were interrupted
+        if (compact) {
+            try (final DirectoryStream<Path> temporaryFiles = Files.newDirectoryStream(root.resolve(TMP))) {
+                for (final Path temporaryFile : temporaryFiles) {
+                    Files.delete(temporaryFile);
+                    report.removedTemporaryFiles++;
+                }
+            }
+        }
+        return report;
+    }
+
+    private static String digestOf(final Path ref) throws IOException {
+        final Properties properties = new Properties();
+        try (final Reader reader = Files.newBufferedReader(ref, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        return properties.getProperty(DIGEST);
+    }
+
+    private static String sha256Of(final Path blob) throws IOException {
+        try (final InputStream content = Files.newInputStream(blob)) {
+            return DigestUtils.sha256Hex(content);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || !("verify".equals(args[0]) || "compact".equals(args[0]))) {
+            System.err.println("Usage : ShardedFileSystemMaintenance verify|compact folder [shardLevels]");
+            System.exit(2);
+        }
+        final int shardLevels = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_SHARD_LEVELS;
+        final ShardedFileSystemMaintenance maintenance = new ShardedFileSystemMaintenance(args[1], shardLevels);
+
+        final Report report = "verify".equals(args[0]) ? maintenance.verify() : maintenance.compact();
+        System.out.println(report);
+        System.exit(report.isConsistent() ? 0 : 1);
+    }
+}
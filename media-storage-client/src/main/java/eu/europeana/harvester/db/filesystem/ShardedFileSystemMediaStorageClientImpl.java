@@ -0,0 +1,197 @@
+package eu.europeana.harvester.db.filesystem;
+
+import com.google.common.io.ByteStreams;
+import eu.europeana.harvester.db.AbstractMediaStorageClient;
+import eu.europeana.harvester.domain.MediaFile;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Properties;
+
+/**
+ * Stores the files on a file system which must hold millions of them :
+ * <ul>
+ * <li>the contents are addressed by their SHA-256 digest under blobs/, the files with the same content share it ;</li>
+ * <li>each file is a small properties file under refs/ with its meta infos & the digest of its content ;</li>
+ * <li>both are sharded in 2 (or 1 - 3) levels of 256 directories by the first bytes of a hash, so no directory
+ * grows too big for the lookups ;</li>
+ * <li>everything is written to tmp/ first & renamed, the readers never see a partial file.</li>
+ * </ul>
+ * A deleted or replaced file leaves its content behind as it may be shared, {@link ShardedFileSystemMaintenance}
+ * removes the contents which are no longer referenced.
+ */
+public class ShardedFileSystemMediaStorageClientImpl extends AbstractMediaStorageClient {
+
+    public static final int DEFAULT_SHARD_LEVELS = 2;
+
+    static final String BLOBS = "blobs";
+    static final String REFS = "refs";
+    static final String TMP = "tmp";
+
+    static final String DIGEST = "digest";
+    private static final String LENGTH = "length";
+
+    private final Path root;
+    private final int shardLevels;
+
+    public ShardedFileSystemMediaStorageClientImpl(final String folderPath) throws IOException {
+        this(folderPath, DEFAULT_SHARD_LEVELS);
+    }
+
+    public ShardedFileSystemMediaStorageClientImpl(final FileSystemConfiguration configuration) throws IOException {
+        this(configuration.getFolder(), configuration.getShardLevels());
+    }
+
+    /**
+     * @param folderPath the root folder of the storage
+     * @param shardLevels the number of levels of directories between the root & the files, from 1 to 3
+     */
+    public ShardedFileSystemMediaStorageClientImpl(final String folderPath, final int shardLevels) throws IOException {
+        if (shardLevels < 1 || shardLevels > 3) {
+            throw new IllegalArgumentException("The shard levels must be between 1 and 3, not " + shardLevels);
+        }
+        this.root = Paths.get(folderPath);
+        this.shardLevels = shardLevels;
+        Files.createDirectories(root.resolve(BLOBS));
+        Files.createDirectories(root.resolve(REFS));
+        Files.createDirectories(root.resolve(TMP));
+    }
+
+    /**
+     * @return the path of a file under a directory, sharded by the first bytes of the hash
+     */
+    static Path shardedPath(final Path directory, final String hash, final String fileName, final int shardLevels) {
+        Path path = directory;
+        for (int level = 0; level < shardLevels; level++) {
+            path = path.resolve(hash.substring(2 * level, 2 * level + 2));
+        }
+        return path.resolve(fileName);
+    }
+
+    Path refOf(final String id) {
+        // The ids are hashed again as they don't all start with a hash
+        return shardedPath(root.resolve(REFS), DigestUtils.md5Hex(id), id, shardLevels);
+    }
+
+    Path blobOf(final String digest) {
+        return shardedPath(root.resolve(BLOBS), digest, digest, shardLevels);
+    }
+
+    @Override
+    public Boolean checkIfExists(String id) {
+        return Files.exists(refOf(id));
+    }
+
+    @Override
+    public MediaFile retrieve(String id, Boolean withContent) throws IOException {
+        final Properties ref = readRef(id);
+        if (null == ref) {
+            return null;
+        }
+        final byte[] content = withContent ? Files.readAllBytes(blobOf(ref.getProperty(DIGEST))) : null;
+        return MediaFileProperties.toMediaFile(id, ref, content);
+    }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile) {
+        try {
+            createOrModify(mediaFile, new ByteArrayInputStream(mediaFile.getContent()), mediaFile.getContent().length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile, InputStream content, long contentLength) throws IOException {
+        final MessageDigest sha256 = DigestUtils.getSha256Digest();
+        final MessageDigest md5 = DigestUtils.getMd5Digest();
+
+        // (1) The content, once per digest
+        final Path temporaryBlob = Files.createTempFile(root.resolve(TMP), "blob", ".tmp");
+        final String digest;
+        try {
+            final InputStream digestedContent = new DigestInputStream(new DigestInputStream(ByteStreams.limit(content, contentLength), sha256), md5);
+            final long copied = Files.copy(digestedContent, temporaryBlob, StandardCopyOption.REPLACE_EXISTING);
+            if (copied != contentLength) {
+                throw new IOException("Expected " + contentLength + " bytes for " + mediaFile.getId() + " but read " + copied);
+            }
+            digest = Hex.encodeHexString(sha256.digest());
+
+            final Path blob = blobOf(digest);
+            if (!Files.exists(blob)) {
+                Files.createDirectories(blob.getParent());
+                Files.move(temporaryBlob, blob, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryBlob);
+        }
+
+        // (2) The meta infos, which make the new content visible
+        writeRef(mediaFile.getId(), toRef(mediaFile, digest, Hex.encodeHexString(md5.digest()), contentLength));
+    }
+
+    @Override
+    public void delete(String id) throws IOException {
+        Files.deleteIfExists(refOf(id));
+    }
+
+    @Override
+    public InputStream retrieveContent(String id) throws IOException {
+        final Properties ref = readRef(id);
+        return null == ref ? null : Files.newInputStream(blobOf(ref.getProperty(DIGEST)));
+    }
+
+    @Override
+    public InputStream retrieveContent(String id, long offset, long length) throws IOException {
+        final Properties ref = readRef(id);
+        if (null == ref) {
+            return null;
+        }
+        final SeekableByteChannel channel = Files.newByteChannel(blobOf(ref.getProperty(DIGEST)));
+        if (offset > channel.size()) {
+            channel.close();
+            throw new EOFException("The offset " + offset + " is after the end of " + id);
+        }
+        channel.position(offset);
+        return ByteStreams.limit(Channels.newInputStream(channel), length);
+    }
+
+    private Properties readRef(final String id) throws IOException {
+        final Properties ref = new Properties();
+        try (final Reader reader = Files.newBufferedReader(refOf(id), StandardCharsets.UTF_8)) {
+            ref.load(reader);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return ref;
+    }
+
+    private void writeRef(final String id, final Properties ref) throws IOException {
+        final Path path = refOf(id);
+        final Path temporaryRef = Files.createTempFile(root.resolve(TMP), "ref", ".tmp");
+        try {
+            try (final Writer writer = Files.newBufferedWriter(temporaryRef, StandardCharsets.UTF_8)) {
+                ref.store(writer, null);
+            }
+            Files.createDirectories(path.getParent());
+            Files.move(temporaryRef, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporaryRef);
+        }
+    }
+
+    private static Properties toRef(final MediaFile mediaFile, final String digest, final String md5, final long length) {
+        final Properties ref = MediaFileProperties.toProperties(mediaFile);
+        ref.setProperty(DIGEST, digest);
+        ref.setProperty(MediaFileProperties.MD5, md5);
+        ref.setProperty(LENGTH, Long.toString(length));
+        return ref;
+    }
+}
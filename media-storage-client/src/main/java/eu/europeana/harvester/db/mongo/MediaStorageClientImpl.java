@@ -7,7 +7,7 @@ import com.mongodb.Mongo;
 import com.mongodb.gridfs.GridFS;
 import com.mongodb.gridfs.GridFSDBFile;
 import com.mongodb.gridfs.GridFSInputFile;
-import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.db.AbstractMediaStorageClient;
 import eu.europeana.harvester.domain.MediaFile;
 import eu.europeana.harvester.domain.MediaStorageClientConfig;
 import eu.europeana.harvester.domain.MetaDataFields;
@@ -19,7 +19,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
 
-public class MediaStorageClientImpl implements MediaStorageClient {
+public class MediaStorageClientImpl extends AbstractMediaStorageClient {
 
     private final GridFS gridFS;
 
@@ -78,6 +78,26 @@ public class MediaStorageClientImpl implements MediaStorageClient {
 
     @Override
     public void createOrModify(MediaFile mediaFile) {
+        save(mediaFile, gridFS.createFile(mediaFile.getContent()));
+    }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile, InputStream content, long contentLength) {
+        // GridFS reads the stream chunk by chunk while it saves the file
+        save(mediaFile, gridFS.createFile(content));
+    }
+
+    @Override
+    public InputStream retrieveContent(String id) {
+        final BasicDBObject query = new BasicDBObject();
+        query.put("_id", id);
+
+        final GridFSDBFile file = gridFS.findOne(query);
+
+        return null == file ? null : file.getInputStream();
+    }
+
+    private void save(final MediaFile mediaFile, final GridFSInputFile file) {
         final MongoMetaData metaData= new MongoMetaData();
         metaData.put(String.valueOf(MetaDataFields.SOURCE), mediaFile.getSource());
         metaData.put(String.valueOf(MetaDataFields.ORIGINAL_URL), mediaFile.getOriginalUrl());
@@ -85,7 +105,6 @@ public class MediaStorageClientImpl implements MediaStorageClient {
         metaData.put(String.valueOf(MetaDataFields.TECHNICAL_METADATA), mediaFile.getMetaData());
         metaData.put(String.valueOf(MetaDataFields.ALIASES), mediaFile.getAliases());
 
-        final GridFSInputFile file = gridFS.createFile(mediaFile.getContent());
         file.setFilename(mediaFile.getName());
         file.setContentType(mediaFile.getContentType());
         file.setId(mediaFile.getId());
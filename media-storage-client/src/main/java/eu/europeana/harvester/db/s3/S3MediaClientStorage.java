@@ -5,39 +5,82 @@ import com.amazonaws.auth.AWSStaticCredentialsProvider;
 import com.amazonaws.auth.BasicAWSCredentials;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
-import com.amazonaws.services.s3.model.S3Object;
+import com.amazonaws.services.s3.model.*;
 import com.amazonaws.util.Md5Utils;
-import eu.europeana.harvester.db.MediaStorageClient;
+import com.google.common.util.concurrent.*;
+import eu.europeana.harvester.db.AbstractMediaStorageClient;
 import eu.europeana.harvester.domain.MediaFile;
 import org.apache.commons.io.IOUtils;
 
 import java.io.ByteArrayInputStream;
+import java.io.File;
 import java.io.IOException;
-import java.security.MessageDigest;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 /**
  * Created by ymamakis on 12/8/16.
+ *
+ * Every upload overwrites the object in place, with its length & MD5 sent upfront. The files bigger than the
+ * multipart threshold are uploaded in parts, in parallel, straight from the disk.
  */
-public class S3MediaClientStorage implements MediaStorageClient {
+public class S3MediaClientStorage extends AbstractMediaStorageClient {
 
+    public static final long DEFAULT_MULTIPART_THRESHOLD_IN_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * S3 refuses parts smaller than 5MB, except the last one.
+     */
+    public static final long DEFAULT_PART_SIZE_IN_BYTES = 8 * 1024 * 1024;
+
+    public static final int DEFAULT_PART_PARALLELISM = 4;
+
+    private static final int NOT_FOUND = 404;
 
     private AmazonS3 client;
     private String bucket;
 
+    private final long multipartThresholdInBytes;
+    private final long partSizeInBytes;
+
+    /**
+     * The parts have their own threads : the uploads which wait for their parts may run on the threads of the client.
+     */
+    private final ListeningExecutorService partExecutorService;
+
     public S3MediaClientStorage(String clientKey, String secretKey, String region, String bucket){
-        AWSCredentials credentials = new BasicAWSCredentials(clientKey,secretKey);
-        client = AmazonS3ClientBuilder.standard().withCredentials(new AWSStaticCredentialsProvider(credentials)).withRegion(region).build();
-        this.bucket = bucket;
+        this(AmazonS3ClientBuilder.standard().withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials(clientKey,secretKey))).withRegion(region).build(),
+             bucket);
     }
 
     public S3MediaClientStorage(S3Configuration configuration){
-        AWSCredentials credentials = new BasicAWSCredentials(configuration.getClientKey(),configuration.getSecretKey());
-        client = AmazonS3ClientBuilder.standard().withCredentials(new AWSStaticCredentialsProvider(credentials)).withRegion(configuration.getRegion()).build();
-        this.bucket = configuration.getBucket();
+        this(configuration.getClientKey(), configuration.getSecretKey(), configuration.getRegion(), configuration.getBucket());
+    }
+
+    public S3MediaClientStorage(AmazonS3 client, String bucket) {
+        this(client, bucket, DEFAULT_MULTIPART_THRESHOLD_IN_BYTES, DEFAULT_PART_SIZE_IN_BYTES);
+    }
 
+    /**
+     * @param client the S3 client
+     * @param bucket the bucket of the files
+     * @param multipartThresholdInBytes the files from the disk from this size up are uploaded in parts
+     * @param partSizeInBytes the size of the parts, except the last one
+     */
+    public S3MediaClientStorage(AmazonS3 client, String bucket, long multipartThresholdInBytes, long partSizeInBytes) {
+        this.client = client;
+        this.bucket = bucket;
+        this.multipartThresholdInBytes = multipartThresholdInBytes;
+        this.partSizeInBytes = partSizeInBytes;
+        this.partExecutorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(DEFAULT_PART_PARALLELISM,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("s3-part-%d").build()));
     }
 
     @Override
@@ -48,51 +91,33 @@ public class S3MediaClientStorage implements MediaStorageClient {
 
     @Override
     public MediaFile retrieve(String id, Boolean withContent) throws IOException, NoSuchAlgorithmException {
-
-        S3Object object = client.getObject(bucket,id);
-        if(object!=null) {
-            final byte[] content = withContent ? IOUtils.toByteArray(object.getObjectContent()) : new byte[0];
-            final String contentMd5 = object.getObjectMetadata().getETag();
-            System.out.println(Md5Utils.md5AsBase64(content) +"  "+ contentMd5);
-            if (withContent && !contentMd5.equals(Md5Utils.md5AsBase64(content))) {
-            /*
-             *  something wrong has happened to the data;
-             *  security breach ?
-             */
-                throw new SecurityException("MD5 of content differs from expected");
+        try {
+            if (!withContent) {
+                // Only the headers
+                return toMediaFile(id, client.getObjectMetadata(bucket,id), new byte[0]);
             }
 
-            return new MediaFile(id,
-                    null,
-                    object.getKey(),
-                    null,
-                    contentMd5,
-                    null,
-                    null,
-                    content,
-                    null,
-                    object.getObjectMetadata().getContentType(),
-                    null,
-                    Integer.parseInt(Long.toString(object.getObjectMetadata().getContentLength()))
-            );
+            // The client checks the MD5 of the content against the ETag while it reads it
+            final S3Object object = client.getObject(bucket,id);
+            try {
+                return toMediaFile(id, object.getObjectMetadata(), IOUtils.toByteArray(object.getObjectContent()));
+            } finally {
+                object.close();
+            }
+        } catch (AmazonS3Exception e) {
+            if (NOT_FOUND == e.getStatusCode()) {
+                return null;
+            }
+            throw e;
         }
-        return null;
     }
 
     @Override
     public void createOrModify(MediaFile mediaFile) {
-        client.deleteObject(bucket,mediaFile.getId());
-      //  S3Object object = new S3Object();
-       // object.setBucketName(bucket);
-       // object.setKey(mediaFile.getId());
-        ByteArrayInputStream stream = new ByteArrayInputStream(mediaFile.getContent());
-       // object.setObjectContent(stream);
-        ObjectMetadata metadata = new ObjectMetadata();
-        metadata.setContentType(mediaFile.getContentType());
-        metadata.setContentLength(mediaFile.getSize());
-        metadata.setContentMD5(mediaFile.getContentMd5());
-        client.putObject(new PutObjectRequest(bucket,mediaFile.getId(),stream, metadata));
-
+        final byte[] content = mediaFile.getContent();
+        final ObjectMetadata metadata = metadataOf(mediaFile, content.length);
+        metadata.setContentMD5(Md5Utils.md5AsBase64(content));
+        client.putObject(new PutObjectRequest(bucket,mediaFile.getId(),new ByteArrayInputStream(content), metadata));
     }
 
 
@@ -101,17 +126,119 @@ public class S3MediaClientStorage implements MediaStorageClient {
         client.deleteObject(bucket,id);
     }
 
-    private String computeMd5(final byte[] content) {
+    @Override
+    public void createOrModify(MediaFile mediaFile, InputStream content, long contentLength) {
+        // With the length known in advance the client sends the stream as it reads it
+        client.putObject(new PutObjectRequest(bucket,mediaFile.getId(),content, metadataOf(mediaFile, contentLength)));
+    }
+
+    @Override
+    public void createOrModify(MediaFile mediaFile, Path content) throws IOException {
+        final long contentLength = Files.size(content);
+        if (contentLength >= multipartThresholdInBytes) {
+            createOrModifyInParts(mediaFile, content.toFile(), contentLength);
+            return;
+        }
+
+        final ObjectMetadata metadata = metadataOf(mediaFile, contentLength);
+        metadata.setContentMD5(Md5Utils.md5AsBase64(content.toFile()));
+        client.putObject(new PutObjectRequest(bucket,mediaFile.getId(),content.toFile()).withMetadata(metadata));
+    }
+
+    @Override
+    public InputStream retrieveContent(String id) {
+        return retrieveContent(new GetObjectRequest(bucket,id));
+    }
+
+    @Override
+    public InputStream retrieveContent(String id, long offset, long length) {
+        if (0 == length) {
+            return checkIfExists(id) ? new ByteArrayInputStream(new byte[0]) : null;
+        }
+        // Only the range travels, the end of the range is inclusive
+        return retrieveContent(new GetObjectRequest(bucket,id).withRange(offset, offset + length - 1));
+    }
+
+    private InputStream retrieveContent(final GetObjectRequest request) {
         try {
-            final byte[] array = MessageDigest.getInstance("MD5").digest(content);
-            StringBuffer sb = new StringBuffer();
-            for (int i = 0; i < array.length; ++i) {
-                sb.append(Integer.toHexString((array[i] & 0xFF) | 0x100).substring(1, 3));
+            return client.getObject(request).getObjectContent();
+        } catch (AmazonS3Exception e) {
+            if (NOT_FOUND == e.getStatusCode()) {
+                return null;
             }
-            return sb.toString();
+            throw e;
         }
-        catch (NoSuchAlgorithmException e ) {
-            return null;
+    }
+
+    /**
+     * Uploads a file in parts read from the disk, in parallel. The object is replaced only when all the parts are
+     * uploaded, the upload is aborted if one of them fails.
+     */
+    private void createOrModifyInParts(final MediaFile mediaFile, final File content, final long contentLength) throws IOException {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(mediaFile.getContentType());
+        final String uploadId = client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, mediaFile.getId(), metadata)).getUploadId();
+
+        try {
+            final List<ListenableFuture<PartETag>> parts = new ArrayList<>();
+            int partNumber = 1;
+            for (long offset = 0; offset < contentLength; offset += partSizeInBytes, partNumber++) {
+                final UploadPartRequest request = new UploadPartRequest()
+                        .withBucketName(bucket)
+                        .withKey(mediaFile.getId())
+                        .withUploadId(uploadId)
+                        .withPartNumber(partNumber)
+                        .withFile(content)
+                        .withFileOffset(offset)
+                        .withPartSize(Math.min(partSizeInBytes, contentLength - offset));
+                parts.add(partExecutorService.submit(new Callable<PartETag>() {
+                    @Override
+                    public PartETag call() {
+                        // The client checks the MD5 of each part against its ETag
+                        return client.uploadPart(request).getPartETag();
+                    }
+                }));
+            }
+
+            client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, mediaFile.getId(), uploadId,
+                    Futures.allAsList(parts).get()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, mediaFile.getId(), uploadId));
+            throw new IOException(e);
+        } catch (ExecutionException | RuntimeException e) {
+            client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, mediaFile.getId(), uploadId));
+            throw new IOException("Could not upload " + mediaFile.getId() + " in parts", e instanceof ExecutionException ? e.getCause() : e);
         }
     }
+
+    private ObjectMetadata metadataOf(final MediaFile mediaFile, final long contentLength) {
+        final ObjectMetadata metadata = new ObjectMetadata();
+        metadata.setContentType(mediaFile.getContentType());
+        metadata.setContentLength(contentLength);
+        return metadata;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        partExecutorService.shutdown();
+        client.shutdown();
+    }
+
+    private MediaFile toMediaFile(final String id, final ObjectMetadata metadata, final byte[] content) {
+        return new MediaFile(id,
+                null,
+                id,
+                null,
+                metadata.getETag(),
+                null,
+                null,
+                content,
+                null,
+                metadata.getContentType(),
+                null,
+                (int) metadata.getContentLength()
+        );
+    }
 }
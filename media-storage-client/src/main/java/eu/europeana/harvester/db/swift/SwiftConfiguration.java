@@ -8,6 +8,11 @@ import java.net.UnknownHostException;
  * Created by salexandru on 03.06.2015.
  */
 public class SwiftConfiguration {
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final long DEFAULT_SESSION_INTERVAL_IN_SECONDS = 60 * 60;
+    public static final long DEFAULT_SEGMENT_THRESHOLD_IN_BYTES = 64 * 1024 * 1024;
+    public static final long DEFAULT_SEGMENT_SIZE_IN_BYTES = 32 * 1024 * 1024;
+
     private final String authUrl;
     private final String userName;
     private final String password;
@@ -15,14 +20,45 @@ public class SwiftConfiguration {
     private final String regionName;
     private final String tenantName;
 
+    /**
+     * The connections jclouds opens to Swift at once, also the number of requests sent at once by the batch operations.
+     * jclouds talks HTTP through the JDK, which keeps only 5 idle connections alive unless the JVM is started with
+     * -Dhttp.maxConnections set to at least this number.
+     */
+    private final int maxConnections;
+
+    /**
+     * How long the token of the identity service is reused before the client authenticates again, jclouds asks for a
+     * new one every minute by default. A token which expires sooner is renewed when Swift refuses it.
+     */
+    private final long sessionIntervalInSeconds;
+
+    /**
+     * The files from the disk from this size up are uploaded as static large objects, in segments.
+     */
+    private final long segmentThresholdInBytes;
+
+    private final long segmentSizeInBytes;
+
     public SwiftConfiguration(String authUrl, String tenantName, String userName, String password, String containerName,
                               String regionName) {
+        this(authUrl, tenantName, userName, password, containerName, regionName, DEFAULT_MAX_CONNECTIONS,
+                DEFAULT_SESSION_INTERVAL_IN_SECONDS, DEFAULT_SEGMENT_THRESHOLD_IN_BYTES, DEFAULT_SEGMENT_SIZE_IN_BYTES);
+    }
+
+    public SwiftConfiguration(String authUrl, String tenantName, String userName, String password, String containerName,
+                              String regionName, int maxConnections, long sessionIntervalInSeconds,
+                              long segmentThresholdInBytes, long segmentSizeInBytes) {
         this.authUrl = authUrl;
         this.userName = userName;
         this.password = password;
         this.containerName = containerName;
         this.regionName = regionName;
         this.tenantName = tenantName;
+        this.maxConnections = maxConnections;
+        this.sessionIntervalInSeconds = sessionIntervalInSeconds;
+        this.segmentThresholdInBytes = segmentThresholdInBytes;
+        this.segmentSizeInBytes = segmentSizeInBytes;
     }
 
     public static SwiftConfiguration valueOf(final Config config) throws UnknownHostException {
@@ -33,6 +69,10 @@ public class SwiftConfiguration {
         final String CONTAINER_NAME = "containerName";
         final String REGION_NAME = "regionName";
         final String TENANT_NAME = "tenantName";
+        final String MAX_CONNECTIONS = "maxConnections";
+        final String SESSION_INTERVAL_IN_SECONDS = "sessionIntervalInSeconds";
+        final String SEGMENT_THRESHOLD_IN_MEGABYTES = "segmentThresholdInMegabytes";
+        final String SEGMENT_SIZE_IN_MEGABYTES = "segmentSizeInMegabytes";
 
 
         if (!config.hasPath(AUTH_URL)) throw new IllegalArgumentException("The swift configuration needs a " + AUTH_URL);
@@ -60,7 +100,11 @@ public class SwiftConfiguration {
                 tenantName,
                 userName,
                 password,
-                containerName, regionName);
+                containerName, regionName,
+                config.hasPath(MAX_CONNECTIONS) ? config.getInt(MAX_CONNECTIONS) : DEFAULT_MAX_CONNECTIONS,
+                config.hasPath(SESSION_INTERVAL_IN_SECONDS) ? config.getLong(SESSION_INTERVAL_IN_SECONDS) : DEFAULT_SESSION_INTERVAL_IN_SECONDS,
+                config.hasPath(SEGMENT_THRESHOLD_IN_MEGABYTES) ? config.getLong(SEGMENT_THRESHOLD_IN_MEGABYTES) * 1024 * 1024 : DEFAULT_SEGMENT_THRESHOLD_IN_BYTES,
+                config.hasPath(SEGMENT_SIZE_IN_MEGABYTES) ? config.getLong(SEGMENT_SIZE_IN_MEGABYTES) * 1024 * 1024 : DEFAULT_SEGMENT_SIZE_IN_BYTES);
 
     }
 
@@ -89,6 +133,22 @@ public class SwiftConfiguration {
         return tenantName;
     }
 
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public long getSessionIntervalInSeconds() {
+        return sessionIntervalInSeconds;
+    }
+
+    public long getSegmentThresholdInBytes() {
+        return segmentThresholdInBytes;
+    }
+
+    public long getSegmentSizeInBytes() {
+        return segmentSizeInBytes;
+    }
+
     public String getIdentity() {
         return tenantName + ":" + userName;
     }
@@ -1,40 +1,122 @@
 package eu.europeana.harvester.db.swift;
 
-import eu.europeana.harvester.db.MediaStorageClient;
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.*;
+import eu.europeana.harvester.db.AbstractMediaStorageClient;
 import eu.europeana.harvester.domain.MediaFile;
 import org.apache.commons.io.IOUtils;
+import org.jclouds.Constants;
 import org.jclouds.ContextBuilder;
+import org.jclouds.http.options.GetOptions;
 import org.jclouds.io.Payload;
 import org.jclouds.openstack.swift.v1.SwiftApi;
+import org.jclouds.openstack.swift.v1.domain.Segment;
 import org.jclouds.openstack.swift.v1.domain.SwiftObject;
+import org.jclouds.openstack.swift.v1.features.BulkApi;
 import org.jclouds.openstack.swift.v1.features.ContainerApi;
 import org.jclouds.openstack.swift.v1.features.ObjectApi;
+import org.jclouds.openstack.swift.v1.features.StaticLargeObjectApi;
 import org.jclouds.openstack.swift.v1.options.PutOptions;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
 import static org.jclouds.io.Payloads.newByteArrayPayload;
+import static org.jclouds.io.Payloads.newInputStreamPayload;
 
 
 /**
  * Created by salexandru on 03.06.2015.
+ *
+ * All the requests go through a single jclouds context : its connections are kept alive & its token is reused for
+ * the session interval of the configuration. Every upload overwrites the object in place. The files from the disk
+ * bigger than the segment threshold are uploaded as static large objects : segments uploaded in parallel, then a
+ * manifest which joins them under the id of the file. The segments of a file go away with it, when it is deleted or
+ * overwritten from the disk. The batch deletes go through the bulk middleware of Swift.
  */
-public class SwiftMediaStorageClientImpl implements MediaStorageClient {
+public class SwiftMediaStorageClientImpl extends AbstractMediaStorageClient {
+
+    public static final int DEFAULT_SEGMENT_PARALLELISM = 4;
+
+    /**
+     * The most objects the bulk middleware of Swift deletes in a single request.
+     */
+    public static final int MAX_BULK_DELETES = 10000;
+
+    /**
+     * The metadata of the manifest of a segmented file : the number of segments & the prefix of their names.
+     */
+    private static final String SEGMENTS = "segments";
+    private static final String SEGMENT_PREFIX = "segment-prefix";
+
+    private final SwiftApi swiftApi;
     private final ObjectApi objectApi;
+    private final StaticLargeObjectApi staticLargeObjectApi;
+    private final BulkApi bulkApi;
+    private final String containerName;
+
+    private final long segmentThresholdInBytes;
+    private final long segmentSizeInBytes;
+
+    /**
+     * The segments have their own threads : the uploads which wait for their segments may run on the threads of the
+     * client.
+     */
+    private final ListeningExecutorService segmentExecutorService;
 
     public SwiftMediaStorageClientImpl(SwiftConfiguration config) {
+        this(connect(config), config.getRegionName(), config.getContainerName(), config.getSegmentThresholdInBytes(),
+             config.getSegmentSizeInBytes(), config.getMaxConnections());
+    }
+
+    /**
+     * @param swiftApi the Swift client
+     * @param regionName the region of the container
+     * @param containerName the container of the files & of their segments, it must exist
+     * @param segmentThresholdInBytes the files from the disk from this size up are uploaded in segments
+     * @param segmentSizeInBytes the size of the segments, except the last one
+     * @param parallelism the maximum number of requests the batch operations send at once
+     */
+    public SwiftMediaStorageClientImpl(SwiftApi swiftApi, String regionName, String containerName,
+                                       long segmentThresholdInBytes, long segmentSizeInBytes, int parallelism) {
+        super(parallelism);
+        this.swiftApi = swiftApi;
+        this.objectApi = swiftApi.getObjectApi(regionName, containerName);
+        this.staticLargeObjectApi = swiftApi.getStaticLargeObjectApi(regionName, containerName);
+        this.bulkApi = swiftApi.getBulkApi(regionName);
+        this.containerName = containerName;
+        this.segmentThresholdInBytes = segmentThresholdInBytes;
+        this.segmentSizeInBytes = segmentSizeInBytes;
+        this.segmentExecutorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(DEFAULT_SEGMENT_PARALLELISM,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("swift-segment-%d").build()));
+    }
+
+    /**
+     * Builds the Swift client of the configuration & creates its container if needed.
+     */
+    private static SwiftApi connect(final SwiftConfiguration config) {
         if (null == config) {
             throw new IllegalArgumentException("Config cannot be null");
         }
 
+        final Properties overrides = new Properties();
+        overrides.setProperty(Constants.PROPERTY_MAX_CONNECTIONS_PER_CONTEXT, Integer.toString(config.getMaxConnections()));
+        overrides.setProperty(Constants.PROPERTY_MAX_CONNECTIONS_PER_HOST, Integer.toString(config.getMaxConnections()));
+        overrides.setProperty(Constants.PROPERTY_SESSION_INTERVAL, Long.toString(config.getSessionIntervalInSeconds()));
+
         final SwiftApi swiftApi = ContextBuilder.newBuilder("openstack-swift")
                                  .credentials(config.getIdentity(), config.getPassword())
                                  .endpoint(config.getAuthUrl())
+                                 .overrides(overrides)
                                  .buildApi(SwiftApi.class);
 
         final ContainerApi containerApi = swiftApi.getContainerApi(config.getRegionName());
@@ -45,8 +127,7 @@ public class SwiftMediaStorageClientImpl implements MediaStorageClient {
             }
         }
 
-        objectApi = swiftApi.getObjectApi(config.getRegionName(), config.getContainerName());
-
+        return swiftApi;
     }
 
 
@@ -67,14 +148,16 @@ public class SwiftMediaStorageClientImpl implements MediaStorageClient {
         final byte[] content = withContent ? IOUtils.toByteArray(swiftObject.getPayload().openStream()) : new byte[0];
         final String contentMd5 = computeMd5(content);
 
-
-        final String swiftObjectMd5 = swiftObject.getPayload().getContentMetadata().getContentMD5AsHashCode().toString();
-        if (withContent && !contentMd5.equals(swiftObjectMd5)) {
-            /*
-             *  something wrong has happened to the data;
-             *  security breach ?
-             */
-            throw new SecurityException("MD5 of content differs from expected");
+        // The ETag of a segmented file is the MD5 of the ETags of its segments, not of its content
+        if (withContent && !isSegmented(swiftObject)) {
+            final String swiftObjectMd5 = swiftObject.getPayload().getContentMetadata().getContentMD5AsHashCode().toString();
+            if (!contentMd5.equals(swiftObjectMd5)) {
+                /*
+                 *  something wrong has happened to the data;
+                 *  security breach ?
+                 */
+                throw new SecurityException("MD5 of content differs from expected");
+            }
         }
 
         return new MediaFile(id,
@@ -92,27 +175,246 @@ public class SwiftMediaStorageClientImpl implements MediaStorageClient {
                            );
     }
 
+    /**
+     * Overwrites the file in place with a single request. Only the files from the disk are ever uploaded in segments,
+     * see {@link #createOrModify(MediaFile, Path)}.
+     */
     @Override
     public void createOrModify (MediaFile mediaFile) {
-        delete(mediaFile.getId());
+        put(mediaFile, newByteArrayPayload(mediaFile.getContent()), mediaFile.getLength());
+    }
+
+    @Override
+    public void createOrModify (MediaFile mediaFile, InputStream content, long contentLength) {
+        // The payload is sent as it is read, its length must be known in advance
+        put(mediaFile, newInputStreamPayload(content), contentLength);
+    }
+
+    /**
+     * Uploads the file in segments from the segment threshold up, in a single request below it. Either way the
+     * segments of the file it replaced are deleted.
+     */
+    @Override
+    public void createOrModify (MediaFile mediaFile, Path content) throws IOException {
+        final long contentLength = Files.size(content);
+        if (contentLength >= segmentThresholdInBytes) {
+            createOrModifyInSegments(mediaFile, content, contentLength);
+            return;
+        }
 
-        final Payload payload = newByteArrayPayload(mediaFile.getContent());
+        final SwiftObject replaced = objectApi.getWithoutBody(mediaFile.getId());
+        super.createOrModify(mediaFile, content);
+        if (null != replaced && isSegmented(replaced)) {
+            bulkDelete(segmentsOf(replaced, false));
+        }
+    }
+
+    @Override
+    public InputStream retrieveContent (String id) throws IOException {
+        final SwiftObject swiftObject = objectApi.get(id);
+        return null == swiftObject ? null : swiftObject.getPayload().openStream();
+    }
 
+    @Override
+    public InputStream retrieveContent (String id, long offset, long length) throws IOException {
+        if (0 == length) {
+            return checkIfExists(id) ? new ByteArrayInputStream(new byte[0]) : null;
+        }
+        // Only the range travels, the end of the range is inclusive
+        final SwiftObject swiftObject = objectApi.get(id, GetOptions.Builder.range(offset, offset + length - 1));
+        return null == swiftObject ? null : swiftObject.getPayload().openStream();
+    }
+
+    private void put (MediaFile mediaFile, Payload payload, long contentLength) {
         payload.getContentMetadata().setContentType(mediaFile.getContentType());
-        payload.getContentMetadata().setContentLength(mediaFile.getLength());
+        payload.getContentMetadata().setContentLength(contentLength);
 
-        Map<String, String> metadata = new HashMap<>();
+        objectApi.put(mediaFile.getId(), payload, PutOptions.Builder.metadata(metadataOf(mediaFile)));
+    }
 
-        metadata.put("Content-Type", mediaFile.getContentType());
-        metadata.put("size", Integer.toString(mediaFile.getSize()));
-        metadata = Collections.unmodifiableMap(metadata);
+    /**
+     * Stops the segment uploads & closes the jclouds context, with its connections.
+     */
+    @Override
+    public void close () {
+        super.close();
+        segmentExecutorService.shutdown();
+        IOUtils.closeQuietly(swiftApi);
+    }
 
-        objectApi.put(mediaFile.getId(), payload, PutOptions.Builder.metadata(metadata));
+    /**
+     * Deletes the file, with its segments if it was uploaded in segments.
+     */
+    @Override
+    public void delete (String id) throws IOException {
+        final SwiftObject swiftObject = objectApi.getWithoutBody(id);
+        if (null == swiftObject) {
+            return;
+        }
+        if (isSegmented(swiftObject)) {
+            bulkDelete(segmentsOf(swiftObject, true));
+        } else {
+            objectApi.delete(id);
+        }
     }
 
+    /**
+     * Deletes the files, with their segments like {@link #delete(String)}. The files are looked up in parallel for
+     * their segments, then deleted with a single request for up to {@link #MAX_BULK_DELETES} of them.
+     */
     @Override
-    public void delete (String id) {
-        objectApi.delete(id);
+    public void deleteAll (Collection<String> ids) throws IOException {
+        final List<ListenableFuture<List<String>>> lookups = new ArrayList<>();
+        for (final String id : ids) {
+            lookups.add(getExecutorService().submit(new Callable<List<String>>() {
+                @Override
+                public List<String> call() {
+                    final SwiftObject swiftObject = objectApi.getWithoutBody(id);
+                    if (null == swiftObject) {
+                        return Collections.emptyList();
+                    }
+                    return isSegmented(swiftObject) ? segmentsOf(swiftObject, true) : Collections.singletonList(id);
+                }
+            }));
+        }
+        waitForAll(lookups);
+
+        final List<String> names = new ArrayList<>();
+        for (final ListenableFuture<List<String>> lookup : lookups) {
+            names.addAll(Futures.getUnchecked(lookup));
+        }
+        bulkDelete(names);
+    }
+
+    /**
+     * Uploads a file in segments read from the disk, in parallel. The file is replaced only when all the segments are
+     * uploaded, then the segments of the file it replaced are deleted. The uploaded segments are deleted if one of
+     * them or the manifest fails.
+     */
+    private void createOrModifyInSegments (final MediaFile mediaFile, final Path content, final long contentLength) throws IOException {
+        final String segmentPrefix = mediaFile.getId() + "/segments/" + System.currentTimeMillis() + "/";
+        final List<String> segmentNames = new ArrayList<>();
+        final List<ListenableFuture<Segment>> segments = new ArrayList<>();
+        for (long offset = 0; offset < contentLength; offset += segmentSizeInBytes) {
+            final String segmentName = segmentName(segmentPrefix, segmentNames.size());
+            final long segmentOffset = offset;
+            final long segmentSize = Math.min(segmentSizeInBytes, contentLength - offset);
+            segmentNames.add(segmentName);
+            segments.add(segmentExecutorService.submit(new Callable<Segment>() {
+                @Override
+                public Segment call() throws IOException {
+                    return uploadSegment(segmentName, content, segmentOffset, segmentSize);
+                }
+            }));
+        }
+
+        final List<Segment> uploaded;
+        try {
+            uploaded = Futures.allAsList(segments).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            deleteSegmentsQuietly(segments, segmentNames);
+            throw new IOException(e);
+        } catch (ExecutionException e) {
+            deleteSegmentsQuietly(segments, segmentNames);
+            throw new IOException("Could not upload " + mediaFile.getId() + " in segments", e.getCause());
+        }
+
+        final SwiftObject replaced = objectApi.getWithoutBody(mediaFile.getId());
+
+        final Map<String, String> metadata = new HashMap<>(metadataOf(mediaFile));
+        metadata.put(SEGMENTS, Integer.toString(uploaded.size()));
+        metadata.put(SEGMENT_PREFIX, segmentPrefix);
+        try {
+            staticLargeObjectApi.replaceManifest(mediaFile.getId(), uploaded, metadata);
+        } catch (RuntimeException e) {
+            deleteSegmentsQuietly(segments, segmentNames);
+            throw new IOException("Could not join the segments of " + mediaFile.getId(), e);
+        }
+
+        if (null != replaced && isSegmented(replaced)) {
+            bulkDelete(segmentsOf(replaced, false));
+        }
+    }
+
+    private Segment uploadSegment (final String segmentName, final Path content, final long offset, final long size) throws IOException {
+        final InputStream inputStream = skipAndLimit(Files.newInputStream(content), offset, size);
+        try {
+            final Payload payload = newInputStreamPayload(inputStream);
+            payload.getContentMetadata().setContentLength(size);
+            final String etag = objectApi.put(segmentName, payload);
+            return Segment.builder().path(containerName + "/" + segmentName).etag(etag).sizeBytes(size).build();
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Deletes the segments of a failed upload, once the ones still running are done.
+     */
+    private void deleteSegmentsQuietly (final List<ListenableFuture<Segment>> segments, final List<String> segmentNames) {
+        try {
+            final List<Segment> done = Futures.successfulAsList(segments).get();
+            final List<String> uploaded = new ArrayList<>();
+            for (int i = 0; i < done.size(); i++) {
+                if (null != done.get(i)) {
+                    uploaded.add(segmentNames.get(i));
+                }
+            }
+            bulkDelete(uploaded);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | IOException | RuntimeException e) {
+            // The segments stay, they are not reachable from any file
+        }
+    }
+
+    /**
+     * @param withManifest true to have the manifest of the file too
+     */
+    private List<String> segmentsOf (final SwiftObject swiftObject, final boolean withManifest) {
+        final String segmentPrefix = swiftObject.getMetadata().get(SEGMENT_PREFIX);
+        final int segmentCount = Integer.parseInt(swiftObject.getMetadata().get(SEGMENTS));
+        final List<String> names = new ArrayList<>();
+        for (int i = 0; i < segmentCount; i++) {
+            names.add(segmentName(segmentPrefix, i));
+        }
+        if (withManifest) {
+            names.add(swiftObject.getName());
+        }
+        return names;
+    }
+
+    private void bulkDelete (final Collection<String> ids) throws IOException {
+        final List<String> paths = new ArrayList<>();
+        for (final String id : ids) {
+            paths.add(containerName + "/" + id);
+        }
+
+        final Map<String, String> errors = new HashMap<>();
+        for (final List<String> batch : Iterables.partition(paths, MAX_BULK_DELETES)) {
+            // The missing ones count as not found, not as errors
+            errors.putAll(bulkApi.bulkDelete(batch).getErrors());
+        }
+        if (!errors.isEmpty()) {
+            throw new IOException("Could not delete " + errors.size() + " of the files: " + errors);
+        }
+    }
+
+    private static boolean isSegmented (final SwiftObject swiftObject) {
+        return swiftObject.getMetadata().containsKey(SEGMENTS);
+    }
+
+    private static String segmentName (final String segmentPrefix, final int index) {
+        return segmentPrefix + String.format("%08d", index);
+    }
+
+    private static Map<String, String> metadataOf (final MediaFile mediaFile) {
+        Map<String, String> metadata = new HashMap<>();
+
+        metadata.put("Content-Type", mediaFile.getContentType());
+        metadata.put("size", Integer.toString(mediaFile.getSize()));
+        return Collections.unmodifiableMap(metadata);
     }
 
     private String computeMd5(final byte[] content) {
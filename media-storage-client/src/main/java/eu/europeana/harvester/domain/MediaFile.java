@@ -199,6 +199,11 @@ public class MediaFile {
                 this.createdAt, this.content, this.versionNumber, this.contentType, newMetaData, this.size);
     }
 
+    public MediaFile withContent(final byte[] content) {
+        return new MediaFile(this.id, this.source, this.name, this.aliases, this.contentMd5, this.originalUrl,
+                this.createdAt, content, this.versionNumber, this.contentType, this.metaData, this.size);
+    }
+
     public MediaFile withId(final String id){
         return new MediaFile(id, this.source, this.name, this.aliases, this.contentMd5, this.originalUrl,
                 this.createdAt, this.content, this.versionNumber, this.contentType, this.metaData, this.size);
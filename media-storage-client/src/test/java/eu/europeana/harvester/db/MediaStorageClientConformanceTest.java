@@ -0,0 +1,188 @@
+package eu.europeana.harvester.db;
+
+import com.google.common.io.ByteStreams;
+import eu.europeana.harvester.domain.MediaFile;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * The behaviour every {@link MediaStorageClient} must have. A storage is tested by a subclass which creates the
+ * client, see the subclasses for the storages which can run locally.
+ */
+public abstract class MediaStorageClientConformanceTest {
+
+    protected MediaStorageClient client;
+
+    private final List<String> storedIds = new ArrayList<>();
+
+    /**
+     * @return a client on an empty storage
+     */
+    protected abstract MediaStorageClient createClient() throws Exception;
+
+    /**
+     * Releases what the client created.
+     */
+    protected void releaseClient() throws Exception {
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        client = createClient();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (final String id : storedIds) {
+            if (client.checkIfExists(id)) {
+                client.delete(id);
+            }
+        }
+        releaseClient();
+    }
+
+    protected MediaFile mediaFile(final String id, final byte[] content) {
+        storedIds.add(id);
+        return new MediaFile(id, "conformance", id + ".jpg", Collections.<String>emptyList(), null,
+                "http://www.example.com/" + id + ".jpg", DateTime.now(), content, 1, "image/jpeg",
+                Collections.<String, String>emptyMap(), null == content ? 0 : content.length);
+    }
+
+    protected static byte[] content(final int length) {
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    protected static byte[] readAndClose(final InputStream inputStream) throws IOException {
+        try {
+            return ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void canStoreAFileAndStreamItBack() throws Exception {
+        final byte[] content = content(10000);
+        client.createOrModify(mediaFile("file1", content));
+
+        assertTrue(client.checkIfExists("file1"));
+        assertArrayEquals(content, readAndClose(client.retrieveContent("file1")));
+    }
+
+    @Test
+    public void canStoreAFileFromAStream() throws Exception {
+        final byte[] content = content(100000);
+        client.createOrModify(mediaFile("file2", null), new ByteArrayInputStream(content), content.length);
+
+        assertArrayEquals(content, readAndClose(client.retrieveContent("file2")));
+    }
+
+    @Test
+    public void canStoreAFileFromAPath() throws Exception {
+        final byte[] content = content(50000);
+        final Path path = Files.createTempFile("conformance", ".jpg");
+        try {
+            Files.write(path, content);
+            client.createOrModify(mediaFile("file3", null), path);
+        } finally {
+            Files.delete(path);
+        }
+
+        assertArrayEquals(content, readAndClose(client.retrieveContent("file3")));
+    }
+
+    @Test
+    public void canReplaceAFile() throws Exception {
+        client.createOrModify(mediaFile("file4", content(1000)));
+        final byte[] content = content(2000);
+        client.createOrModify(mediaFile("file4", content));
+
+        assertArrayEquals(content, readAndClose(client.retrieveContent("file4")));
+    }
+
+    @Test
+    public void canReadARangeOfAFile() throws Exception {
+        final byte[] content = content(10000);
+        client.createOrModify(mediaFile("file5", content));
+
+        assertArrayEquals(Arrays.copyOfRange(content, 0, 100), readAndClose(client.retrieveContent("file5", 0, 100)));
+        assertArrayEquals(Arrays.copyOfRange(content, 5000, 7500), readAndClose(client.retrieveContent("file5", 5000, 2500)));
+        // A range longer than the file stops at its end
+        assertArrayEquals(Arrays.copyOfRange(content, 9000, 10000), readAndClose(client.retrieveContent("file5", 9000, 5000)));
+    }
+
+    @Test
+    public void canNotFindAMissingFile() throws Exception {
+        assertFalse(client.checkIfExists("missing"));
+        assertNull(client.retrieveContent("missing"));
+        assertNull(client.retrieveContent("missing", 0, 10));
+    }
+
+    @Test
+    public void canDeleteAFile() throws Exception {
+        client.createOrModify(mediaFile("file6", content(100)));
+        client.delete("file6");
+
+        assertFalse(client.checkIfExists("file6"));
+        assertNull(client.retrieveContent("file6"));
+    }
+
+    @Test
+    public void canStoreAFileAsynchronously() throws Exception {
+        final byte[] content = content(1000);
+        client.createOrModifyAsync(mediaFile("file7", content)).get();
+
+        assertArrayEquals(content, readAndClose(client.retrieveContent("file7")));
+    }
+
+    @Test
+    public void canStoreAndCheckABatchOfFiles() throws Exception {
+        final List<MediaFile> mediaFiles = new ArrayList<>();
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            mediaFiles.add(mediaFile("batch" + i, content(1000 + i)));
+            ids.add("batch" + i);
+        }
+        client.createOrModifyAll(mediaFiles);
+
+        ids.add("missing");
+        final Map<String, Boolean> existing = client.checkIfExistsAll(ids);
+        assertEquals(11, existing.size());
+        for (int i = 0; i < 10; i++) {
+            assertTrue(existing.get("batch" + i));
+            assertArrayEquals(content(1000 + i), readAndClose(client.retrieveContent("batch" + i)));
+        }
+        assertFalse(existing.get("missing"));
+    }
+
+    @Test
+    public void canDeleteABatchOfFiles() throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            client.createOrModify(mediaFile("deleted" + i, content(100 + i)));
+            ids.add("deleted" + i);
+        }
+        client.createOrModify(mediaFile("kept", content(100)));
+
+        ids.add("missing");
+        client.deleteAll(ids);
+
+        for (int i = 0; i < 5; i++) {
+            assertFalse(client.checkIfExists("deleted" + i));
+        }
+        assertTrue(client.checkIfExists("kept"));
+    }
+}
@@ -1,7 +1,138 @@
 package eu.europeana.harvester.db;
 
+import com.google.common.io.ByteStreams;
+import eu.europeana.harvester.db.s3.InMemoryS3;
+import eu.europeana.harvester.db.s3.S3MediaClientStorage;
+import eu.europeana.harvester.domain.MediaFile;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
 /**
  * Created by ymamakis on 12/12/16.
  */
 public class S3MediaClientStorageTest {
+
+    private InMemoryS3 s3;
+
+    private S3MediaClientStorage client;
+
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        s3 = new InMemoryS3();
+        client = new S3MediaClientStorage(s3.client(), "bucket", 1000, 300);
+        path = Files.createTempFile("s3", ".jpg");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static MediaFile mediaFile(final byte[] content) {
+        return new MediaFile("id1", "s3", "id1.jpg", Collections.<String>emptyList(), null, "http://www.example.com/id1.jpg",
+                DateTime.now(), content, 1, "image/jpeg", Collections.<String, String>emptyMap(), null == content ? 0 : content.length);
+    }
+
+    private static byte[] content(final int length) {
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private byte[] stored() throws IOException {
+        final InputStream inputStream = client.retrieveContent("id1");
+        try {
+            return ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void canOverwriteAFileWithASingleRequest() throws Exception {
+        client.createOrModify(mediaFile(content(100)));
+        client.createOrModify(mediaFile(content(200)));
+
+        assertEquals(2, s3.requests("putObject"));
+        assertEquals(0, s3.requests("deleteObject"));
+        assertArrayEquals(content(200), stored());
+    }
+
+    @Test
+    public void canSendTheLengthAndTheMd5Upfront() throws Exception {
+        client.createOrModify(mediaFile(content(100)));
+        assertEquals(100, s3.getLastPutMetadata().getContentLength());
+        assertNotNull(s3.getLastPutMetadata().getContentMD5());
+
+        Files.write(path, content(500));
+        client.createOrModify(mediaFile(null), path);
+        assertEquals(500, s3.getLastPutMetadata().getContentLength());
+        assertNotNull(s3.getLastPutMetadata().getContentMD5());
+    }
+
+    @Test
+    public void canUploadABigFileInParts() throws Exception {
+        Files.write(path, content(1000));
+        client.createOrModify(mediaFile(null), path);
+
+        assertEquals(0, s3.requests("putObject"));
+        assertEquals(1, s3.requests("initiateMultipartUpload"));
+        assertEquals(4, s3.requests("uploadPart"));
+        assertEquals(1, s3.requests("completeMultipartUpload"));
+        assertArrayEquals(content(1000), stored());
+    }
+
+    @Test
+    public void canAbortAnUploadWhenAPartFails() throws Exception {
+        Files.write(path, content(1000));
+        s3.failPart(2);
+        try {
+            client.createOrModify(mediaFile(null), path);
+            fail();
+        } catch (IOException e) {
+        }
+
+        assertEquals(1, s3.requests("abortMultipartUpload"));
+        assertEquals(0, s3.requests("completeMultipartUpload"));
+        assertFalse(client.checkIfExists("id1"));
+    }
+
+    @Test
+    public void canRetrieveARangeWithASingleRequest() throws Exception {
+        client.createOrModify(mediaFile(content(1000)));
+
+        final InputStream range = client.retrieveContent("id1", 100, 50);
+        try {
+            assertArrayEquals(Arrays.copyOfRange(content(1000), 100, 150), ByteStreams.toByteArray(range));
+        } finally {
+            range.close();
+        }
+        assertEquals(1, s3.requests("getObject"));
+        assertEquals(0, s3.requests("doesObjectExist"));
+    }
+
+    @Test
+    public void canRetrieveAFileWithOrWithoutItsContent() throws Exception {
+        client.createOrModify(mediaFile(content(100)));
+
+        assertArrayEquals(content(100), client.retrieve("id1", true).getContent());
+        assertEquals(Integer.valueOf(100), client.retrieve("id1", false).getSize());
+        assertEquals(1, s3.requests("getObjectMetadata"));
+        assertNull(client.retrieve("missing", true));
+        assertNull(client.retrieve("missing", false));
+    }
 }
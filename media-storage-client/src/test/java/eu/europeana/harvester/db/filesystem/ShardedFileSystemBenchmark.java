@@ -0,0 +1,87 @@
+package eu.europeana.harvester.db.filesystem;
+
+import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.domain.MediaFile;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the flat {@link FileSystemMediaStorageClientImpl} with the {@link ShardedFileSystemMediaStorageClientImpl}
+ * on a storage which already holds fileCount files : the creation of a new file & the lookup of an existing one.
+ * The files are created once per trial, with 10M of them it takes a while & needs a file system with enough inodes.
+ *
+ * Run it with the main method (from the IDE or with exec:java on the test classpath), the count can be lowered with
+ * -p fileCount=100000 on the JMH command line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedFileSystemBenchmark {
+
+    public enum Layout {
+        FLAT,
+        SHARDED
+    }
+
+    @Param({"FLAT", "SHARDED"})
+    public Layout layout;
+
+    @Param({"10000000"})
+    public int fileCount;
+
+    private Path folder;
+
+    private MediaStorageClient client;
+
+    private int next;
+
+    private static MediaFile mediaFile(final int i) {
+        final byte[] content = ("content-" + i).getBytes();
+        return new MediaFile("file-" + i, "benchmark", "file-" + i + ".jpg", Collections.<String>emptyList(), null,
+                "http://www.example.com/" + i + ".jpg", DateTime.now(), content, 1, "image/jpeg",
+                Collections.<String, String>emptyMap(), content.length);
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        folder = Files.createTempDirectory("media-storage-benchmark");
+        client = layout == Layout.FLAT ? new FileSystemMediaStorageClientImpl(folder.toString()) :
+                new ShardedFileSystemMediaStorageClientImpl(folder.toString());
+        for (int i = 0; i < fileCount; i++) {
+            client.createOrModify(mediaFile(i));
+        }
+        next = fileCount;
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    @Benchmark
+    public void create() {
+        client.createOrModify(mediaFile(next++));
+    }
+
+    @Benchmark
+    public Boolean exists() {
+        return client.checkIfExists("file-" + (next++ % fileCount));
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder().include(ShardedFileSystemBenchmark.class.getSimpleName()).build()).run();
+    }
+}
@@ -0,0 +1,24 @@
+package eu.europeana.harvester.db.filesystem;
+
+import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.db.MediaStorageClientConformanceTest;
+import org.apache.commons.io.FileUtils;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+public class ShardedFileSystemMediaStorageClientConformanceTest extends MediaStorageClientConformanceTest {
+
+    private Path folder;
+
+    @Override
+    protected MediaStorageClient createClient() throws Exception {
+        folder = Files.createTempDirectory("sharded-media-storage");
+        return new ShardedFileSystemMediaStorageClientImpl(folder.toString());
+    }
+
+    @Override
+    protected void releaseClient() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+}
@@ -0,0 +1,139 @@
+package eu.europeana.harvester.db.filesystem;
+
+import eu.europeana.harvester.domain.MediaFile;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class ShardedFileSystemMediaStorageClientImplTest {
+
+    private Path folder;
+
+    private ShardedFileSystemMediaStorageClientImpl client;
+
+    @Before
+    public void setUp() throws Exception {
+        folder = Files.createTempDirectory("sharded-media-storage");
+        client = new ShardedFileSystemMediaStorageClientImpl(folder.toString());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        FileUtils.deleteDirectory(folder.toFile());
+    }
+
+    private static MediaFile mediaFile(final String id, final String content) {
+        final Map<String, String> metaData = new HashMap<>();
+        metaData.put("width", "200");
+        return new MediaFile(id, "sharded", id + ".jpg", Arrays.asList("alias1", "alias2"), null,
+                "http://www.example.com/" + id + ".jpg", new DateTime(1000L), content.getBytes(StandardCharsets.UTF_8),
+                2, "image/jpeg", metaData, content.length());
+    }
+
+    private long countFiles(final String directory) throws Exception {
+        final long[] count = {0};
+        Files.walkFileTree(folder.resolve(directory), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                count[0]++;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return count[0];
+    }
+
+    @Test
+    public void test_SameContent_IsStoredOnce() throws Exception {
+        client.createOrModify(mediaFile("id1", "the same content"));
+        client.createOrModify(mediaFile("id2", "the same content"));
+        client.createOrModify(mediaFile("id3", "another content"));
+
+        assertEquals(3, countFiles(ShardedFileSystemMediaStorageClientImpl.REFS));
+        assertEquals(2, countFiles(ShardedFileSystemMediaStorageClientImpl.BLOBS));
+        assertEquals("the same content", new String(client.retrieve("id2", true).getContent(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void test_Files_AreSharded() throws Exception {
+        client = new ShardedFileSystemMediaStorageClientImpl(folder.toString(), 3);
+        client.createOrModify(mediaFile("id1", "content"));
+
+        final String idHash = DigestUtils.md5Hex("id1");
+        final String digest = DigestUtils.sha256Hex("content");
+        assertTrue(Files.exists(folder.resolve(ShardedFileSystemMediaStorageClientImpl.REFS)
+                .resolve(idHash.substring(0, 2)).resolve(idHash.substring(2, 4)).resolve(idHash.substring(4, 6)).resolve("id1")));
+        assertTrue(Files.exists(folder.resolve(ShardedFileSystemMediaStorageClientImpl.BLOBS)
+                .resolve(digest.substring(0, 2)).resolve(digest.substring(2, 4)).resolve(digest.substring(4, 6)).resolve(digest)));
+    }
+
+    @Test
+    public void test_MetaInfos_AreKept() throws Exception {
+        client.createOrModify(mediaFile("id1", "content"));
+
+        final MediaFile retrieved = client.retrieve("id1", false);
+        assertNull(retrieved.getContent());
+        assertEquals("sharded", retrieved.getSource());
+        assertEquals("id1.jpg", retrieved.getName());
+        assertEquals(Arrays.asList("alias1", "alias2"), retrieved.getAliases());
+        assertEquals(DigestUtils.md5Hex("content"), retrieved.getContentMd5());
+        assertEquals("http://www.example.com/id1.jpg", retrieved.getOriginalUrl());
+        assertEquals(1000L, retrieved.getCreatedAt().getMillis());
+        assertEquals(Integer.valueOf(2), retrieved.getVersionNumber());
+        assertEquals("image/jpeg", retrieved.getContentType());
+        assertEquals("200", retrieved.getMetaData().get("width"));
+        assertEquals(Integer.valueOf(7), retrieved.getSize());
+    }
+
+    @Test
+    public void test_Verify_FindsMissingAndCorruptedContents() throws Exception {
+        client.createOrModify(mediaFile("id1", "content1"));
+        client.createOrModify(mediaFile("id2", "content2"));
+        final ShardedFileSystemMaintenance maintenance = new ShardedFileSystemMaintenance(folder.toString(),
+                ShardedFileSystemMediaStorageClientImpl.DEFAULT_SHARD_LEVELS);
+        assertTrue(maintenance.verify().isConsistent());
+
+        Files.delete(client.blobOf(DigestUtils.sha256Hex("content1")));
+        Files.write(client.blobOf(DigestUtils.sha256Hex("content2")), "corrupted".getBytes(StandardCharsets.UTF_8));
+
+        final ShardedFileSystemMaintenance.Report report = maintenance.verify();
+        assertFalse(report.isConsistent());
+        assertEquals(2, report.getRefs());
+        assertEquals(1, report.getMissingBlobs());
+        assertEquals(1, report.getCorruptedBlobs());
+    }
+
+    @Test
+    public void test_Compact_RemovesUnreferencedContents() throws Exception {
+        client.createOrModify(mediaFile("id1", "content1"));
+        client.createOrModify(mediaFile("id2", "content2"));
+        client.createOrModify(mediaFile("id3", "content2"));
+        client.createOrModify(mediaFile("id1", "content3"));
+        client.delete("id2");
+        Files.createTempFile(folder.resolve(ShardedFileSystemMediaStorageClientImpl.TMP), "blob", ".tmp");
+
+        final ShardedFileSystemMaintenance.Report report = new ShardedFileSystemMaintenance(folder.toString(),
+                ShardedFileSystemMediaStorageClientImpl.DEFAULT_SHARD_LEVELS).compact();
+
+        assertTrue(report.isConsistent());
+        assertEquals(1, report.getRemovedBlobs());
+        assertEquals(1, report.getRemovedTemporaryFiles());
+        assertFalse(Files.exists(client.blobOf(DigestUtils.sha256Hex("content1"))));
+        assertEquals("content2", new String(client.retrieve("id3", true).getContent(), StandardCharsets.UTF_8));
+        assertEquals("content3", new String(client.retrieve("id1", true).getContent(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,55 @@
+package eu.europeana.harvester.db.mongo;
+
+import com.mongodb.DB;
+import com.mongodb.MongoClient;
+import com.mongodb.gridfs.GridFS;
+import de.flapdoodle.embed.mongo.MongodExecutable;
+import de.flapdoodle.embed.mongo.MongodProcess;
+import de.flapdoodle.embed.mongo.MongodStarter;
+import de.flapdoodle.embed.mongo.config.MongodConfigBuilder;
+import de.flapdoodle.embed.mongo.config.Net;
+import de.flapdoodle.embed.mongo.distribution.Version;
+import de.flapdoodle.embed.process.runtime.Network;
+import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.db.MediaStorageClientConformanceTest;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+
+public class MediaStorageClientImplConformanceTest extends MediaStorageClientConformanceTest {
+
+    private static final int PORT = 12351;
+
+    private static MongodExecutable mongodExecutable;
+    private static MongodProcess mongod;
+    private static MongoClient mongoClient;
+
+    private DB db;
+
+    @BeforeClass
+    public static void startMongo() throws Exception {
+        mongodExecutable = MongodStarter.getDefaultInstance().prepare(new MongodConfigBuilder()
+                .version(Version.Main.PRODUCTION)
+                .net(new Net(PORT, Network.localhostIsIPv6()))
+                .build());
+        mongod = mongodExecutable.start();
+        mongoClient = new MongoClient("localhost", PORT);
+    }
+
+    @AfterClass
+    public static void stopMongo() {
+        mongoClient.close();
+        mongod.stop();
+        mongodExecutable.stop();
+    }
+
+    @Override
+    protected MediaStorageClient createClient() {
+        db = mongoClient.getDB("media_storage_conformance");
+        return new MediaStorageClientImpl(new GridFS(db, "media"));
+    }
+
+    @Override
+    protected void releaseClient() {
+        db.dropDatabase();
+    }
+}
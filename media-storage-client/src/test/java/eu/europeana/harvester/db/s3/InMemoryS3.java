@@ -0,0 +1,204 @@
+package eu.europeana.harvester.db.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.*;
+import com.amazonaws.util.Md5Utils;
+import com.google.common.io.ByteStreams;
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.*;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stands in for S3 in the tests : an {@link AmazonS3} which keeps the objects of a single bucket in memory. It
+ * supports the requests of {@link S3MediaClientStorage}, counts them & checks the lengths & MD5s sent upfront like S3.
+ */
+public class InMemoryS3 implements InvocationHandler {
+
+    private final ConcurrentMap<String, byte[]> objects = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ObjectMetadata> metadatas = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ConcurrentMap<Integer, byte[]>> uploads = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+    private final AtomicInteger nextUploadId = new AtomicInteger();
+
+    private volatile int failingPartNumber = -1;
+    private volatile ObjectMetadata lastPutMetadata;
+
+    public AmazonS3 client() {
+        return (AmazonS3) Proxy.newProxyInstance(AmazonS3.class.getClassLoader(), new Class<?>[]{AmazonS3.class}, this);
+    }
+
+    /**
+     * @return how many times a method of the client was called
+     */
+    public int requests(final String method) {
+        final AtomicInteger count = requests.get(method);
+        return null == count ? 0 : count.get();
+    }
+
+    public void failPart(final int partNumber) {
+        this.failingPartNumber = partNumber;
+    }
+
+    public ObjectMetadata getLastPutMetadata() {
+        return lastPutMetadata;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        requests.putIfAbsent(method.getName(), new AtomicInteger());
+        requests.get(method.getName()).incrementAndGet();
+
+        switch (method.getName()) {
+            case "doesObjectExist":
+                return objects.containsKey((String) args[1]);
+            case "getObjectMetadata":
+                return metadataOf((String) args[1]);
+            case "getObject":
+                return args[0] instanceof GetObjectRequest ? getObject((GetObjectRequest) args[0]) :
+                        getObject(new GetObjectRequest((String) args[0], (String) args[1]));
+            case "putObject":
+                return putObject((PutObjectRequest) args[0]);
+            case "deleteObject":
+                objects.remove((String) args[1]);
+                metadatas.remove((String) args[1]);
+                return null;
+            case "initiateMultipartUpload":
+                return initiateMultipartUpload((InitiateMultipartUploadRequest) args[0]);
+            case "uploadPart":
+                return uploadPart((UploadPartRequest) args[0]);
+            case "completeMultipartUpload":
+                return completeMultipartUpload((CompleteMultipartUploadRequest) args[0]);
+            case "abortMultipartUpload":
+                uploads.remove(((AbortMultipartUploadRequest) args[0]).getUploadId());
+                return null;
+            case "toString":
+                return "InMemoryS3";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private ObjectMetadata metadataOf(final String key) {
+        final ObjectMetadata metadata = metadatas.get(key);
+        if (null == metadata) {
+            throw notFound(key);
+        }
+        return metadata;
+    }
+
+    private S3Object getObject(final GetObjectRequest request) {
+        final byte[] content = objects.get(request.getKey());
+        if (null == content) {
+            throw notFound(request.getKey());
+        }
+
+        int start = 0;
+        int end = content.length;
+        if (null != request.getRange()) {
+            start = (int) Math.min(request.getRange()[0], content.length);
+            end = (int) Math.min(request.getRange()[1] + 1, content.length);
+        }
+
+        final S3Object object = new S3Object();
+        object.setBucketName(request.getBucketName());
+        object.setKey(request.getKey());
+        object.setObjectMetadata(metadataOf(request.getKey()));
+        object.setObjectContent(new ByteArrayInputStream(Arrays.copyOfRange(content, start, end)));
+        return object;
+    }
+
+    private PutObjectResult putObject(final PutObjectRequest request) throws IOException {
+        final ObjectMetadata metadata = null == request.getMetadata() ? new ObjectMetadata() : request.getMetadata();
+        final byte[] content;
+        if (null != request.getFile()) {
+            content = java.nio.file.Files.readAllBytes(request.getFile().toPath());
+        } else {
+            content = ByteStreams.toByteArray(request.getInputStream());
+        }
+
+        if (metadata.getContentLength() != content.length) {
+            throw new AmazonS3Exception("The content length " + metadata.getContentLength() + " does not match " + content.length);
+        }
+        if (null != metadata.getContentMD5() && !metadata.getContentMD5().equals(Md5Utils.md5AsBase64(content))) {
+            throw new AmazonS3Exception("BadDigest");
+        }
+
+        lastPutMetadata = metadata;
+        store(request.getKey(), content, metadata.getContentType());
+        return new PutObjectResult();
+    }
+
+    private InitiateMultipartUploadResult initiateMultipartUpload(final InitiateMultipartUploadRequest request) {
+        final String uploadId = request.getKey() + "-" + nextUploadId.incrementAndGet();
+        uploads.put(uploadId, new ConcurrentHashMap<Integer, byte[]>());
+
+        final InitiateMultipartUploadResult result = new InitiateMultipartUploadResult();
+        result.setUploadId(uploadId);
+        return result;
+    }
+
+    private UploadPartResult uploadPart(final UploadPartRequest request) throws IOException {
+        if (request.getPartNumber() == failingPartNumber) {
+            throw new AmazonS3Exception("InternalError");
+        }
+        final ConcurrentMap<Integer, byte[]> parts = uploads.get(request.getUploadId());
+        if (null == parts) {
+            throw new AmazonS3Exception("NoSuchUpload");
+        }
+
+        final byte[] part = new byte[(int) request.getPartSize()];
+        final RandomAccessFile file = new RandomAccessFile(request.getFile(), "r");
+        try {
+            file.seek(request.getFileOffset());
+            file.readFully(part);
+        } finally {
+            file.close();
+        }
+        parts.put(request.getPartNumber(), part);
+
+        final UploadPartResult result = new UploadPartResult();
+        result.setPartNumber(request.getPartNumber());
+        result.setETag(Hex.encodeHexString(Md5Utils.computeMD5Hash(part)));
+        return result;
+    }
+
+    private CompleteMultipartUploadResult completeMultipartUpload(final CompleteMultipartUploadRequest request) throws IOException {
+        final ConcurrentMap<Integer, byte[]> parts = uploads.remove(request.getUploadId());
+        if (null == parts) {
+            throw new AmazonS3Exception("NoSuchUpload");
+        }
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        for (final PartETag partETag : request.getPartETags()) {
+            content.write(parts.get(partETag.getPartNumber()));
+        }
+        store(request.getKey(), content.toByteArray(), null);
+        return new CompleteMultipartUploadResult();
+    }
+
+    private void store(final String key, final byte[] content, final String contentType) {
+        final ObjectMetadata stored = new ObjectMetadata();
+        stored.setContentLength(content.length);
+        stored.setContentType(contentType);
+        stored.setHeader("ETag", Hex.encodeHexString(Md5Utils.computeMD5Hash(content)));
+        objects.put(key, content);
+        metadatas.put(key, stored);
+    }
+
+    private static AmazonS3Exception notFound(final String key) {
+        final AmazonS3Exception exception = new AmazonS3Exception("The object " + key + " does not exist");
+        exception.setStatusCode(404);
+        return exception;
+    }
+}
@@ -0,0 +1,13 @@
+package eu.europeana.harvester.db.s3;
+
+import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.db.MediaStorageClientConformanceTest;
+
+public class S3MediaClientStorageConformanceTest extends MediaStorageClientConformanceTest {
+
+    @Override
+    protected MediaStorageClient createClient() {
+        // Small parts so that the files of the suite which come from the disk are uploaded in parts too
+        return new S3MediaClientStorage(new InMemoryS3().client(), "bucket", 10000, 4000);
+    }
+}
@@ -0,0 +1,243 @@
+package eu.europeana.harvester.db.swift;
+
+import com.google.common.collect.ImmutableMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.ByteStreams;
+import org.jclouds.http.options.GetOptions;
+import org.jclouds.io.Payload;
+import org.jclouds.openstack.swift.v1.SwiftApi;
+import org.jclouds.openstack.swift.v1.domain.BulkDeleteResponse;
+import org.jclouds.openstack.swift.v1.domain.Segment;
+import org.jclouds.openstack.swift.v1.domain.SwiftObject;
+import org.jclouds.openstack.swift.v1.features.BulkApi;
+import org.jclouds.openstack.swift.v1.features.ObjectApi;
+import org.jclouds.openstack.swift.v1.features.StaticLargeObjectApi;
+import org.jclouds.openstack.swift.v1.options.PutOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URI;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.jclouds.io.Payloads.newByteArrayPayload;
+
+/**
+ * Stands in for Swift in the tests : a {@link SwiftApi} which keeps the objects of a single container in memory. It
+ * supports the requests of {@link SwiftMediaStorageClientImpl}, counts them & checks the lengths sent upfront & the
+ * segments of the manifests like Swift.
+ */
+public class InMemorySwift implements InvocationHandler {
+
+    private static final String METADATA_PREFIX = "x-object-meta-";
+
+    private static class StoredObject {
+        private final byte[] content;
+        private final Map<String, String> metadata;
+        private final HashCode etag;
+
+        private StoredObject(final byte[] content, final Map<String, String> metadata, final HashCode etag) {
+            this.content = content;
+            this.metadata = metadata;
+            this.etag = etag;
+        }
+    }
+
+    private final String containerName;
+
+    private final ConcurrentMap<String, StoredObject> objects = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicInteger> requests = new ConcurrentHashMap<>();
+
+    private volatile String failingPutSuffix;
+    private volatile boolean failingReplaceManifest;
+
+    public InMemorySwift(final String containerName) {
+        this.containerName = containerName;
+    }
+
+    public SwiftApi api() {
+        return proxy(SwiftApi.class);
+    }
+
+    /**
+     * @return how many times a method of the api was called
+     */
+    public int requests(final String method) {
+        final AtomicInteger count = requests.get(method);
+        return null == count ? 0 : count.get();
+    }
+
+    /**
+     * @return the names of all the objects of the container, segments included
+     */
+    public Set<String> objectNames() {
+        return new TreeSet<>(objects.keySet());
+    }
+
+    /**
+     * Fails the uploads of the objects whose names end with the suffix.
+     */
+    public void failPut(final String suffix) {
+        this.failingPutSuffix = suffix;
+    }
+
+    /**
+     * Fails the uploads of the manifests.
+     */
+    public void failReplaceManifest() {
+        this.failingReplaceManifest = true;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        requests.putIfAbsent(method.getName(), new AtomicInteger());
+        requests.get(method.getName()).incrementAndGet();
+
+        switch (method.getName()) {
+            case "getObjectApi":
+                return proxy(ObjectApi.class);
+            case "getStaticLargeObjectApi":
+                return proxy(StaticLargeObjectApi.class);
+            case "getBulkApi":
+                return proxy(BulkApi.class);
+            case "get":
+                return get((String) args[0], args.length > 1 ? (GetOptions) args[1] : null, true);
+            case "getWithoutBody":
+                return get((String) args[0], null, false);
+            case "put":
+                return put((String) args[0], (Payload) args[1], args.length > 2 ? (PutOptions) args[2] : null);
+            case "delete":
+                objects.remove((String) args[0]);
+                return null;
+            case "replaceManifest":
+                return replaceManifest((String) args[0], (List<Segment>) args[1], (Map<String, String>) args[2]);
+            case "bulkDelete":
+                return bulkDelete((Iterable<String>) args[0]);
+            case "close":
+                return null;
+            case "toString":
+                return "InMemorySwift";
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            case "equals":
+                return proxy == args[0];
+            default:
+                throw new UnsupportedOperationException(method.getName());
+        }
+    }
+
+    private <T> T proxy(final Class<T> api) {
+        return api.cast(Proxy.newProxyInstance(api.getClassLoader(), new Class<?>[]{api}, this));
+    }
+
+    private SwiftObject get(final String name, final GetOptions options, final boolean withBody) {
+        final StoredObject object = objects.get(name);
+        if (null == object) {
+            return null;
+        }
+
+        byte[] content = withBody ? object.content : new byte[0];
+        if (null != options && options.buildRequestHeaders().containsKey("Range")) {
+            // bytes=<first>-<last>, the last one included
+            final String[] range = options.buildRequestHeaders().get("Range").iterator().next().substring("bytes=".length()).split("-");
+            final int start = (int) Math.min(Long.parseLong(range[0]), content.length);
+            final int end = (int) Math.min(Long.parseLong(range[1]) + 1, content.length);
+            content = Arrays.copyOfRange(content, start, end);
+        }
+
+        final Payload payload = newByteArrayPayload(content);
+        payload.getContentMetadata().setContentMD5(object.etag);
+        return SwiftObject.builder()
+                .name(name)
+                .uri(URI.create("http://swift.example.com/" + containerName + "/" + name))
+                .etag(object.etag.toString())
+                .lastModified(new Date())
+                .headers(ImmutableMultimap.<String, String>of())
+                .metadata(object.metadata)
+                .payload(payload)
+                .build();
+    }
+
+    private String put(final String name, final Payload payload, final PutOptions options) throws IOException {
+        if (null != failingPutSuffix && name.endsWith(failingPutSuffix)) {
+            throw new IllegalStateException("Swift refused " + name);
+        }
+
+        final byte[] content;
+        final InputStream inputStream = payload.openStream();
+        try {
+            content = ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+        final Long contentLength = payload.getContentMetadata().getContentLength();
+        if (null != contentLength && contentLength != content.length) {
+            throw new IllegalStateException("The content length " + contentLength + " does not match " + content.length);
+        }
+
+        final Map<String, String> metadata = new HashMap<>();
+        if (null != options) {
+            for (final Map.Entry<String, String> header : options.buildRequestHeaders().entries()) {
+                final String key = header.getKey().toLowerCase(Locale.ENGLISH);
+                if (key.startsWith(METADATA_PREFIX)) {
+                    metadata.put(key.substring(METADATA_PREFIX.length()), header.getValue());
+                }
+            }
+        }
+        return store(name, content, metadata, md5(content));
+    }
+
+    private String replaceManifest(final String name, final List<Segment> segments, final Map<String, String> metadata) throws IOException {
+        if (failingReplaceManifest) {
+            throw new IllegalStateException("Swift refused the manifest of " + name);
+        }
+
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        final StringBuilder etags = new StringBuilder();
+        for (final Segment segment : segments) {
+            final StoredObject stored = objects.get(segment.getPath().substring(containerName.length() + 1));
+            if (null == stored || !stored.etag.toString().equals(segment.getEtag()) || stored.content.length != segment.getSizeBytes()) {
+                throw new IllegalStateException("The segment " + segment.getPath() + " does not match");
+            }
+            content.write(stored.content);
+            etags.append(stored.etag);
+        }
+
+        final Map<String, String> lowerCaseMetadata = new HashMap<>();
+        for (final Map.Entry<String, String> entry : metadata.entrySet()) {
+            lowerCaseMetadata.put(entry.getKey().toLowerCase(Locale.ENGLISH), entry.getValue());
+        }
+        // Like Swift, the ETag of a manifest is the MD5 of the ETags of its segments
+        return store(name, content.toByteArray(), lowerCaseMetadata, md5(etags.toString().getBytes("UTF-8")));
+    }
+
+    private BulkDeleteResponse bulkDelete(final Iterable<String> paths) {
+        int deleted = 0;
+        int notFound = 0;
+        for (final String path : paths) {
+            if (null == objects.remove(path.substring(containerName.length() + 1))) {
+                notFound++;
+            } else {
+                deleted++;
+            }
+        }
+        return new BulkDeleteResponse(deleted, notFound, Collections.<String, String>emptyMap());
+    }
+
+    private String store(final String name, final byte[] content, final Map<String, String> metadata, final HashCode etag) {
+        objects.put(name, new StoredObject(content, Collections.unmodifiableMap(metadata), etag));
+        return etag.toString();
+    }
+
+    private static HashCode md5(final byte[] content) {
+        return Hashing.md5().hashBytes(content);
+    }
+}
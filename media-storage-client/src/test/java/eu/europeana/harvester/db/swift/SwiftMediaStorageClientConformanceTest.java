@@ -0,0 +1,13 @@
+package eu.europeana.harvester.db.swift;
+
+import eu.europeana.harvester.db.MediaStorageClient;
+import eu.europeana.harvester.db.MediaStorageClientConformanceTest;
+
+public class SwiftMediaStorageClientConformanceTest extends MediaStorageClientConformanceTest {
+
+    @Override
+    protected MediaStorageClient createClient() {
+        // Small segments so that the files of the suite which come from the disk are uploaded in segments too
+        return new SwiftMediaStorageClientImpl(new InMemorySwift("container").api(), "region", "container", 10000, 4000, 4);
+    }
+}
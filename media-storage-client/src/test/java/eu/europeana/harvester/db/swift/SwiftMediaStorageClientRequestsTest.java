@@ -0,0 +1,162 @@
+package eu.europeana.harvester.db.swift;
+
+import com.google.common.io.ByteStreams;
+import eu.europeana.harvester.domain.MediaFile;
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SwiftMediaStorageClientRequestsTest {
+
+    private InMemorySwift swift;
+
+    private SwiftMediaStorageClientImpl client;
+
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        swift = new InMemorySwift("container");
+        client = new SwiftMediaStorageClientImpl(swift.api(), "region", "container", 1000, 300, 4);
+        path = Files.createTempFile("swift", ".jpg");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(path);
+    }
+
+    private static MediaFile mediaFile(final String id, final byte[] content) {
+        return new MediaFile(id, "swift", id + ".jpg", Collections.<String>emptyList(), null, "http://www.example.com/" + id + ".jpg",
+                DateTime.now(), content, 1, "image/jpeg", Collections.<String, String>emptyMap(), null == content ? 0 : content.length);
+    }
+
+    private static byte[] content(final int length) {
+        final byte[] content = new byte[length];
+        new Random(length).nextBytes(content);
+        return content;
+    }
+
+    private byte[] stored(final String id) throws IOException {
+        final InputStream inputStream = client.retrieveContent(id);
+        try {
+            return ByteStreams.toByteArray(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    @Test
+    public void canOverwriteAFileWithASingleUpload() throws Exception {
+        client.createOrModify(mediaFile("id1", content(100)));
+        client.createOrModify(mediaFile("id1", content(200)));
+
+        assertEquals(2, swift.requests("put"));
+        assertEquals(0, swift.requests("getWithoutBody"));
+        assertEquals(0, swift.requests("delete"));
+        assertEquals(0, swift.requests("bulkDelete"));
+        assertArrayEquals(content(200), stored("id1"));
+    }
+
+    @Test
+    public void canOverwriteABigFileWithoutLeavingItsSegments() throws Exception {
+        Files.write(path, content(1000));
+        client.createOrModify(mediaFile("id1", null), path);
+        Files.write(path, content(200));
+        client.createOrModify(mediaFile("id1", null), path);
+
+        assertArrayEquals(content(200), stored("id1"));
+        assertEquals(Collections.singleton("id1"), swift.objectNames());
+    }
+
+    @Test
+    public void canUploadABigFileInSegments() throws Exception {
+        Files.write(path, content(1000));
+        client.createOrModify(mediaFile("id1", null), path);
+
+        assertEquals(4, swift.requests("put"));
+        assertEquals(1, swift.requests("replaceManifest"));
+        assertArrayEquals(content(1000), stored("id1"));
+        // The MD5 of a segmented file is not the one of its content
+        assertArrayEquals(content(1000), client.retrieve("id1", true).getContent());
+        assertEquals(Integer.valueOf(1000), client.retrieve("id1", false).getSize());
+    }
+
+    @Test
+    public void canReplaceABigFileWithoutLeavingItsSegments() throws Exception {
+        Files.write(path, content(1000));
+        client.createOrModify(mediaFile("id1", null), path);
+        Files.write(path, content(1500));
+        client.createOrModify(mediaFile("id1", null), path);
+
+        assertArrayEquals(content(1500), stored("id1"));
+        assertEquals(1 + 5, swift.objectNames().size());
+
+        client.delete("id1");
+        assertTrue(swift.objectNames().isEmpty());
+    }
+
+    @Test
+    public void canDeleteTheSegmentsWhenASegmentFails() throws Exception {
+        Files.write(path, content(1000));
+        swift.failPut("00000002");
+        try {
+            client.createOrModify(mediaFile("id1", null), path);
+            fail();
+        } catch (IOException e) {
+        }
+
+        assertEquals(0, swift.requests("replaceManifest"));
+        assertTrue(swift.objectNames().isEmpty());
+    }
+
+    @Test
+    public void canDeleteTheSegmentsWhenTheManifestFails() throws Exception {
+        Files.write(path, content(1000));
+        swift.failReplaceManifest();
+        try {
+            client.createOrModify(mediaFile("id1", null), path);
+            fail();
+        } catch (IOException e) {
+        }
+
+        assertEquals(4, swift.requests("put"));
+        assertTrue(swift.objectNames().isEmpty());
+    }
+
+    @Test
+    public void canDeleteABatchOfFilesWithASingleRequest() throws Exception {
+        final List<String> ids = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            client.createOrModify(mediaFile("id" + i, content(10)));
+            ids.add("id" + i);
+        }
+
+        client.deleteAll(ids);
+
+        assertEquals(1, swift.requests("bulkDelete"));
+        assertEquals(0, swift.requests("delete"));
+        assertTrue(swift.objectNames().isEmpty());
+    }
+
+    @Test
+    public void canDeleteABatchOfFilesWithTheirSegments() throws Exception {
+        Files.write(path, content(1000));
+        client.createOrModify(mediaFile("id1", null), path);
+        client.createOrModify(mediaFile("id2", content(10)));
+
+        client.deleteAll(Arrays.asList("id1", "id2", "missing"));
+
+        assertEquals(1, swift.requests("bulkDelete"));
+        assertTrue(swift.objectNames().isEmpty());
+    }
+}